@@ -1,31 +1,143 @@
 package com.github.sqrlserverjava;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.sqrlserverjava.SqrlAuthStatusEventBus.SqrlAuthStatusListener;
 import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
-import com.github.sqrlserverjava.util.SelfExpiringHashMap;
+import com.github.sqrlserverjava.persistence.SqrlTimeOrderedIdGenerator;
+import com.github.sqrlserverjava.util.SqrlServiceExecutor;
 
-public class AuthStateMonitor implements Runnable {
+/**
+ * Checks persistence for status changes to the correlators browsers are waiting on. Each correlator is checked on its
+ * own schedule as computed by {@link AuthStatePollingPolicy}, and a run is only scheduled while there is something to
+ * monitor.
+ * <p>
+ * When {@link SqrlConfig#getAuthSyncChangeFeedOverlapMillis()} is set, every run asks for all correlators changed
+ * since the previous run and matches them against the monitored correlators. With
+ * {@link SqrlConfig#getAuthSyncClusterLeaseMillis()} also set, the change feed is read once for the whole cluster by
+ * {@link SqrlClusterStatusPoller}, which hands the changes to {@link #clusterStatusChanged(Map)}. Either way each
+ * correlator is still checked individually when first monitored, to pick up changes made before then, and again every
+ * safety net interval. Change sequences come from each server's clock when the change is made, not when it commits,
+ * so a change which commits later than the overlap or from a server whose clock is further behind never appears in
+ * the feed; the safety net check still finds it.
+ * <p>
+ * Correlators are split into {@link SqrlConfig#getAuthSyncPartitionCount()} hash partitions. Each partition's due
+ * correlators are checked with their own query, at most {@link SqrlConfig#getAuthSyncMaxChecksPerPartition()} of them
+ * per run so a run keeps to its tick, and partitions are checked in parallel when
+ * {@link SqrlConfig#getAuthSyncPartitionThreads()} is set
+ *
+ * @author Dave Badia
+ *
+ */
+public class AuthStateMonitor implements Runnable, SqrlAuthStatusListener {
 	private static final Logger logger = LoggerFactory.getLogger(AuthStateMonitor.class);
 
-	private final SqrlClientAuthStateUpdater			clientAuthStateUpdater;
+	private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(1);
+
+	private final SqrlAuthStatusDispatcher				statusDispatcher;
 	private final SqrlServerOperations					sqrlServerOperations;
+	private final AuthStatePollingPolicy				pollingPolicy;
+	private final long									changeFeedOverlapMillis;
+	/**
+	 * How often each correlator is still checked individually when the change feed is enabled
+	 */
+	private final long									safetyNetMillis;
+	private final boolean								clusterPolled;
+	private final int									partitionCount;
+	private final int									maxChecksPerPartition;
+	/**
+	 * null when partitions are checked on the monitor thread
+	 */
+	private final ExecutorService						partitionPool;
+	/**
+	 * The correlators to be monitored for state changes and the auth status reported by each browser. Registrations
+	 * expire automatically
+	 */
+	private final AuthStateMonitorRegistry				monitorRegistry;
+	/**
+	 * When each monitored correlator is next due to be checked. Entries for correlators which have left
+	 * monitorRegistry are dropped on the next run
+	 */
+	private final Map<String, CorrelatorPollSchedule>	pollScheduleTable	= new ConcurrentHashMap<>();
+	private final List<SqrlAuthStatusListener>			statusListenerList	= new CopyOnWriteArrayList<>();
+	private final Object								runLock				= new Object();
 	/**
-	 * Table of correlators to be monitored for state changes. key is a correlator string, value is the auth status
-	 * reported by the browser. Entries in this table expire automatically
+	 * Guarded by runLock
 	 */
-	private final Map<String, SqrlAuthenticationStatus>	monitorTable;
+	private long										lastChangeFeedCheckAt;
+	/**
+	 * true if the last run left due correlators unchecked
+	 */
+	private volatile boolean							checksDeferred		= false;
+
+	/**
+	 * Guarded by this
+	 */
+	private SqrlServiceExecutor							executor;
+	private ScheduledFuture<?>							nextRunFuture;
+	private long										nextRunAt;
+
+	private final AtomicLong	tickCount		= new AtomicLong();
+	private final AtomicLong	overrunCount	= new AtomicLong();
+	private final AtomicLong	deferredCount	= new AtomicLong();
+	private volatile long		lastTickMillis	= 0;
+	private final AtomicLong	maxTickMillis	= new AtomicLong();
 
 	public AuthStateMonitor(final SqrlConfig sqrlConfig, final SqrlServerOperations sqrlServerOperations,
 			final SqrlClientAuthStateUpdater clientAuthStateUpdater) {
-		this.clientAuthStateUpdater = clientAuthStateUpdater;
+		this.statusDispatcher = SqrlAuthStatusDispatcher.fromConfig(sqrlConfig, clientAuthStateUpdater);
 		this.sqrlServerOperations = sqrlServerOperations;
-		monitorTable = new SelfExpiringHashMap<>(TimeUnit.SECONDS.toMillis(sqrlConfig.getNutValidityInSeconds()));
+		this.pollingPolicy = AuthStatePollingPolicy.fromConfig(sqrlConfig);
+		this.changeFeedOverlapMillis = sqrlConfig.getAuthSyncChangeFeedOverlapMillis();
+		// As slow as the slowest regular check, but no more often than the feed already reaches back
+		this.safetyNetMillis = Math.max(pollingPolicy.getTickMillis(),
+				Math.max(pollingPolicy.getMaxIntervalMillis(), changeFeedOverlapMillis));
+		this.clusterPolled = sqrlConfig.getAuthSyncClusterLeaseMillis() > 0;
+		this.lastChangeFeedCheckAt = System.currentTimeMillis();
+		this.partitionCount = Math.max(1, sqrlConfig.getAuthSyncPartitionCount());
+		this.maxChecksPerPartition = Math.max(1, sqrlConfig.getAuthSyncMaxChecksPerPartition());
+		if (sqrlConfig.getAuthSyncPartitionThreads() > 0) {
+			this.partitionPool = Executors.newFixedThreadPool(sqrlConfig.getAuthSyncPartitionThreads(), r -> {
+				final Thread thread = new Thread(r, "Sqrl Auth State Check #" + THREAD_COUNTER.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else {
+			this.partitionPool = null;
+		}
+		monitorRegistry = new AuthStateMonitorRegistry(
+				TimeUnit.SECONDS.toMillis(sqrlConfig.getNutValidityInSeconds()));
+	}
+
+	/**
+	 * Starts scheduling runs on the given executor. Until this is called correlators are only updated by
+	 * {@link #authStatusChanged(String, SqrlAuthenticationStatus)} or by invoking {@link #run()} directly
+	 */
+	public synchronized void start(final SqrlServiceExecutor executor) {
+		this.executor = executor;
+		monitorRegistry.startExpiry(executor);
+		if (!monitorRegistry.isEmpty()) {
+			scheduleRun(0);
+		}
 	}
 
 	/**
@@ -40,45 +152,517 @@ public class AuthStateMonitor implements Runnable {
 	 */
 	public void monitorCorrelatorForChange(final String correlatorString,
 			final SqrlAuthenticationStatus browserStatus) {
-		monitorTable.put(correlatorString, browserStatus);
+		monitorRegistry.register(correlatorString, browserStatus);
+		schedulePoll(correlatorString, browserStatus);
+	}
+
+	/**
+	 * Like {@link #monitorCorrelatorForChange(String, SqrlAuthenticationStatus)}, but leaves an existing registration
+	 * alone. For callers which read the status from persistence rather than from the browser, since overwriting the
+	 * status the browser last saw would swallow the push of a change made elsewhere
+	 */
+	public void monitorCorrelatorIfAbsent(final String correlatorString,
+			final SqrlAuthenticationStatus currentStatus) {
+		if (monitorRegistry.registerIfAbsent(correlatorString, currentStatus)) {
+			schedulePoll(correlatorString, currentStatus);
+		}
+	}
+
+	private void schedulePoll(final String correlatorString, final SqrlAuthenticationStatus browserStatus) {
+		final long now = System.currentTimeMillis();
+		final long nextPollAt = pollScheduleTable
+				.computeIfAbsent(correlatorString, k -> new CorrelatorPollSchedule(now))
+				.statusObserved(browserStatus, now, pollingPolicy);
+		scheduleRun(isChangeFeedEnabled() ? pollingPolicy.getTickMillis() : nextPollAt - now);
 	}
 
 	public void stopMonitoringCorrelator(final String correlatorString) {
-		if (correlatorString != null && monitorTable.remove(correlatorString) == null) {
+		if (correlatorString == null) {
+			return;
+		}
+		pollScheduleTable.remove(correlatorString);
+		if (monitorRegistry.remove(correlatorString) == null) {
 			logger.debug(
-					"Tried to remove correlator {} from monitorTable but it wasn't present, was probably already removed",
+					"Tried to remove correlator {} from monitorRegistry but it wasn't present, was probably already removed",
 					correlatorString);
 		}
 	}
 
+	/**
+	 * Pushes a status change committed by this JVM to the browser without waiting for the next poll. Correlators which
+	 * aren't being monitored are ignored
+	 */
+	@Override
+	public void authStatusChanged(final String correlatorString, final SqrlAuthenticationStatus newAuthStatus) {
+		final SqrlAuthenticationStatus oldStatus;
+		if (newAuthStatus.isUpdatesForThisCorrelatorComplete()) {
+			// Removal is atomic so only one of the poller or the event will push a final status
+			oldStatus = monitorRegistry.remove(correlatorString);
+			pollScheduleTable.remove(correlatorString);
+		} else {
+			oldStatus = monitorRegistry.get(correlatorString);
+			final CorrelatorPollSchedule schedule = pollScheduleTable.get(correlatorString);
+			if (schedule != null) {
+				schedule.statusObserved(newAuthStatus, System.currentTimeMillis(), pollingPolicy);
+			}
+		}
+		if (oldStatus == null || oldStatus == newAuthStatus) {
+			return;
+		}
+		statusDispatcher.dispatch(
+				new SqrlAuthStatusUpdate(correlatorString, oldStatus, newAuthStatus, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Adds a listener which is told about every change found in persistence, after it has been dispatched to the
+	 * {@link SqrlClientAuthStateUpdater}. Changes committed by this JVM are not repeated here, they are already on the
+	 * {@link SqrlAuthStatusEventBus}
+	 */
+	public void addStatusListener(final SqrlAuthStatusListener listener) {
+		statusListenerList.add(listener);
+	}
+
+	/**
+	 * @return the dispatcher which delivers changes to the {@link SqrlClientAuthStateUpdater}, for its metrics
+	 */
+	public SqrlAuthStatusDispatcher getStatusDispatcher() {
+		return statusDispatcher;
+	}
+
+	/**
+	 * Checks the correlators which are due and pushes any changes to the browser
+	 */
 	@Override
 	public void run() {
-		try {
-			if (monitorTable.isEmpty()) {
-				return;
+		synchronized (runLock) {
+			try {
+				final Map<String, SqrlAuthenticationStatus> monitorSnapshot = monitorRegistry.snapshot();
+				if (monitorSnapshot.isEmpty()) {
+					pollScheduleTable.clear();
+					return;
+				}
+				final long tickStart = System.currentTimeMillis();
+				checkDueCorrelators(monitorSnapshot, tickStart);
+				recordTick(System.currentTimeMillis() - tickStart);
+			} catch (final Throwable t) { // Don't let anything escape
+				logger.error("Caught exception in SqrlAuthMonitor.run()", t);
+			}
+		}
+	}
+
+	private void runScheduled() {
+		synchronized (this) {
+			nextRunFuture = null;
+		}
+		run();
+		scheduleNextRun();
+	}
+
+	private void checkDueCorrelators(final Map<String, SqrlAuthenticationStatus> monitorSnapshot, final long now) {
+		final List<List<DueCheck>> partitionList = new ArrayList<>(partitionCount);
+		for (int i = 0; i < partitionCount; i++) {
+			partitionList.add(new ArrayList<>());
+		}
+		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : monitorSnapshot.entrySet()) {
+			final CorrelatorPollSchedule schedule = pollScheduleTable.computeIfAbsent(entry.getKey(),
+					k -> new CorrelatorPollSchedule(now));
+			final boolean due = isChangeFeedEnabled() ? schedule.isFeedCheckDue(now) : schedule.isDue(now);
+			if (due) {
+				final long dueAt = isChangeFeedEnabled() ? schedule.getFeedCheckDueAt() : schedule.getDueAt();
+				partitionList.get(Math.floorMod(entry.getKey().hashCode(), partitionCount))
+						.add(new DueCheck(entry.getKey(), entry.getValue(), schedule, dueAt));
+			}
+		}
+		// Not retainAll(monitorSnapshot), correlators may have registered since the snapshot was taken
+		pollScheduleTable.keySet().removeIf(correlator -> !monitorRegistry.isRegistered(correlator));
+
+		final long deferredBefore = deferredCount.get();
+		final List<Map<String, SqrlAuthenticationStatus>> dueTableList = new ArrayList<>();
+		int dueCount = 0;
+		for (final List<DueCheck> candidateList : partitionList) {
+			final Map<String, SqrlAuthenticationStatus> dueTable = selectDue(candidateList, now);
+			if (!dueTable.isEmpty()) {
+				dueTableList.add(dueTable);
+				dueCount += dueTable.size();
+			}
+		}
+		checksDeferred = deferredCount.get() != deferredBefore;
+		logger.debug("SQRL auth state check monitored={} due={} partitions={}", pollScheduleTable.size(), dueCount,
+				dueTableList.size());
+
+		// Map<String=correlator,...
+		final Map<String, SqrlAuthenticationStatus> statusChangedTable = new HashMap<>();
+		for (final Map<String, SqrlAuthenticationStatus> resultTable : fetchStatusUpdates(dueTableList)) {
+			statusChangedTable.putAll(resultTable);
+		}
+		if (isChangeFeedEnabled() && !clusterPolled) {
+			statusChangedTable.putAll(fetchChangeFeed(now));
+		}
+		pushStatusChanges(statusChangedTable, now);
+	}
+
+	/**
+	 * Picks the correlators of one partition to check this run, the most overdue first if there are more than
+	 * maxChecksPerPartition. Those left out keep their schedule, so they are still due next run
+	 */
+	private Map<String, SqrlAuthenticationStatus> selectDue(final List<DueCheck> candidateList, final long now) {
+		if (candidateList.size() > maxChecksPerPartition) {
+			candidateList.sort(Comparator.comparingLong(check -> check.dueAt));
+			deferredCount.addAndGet(candidateList.size() - maxChecksPerPartition);
+		}
+		final Map<String, SqrlAuthenticationStatus> dueTable = new HashMap<>();
+		for (final DueCheck check : candidateList.subList(0, Math.min(candidateList.size(), maxChecksPerPartition))) {
+			final boolean due = isChangeFeedEnabled() ? check.schedule.feedCheckIfDue(now, safetyNetMillis)
+					: check.schedule.pollIfDue(check.browserStatus, now, pollingPolicy);
+			if (due) {
+				dueTable.put(check.correlatorString, check.browserStatus);
 			}
+		}
+		return dueTable;
+	}
 
-			// Map<String=correlator,...
-			final Map<String, SqrlAuthenticationStatus> statusChangedTable = sqrlServerOperations
-					.fetchSqrlCorrelatorStatusUpdates(Collections.unmodifiableMap(monitorTable));
-			logger.debug("SQRL statusChangedTable={}", statusChangedTable);
-			for (final Map.Entry<String, SqrlAuthenticationStatus> entry : statusChangedTable.entrySet()) {
-				final String correlator = entry.getKey();
-				final SqrlAuthenticationStatus newState = entry.getValue();
-				SqrlAuthenticationStatus oldStatus = null;
-				if (newState.isUpdatesForThisCorrelatorComplete()) {
-					oldStatus = monitorTable.remove(correlator);
-				} else {
-					oldStatus = monitorTable.get(correlator);
+	/**
+	 * Runs one query per partition, in parallel if there is a pool. A partition whose query fails is checked again
+	 * when next due
+	 */
+	private List<Map<String, SqrlAuthenticationStatus>> fetchStatusUpdates(
+			final List<Map<String, SqrlAuthenticationStatus>> dueTableList) {
+		final List<Map<String, SqrlAuthenticationStatus>> resultList = new ArrayList<>(dueTableList.size());
+		if (partitionPool == null || dueTableList.size() == 1) {
+			for (final Map<String, SqrlAuthenticationStatus> dueTable : dueTableList) {
+				resultList.add(sqrlServerOperations
+						.fetchSqrlCorrelatorStatusUpdates(Collections.unmodifiableMap(dueTable)));
+			}
+			return resultList;
+		}
+		final List<Future<Map<String, SqrlAuthenticationStatus>>> futureList = new ArrayList<>(dueTableList.size());
+		for (final Map<String, SqrlAuthenticationStatus> dueTable : dueTableList) {
+			futureList.add(partitionPool.submit(() -> sqrlServerOperations
+					.fetchSqrlCorrelatorStatusUpdates(Collections.unmodifiableMap(dueTable))));
+		}
+		for (final Future<Map<String, SqrlAuthenticationStatus>> future : futureList) {
+			try {
+				resultList.add(future.get());
+			} catch (final ExecutionException e) {
+				logger.error("Error checking a partition of monitored correlators", e.getCause());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return resultList;
+	}
+
+	private void recordTick(final long tickMillis) {
+		tickCount.incrementAndGet();
+		lastTickMillis = tickMillis;
+		maxTickMillis.accumulateAndGet(tickMillis, Math::max);
+		if (tickMillis > pollingPolicy.getTickMillis()) {
+			overrunCount.incrementAndGet();
+			logger.warn("SQRL auth state check took {} ms, longer than the {} ms tick", tickMillis,
+					pollingPolicy.getTickMillis());
+		}
+	}
+
+	/**
+	 * @return the number of runs which checked persistence
+	 */
+	public long getTickCount() {
+		return tickCount.get();
+	}
+
+	/**
+	 * @return the number of runs which took longer than the tick
+	 */
+	public long getOverrunCount() {
+		return overrunCount.get();
+	}
+
+	/**
+	 * @return the duration of the most recent run
+	 */
+	public long getLastTickMillis() {
+		return lastTickMillis;
+	}
+
+	/**
+	 * @return the duration of the longest run
+	 */
+	public long getMaxTickMillis() {
+		return maxTickMillis.get();
+	}
+
+	/**
+	 * @return the number of due checks put off to a later run by the per partition limit
+	 */
+	public long getDeferredCount() {
+		return deferredCount.get();
+	}
+
+	/**
+	 * Stops the partition and dispatch pools
+	 */
+	public void shutdown() {
+		if (partitionPool != null) {
+			partitionPool.shutdown();
+		}
+		statusDispatcher.shutdown();
+	}
+
+	/**
+	 * Invoked by {@link SqrlClusterStatusPoller} with changes read from the change feed on behalf of the cluster. The
+	 * table includes correlators monitored by other nodes, only ours are pushed
+	 */
+	public void clusterStatusChanged(final Map<String, SqrlAuthenticationStatus> changedTable) {
+		synchronized (runLock) {
+			pushStatusChanges(filterMonitored(changedTable), System.currentTimeMillis());
+		}
+	}
+
+	private void pushStatusChanges(final Map<String, SqrlAuthenticationStatus> statusChangedTable, final long now) {
+		if (statusChangedTable.isEmpty()) {
+			return;
+		}
+		logger.debug("SQRL statusChangedTable={}", statusChangedTable);
+		final List<SqrlAuthStatusUpdate> updateList = new ArrayList<>(statusChangedTable.size());
+		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : statusChangedTable.entrySet()) {
+			final String correlator = entry.getKey();
+			final SqrlAuthenticationStatus newState = entry.getValue();
+			SqrlAuthenticationStatus oldStatus = null;
+			if (newState.isUpdatesForThisCorrelatorComplete()) {
+				oldStatus = monitorRegistry.remove(correlator);
+				pollScheduleTable.remove(correlator);
+			} else {
+				oldStatus = monitorRegistry.get(correlator);
+				final CorrelatorPollSchedule schedule = pollScheduleTable.get(correlator);
+				if (schedule != null) {
+					schedule.statusObserved(newState, now, pollingPolicy);
 				}
-				if (oldStatus == null) {
-					logger.error("Extracted null oldStatus from monitorTable for correlator {}", correlator);
-				} else {
-					clientAuthStateUpdater.pushStatusUpdateToBrowser(correlator, oldStatus, entry.getValue());
+			}
+			if (oldStatus == null) {
+				// The change event for this correlator got there first
+				logger.debug("Extracted null oldStatus from monitorRegistry for correlator {}", correlator);
+			} else {
+				updateList.add(new SqrlAuthStatusUpdate(correlator, oldStatus, newState, now));
+			}
+		}
+		statusDispatcher.dispatch(updateList);
+		for (final SqrlAuthStatusListener listener : statusListenerList) {
+			for (final SqrlAuthStatusUpdate update : updateList) {
+				try {
+					listener.authStatusChanged(update.getCorrelatorString(), update.getNewAuthStatus());
+				} catch (final RuntimeException e) {
+					logger.error("Error notifying listener of status change for correlator "
+							+ update.getCorrelatorString(), e);
 				}
 			}
-		} catch (final Throwable t) { // Don't let anything escape
-			logger.error("Caught exception in SqrlAuthMonitor.run()", t);
+		}
+	}
+
+	private boolean isChangeFeedEnabled() {
+		return changeFeedOverlapMillis > 0;
+	}
+
+	/**
+	 * @return the monitored correlators which have changed since the previous check, using the same rules as
+	 *         {@link SqrlPersistence#fetchSqrlCorrelatorStatusUpdates(Map)}
+	 */
+	private Map<String, SqrlAuthenticationStatus> fetchChangeFeed(final long now) {
+		final long changeSequence = SqrlTimeOrderedIdGenerator
+				.firstIdAt(lastChangeFeedCheckAt - changeFeedOverlapMillis);
+		final Map<String, SqrlAuthenticationStatus> changedTable = sqrlServerOperations
+				.fetchSqrlCorrelatorStatusChangedSince(changeSequence);
+		lastChangeFeedCheckAt = now;
+		final Map<String, SqrlAuthenticationStatus> resultTable = filterMonitored(changedTable);
+		logger.debug("SQRL change feed returned {} changes, {} monitored", changedTable.size(), resultTable.size());
+		return resultTable;
+	}
+
+	/**
+	 * @return the entries for monitored correlators which the browser needs to hear about
+	 */
+	private Map<String, SqrlAuthenticationStatus> filterMonitored(
+			final Map<String, SqrlAuthenticationStatus> changedTable) {
+		final Map<String, SqrlAuthenticationStatus> resultTable = new HashMap<>();
+		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : changedTable.entrySet()) {
+			final SqrlAuthenticationStatus browserStatus = monitorRegistry.get(entry.getKey());
+			if (browserStatus != null && (browserStatus.isAuthComplete() || entry.getValue() != browserStatus)) {
+				resultTable.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return resultTable;
+	}
+
+	private void scheduleNextRun() {
+		if (isChangeFeedEnabled()) {
+			// The change feed costs the same however many correlators are due, so check everything every tick. When
+			// the cluster poller reads it, runs are only needed for individual checks: first checks, which are
+			// scheduled on registration unless they were deferred, and safety net checks
+			if (monitorRegistry.isEmpty()) {
+				return;
+			} else if (!clusterPolled || checksDeferred) {
+				scheduleRun(pollingPolicy.getTickMillis());
+				return;
+			}
+			long earliest = Long.MAX_VALUE;
+			for (final CorrelatorPollSchedule schedule : pollScheduleTable.values()) {
+				earliest = Math.min(earliest, schedule.getFeedCheckDueAt());
+			}
+			scheduleRun(earliest == Long.MAX_VALUE ? pollingPolicy.getTickMillis()
+					: earliest - System.currentTimeMillis());
+			return;
+		}
+		long earliest = Long.MAX_VALUE;
+		for (final CorrelatorPollSchedule schedule : pollScheduleTable.values()) {
+			earliest = Math.min(earliest, schedule.getNextPollAt());
+		}
+		if (earliest != Long.MAX_VALUE) {
+			scheduleRun(earliest - System.currentTimeMillis());
+		} else if (!monitorRegistry.isEmpty()) {
+			// Registered while we were running
+			scheduleRun(pollingPolicy.getTickMillis());
+		}
+	}
+
+	/**
+	 * Ensures a run happens within delayMillis, replacing a later scheduled run if necessary
+	 */
+	private synchronized void scheduleRun(final long delayMillis) {
+		if (executor == null) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		final long runAt = now + Math.max(0, delayMillis);
+		if (nextRunFuture != null) {
+			if (nextRunAt <= runAt) {
+				return;
+			}
+			nextRunFuture.cancel(false);
+		}
+		try {
+			nextRunFuture = executor.schedule(this::runScheduled, runAt - now, TimeUnit.MILLISECONDS);
+			nextRunAt = runAt;
+		} catch (final RejectedExecutionException e) {
+			logger.debug("Not scheduling auth state check, executor has been shut down");
+			nextRunFuture = null;
+		}
+	}
+
+	/**
+	 * A due correlator waiting to be picked for a partition's query
+	 */
+	private static class DueCheck {
+		private final String					correlatorString;
+		private final SqrlAuthenticationStatus	browserStatus;
+		private final CorrelatorPollSchedule	schedule;
+		private final long						dueAt;
+
+		private DueCheck(final String correlatorString, final SqrlAuthenticationStatus browserStatus,
+				final CorrelatorPollSchedule schedule, final long dueAt) {
+			this.correlatorString = correlatorString;
+			this.browserStatus = browserStatus;
+			this.schedule = schedule;
+			this.dueAt = dueAt;
+		}
+	}
+
+	/**
+	 * Tracks when a single correlator is next due to be checked
+	 */
+	static class CorrelatorPollSchedule {
+		private final long					monitoredSince;
+		private SqrlAuthenticationStatus	knownStatus		= SqrlAuthenticationStatus.CORRELATOR_ISSUED;
+		private long						nextPollAt		= Long.MAX_VALUE;
+		/**
+		 * Change feed mode only, Long.MAX_VALUE until the first check
+		 */
+		private long						nextFeedCheckAt	= Long.MAX_VALUE;
+
+		CorrelatorPollSchedule(final long monitoredSince) {
+			this.monitoredSince = monitoredSince;
+		}
+
+		/**
+		 * Brings the next check forward if the new status calls for a shorter interval
+		 *
+		 * @return the time of the next check
+		 */
+		synchronized long statusObserved(final SqrlAuthenticationStatus status, final long now,
+				final AuthStatePollingPolicy pollingPolicy) {
+			// Browsers re-register with the status they were last sent, which may lag behind what we have seen
+			if (status != SqrlAuthenticationStatus.CORRELATOR_ISSUED) {
+				knownStatus = status;
+			}
+			nextPollAt = Math.min(nextPollAt,
+					now + pollingPolicy.computePollIntervalMillis(knownStatus, now - monitoredSince));
+			return nextPollAt;
+		}
+
+		/**
+		 * @return true if the correlator is due, in which case the next check has been scheduled
+		 */
+		synchronized boolean pollIfDue(final SqrlAuthenticationStatus browserStatus, final long now,
+				final AuthStatePollingPolicy pollingPolicy) {
+			if (nextPollAt == Long.MAX_VALUE) {
+				// Created by the run itself, check straight away
+				nextPollAt = now;
+			}
+			if (nextPollAt > now) {
+				return false;
+			}
+			// The browser may have moved on from the status we last observed
+			if (browserStatus != SqrlAuthenticationStatus.CORRELATOR_ISSUED) {
+				knownStatus = browserStatus;
+			}
+			nextPollAt = now + pollingPolicy.computePollIntervalMillis(knownStatus, now - monitoredSince);
+			return true;
+		}
+
+		/**
+		 * @return true if {@link #pollIfDue(SqrlAuthenticationStatus, long, AuthStatePollingPolicy)} would return true
+		 */
+		synchronized boolean isDue(final long now) {
+			return nextPollAt == Long.MAX_VALUE || nextPollAt <= now;
+		}
+
+		/**
+		 * @return when the correlator became due; one which was never scheduled is due from when it was registered
+		 */
+		synchronized long getDueAt() {
+			return nextPollAt == Long.MAX_VALUE ? monitoredSince : nextPollAt;
+		}
+
+		/**
+		 * @return true if {@link #feedCheckIfDue(long, long)} would return true
+		 */
+		synchronized boolean isFeedCheckDue(final long now) {
+			return nextFeedCheckAt == Long.MAX_VALUE || nextFeedCheckAt <= now;
+		}
+
+		/**
+		 * @return when the correlator is due an individual check in change feed mode; the first check is due from when
+		 *         it was registered
+		 */
+		synchronized long getFeedCheckDueAt() {
+			return nextFeedCheckAt == Long.MAX_VALUE ? monitoredSince : nextFeedCheckAt;
+		}
+
+		/**
+		 * Change feed mode: the correlator is checked individually once when first monitored, then every safety net
+		 * interval in case the feed missed a change
+		 *
+		 * @return true if the correlator is due, in which case the next check has been scheduled
+		 */
+		synchronized boolean feedCheckIfDue(final long now, final long safetyNetMillis) {
+			if (!isFeedCheckDue(now)) {
+				return false;
+			}
+			nextFeedCheckAt = now + safetyNetMillis;
+			return true;
+		}
+
+		synchronized long getNextPollAt() {
+			return nextPollAt;
 		}
 	}
 }
@@ -0,0 +1,208 @@
+package com.github.sqrlserverjava;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.util.SqrlServiceExecutor;
+
+/**
+ * The correlators {@link AuthStateMonitor} is watching and the status each browser last reported. Registration and
+ * removal are single {@link ConcurrentHashMap} operations, so browser threads never wait on each other or on a run.
+ * <p>
+ * A registration lasts for a fixed lifetime from when it was last made. Expired registrations are invisible straight
+ * away and are removed in the background by {@link #expireEntries()}, so no caller pays for cleanup. Each run works
+ * from a {@link #snapshot()}, which is only rebuilt when the registry has changed
+ *
+ * @author Dave Badia
+ *
+ */
+public class AuthStateMonitorRegistry {
+	private static final Logger logger = LoggerFactory.getLogger(AuthStateMonitorRegistry.class);
+
+	private static final long MIN_EXPIRY_INTERVAL_MILLIS = 1000;
+
+	private final Map<String, Registration>	registrationTable	= new ConcurrentHashMap<>();
+	private final long						lifetimeMillis;
+	/**
+	 * Incremented after every change to registrationTable, so a snapshot built from an older count is stale
+	 */
+	private final AtomicLong				modificationCount	= new AtomicLong();
+	private volatile Snapshot				lastSnapshot		= null;
+
+	public AuthStateMonitorRegistry(final long lifetimeMillis) {
+		if (lifetimeMillis <= 0) {
+			throw new IllegalArgumentException("lifetimeMillis must be greater than zero");
+		}
+		this.lifetimeMillis = lifetimeMillis;
+	}
+
+	/**
+	 * Removes expired registrations every quarter lifetime until the executor is shut down
+	 */
+	public void startExpiry(final SqrlServiceExecutor executor) {
+		final long intervalMillis = Math.max(MIN_EXPIRY_INTERVAL_MILLIS, lifetimeMillis / 4);
+		executor.scheduleAtFixedRate(this::expireEntries, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Registers the correlator, or updates the browser status and restarts the lifetime of an existing registration
+	 *
+	 * @return the previously registered status, or null if there was none
+	 */
+	public SqrlAuthenticationStatus register(final String correlatorString,
+			final SqrlAuthenticationStatus browserStatus) {
+		final long now = System.currentTimeMillis();
+		final Registration previous = registrationTable.put(correlatorString,
+				new Registration(browserStatus, now + lifetimeMillis));
+		modificationCount.incrementAndGet();
+		return statusOf(previous, now);
+	}
+
+	/**
+	 * Registers the correlator only if it has no unexpired registration, so the browser status of an existing one is
+	 * never overwritten
+	 *
+	 * @return true if this call registered the correlator
+	 */
+	public boolean registerIfAbsent(final String correlatorString, final SqrlAuthenticationStatus browserStatus) {
+		final long now = System.currentTimeMillis();
+		final Registration registration = new Registration(browserStatus, now + lifetimeMillis);
+		final Registration current = registrationTable.compute(correlatorString,
+				(k, existing) -> existing == null || existing.isExpired(now) ? registration : existing);
+		if (current != registration) {
+			return false;
+		}
+		modificationCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Removal is atomic: when several threads remove the same registration only one of them gets its status
+	 *
+	 * @return the registered status, or null if the correlator wasn't registered
+	 */
+	public SqrlAuthenticationStatus remove(final String correlatorString) {
+		final Registration removed = registrationTable.remove(correlatorString);
+		if (removed == null) {
+			return null;
+		}
+		modificationCount.incrementAndGet();
+		return statusOf(removed, System.currentTimeMillis());
+	}
+
+	/**
+	 * @return the registered status, or null if the correlator isn't registered
+	 */
+	public SqrlAuthenticationStatus get(final String correlatorString) {
+		return statusOf(registrationTable.get(correlatorString), System.currentTimeMillis());
+	}
+
+	public boolean isRegistered(final String correlatorString) {
+		return get(correlatorString) != null;
+	}
+
+	public boolean isEmpty() {
+		return snapshot().isEmpty();
+	}
+
+	public int size() {
+		return snapshot().size();
+	}
+
+	/**
+	 * @return an unmodifiable copy of the unexpired registrations as of some point during the call; the same instance
+	 *         is returned until a registration is added, removed or expires
+	 */
+	public Map<String, SqrlAuthenticationStatus> snapshot() {
+		final long now = System.currentTimeMillis();
+		final Snapshot cached = lastSnapshot;
+		final long currentCount = modificationCount.get();
+		if (cached != null && cached.modificationCount == currentCount && now < cached.validUntil) {
+			return cached.statusTable;
+		}
+		final Map<String, SqrlAuthenticationStatus> statusTable = new HashMap<>();
+		long validUntil = Long.MAX_VALUE;
+		for (final Map.Entry<String, Registration> entry : registrationTable.entrySet()) {
+			final Registration registration = entry.getValue();
+			if (!registration.isExpired(now)) {
+				statusTable.put(entry.getKey(), registration.browserStatus);
+				validUntil = Math.min(validUntil, registration.expiresAt);
+			}
+		}
+		final Snapshot snapshot = new Snapshot(currentCount, validUntil, Collections.unmodifiableMap(statusTable));
+		lastSnapshot = snapshot;
+		return snapshot.statusTable;
+	}
+
+	/**
+	 * Removes expired registrations. A registration renewed while this runs is left alone
+	 *
+	 * @return the number of registrations removed
+	 */
+	public int expireEntries() {
+		final long now = System.currentTimeMillis();
+		int removed = 0;
+		try {
+			final Iterator<Map.Entry<String, Registration>> iter = registrationTable.entrySet().iterator();
+			while (iter.hasNext()) {
+				final Map.Entry<String, Registration> entry = iter.next();
+				if (entry.getValue().isExpired(now) && registrationTable.remove(entry.getKey(), entry.getValue())) {
+					removed++;
+				}
+			}
+		} catch (final RuntimeException e) { // Don't let anything stop the scheduled task
+			logger.error("Error expiring monitored correlators", e);
+		}
+		if (removed > 0) {
+			modificationCount.incrementAndGet();
+			logger.debug("Expired {} monitored correlators", removed);
+		}
+		return removed;
+	}
+
+	private static SqrlAuthenticationStatus statusOf(final Registration registration, final long now) {
+		return registration == null || registration.isExpired(now) ? null : registration.browserStatus;
+	}
+
+	/**
+	 * Immutable, a renewal replaces it
+	 */
+	private static class Registration {
+		private final SqrlAuthenticationStatus	browserStatus;
+		private final long						expiresAt;
+
+		private Registration(final SqrlAuthenticationStatus browserStatus, final long expiresAt) {
+			this.browserStatus = browserStatus;
+			this.expiresAt = expiresAt;
+		}
+
+		private boolean isExpired(final long now) {
+			return now >= expiresAt;
+		}
+	}
+
+	private static class Snapshot {
+		private final long									modificationCount;
+		/**
+		 * When the first registration in the snapshot expires
+		 */
+		private final long									validUntil;
+		private final Map<String, SqrlAuthenticationStatus>	statusTable;
+
+		private Snapshot(final long modificationCount, final long validUntil,
+				final Map<String, SqrlAuthenticationStatus> statusTable) {
+			this.modificationCount = modificationCount;
+			this.validUntil = validUntil;
+			this.statusTable = statusTable;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.github.sqrlserverjava;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * Decides how long {@link AuthStateMonitor} waits before checking a correlator again. Once a SQRL client has made
+ * contact the correlator is checked every tick since the user is actively authenticating. Correlators still waiting
+ * for a SQRL client start at {@link #FRESH_PAGE_TICK_MULTIPLIER} ticks and back off linearly with age up to the
+ * configured maximum, as most login pages are never used for SQRL
+ *
+ * @author Dave Badia
+ *
+ */
+public class AuthStatePollingPolicy {
+	/**
+	 * The interval for a page which was just loaded, as a multiple of the tick
+	 */
+	static final int	FRESH_PAGE_TICK_MULTIPLIER	= 2;
+	/**
+	 * The interval grows by 1ms for every this many ms of correlator age; 10 means a one minute old page is checked
+	 * every 6 seconds plus the fresh page interval, before the maximum is applied
+	 */
+	static final int	AGE_BACKOFF_DIVISOR			= 10;
+
+	private final long	tickMillis;
+	private final long	maxIntervalMillis;
+
+	/**
+	 * @param tickMillis
+	 *            the minimum interval, used for correlators whose SQRL client is communicating
+	 * @param maxIntervalMillis
+	 *            the maximum interval for correlators still waiting for a SQRL client, values less than tickMillis
+	 *            disable back off
+	 */
+	public AuthStatePollingPolicy(final long tickMillis, final long maxIntervalMillis) {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("tickMillis must be > 0");
+		}
+		this.tickMillis = tickMillis;
+		this.maxIntervalMillis = Math.max(tickMillis, maxIntervalMillis);
+	}
+
+	public static AuthStatePollingPolicy fromConfig(final SqrlConfig config) {
+		final long safetyNetInMillis = config.getAuthSyncSafetyNetInMillis();
+		final long tickMillis = safetyNetInMillis > 0 ? safetyNetInMillis : config.getAuthSyncCheckInMillis();
+		return new AuthStatePollingPolicy(tickMillis, config.getAuthSyncMaxBackoffInMillis());
+	}
+
+	/**
+	 * @param knownStatus
+	 *            the latest status we know of for the correlator
+	 * @param ageMillis
+	 *            how long the correlator has been monitored
+	 * @return the time to wait before checking the correlator again
+	 */
+	public long computePollIntervalMillis(final SqrlAuthenticationStatus knownStatus, final long ageMillis) {
+		if (knownStatus != SqrlAuthenticationStatus.CORRELATOR_ISSUED) {
+			return tickMillis;
+		}
+		final long interval = FRESH_PAGE_TICK_MULTIPLIER * tickMillis + Math.max(0, ageMillis) / AGE_BACKOFF_DIVISOR;
+		return Math.min(interval, maxIntervalMillis);
+	}
+
+	public long getTickMillis() {
+		return tickMillis;
+	}
+
+	public long getMaxIntervalMillis() {
+		return maxIntervalMillis;
+	}
+}
@@ -18,6 +18,7 @@ import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumMap;
 import java.util.Map;
@@ -39,6 +40,7 @@ import com.github.sqrlserverjava.enums.SqrlClientParam;
 import com.github.sqrlserverjava.exception.SqrlException;
 import com.github.sqrlserverjava.persistence.SqrlAutoCloseablePersistence;
 import com.github.sqrlserverjava.persistence.SqrlCorrelator;
+import com.github.sqrlserverjava.persistence.SqrlCorrelatorView;
 import com.github.sqrlserverjava.util.SqrlConstants;
 import com.github.sqrlserverjava.util.SqrlUtil;
 import com.google.zxing.BarcodeFormat;
@@ -57,6 +59,9 @@ import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 public class BrowserFacingOperations {
 	private static final Logger logger = LoggerFactory.getLogger(BrowserFacingOperations.class);
 
+	private static final String	HEADER_ETAG				= "ETag";
+	private static final String	HEADER_IF_NONE_MATCH	= "If-None-Match";
+
 	private final SqrlConfig config;
 	private final SqrlConfigOperations configOperations;
 
@@ -219,6 +224,145 @@ public class BrowserFacingOperations {
 		}
 	}
 
+	/**
+	 * Answers a login page waiting for the SQRL client. The request is parked until {@link AuthStateMonitor} sees the
+	 * correlator move on from the status the browser sent in the <code>status</code> parameter, or until
+	 * {@link SqrlConfig#getAuthStatusLongPollTimeoutMillis()} passes. The response body is the status name and the
+	 * browser should repeat the request with it until a final status is received. Browsers which send
+	 * <code>Accept: text/event-stream</code> get a server-sent event stream of <code>status</code> events instead.
+	 * <p>
+	 * Parking requires {@link SqrlAsyncAuthStateUpdater} as the ClientAuthStateUpdaterClass and a servlet with async
+	 * support enabled; otherwise the current status is returned straight away, from {@link SqrlCorrelatorStatusCache}
+	 * where possible
+	 *
+	 * @param servletRequest
+	 *            the HTTP request, must carry the correlator cookie
+	 * @param servletResponse
+	 *            the HTTP response
+	 * @throws IOException
+	 *             if the response could not be written
+	 */
+	public void handleAuthStatusRequest(final HttpServletRequest servletRequest,
+			final HttpServletResponse servletResponse) throws IOException {
+		final String correlator = SqrlUtil.findCookieValue(servletRequest, config.getCorrelatorCookieName());
+		if (correlator == null) {
+			servletResponse.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		final String statusParam = servletRequest.getParameter("status");
+		SqrlAuthenticationStatus browserStatus = SqrlAuthenticationStatus.CORRELATOR_ISSUED;
+		if (SqrlUtil.isNotBlank(statusParam)) {
+			try {
+				browserStatus = SqrlAuthenticationStatus.valueOf(statusParam);
+			} catch (final IllegalArgumentException e) {
+				servletResponse.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			}
+		}
+		final String acceptHeader = servletRequest.getHeader("Accept");
+		final boolean eventStream = acceptHeader != null
+				&& acceptHeader.contains(SqrlAsyncStatusRegistry.CONTENT_TYPE_EVENT_STREAM);
+		final SqrlAsyncStatusRegistry asyncStatusRegistry = configOperations.getAsyncStatusRegistry();
+		if (asyncStatusRegistry.isAcceptingRequests() && servletRequest.isAsyncSupported()
+				&& !browserStatus.isUpdatesForThisCorrelatorComplete()) {
+			asyncStatusRegistry.park(servletRequest, servletResponse, correlator, browserStatus, eventStream,
+					config.getAuthStatusLongPollTimeoutMillis());
+			return;
+		}
+		final SqrlAuthenticationStatus status = lookupCorrelatorStatus(correlator);
+		if (status == null) {
+			servletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		SqrlAsyncStatusRegistry.prepareResponse(servletResponse, eventStream);
+		SqrlAsyncStatusRegistry.writeStatus(servletResponse.getWriter(), status, eventStream);
+	}
+
+	/**
+	 * Answers a browser which polls for the status of its correlator with plain requests. The status is taken from
+	 * {@link SqrlCorrelatorStatusCache}, persistence is only read on a miss. The response carries an ETag derived from
+	 * the status, so a poll whose <code>If-None-Match</code> header matches is answered with 304 Not Modified and no
+	 * body
+	 *
+	 * @param servletRequest
+	 *            the HTTP request, must carry the correlator cookie
+	 * @param servletResponse
+	 *            the HTTP response
+	 * @throws IOException
+	 *             if the response could not be written
+	 */
+	public void handleAuthStatusPoll(final HttpServletRequest servletRequest,
+			final HttpServletResponse servletResponse) throws IOException {
+		final String correlator = SqrlUtil.findCookieValue(servletRequest, config.getCorrelatorCookieName());
+		if (correlator == null) {
+			servletResponse.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		final SqrlAuthenticationStatus status = lookupCorrelatorStatus(correlator);
+		if (status == null) {
+			servletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		final String etag = buildStatusEtag(status);
+		if (isEtagMatch(servletRequest.getHeader(HEADER_IF_NONE_MATCH), etag)) {
+			servletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			servletResponse.setHeader(HEADER_ETAG, etag);
+			servletResponse.setHeader("Cache-Control", "no-cache");
+			return;
+		}
+		SqrlAsyncStatusRegistry.prepareResponse(servletResponse, false);
+		servletResponse.setHeader(HEADER_ETAG, etag);
+		SqrlAsyncStatusRegistry.writeStatus(servletResponse.getWriter(), status, false);
+	}
+
+	/**
+	 * @return the current status of the correlator, or null if it doesn't exist
+	 */
+	private SqrlAuthenticationStatus lookupCorrelatorStatus(final String correlator) {
+		final SqrlCorrelatorStatusCache correlatorStatusCache = configOperations.getCorrelatorStatusCache();
+		final SqrlAuthenticationStatus cachedStatus = correlatorStatusCache.get(correlator);
+		if (cachedStatus != null) {
+			return cachedStatus;
+		}
+		final SqrlCorrelatorView correlatorView;
+		try (SqrlAutoCloseablePersistence sqrlPersistence = SqrlServerOperations
+				.createSqrlReadOnlyPersistence(configOperations)) {
+			correlatorView = sqrlPersistence.fetchSqrlCorrelatorViews(Collections.singleton(correlator))
+					.get(correlator);
+			sqrlPersistence.closeCommit();
+		}
+		if (correlatorView == null) {
+			return null;
+		}
+		correlatorStatusCache.loaded(correlator, correlatorView.getAuthenticationStatus());
+		return correlatorView.getAuthenticationStatus();
+	}
+
+	/**
+	 * The body of a status response is just the status, so the status name is a strong validator
+	 */
+	static String buildStatusEtag(final SqrlAuthenticationStatus status) {
+		return "\"" + status.toString() + "\"";
+	}
+
+	/**
+	 * @return true if the If-None-Match header value lists the ETag or is <code>*</code>; weak validators are compared
+	 *         weakly as RFC 7232 requires for If-None-Match
+	 */
+	static boolean isEtagMatch(final String ifNoneMatch, final String etag) {
+		if (SqrlUtil.isBlank(ifNoneMatch)) {
+			return false;
+		}
+		for (final String candidate : ifNoneMatch.split(",")) {
+			final String trimmed = candidate.trim();
+			final String opaqueTag = trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed;
+			if ("*".equals(opaqueTag) || etag.equals(opaqueTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Called by the web app once authentication is complete to cleanup any cookies set by the SQRL library
 	 *
@@ -0,0 +1,29 @@
+package com.github.sqrlserverjava;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * Built in {@link SqrlClientAuthStateUpdater} which answers browser requests parked by
+ * {@link BrowserFacingOperations#handleAuthStatusRequest(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)}.
+ * Set this as the ClientAuthStateUpdaterClass to get live status updates on the login page without any other
+ * dependencies
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlAsyncAuthStateUpdater implements SqrlClientAuthStateUpdater {
+	private SqrlAsyncStatusRegistry asyncStatusRegistry;
+
+	@Override
+	public void initSqrl(final SqrlServerOperations sqrlServerOperations, final SqrlConfig sqrlConfig,
+			final AuthStateMonitor sqrlAuthStateMonitor) {
+		asyncStatusRegistry = SqrlConfigOperationsFactory.get(sqrlConfig).getAsyncStatusRegistry();
+		asyncStatusRegistry.setAuthStateMonitor(sqrlAuthStateMonitor);
+	}
+
+	@Override
+	public void pushStatusUpdateToBrowser(final String browserId, final SqrlAuthenticationStatus oldAuthStatus,
+			final SqrlAuthenticationStatus newAuthStatus) {
+		asyncStatusRegistry.statusChanged(browserId, newAuthStatus);
+	}
+}
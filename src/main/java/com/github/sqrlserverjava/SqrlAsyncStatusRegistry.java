@@ -0,0 +1,252 @@
+package com.github.sqrlserverjava;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * Holds browser status requests which have been parked with a Servlet 3 {@link AsyncContext} until
+ * {@link AuthStateMonitor} reports a change for their correlator. Parked requests don't hold a container thread, a
+ * change is written by the thread which reports it, so thousands of browsers can wait on a handful of threads.
+ * <p>
+ * Long poll requests are answered with the first change and completed. Server-sent event streams stay open for further
+ * changes until the correlator reaches a final status or the request times out, in which case the browser's
+ * EventSource reconnects on its own
+ *
+ * @see BrowserFacingOperations#handleAuthStatusRequest(HttpServletRequest, HttpServletResponse)
+ * @see SqrlAsyncAuthStateUpdater
+ * @author Dave Badia
+ *
+ */
+public class SqrlAsyncStatusRegistry {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlAsyncStatusRegistry.class);
+
+	static final String	CONTENT_TYPE_EVENT_STREAM	= "text/event-stream";
+	static final String	CONTENT_TYPE_TEXT			= "text/plain";
+
+	/**
+	 * key is a correlator string. Sets are only created and removed inside compute so a request can't be added to a
+	 * set which has already been discarded
+	 */
+	private final Map<String, Set<ParkedStatusRequest>>	parkedTable		= new ConcurrentHashMap<>();
+	private final AtomicInteger							parkedCount		= new AtomicInteger();
+	private volatile AuthStateMonitor					authStateMonitor;
+
+	/**
+	 * Invoked by {@link SqrlAsyncAuthStateUpdater} once the monitor exists, requests are only parked after this
+	 */
+	void setAuthStateMonitor(final AuthStateMonitor authStateMonitor) {
+		this.authStateMonitor = authStateMonitor;
+	}
+
+	public boolean isAcceptingRequests() {
+		return authStateMonitor != null;
+	}
+
+	/**
+	 * @return the number of requests currently waiting for a change
+	 */
+	public int getParkedCount() {
+		return parkedCount.get();
+	}
+
+	/**
+	 * Starts async processing of the request and parks it until the correlator moves on from browserStatus
+	 */
+	void park(final HttpServletRequest servletRequest, final HttpServletResponse servletResponse,
+			final String correlatorString, final SqrlAuthenticationStatus browserStatus, final boolean eventStream,
+			final long timeoutMillis) throws IOException {
+		final AuthStateMonitor monitor = authStateMonitor;
+		if (monitor == null) {
+			throw new IllegalStateException("Requests can't be parked until the AuthStateMonitor is available");
+		}
+		prepareResponse(servletResponse, eventStream);
+		final AsyncContext asyncContext = servletRequest.startAsync(servletRequest, servletResponse);
+		asyncContext.setTimeout(timeoutMillis);
+		final ParkedStatusRequest parked = new ParkedStatusRequest(correlatorString, asyncContext, browserStatus,
+				eventStream);
+		asyncContext.addListener(parked);
+		if (eventStream) {
+			// Commit the headers so the browser knows the stream is open
+			servletResponse.flushBuffer();
+		}
+		parkedTable.compute(correlatorString, (k, parkedSet) -> {
+			final Set<ParkedStatusRequest> set = parkedSet != null ? parkedSet : ConcurrentHashMap.newKeySet();
+			set.add(parked);
+			return set;
+		});
+		parkedCount.incrementAndGet();
+		// The monitor compares against the browser's status, so a change made before we parked is still delivered
+		monitor.monitorCorrelatorForChange(correlatorString, browserStatus);
+	}
+
+	/**
+	 * Delivers a status change to every request parked on the correlator
+	 */
+	void statusChanged(final String correlatorString, final SqrlAuthenticationStatus newAuthStatus) {
+		final boolean finalStatus = newAuthStatus.isUpdatesForThisCorrelatorComplete();
+		final Set<ParkedStatusRequest> parkedSet = finalStatus ? parkedTable.remove(correlatorString)
+				: parkedTable.get(correlatorString);
+		if (parkedSet == null) {
+			return;
+		}
+		if (finalStatus) {
+			// Already out of the table, unpark() won't find them
+			parkedCount.addAndGet(-parkedSet.size());
+		}
+		boolean stillParked = false;
+		for (final ParkedStatusRequest parked : parkedSet) {
+			if (parked.deliver(newAuthStatus, finalStatus)) {
+				stillParked = true;
+			} else {
+				unpark(parked);
+			}
+		}
+		final AuthStateMonitor monitor = authStateMonitor;
+		if (stillParked && monitor != null) {
+			// The monitor keeps comparing with the status the browser registered with until told otherwise
+			monitor.monitorCorrelatorForChange(correlatorString, newAuthStatus);
+		}
+	}
+
+	private void unpark(final ParkedStatusRequest parked) {
+		final boolean[] removed = new boolean[1];
+		parkedTable.computeIfPresent(parked.correlatorString, (k, parkedSet) -> {
+			removed[0] = parkedSet.remove(parked);
+			return parkedSet.isEmpty() ? null : parkedSet;
+		});
+		if (removed[0]) {
+			parkedCount.decrementAndGet();
+		}
+	}
+
+	static void prepareResponse(final HttpServletResponse servletResponse, final boolean eventStream) {
+		servletResponse.setCharacterEncoding("UTF-8");
+		servletResponse.setHeader("Cache-Control", "no-cache");
+		servletResponse.setContentType(eventStream ? CONTENT_TYPE_EVENT_STREAM : CONTENT_TYPE_TEXT);
+	}
+
+	/**
+	 * Long poll responses are just the status name, events use the <code>status</code> event type
+	 */
+	static void writeStatus(final PrintWriter writer, final SqrlAuthenticationStatus status,
+			final boolean eventStream) {
+		if (eventStream) {
+			writer.write("event: status\ndata: ");
+			writer.write(status.toString());
+			writer.write("\n\n");
+		} else {
+			writer.write(status.toString());
+		}
+		writer.flush();
+	}
+
+	/**
+	 * A single parked browser request. Writes are synchronized since a change and a timeout may arrive together
+	 */
+	private class ParkedStatusRequest implements AsyncListener {
+		private final String					correlatorString;
+		private final AsyncContext				asyncContext;
+		private final boolean					eventStream;
+		/**
+		 * Guarded by this
+		 */
+		private SqrlAuthenticationStatus		lastSentStatus;
+		private boolean							done	= false;
+
+		private ParkedStatusRequest(final String correlatorString, final AsyncContext asyncContext,
+				final SqrlAuthenticationStatus browserStatus, final boolean eventStream) {
+			this.correlatorString = correlatorString;
+			this.asyncContext = asyncContext;
+			this.lastSentStatus = browserStatus;
+			this.eventStream = eventStream;
+		}
+
+		/**
+		 * @return true if the request is still parked, waiting for further changes
+		 */
+		private synchronized boolean deliver(final SqrlAuthenticationStatus status, final boolean finalStatus) {
+			if (done) {
+				return false;
+			}
+			if (status == lastSentStatus && !finalStatus) {
+				return true;
+			}
+			try {
+				writeStatus(asyncContext.getResponse().getWriter(), status, eventStream);
+				lastSentStatus = status;
+			} catch (final IOException | IllegalStateException e) {
+				logger.debug("Browser went away before status {} could be sent for correlator {}: {}", status,
+						correlatorString, e.getMessage());
+				finish();
+				return false;
+			}
+			if (eventStream && !finalStatus) {
+				return true;
+			}
+			finish();
+			return false;
+		}
+
+		private synchronized void finish() {
+			if (done) {
+				return;
+			}
+			done = true;
+			try {
+				asyncContext.complete();
+			} catch (final IllegalStateException e) {
+				// Already completed by the container
+				logger.trace("AsyncContext already complete", e);
+			}
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) throws IOException {
+			try {
+				synchronized (this) {
+					if (!done && !eventStream) {
+						// Nothing changed, the browser repeats the request with the same status
+						writeStatus(asyncContext.getResponse().getWriter(), lastSentStatus, false);
+					}
+				}
+			} finally {
+				finish();
+				unpark(this);
+			}
+		}
+
+		@Override
+		public void onError(final AsyncEvent event) throws IOException {
+			finish();
+			unpark(this);
+		}
+
+		@Override
+		public void onComplete(final AsyncEvent event) throws IOException {
+			synchronized (this) {
+				done = true;
+			}
+			unpark(this);
+		}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) throws IOException {
+			// Not used
+		}
+	}
+}
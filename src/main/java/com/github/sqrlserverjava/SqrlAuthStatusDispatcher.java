@@ -0,0 +1,259 @@
+package com.github.sqrlserverjava;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers status changes found by {@link AuthStateMonitor} to a {@link SqrlBatchClientAuthStateUpdater} on a
+ * dedicated pool, so a slow updater doesn't hold up the next check or the changes for other browsers.
+ * <p>
+ * Changes are spread over one lane per thread by correlator. Each lane is drained by one thread at a time, so a
+ * correlator's changes arrive in order, and a change queued behind an undelivered one for the same correlator is
+ * merged into it. Once {@link SqrlConfig#getAuthStatusDispatchMaxQueued()} changes are waiting, further changes are
+ * delivered on the calling thread, the same back pressure {@link SqrlConfig#getWriteBehindMaxPending()} uses; ordering
+ * is only guaranteed while there is room. With no threads every change is delivered on the calling thread
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlAuthStatusDispatcher {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlAuthStatusDispatcher.class);
+
+	static final int MAX_BATCH_SIZE = 256;
+
+	private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(1);
+
+	private final SqrlBatchClientAuthStateUpdater	updater;
+	private final ExecutorService					dispatchPool;
+	private final DispatchLane[]					laneArray;
+	private final int								maxQueuedPerLane;
+
+	private final AtomicInteger	queuedCount		= new AtomicInteger();
+	private final AtomicLong	dispatchedCount	= new AtomicLong();
+	private final AtomicLong	batchCount		= new AtomicLong();
+	private final AtomicLong	overflowCount	= new AtomicLong();
+	private final AtomicLong	totalLagMillis	= new AtomicLong();
+	private final AtomicLong	maxLagMillis	= new AtomicLong();
+
+	/**
+	 * @param threadCount
+	 *            the size of the dispatch pool, 0 delivers on the calling thread
+	 * @param maxQueued
+	 *            the maximum number of changes waiting for delivery
+	 */
+	public SqrlAuthStatusDispatcher(final SqrlBatchClientAuthStateUpdater updater, final int threadCount,
+			final int maxQueued) {
+		if (threadCount < 0) {
+			throw new IllegalArgumentException("threadCount must be 0 or greater");
+		}
+		this.updater = updater;
+		this.laneArray = new DispatchLane[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			laneArray[i] = new DispatchLane();
+		}
+		this.maxQueuedPerLane = threadCount == 0 ? 0 : Math.max(1, maxQueued / threadCount);
+		if (threadCount == 0) {
+			this.dispatchPool = null;
+		} else {
+			this.dispatchPool = Executors.newFixedThreadPool(threadCount, r -> {
+				final Thread thread = new Thread(r, "Sqrl Status Dispatch #" + THREAD_COUNTER.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	public static SqrlAuthStatusDispatcher fromConfig(final SqrlConfig sqrlConfig,
+			final SqrlClientAuthStateUpdater clientAuthStateUpdater) {
+		return new SqrlAuthStatusDispatcher(SqrlSingleItemAuthStateUpdaterAdapter.of(clientAuthStateUpdater),
+				sqrlConfig.getAuthStatusDispatchThreads(), sqrlConfig.getAuthStatusDispatchMaxQueued());
+	}
+
+	public void dispatch(final SqrlAuthStatusUpdate update) {
+		dispatch(Collections.singletonList(update));
+	}
+
+	/**
+	 * Queues the changes for delivery, or delivers them now if there is no pool or no room
+	 */
+	public void dispatch(final List<SqrlAuthStatusUpdate> updateList) {
+		if (updateList.isEmpty()) {
+			return;
+		}
+		if (dispatchPool == null) {
+			deliver(updateList);
+			return;
+		}
+		List<SqrlAuthStatusUpdate> overflowList = null;
+		for (final SqrlAuthStatusUpdate update : updateList) {
+			final DispatchLane lane = laneArray[Math.floorMod(update.getCorrelatorString().hashCode(),
+					laneArray.length)];
+			if (!lane.offer(update)) {
+				if (overflowList == null) {
+					overflowList = new ArrayList<>();
+				}
+				overflowList.add(update);
+			}
+		}
+		if (overflowList != null) {
+			overflowCount.addAndGet(overflowList.size());
+			logger.debug("Status dispatch queue full, delivering {} changes on the calling thread",
+					overflowList.size());
+			deliver(overflowList);
+		}
+	}
+
+	private void deliver(final List<SqrlAuthStatusUpdate> batch) {
+		final long now = System.currentTimeMillis();
+		for (final SqrlAuthStatusUpdate update : batch) {
+			final long lagMillis = Math.max(0, now - update.getDetectedAt());
+			totalLagMillis.addAndGet(lagMillis);
+			maxLagMillis.accumulateAndGet(lagMillis, Math::max);
+		}
+		try {
+			updater.pushStatusUpdatesToBrowsers(batch);
+		} catch (final RuntimeException e) {
+			logger.error("Error pushing " + batch.size() + " status updates to browsers", e);
+		}
+		dispatchedCount.addAndGet(batch.size());
+		batchCount.incrementAndGet();
+	}
+
+	/**
+	 * Stops the dispatch pool, changes which are still queued are discarded
+	 */
+	public void shutdown() {
+		if (dispatchPool != null) {
+			dispatchPool.shutdown();
+		}
+	}
+
+	/**
+	 * @return the number of changes waiting for delivery
+	 */
+	public int getQueuedCount() {
+		return queuedCount.get();
+	}
+
+	/**
+	 * @return the number of changes handed to the updater
+	 */
+	public long getDispatchedCount() {
+		return dispatchedCount.get();
+	}
+
+	/**
+	 * @return the number of times the updater was invoked
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/**
+	 * @return the number of changes delivered on the calling thread because the queue was full
+	 */
+	public long getOverflowCount() {
+		return overflowCount.get();
+	}
+
+	/**
+	 * @return the mean time between a change being detected and handed to the updater
+	 */
+	public long getMeanLagMillis() {
+		final long dispatched = dispatchedCount.get();
+		return dispatched == 0 ? 0 : totalLagMillis.get() / dispatched;
+	}
+
+	/**
+	 * @return the longest time between a change being detected and handed to the updater
+	 */
+	public long getMaxLagMillis() {
+		return maxLagMillis.get();
+	}
+
+	/**
+	 * Changes for a subset of correlators, drained by at most one pool thread at a time
+	 */
+	private class DispatchLane implements Runnable {
+		/**
+		 * Guarded by this. key is a correlator string, insertion order is delivery order
+		 */
+		private final Map<String, SqrlAuthStatusUpdate>	queuedTable		= new LinkedHashMap<>();
+		private boolean									drainScheduled	= false;
+
+		/**
+		 * @return false if there was no room, the caller must deliver the change itself
+		 */
+		private synchronized boolean offer(final SqrlAuthStatusUpdate update) {
+			final SqrlAuthStatusUpdate queued = queuedTable.get(update.getCorrelatorString());
+			if (queued != null) {
+				// Still waiting, so the browser only needs the combined change
+				queuedTable.put(update.getCorrelatorString(), queued.mergeWith(update));
+				return true;
+			}
+			if (queuedTable.size() >= maxQueuedPerLane || !scheduleDrain()) {
+				return false;
+			}
+			queuedTable.put(update.getCorrelatorString(), update);
+			queuedCount.incrementAndGet();
+			return true;
+		}
+
+		/**
+		 * Guarded by this
+		 *
+		 * @return false if the pool has been shut down
+		 */
+		private boolean scheduleDrain() {
+			if (drainScheduled) {
+				return true;
+			}
+			try {
+				dispatchPool.execute(this);
+				drainScheduled = true;
+				return true;
+			} catch (final RejectedExecutionException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public void run() {
+			final List<SqrlAuthStatusUpdate> batch = new ArrayList<>();
+			synchronized (this) {
+				final Iterator<SqrlAuthStatusUpdate> iter = queuedTable.values().iterator();
+				while (iter.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+					batch.add(iter.next());
+					iter.remove();
+				}
+				queuedCount.addAndGet(-batch.size());
+			}
+			try {
+				if (!batch.isEmpty()) {
+					deliver(batch);
+				}
+			} finally {
+				synchronized (this) {
+					drainScheduled = false;
+					// Requeue rather than loop so other lanes get a turn on the pool
+					if (!queuedTable.isEmpty() && !scheduleDrain()) {
+						queuedCount.addAndGet(-queuedTable.size());
+						queuedTable.clear();
+					}
+				}
+			}
+		}
+	}
+}
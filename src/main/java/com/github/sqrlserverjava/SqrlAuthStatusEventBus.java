@@ -0,0 +1,57 @@
+package com.github.sqrlserverjava;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * In-process notification of correlator status changes. {@link SqrlClientFacingOperations} publishes the status a SQRL
+ * client request left the correlator in once it has been committed, which lets {@link AuthStateMonitor} update the
+ * browser immediately instead of waiting for its next persistence query.
+ * <p>
+ * Only changes made in this JVM are published, so persistence polling is still required to pick up changes made by
+ * other cluster nodes, see {@link SqrlConfig#getAuthSyncSafetyNetInMillis()}
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlAuthStatusEventBus {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlAuthStatusEventBus.class);
+
+	@FunctionalInterface
+	public interface SqrlAuthStatusListener {
+		/**
+		 * Invoked on the publishing thread after the change has been committed; must not block
+		 */
+		void authStatusChanged(String correlatorString, SqrlAuthenticationStatus newAuthStatus);
+	}
+
+	private final List<SqrlAuthStatusListener> listenerList = new CopyOnWriteArrayList<>();
+
+	public void addListener(final SqrlAuthStatusListener listener) {
+		listenerList.add(listener);
+	}
+
+	public void removeListener(final SqrlAuthStatusListener listener) {
+		listenerList.remove(listener);
+	}
+
+	/**
+	 * Notifies all listeners. Must only be called after the change has been committed, listeners may read it from
+	 * persistence straight away
+	 */
+	public void publish(final String correlatorString, final SqrlAuthenticationStatus newAuthStatus) {
+		for (final SqrlAuthStatusListener listener : listenerList) {
+			try {
+				listener.authStatusChanged(correlatorString, newAuthStatus);
+			} catch (final RuntimeException e) {
+				// The change is committed, a failing listener must not fail the request which made it
+				logger.error("Error notifying listener of status change for correlator " + correlatorString, e);
+			}
+		}
+	}
+}
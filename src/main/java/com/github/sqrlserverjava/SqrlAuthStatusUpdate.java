@@ -0,0 +1,59 @@
+package com.github.sqrlserverjava;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * A single status change to be pushed to a browser, see {@link SqrlBatchClientAuthStateUpdater}
+ *
+ * @author Dave Badia
+ *
+ */
+public final class SqrlAuthStatusUpdate {
+	private final String					correlatorString;
+	private final SqrlAuthenticationStatus	oldAuthStatus;
+	private final SqrlAuthenticationStatus	newAuthStatus;
+	private final long						detectedAt;
+
+	public SqrlAuthStatusUpdate(final String correlatorString, final SqrlAuthenticationStatus oldAuthStatus,
+			final SqrlAuthenticationStatus newAuthStatus, final long detectedAt) {
+		this.correlatorString = correlatorString;
+		this.oldAuthStatus = oldAuthStatus;
+		this.newAuthStatus = newAuthStatus;
+		this.detectedAt = detectedAt;
+	}
+
+	/**
+	 * @return the correlator, which is also the browser id
+	 */
+	public String getCorrelatorString() {
+		return correlatorString;
+	}
+
+	public SqrlAuthenticationStatus getOldAuthStatus() {
+		return oldAuthStatus;
+	}
+
+	public SqrlAuthenticationStatus getNewAuthStatus() {
+		return newAuthStatus;
+	}
+
+	/**
+	 * @return when the change was detected, in millis since the epoch
+	 */
+	public long getDetectedAt() {
+		return detectedAt;
+	}
+
+	/**
+	 * @return an update from this one's old status to the later update's new status, keeping the earlier detection
+	 *         time
+	 */
+	SqrlAuthStatusUpdate mergeWith(final SqrlAuthStatusUpdate later) {
+		return new SqrlAuthStatusUpdate(correlatorString, oldAuthStatus, later.newAuthStatus, detectedAt);
+	}
+
+	@Override
+	public String toString() {
+		return correlatorString + ":" + oldAuthStatus + "->" + newAuthStatus;
+	}
+}
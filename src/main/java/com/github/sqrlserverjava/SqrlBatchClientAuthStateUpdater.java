@@ -0,0 +1,30 @@
+package com.github.sqrlserverjava;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * A {@link SqrlClientAuthStateUpdater} which receives status changes in batches, so an implementation which writes to
+ * the network can send them together. Batches are delivered by {@link SqrlAuthStatusDispatcher}; implementations of
+ * the single item interface are adapted with {@link SqrlSingleItemAuthStateUpdaterAdapter}
+ *
+ * @author Dave Badia
+ *
+ */
+public interface SqrlBatchClientAuthStateUpdater extends SqrlClientAuthStateUpdater {
+
+	/**
+	 * Invoked by {@link SqrlAuthStatusDispatcher} with changes to push to browsers. A batch holds at most one change
+	 * per correlator, and a correlator's changes are never delivered concurrently or out of order
+	 */
+	public void pushStatusUpdatesToBrowsers(List<SqrlAuthStatusUpdate> updateList);
+
+	@Override
+	public default void pushStatusUpdateToBrowser(final String browserId,
+			final SqrlAuthenticationStatus oldAuthStatus, final SqrlAuthenticationStatus newAuthStatus) {
+		pushStatusUpdatesToBrowsers(Collections.singletonList(
+				new SqrlAuthStatusUpdate(browserId, oldAuthStatus, newAuthStatus, System.currentTimeMillis())));
+	}
+}
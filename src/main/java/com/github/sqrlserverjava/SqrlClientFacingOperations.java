@@ -49,10 +49,12 @@ import com.github.sqrlserverjava.enums.SqrlRequestCommand;
 import com.github.sqrlserverjava.enums.SqrlRequestOpt;
 import com.github.sqrlserverjava.enums.SqrlServerSideKey;
 import com.github.sqrlserverjava.exception.SqrlClientRequestProcessingException;
+import com.github.sqrlserverjava.exception.SqrlConcurrentUpdateException;
 import com.github.sqrlserverjava.exception.SqrlException;
 import com.github.sqrlserverjava.exception.SqrlInvalidRequestException;
 import com.github.sqrlserverjava.persistence.SqrlAutoCloseablePersistence;
 import com.github.sqrlserverjava.persistence.SqrlCorrelator;
+import com.github.sqrlserverjava.persistence.SqrlWriteBehindQueue;
 import com.github.sqrlserverjava.util.SqrlConstants;
 import com.github.sqrlserverjava.util.SqrlUtil;
 
@@ -110,8 +112,9 @@ public class SqrlClientFacingOperations {
 			SqrlClientRequest sqrlClientRequest = null;
 			// Per the spec, SQRL transactions are atomic; so we create our persistence here and only commit after all
 			// processing is completed successfully
-			SqrlPersistence sqrlPersistence = createSqrlPersistence();
+			final SqrlPersistence sqrlPersistence = createSqrlPersistence();
 			Exception exception = null;
+			SqrlAuthenticationStatus authStatusChange = null;
 			try {
 				// Get the correlator first. Then, if the request is invalid, we can update the auth page saying so
 				correlator = SqrlClientRequest.parseCorrelatorOnly(servletRequest);
@@ -126,6 +129,7 @@ public class SqrlClientFacingOperations {
 				validateIpsMatch(sqrlClientRequest.getNut(), servletRequest, tifBuilder, sqrlClientRequest);
 				validateNut(correlator, sqrlClientRequest.getNut(), config, sqrlPersistence);
 				sqrlInternalUserState = processor.processClientCommand();
+				authStatusChange = processor.getAuthStatusChange();
 				if (sqrlInternalUserState == IDK_EXISTS) {
 					tifBuilder.addFlag(SqrlTifFlag.CURRENT_ID_MATCH);
 				} else if (sqrlInternalUserState == PIDK_EXISTS) {
@@ -134,13 +138,22 @@ public class SqrlClientFacingOperations {
 				servletResponse.setStatus(HttpServletResponse.SC_OK);
 				requestState = "OK";
 				sqrlPersistence.closeCommit();
+				queueCommunicatingStatus(correlator, sqrlClientRequest);
 			} catch (final SqrlException | RuntimeException e) {
 				exception = e;
-				sqrlPersistence.closeRollback();
+				// A failed commit has already closed the persistence
+				if (!sqrlPersistence.isClosed()) {
+					sqrlPersistence.closeRollback();
+				}
 				tifBuilder.clearAllFlags().addFlag(SqrlTifFlag.COMMAND_FAILED);
 				if (e instanceof SqrlClientRequestProcessingException) {
 					tifBuilder.addFlag(((SqrlClientRequestProcessingException) e).getTifToAdd());
 					logger.error(formatForLogging("Received invalid request from SQRL client: {}"), e.getMessage(), e);
+				} else if (e instanceof SqrlConcurrentUpdateException) {
+					// Not idempotent (the nut is now used) so we can't retry, the client may retry with a new request
+					tifBuilder.addFlag(SqrlTifFlag.TRANSIENT_ERROR);
+					logger.warn(formatForLogging("SQRL request conflicted with a concurrent correlator update: {}"),
+							e.getMessage());
 				} else {
 					logger.error(formatForLogging("General exception processing SQRL request: {}"), e.getMessage(), e);
 				}
@@ -152,44 +165,23 @@ public class SqrlClientFacingOperations {
 
 			// We have processed the request, success or failure. Now prep and transmit the reply
 			String serverReplyString = ""; // for logging
-			sqrlPersistence = persistenceFactory.createSqrlPersistence();
 			try {
 				final SqrlTifResponse tif = tifBuilder.createTif();
-				final boolean isInErrorState = exception != null;
-				final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
-				serverReplyString = buildReply(servletRequest, sqrlClientRequest, tif, sqrlCorrelator,
-						sqrlInternalUserState, isInErrorState);
-				// Don't use AutoClosable here, we will handle it ourselves
-				if (isInErrorState || sqrlInternalUserState == DISABLED) {
-					tifBuilder.addFlag(SqrlTifFlag.COMMAND_FAILED);
-					// update the correlator with the proper error state
-					SqrlAuthenticationStatus authErrorState = SqrlAuthenticationStatus.ERROR_SQRL_INTERNAL;
-					if (exception instanceof SqrlInvalidRequestException) {
-						authErrorState = SqrlAuthenticationStatus.ERROR_BAD_REQUEST;
-					} else if (sqrlInternalUserState == DISABLED) {
-						authErrorState = SqrlAuthenticationStatus.SQRL_USER_DISABLED;
-					}
-					sqrlCorrelator.setAuthenticationStatus(authErrorState);
-					// There should be no further requests so remove the parrot value
-					if (sqrlCorrelator.getTransientAuthDataTable()
-							.remove(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT) == null) {
-						logger.warn(formatForLogging(
-								"Tried to remove server parrot since we are in error state but it doesn't exist"));
-					}
-				} else {
-					// Store the serverReplyString in the server parrot value so we can validate it on the clients next
-					// request
-					sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT,
-							serverReplyString);
-				}
-				sqrlPersistence.closeCommit();
+				final String replyCorrelator = correlator;
+				final SqrlClientRequest replyClientRequest = sqrlClientRequest;
+				final SqrlInternalUserState replyUserState = sqrlInternalUserState;
+				final Exception processingException = exception;
+				// Storing the reply is idempotent, so it is retried if the browser updated the correlator concurrently
+				serverReplyString = SqrlServerOperations.runIdempotentTransaction(configOperations, "storeReply",
+						replyPersistence -> storeReply(servletRequest, replyPersistence, replyCorrelator,
+								replyClientRequest, tif, tifBuilder, replyUserState, processingException));
+				publishAuthStatusChange(correlator, exception, sqrlInternalUserState, authStatusChange);
 				transmitReplyToSqrlClient(servletResponse, serverReplyString);
 				logger.info(formatForLogging("SQRL client request processing complete"), "requestState", requestState,
 						"tif",
 						tif.toHexStringWith0x(), "serverReplyString",
 						SqrlUtil.base64UrlDecodeToStringOrErrorMessage(serverReplyString), paramsForLogging);
 			} catch (final SqrlException | RuntimeException e) {
-				sqrlPersistence.closeRollback();
 				logger.error(
 						formatForLogging("Error sending SQRL reply, response not sent", "requestState", requestState,
 								"responseNotSent", SqrlUtil.base64UrlDecodeToStringOrErrorMessage(serverReplyString)),
@@ -200,6 +192,78 @@ public class SqrlClientFacingOperations {
 		}
 	}
 
+	/**
+	 * Records that the SQRL client has made contact. This is a write of its own rather than a deferred one, nothing
+	 * else stores COMMUNICATING. It is only made when write-behind is enabled, so it is batched and kept off the
+	 * request transaction. Other cluster nodes use it to show progress on the login page and to stop backing
+	 * off, see {@link SqrlConfig#getAuthSyncMaxBackoffInMillis()}
+	 */
+	private void queueCommunicatingStatus(final String correlator, final SqrlClientRequest sqrlClientRequest) {
+		final SqrlWriteBehindQueue writeBehindQueue = configOperations.getWriteBehindQueue();
+		if (writeBehindQueue != null && sqrlClientRequest.getClientCommand() == SqrlRequestCommand.QUERY
+				&& !writeBehindQueue.queueCorrelatorCommunicating(correlator)) {
+			logger.debug(formatForLogging("Write-behind queue full or shut down, COMMUNICATING not recorded for {}"),
+					correlator);
+		}
+	}
+
+	private static SqrlAuthenticationStatus computeAuthErrorState(final Exception exception,
+			final SqrlInternalUserState sqrlInternalUserState) {
+		if (exception instanceof SqrlInvalidRequestException) {
+			return SqrlAuthenticationStatus.ERROR_BAD_REQUEST;
+		} else if (sqrlInternalUserState == DISABLED) {
+			return SqrlAuthenticationStatus.SQRL_USER_DISABLED;
+		}
+		return SqrlAuthenticationStatus.ERROR_SQRL_INTERNAL;
+	}
+
+	/**
+	 * Notifies in-process listeners of the status the committed reply left the correlator in, see
+	 * {@link SqrlAuthStatusEventBus}
+	 */
+	private void publishAuthStatusChange(final String correlator, final Exception exception,
+			final SqrlInternalUserState sqrlInternalUserState, final SqrlAuthenticationStatus authStatusChange) {
+		if (exception != null || sqrlInternalUserState == DISABLED) {
+			configOperations.getAuthStatusEventBus().publish(correlator,
+					computeAuthErrorState(exception, sqrlInternalUserState));
+		} else if (authStatusChange != null) {
+			configOperations.getAuthStatusEventBus().publish(correlator, authStatusChange);
+		}
+	}
+
+	/**
+	 * Updates the correlator with the outcome of the request and stores the reply for validation of the clients next
+	 * request
+	 *
+	 * @return the reply to send to the SQRL client
+	 */
+	private String storeReply(final HttpServletRequest servletRequest, final SqrlPersistence sqrlPersistence,
+			final String correlator, final SqrlClientRequest sqrlClientRequest, final SqrlTifResponse tif,
+			final SqrlTifResponseBuilder tifBuilder, final SqrlInternalUserState sqrlInternalUserState,
+			final Exception exception) throws SqrlException {
+		final boolean isInErrorState = exception != null;
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
+		final String serverReplyString = buildReply(servletRequest, sqrlClientRequest, tif, sqrlCorrelator,
+				sqrlInternalUserState, isInErrorState);
+		if (isInErrorState || sqrlInternalUserState == DISABLED) {
+			tifBuilder.addFlag(SqrlTifFlag.COMMAND_FAILED);
+			// update the correlator with the proper error state
+			sqrlCorrelator.setAuthenticationStatus(computeAuthErrorState(exception, sqrlInternalUserState));
+			// There should be no further requests so remove the parrot value
+			if (sqrlCorrelator.getTransientAuthDataTable()
+					.remove(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT) == null) {
+				logger.warn(formatForLogging(
+						"Tried to remove server parrot since we are in error state but it doesn't exist"));
+			}
+		} else {
+			// Store the serverReplyString in the server parrot value so we can validate it on the clients next
+			// request
+			sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT,
+					serverReplyString);
+		}
+		return serverReplyString;
+	}
+
 	/**
 	 * Validates the {@link SqrlNutToken0} from the {@link SqrlClientRequest} by:<br/>
 	 * <li>1. check the timestamp embedded in the Nut has expired
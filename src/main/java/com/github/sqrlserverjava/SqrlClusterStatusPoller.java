@@ -0,0 +1,182 @@
+package com.github.sqrlserverjava;
+
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.exception.SqrlIllegalStateException;
+import com.github.sqrlserverjava.persistence.SqrlTimeOrderedIdGenerator;
+import com.github.sqrlserverjava.util.SqrlServiceExecutor;
+
+/**
+ * Reads the correlator change feed once for the whole cluster instead of once per node. Every node runs a poller, but
+ * only the one holding the lease in persistence reads the feed; it publishes the changes through a
+ * {@link SqrlClusterStatusTransport} and every node hands what it receives to its {@link AuthStateMonitor}. Database
+ * load from status polling therefore stays flat as nodes are added.
+ * <p>
+ * The leader renews the lease every 1/3 of {@link SqrlConfig#getAuthSyncClusterLeaseMillis()} and the other nodes try
+ * to take it just as often, so a leader which dies is replaced within about 4/3 of the lease time. A new leader reads
+ * back far enough to cover anything its predecessor may have missed; changes delivered twice are ignored by the
+ * monitor. Changes the feed misses altogether, such as late commits, are found by each monitor's own safety net
+ * checks
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlClusterStatusPoller implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlClusterStatusPoller.class);
+
+	static final String LEASE_NAME = "auth_status_leader";
+
+	private final SqrlServerOperations			sqrlServerOperations;
+	private final AuthStateMonitor				authStateMonitor;
+	private final SqrlClusterStatusTransport	transport;
+	private final long							tickMillis;
+	private final long							leaseMillis;
+	private final long							leaseCheckIntervalMillis;
+	private final long							changeFeedOverlapMillis;
+
+	/**
+	 * Guarded by this. heldUntil is the lease expiry we last wrote, 0 when we don't hold it
+	 */
+	private long	heldUntil				= 0;
+	private long	nextLeaseCheckAt		= 0;
+	private long	lastChangeFeedCheckAt	= 0;
+
+	public SqrlClusterStatusPoller(final SqrlConfig sqrlConfig, final SqrlServerOperations sqrlServerOperations,
+			final AuthStateMonitor authStateMonitor, final SqrlClusterStatusTransport transport) {
+		if (sqrlConfig.getAuthSyncChangeFeedOverlapMillis() <= 0) {
+			throw new SqrlIllegalStateException(
+					"authSyncChangeFeedOverlapMillis must be set when authSyncClusterLeaseMillis is used");
+		}
+		this.sqrlServerOperations = sqrlServerOperations;
+		this.authStateMonitor = authStateMonitor;
+		this.transport = transport;
+		this.tickMillis = AuthStatePollingPolicy.fromConfig(sqrlConfig).getTickMillis();
+		this.leaseMillis = sqrlConfig.getAuthSyncClusterLeaseMillis();
+		this.leaseCheckIntervalMillis = Math.max(1, leaseMillis / 3);
+		this.changeFeedOverlapMillis = sqrlConfig.getAuthSyncChangeFeedOverlapMillis();
+	}
+
+	/**
+	 * Instantiates and initializes the transport named by {@link SqrlConfig#getAuthSyncClusterTransportClass()}
+	 */
+	static SqrlClusterStatusTransport createTransport(final SqrlConfig sqrlConfig) {
+		final String classname = sqrlConfig.getAuthSyncClusterTransportClass();
+		try {
+			final Class<?> clazz = Class.forName(classname);
+			final Constructor<?> constructor = clazz.getConstructor();
+			final Object object = constructor.newInstance();
+			if (!(object instanceof SqrlClusterStatusTransport)) {
+				throw new SqrlIllegalStateException("SQRL authSyncClusterTransportClass of " + classname
+						+ " was not an instance of SqrlClusterStatusTransport");
+			}
+			final SqrlClusterStatusTransport transport = (SqrlClusterStatusTransport) object;
+			transport.init(sqrlConfig);
+			return transport;
+		} catch (final ReflectiveOperationException e) {
+			throw new SqrlIllegalStateException(
+					"SQRL: Error instantiating authSyncClusterTransportClass of " + classname, e);
+		}
+	}
+
+	public void start(final SqrlServiceExecutor executor) {
+		executor.scheduleAtFixedRate(this, 0, tickMillis, TimeUnit.MILLISECONDS);
+		executor.runOnShutdown(this::shutdown);
+	}
+
+	@Override
+	public synchronized void run() {
+		try {
+			final long now = currentTimeMillis();
+			if (now >= nextLeaseCheckAt) {
+				checkLease(now);
+			}
+			if (isLeader(now)) {
+				pollChangeFeed(now);
+			}
+		} catch (final Throwable t) { // Don't let anything escape
+			logger.error("Error reading the correlator change feed for the cluster", t);
+		}
+		try {
+			final Map<String, SqrlAuthenticationStatus> receivedTable = transport.receive();
+			if (!receivedTable.isEmpty()) {
+				authStateMonitor.clusterStatusChanged(receivedTable);
+			}
+		} catch (final Throwable t) { // Don't let anything escape
+			logger.error("Error receiving cluster status changes", t);
+		}
+	}
+
+	private void checkLease(final long now) {
+		nextLeaseCheckAt = now + leaseCheckIntervalMillis;
+		final long newExpiry = now + leaseMillis;
+		final boolean acquired;
+		try {
+			acquired = sqrlServerOperations.compareAndSetLease(LEASE_NAME, heldUntil, now, newExpiry);
+		} catch (final RuntimeException e) {
+			// Includes losing the race to create the lease row. If we held the lease we still do until it expires
+			logger.info("Error updating the cluster status poller lease: {}", e.getMessage());
+			return;
+		}
+		if (acquired) {
+			if (!isLeader(now)) {
+				logger.info("process=init detail=\"This node is now the cluster status poller, lease {} ms\"",
+						leaseMillis);
+				// The previous leader may have stopped reading up to a full lease and check interval ago
+				lastChangeFeedCheckAt = now - leaseMillis - leaseCheckIntervalMillis - tickMillis;
+			}
+			heldUntil = newExpiry;
+		} else if (heldUntil != 0) {
+			logger.warn("Lost the cluster status poller lease to another node");
+			heldUntil = 0;
+		}
+	}
+
+	private boolean isLeader(final long now) {
+		return heldUntil > now;
+	}
+
+	private void pollChangeFeed(final long now) {
+		final long changeSequence = SqrlTimeOrderedIdGenerator
+				.firstIdAt(lastChangeFeedCheckAt - changeFeedOverlapMillis);
+		final Map<String, SqrlAuthenticationStatus> changedTable = sqrlServerOperations
+				.fetchSqrlCorrelatorStatusChangedSince(changeSequence);
+		lastChangeFeedCheckAt = now;
+		if (!changedTable.isEmpty()) {
+			logger.debug("Publishing {} correlator status changes to the cluster", changedTable.size());
+			transport.publish(changedTable);
+		}
+	}
+
+	/**
+	 * @return true if this node currently holds the lease
+	 */
+	public synchronized boolean isLeader() {
+		return isLeader(currentTimeMillis());
+	}
+
+	/**
+	 * Releases the lease, if held, so another node takes over on its next check rather than waiting for it to expire
+	 */
+	public synchronized void shutdown() {
+		try {
+			if (heldUntil != 0) {
+				sqrlServerOperations.compareAndSetLease(LEASE_NAME, heldUntil, currentTimeMillis(), 0);
+				heldUntil = 0;
+			}
+		} catch (final RuntimeException e) {
+			logger.warn("Error releasing the cluster status poller lease, it will expire on its own", e);
+		} finally {
+			transport.shutdown();
+		}
+	}
+
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,42 @@
+package com.github.sqrlserverjava;
+
+import java.util.Map;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * Carries the correlator status changes read by the {@link SqrlClusterStatusPoller} leader to every node in the
+ * cluster, including the leader itself. The same change may be published more than once, which receivers tolerate.
+ * <p>
+ * Implementations must have a no-arg constructor, see {@link SqrlConfig#getAuthSyncClusterTransportClass()}
+ *
+ * @author Dave Badia
+ *
+ */
+public interface SqrlClusterStatusTransport {
+
+	/**
+	 * Invoked once, before any other method
+	 */
+	public void init(SqrlConfig sqrlConfig);
+
+	/**
+	 * Invoked on the leader with each batch of changes it reads
+	 *
+	 * @param changedTable
+	 *            table of correlators and their new status
+	 */
+	public void publish(Map<String, SqrlAuthenticationStatus> changedTable);
+
+	/**
+	 * Invoked on every node once per tick
+	 *
+	 * @return the changes published by any node since the previous call, never null
+	 */
+	public Map<String, SqrlAuthenticationStatus> receive();
+
+	/**
+	 * Invoked when the node shuts down
+	 */
+	public void shutdown();
+}
@@ -14,8 +14,11 @@ import com.github.sqrlserverjava.backchannel.nut.SqrlNutToken0;
 import com.github.sqrlserverjava.backchannel.nut.SqrlNutToken2Embedded;
 import com.github.sqrlserverjava.backchannel.nut.SqrlNutTokenLegacyFormat;
 import com.github.sqrlserverjava.backchannel.nut.SqrlNutToken1SingleBlockFormat;
+import com.github.sqrlserverjava.enums.SqrlIdGeneratorType;
 import com.github.sqrlserverjava.enums.SqrlQrCodeImageFormat;
+import com.github.sqrlserverjava.persistence.SqrlIdentityCache;
 import com.github.sqrlserverjava.persistence.SqrlJpaPersistenceFactory;
+import com.github.sqrlserverjava.persistence.SqrlShardedPersistenceFactory;
 
 // @formatter:off
 /**
@@ -201,6 +204,261 @@ public class SqrlConfig {
 	 */
 	private int	sqrlDomainExtensionSpecifierUriCount = 0;
 
+	/**
+	 * The maximum number of SQRL identities to hold in the cross request identity read cache. Returning users
+	 * repeatedly trigger the same identity lookups (existence, flags, suk) so caching them saves several queries
+	 * per SQRL client request.
+	 *
+	 * Default: 0 (cache disabled)
+	 *
+	 * @see SqrlIdentityCache
+	 */
+	private int	identityCacheMaxSize = 0;
+
+	/**
+	 * The amount of time an entry in the SQRL identity read cache is considered valid. Ignored if
+	 * {@link #identityCacheMaxSize} is 0
+	 *
+	 * Default: 60
+	 */
+	private int	identityCacheTtlSeconds = 60;
+
+	/**
+	 * If true, every identity cache hit is validated with a lightweight version query so that changes made by
+	 * other nodes in a cluster are detected. Should be enabled for multi-node deployments. Ignored if
+	 * {@link #identityCacheMaxSize} is 0
+	 *
+	 * Default: false
+	 */
+	private boolean	identityCacheVersionCheck = false;
+
+	/**
+	 * The strategy used to assign database ids to new correlators and identities. POOLED allocates blocks of
+	 * {@link #idGeneratorBlockSize} ids from the sqrl_db_id_gen table. TIME_ORDERED computes ids locally and never
+	 * touches the database, see {@link #idGeneratorNodeId}
+	 *
+	 * Default: POOLED
+	 */
+	private SqrlIdGeneratorType	idGeneratorType = SqrlIdGeneratorType.POOLED;
+
+	/**
+	 * The number of ids reserved from the sqrl_db_id_gen table at a time when {@link #idGeneratorType} is POOLED.
+	 * Larger values mean fewer round trips to the hot id generator row but larger gaps in ids after a restart
+	 *
+	 * Default: 50
+	 */
+	private int	idGeneratorBlockSize = 50;
+
+	/**
+	 * The node id (0-1023) embedded in ids when {@link #idGeneratorType} is TIME_ORDERED. Each server in a cluster
+	 * must be assigned a unique value. -1 selects a random node id which is only suitable for a single server
+	 *
+	 * Default: -1 (random)
+	 */
+	private int	idGeneratorNodeId = -1;
+
+	/**
+	 * If true, new correlators store their transient auth data (server parrot, entry URL, CPS nonce) in a single
+	 * compact column on sqrl_correlator instead of rows in sqrl_transient_auth_data. This saves a query on every
+	 * correlator fetch and several statements on every update. Correlators stored in the legacy format remain readable
+	 * so this can be enabled at any time once the transient_auth_data column has been added
+	 *
+	 * Default: false
+	 */
+	private boolean	compactTransientAuthData = false;
+
+	/**
+	 * The maximum number of expired rows of each type the cleanup task deletes in a single transaction. Keeping
+	 * transactions small avoids long running row locks after a traffic spike
+	 *
+	 * Default: 500
+	 */
+	private int	cleanupChunkSize = 500;
+
+	/**
+	 * The maximum rate at which the cleanup task deletes expired rows; the task pauses between chunks to stay
+	 * within this budget. 0 disables throttling
+	 *
+	 * Default: 2000
+	 */
+	private int	cleanupMaxRowsPerSecond = 2000;
+
+	/**
+	 * Comma separated list of JPA persistence unit names that {@link SqrlShardedPersistenceFactory} distributes
+	 * correlators and nut tokens across via consistent hashing. Adding a unit remaps roughly 1/N of the keys, so only
+	 * change this list when there are no logins in flight
+	 */
+	private String	persistenceShardUnitNames = null;
+
+	/**
+	 * If true, {@link SqrlShardedPersistenceFactory} distributes SqrlIdentity rows across the shards by idk hash;
+	 * otherwise all identities are stored on the first unit in {@link #persistenceShardUnitNames}
+	 */
+	private boolean	persistenceShardIdentitiesByIdk = false;
+
+	/**
+	 * Optional JPA persistence unit name of a read only replica of the primary database. When set, status polling and
+	 * browser side correlator reads are served from the replica, see {@link #readReplicaMaxStalenessMillis}
+	 */
+	private String	readReplicaPersistenceUnitName = null;
+
+	/**
+	 * The maximum replication lag, in millis, that is tolerated before reads are routed back to the primary.
+	 * Correlators which the replica reports as missing or in a terminal state are always re-read from the primary
+	 */
+	private long	readReplicaMaxStalenessMillis = 2000;
+
+	/**
+	 * Debug aid which detects persistence objects that are never closed. 0 disables tracking, 1 tracks every
+	 * persistence object and N tracks a random 1 in N. Tracked objects record their creation stack and are closed if
+	 * idle for too long; untracked objects have no overhead
+	 */
+	private int	leakTrackingSampleInterval = 0;
+
+	/**
+	 * If true, used nut tokens are stored under a fixed size 128 bit hash (22 base64url characters) of the token instead
+	 * of the full token string. Part of the optional binary storage keys schema, see META-INF/sqrl-binary-keys-orm.xml.
+	 * Tokens already marked as used under the other format will not be recognized, so only change this setting while
+	 * the server is stopped for longer than nutValidityInSeconds
+	 */
+	private boolean	hashNutTokenKeys = false;
+
+	/**
+	 * The number of times an idempotent correlator update (such as storing the backchannel reply or deleting the
+	 * correlator) is retried when it fails because another request modified the same correlator. Updates which are not
+	 * idempotent are never retried and fail with SqrlConcurrentUpdateException
+	 */
+	private int	correlatorConflictRetries = 2;
+
+	/**
+	 * How often, in milliseconds, non-critical writes queued by the write-behind queue are flushed to persistence.
+	 * 0 (the default) disables write-behind. Queued writes are best effort: see SqrlWriteBehindQueue for which writes
+	 * are eligible and what happens if they are lost.
+	 * <p>
+	 * Setting this also makes the server record when a SQRL client first makes contact, by moving the correlator from
+	 * CORRELATOR_ISSUED to COMMUNICATING. This is an extra write which isn't made otherwise. It is batched into one
+	 * update per flush and never touches the request transaction. It lets login pages served by another cluster node
+	 * show progress, and it ends the authSyncMaxBackoffInMillis back off for that correlator
+	 */
+	private int	writeBehindFlushMillis = 0;
+
+	/**
+	 * The maximum number of coalesced writes held by the write-behind queue. Once full, further writes are dropped
+	 * until the next flush; a dropped COMMUNICATING write only means other nodes don't see that SQRL client's first
+	 * contact
+	 */
+	private int	writeBehindMaxPending = 10000;
+
+	/**
+	 * Status changes made by SQRL client requests handled in this JVM are pushed to the browser as soon as they are
+	 * committed. When this is greater than zero, the persistence queries made every authSyncCheckInMillis are reduced to
+	 * this slower interval and only serve as a safety net for missed changes. Leave at 0 (the default) when SQRL client
+	 * requests may be handled by a different cluster node than the browser
+	 */
+	private long	authSyncSafetyNetInMillis = 0;
+
+	/**
+	 * The upper bound on the time between persistence queries for a single correlator. Correlators whose SQRL client
+	 * is communicating are always checked every authSyncCheckInMillis; correlators which are still waiting for a SQRL
+	 * client are checked less often as they age, up to this interval. Set to 0 (the default) to check every
+	 * correlator every authSyncCheckInMillis.
+	 * <p>
+	 * The server only records that a SQRL client is communicating when writeBehindFlushMillis is set. Without it a
+	 * correlator stays backed off until authentication completes, so a login completed on another cluster node can
+	 * be seen up to this long after the fact
+	 *
+	 * Default: 0
+	 */
+	private long	authSyncMaxBackoffInMillis = 0;
+
+	/**
+	 * How long BrowserFacingOperations.handleAuthStatusRequest parks a browser status request waiting for a change
+	 * before answering with the unchanged status (long poll) or ending the stream (server-sent events). Should be
+	 * less than any proxy idle timeout between the browser and the server
+	 *
+	 * Default: 30000
+	 */
+	private long	authStatusLongPollTimeoutMillis = 30000;
+
+	/**
+	 * When greater than zero, AuthStateMonitor asks persistence for every correlator whose status changed since its
+	 * previous check instead of checking each monitored correlator, so the cost no longer depends on how many login pages
+	 * are open. Each check reaches back this far before the previous one to allow for clock skew between servers and for
+	 * transactions which were still in flight, so it should exceed both. Requires the change_seq column, see sqrl.ddl
+	 *
+	 * Default: 0 (disabled)
+	 */
+	private long	authSyncChangeFeedOverlapMillis = 0;
+
+	/**
+	 * When greater than 0, a single node in the cluster holds a lease of this many milliseconds in the sqrl_lease
+	 * table and reads the correlator change feed on behalf of every node, publishing the changes through
+	 * {@link #authSyncClusterTransportClass}. Requires {@link #authSyncChangeFeedOverlapMillis}. If the leader dies another
+	 * node takes over within about 4/3 of this time. 0 (the default) has each node read the change feed itself
+	 *
+	 * @see SqrlClusterStatusPoller
+	 */
+	private long	authSyncClusterLeaseMillis = 0;
+
+	/**
+	 * The {@link SqrlClusterStatusTransport} the cluster status poller leader publishes changes with. Only used when
+	 * {@link #authSyncClusterLeaseMillis} is set. The default in-JVM transport only reaches nodes in the same JVM, see
+	 * {@link SqrlFileClusterStatusTransport} for one which works across JVMs
+	 */
+	private String	authSyncClusterTransportClass = "com.github.sqrlserverjava.SqrlInJvmClusterStatusTransport";
+
+	/**
+	 * The shared file used by {@link SqrlFileClusterStatusTransport}
+	 */
+	private String	authSyncClusterTransportFile = null;
+
+	/**
+	 * The number of threads used to deliver status changes to the {@link #clientAuthStateUpdaterClass}, so a slow updater
+	 * doesn't hold up the auth state checks. Changes to the same correlator are always delivered in order. 0 (the default)
+	 * delivers changes on the thread which detected them
+	 *
+	 * @see SqrlAuthStatusDispatcher
+	 */
+	private int	authStatusDispatchThreads = 0;
+
+	/**
+	 * The maximum number of status changes waiting for delivery to the {@link #clientAuthStateUpdaterClass} when
+	 * {@link #authStatusDispatchThreads} is set. Once full, further changes are delivered on the thread which detected
+	 * them
+	 */
+	private int	authStatusDispatchMaxQueued = 10000;
+
+	/**
+	 * The number of hash partitions AuthStateMonitor splits monitored correlators into. Each partition's due
+	 * correlators are checked with their own query, in parallel when {@link #authSyncPartitionThreads} is set. Default: 1
+	 */
+	private int	authSyncPartitionCount = 1;
+
+	/**
+	 * The size of the pool which checks AuthStateMonitor partitions in parallel. 0 (the default) checks them one after
+	 * another on the monitor thread
+	 */
+	private int	authSyncPartitionThreads = 0;
+
+	/**
+	 * The most correlators a single partition checks per run, so a run keeps to its tick however many login pages are
+	 * open. The most overdue correlators are checked first, the rest stay due for the next run. Default: 4096
+	 */
+	private int	authSyncMaxChecksPerPartition = 4096;
+
+	/**
+	 * The most correlator statuses kept in memory to answer browser status polls without a persistence query, see
+	 * {@link BrowserFacingOperations#handleAuthStatusPoll}. Without AuthStateMonitor a change committed by another
+	 * server can be up to {@link #authStatusCacheTtlMillis} late. 0 disables the cache. Default: 0
+	 */
+	private int	authStatusCacheMaxSize = 0;
+
+	/**
+	 * How long a cached correlator status is used before persistence is read again. Changes made in this JVM or seen by
+	 * AuthStateMonitor update the cache straight away, this bounds how stale any other change can be. Default: 30000
+	 */
+	private long	authStatusCacheTtlMillis = 30000;
+
 	// @formatter:on
 
 	/* *********************************************************************************************/
@@ -500,29 +758,445 @@ public class SqrlConfig {
 		this.sqrlDomainExtensionSpecifierUriCount = sqrlDomainExtensionSpecifierUriCount;
 	}
 
+	@XmlElement(required = false)
+	public int getIdentityCacheMaxSize() {
+		return identityCacheMaxSize;
+	}
+
+	/**
+	 * @see #identityCacheMaxSize
+	 */
+	public void setIdentityCacheMaxSize(final int identityCacheMaxSize) {
+		this.identityCacheMaxSize = identityCacheMaxSize;
+	}
+
+	@XmlElement(required = false)
+	public int getIdentityCacheTtlSeconds() {
+		return identityCacheTtlSeconds;
+	}
+
+	/**
+	 * @see #identityCacheTtlSeconds
+	 */
+	public void setIdentityCacheTtlSeconds(final int identityCacheTtlSeconds) {
+		this.identityCacheTtlSeconds = identityCacheTtlSeconds;
+	}
+
+	@XmlElement(required = false)
+	public boolean isIdentityCacheVersionCheck() {
+		return identityCacheVersionCheck;
+	}
+
+	/**
+	 * @see #identityCacheVersionCheck
+	 */
+	public void setIdentityCacheVersionCheck(final boolean identityCacheVersionCheck) {
+		this.identityCacheVersionCheck = identityCacheVersionCheck;
+	}
+
+	@XmlElement(required = false)
+	public SqrlIdGeneratorType getIdGeneratorType() {
+		return idGeneratorType;
+	}
+
+	/**
+	 * @see #idGeneratorType
+	 */
+	public void setIdGeneratorType(final SqrlIdGeneratorType idGeneratorType) {
+		this.idGeneratorType = idGeneratorType;
+	}
+
+	@XmlElement(required = false)
+	public int getIdGeneratorBlockSize() {
+		return idGeneratorBlockSize;
+	}
+
+	/**
+	 * @see #idGeneratorBlockSize
+	 */
+	public void setIdGeneratorBlockSize(final int idGeneratorBlockSize) {
+		this.idGeneratorBlockSize = idGeneratorBlockSize;
+	}
+
+	@XmlElement(required = false)
+	public int getIdGeneratorNodeId() {
+		return idGeneratorNodeId;
+	}
+
+	/**
+	 * @see #idGeneratorNodeId
+	 */
+	public void setIdGeneratorNodeId(final int idGeneratorNodeId) {
+		this.idGeneratorNodeId = idGeneratorNodeId;
+	}
+
+	@XmlElement(required = false)
+	public boolean isCompactTransientAuthData() {
+		return compactTransientAuthData;
+	}
+
+	/**
+	 * @see #compactTransientAuthData
+	 */
+	public void setCompactTransientAuthData(final boolean compactTransientAuthData) {
+		this.compactTransientAuthData = compactTransientAuthData;
+	}
+
+	@XmlElement(required = false)
+	public int getCleanupChunkSize() {
+		return cleanupChunkSize;
+	}
+
+	/**
+	 * @see #cleanupChunkSize
+	 */
+	public void setCleanupChunkSize(final int cleanupChunkSize) {
+		this.cleanupChunkSize = cleanupChunkSize;
+	}
+
+	@XmlElement(required = false)
+	public int getCleanupMaxRowsPerSecond() {
+		return cleanupMaxRowsPerSecond;
+	}
+
+	/**
+	 * @see #cleanupMaxRowsPerSecond
+	 */
+	public void setCleanupMaxRowsPerSecond(final int cleanupMaxRowsPerSecond) {
+		this.cleanupMaxRowsPerSecond = cleanupMaxRowsPerSecond;
+	}
+
+	@XmlElement(required = false)
+	public String getPersistenceShardUnitNames() {
+		return persistenceShardUnitNames;
+	}
+
+	/**
+	 * @see #persistenceShardUnitNames
+	 */
+	public void setPersistenceShardUnitNames(final String persistenceShardUnitNames) {
+		this.persistenceShardUnitNames = persistenceShardUnitNames;
+	}
+
+	@XmlElement(required = false)
+	public boolean isPersistenceShardIdentitiesByIdk() {
+		return persistenceShardIdentitiesByIdk;
+	}
+
+	/**
+	 * @see #persistenceShardIdentitiesByIdk
+	 */
+	public void setPersistenceShardIdentitiesByIdk(final boolean persistenceShardIdentitiesByIdk) {
+		this.persistenceShardIdentitiesByIdk = persistenceShardIdentitiesByIdk;
+	}
+
+	@XmlElement(required = false)
+	public String getReadReplicaPersistenceUnitName() {
+		return readReplicaPersistenceUnitName;
+	}
+
+	/**
+	 * @see #readReplicaPersistenceUnitName
+	 */
+	public void setReadReplicaPersistenceUnitName(final String readReplicaPersistenceUnitName) {
+		this.readReplicaPersistenceUnitName = readReplicaPersistenceUnitName;
+	}
+
+	@XmlElement(required = false)
+	public long getReadReplicaMaxStalenessMillis() {
+		return readReplicaMaxStalenessMillis;
+	}
+
+	/**
+	 * @see #readReplicaMaxStalenessMillis
+	 */
+	public void setReadReplicaMaxStalenessMillis(final long readReplicaMaxStalenessMillis) {
+		this.readReplicaMaxStalenessMillis = readReplicaMaxStalenessMillis;
+	}
+
+	@XmlElement(required = false)
+	public int getLeakTrackingSampleInterval() {
+		return leakTrackingSampleInterval;
+	}
+
+	/**
+	 * @see #leakTrackingSampleInterval
+	 */
+	public void setLeakTrackingSampleInterval(final int leakTrackingSampleInterval) {
+		this.leakTrackingSampleInterval = leakTrackingSampleInterval;
+	}
+
+	@XmlElement(required = false)
+	public boolean isHashNutTokenKeys() {
+		return hashNutTokenKeys;
+	}
+
+	/**
+	 * @see #hashNutTokenKeys
+	 */
+	public void setHashNutTokenKeys(final boolean hashNutTokenKeys) {
+		this.hashNutTokenKeys = hashNutTokenKeys;
+	}
+
+	@XmlElement(required = false)
+	public int getCorrelatorConflictRetries() {
+		return correlatorConflictRetries;
+	}
+
+	/**
+	 * @see #correlatorConflictRetries
+	 */
+	public void setCorrelatorConflictRetries(final int correlatorConflictRetries) {
+		this.correlatorConflictRetries = correlatorConflictRetries;
+	}
+
+	@XmlElement(required = false)
+	public int getWriteBehindFlushMillis() {
+		return writeBehindFlushMillis;
+	}
+
+	/**
+	 * @see #writeBehindFlushMillis
+	 */
+	public void setWriteBehindFlushMillis(final int writeBehindFlushMillis) {
+		this.writeBehindFlushMillis = writeBehindFlushMillis;
+	}
+
+	@XmlElement(required = false)
+	public int getWriteBehindMaxPending() {
+		return writeBehindMaxPending;
+	}
+
+	/**
+	 * @see #writeBehindMaxPending
+	 */
+	public void setWriteBehindMaxPending(final int writeBehindMaxPending) {
+		this.writeBehindMaxPending = writeBehindMaxPending;
+	}
+
+	@XmlElement(required = false)
+	public long getAuthSyncSafetyNetInMillis() {
+		return authSyncSafetyNetInMillis;
+	}
+
+	/**
+	 * @see #authSyncSafetyNetInMillis
+	 */
+	public void setAuthSyncSafetyNetInMillis(final long authSyncSafetyNetInMillis) {
+		this.authSyncSafetyNetInMillis = authSyncSafetyNetInMillis;
+	}
+
+	@XmlElement(required = false)
+	public long getAuthSyncMaxBackoffInMillis() {
+		return authSyncMaxBackoffInMillis;
+	}
+
+	/**
+	 * @see #authSyncMaxBackoffInMillis
+	 */
+	public void setAuthSyncMaxBackoffInMillis(final long authSyncMaxBackoffInMillis) {
+		this.authSyncMaxBackoffInMillis = authSyncMaxBackoffInMillis;
+	}
+
+	@XmlElement(required = false)
+	public long getAuthStatusLongPollTimeoutMillis() {
+		return authStatusLongPollTimeoutMillis;
+	}
+
+	/**
+	 * @see #authStatusLongPollTimeoutMillis
+	 */
+	public void setAuthStatusLongPollTimeoutMillis(final long authStatusLongPollTimeoutMillis) {
+		this.authStatusLongPollTimeoutMillis = authStatusLongPollTimeoutMillis;
+	}
+
+	@XmlElement(required = false)
+	public long getAuthSyncChangeFeedOverlapMillis() {
+		return authSyncChangeFeedOverlapMillis;
+	}
+
+	/**
+	 * @see #authSyncChangeFeedOverlapMillis
+	 */
+	public void setAuthSyncChangeFeedOverlapMillis(final long authSyncChangeFeedOverlapMillis) {
+		this.authSyncChangeFeedOverlapMillis = authSyncChangeFeedOverlapMillis;
+	}
+
+	@XmlElement(required = false)
+	public long getAuthSyncClusterLeaseMillis() {
+		return authSyncClusterLeaseMillis;
+	}
+
+	/**
+	 * @see #authSyncClusterLeaseMillis
+	 */
+	public void setAuthSyncClusterLeaseMillis(final long authSyncClusterLeaseMillis) {
+		this.authSyncClusterLeaseMillis = authSyncClusterLeaseMillis;
+	}
+
+	@XmlElement(required = false)
+	public String getAuthSyncClusterTransportClass() {
+		return authSyncClusterTransportClass;
+	}
+
+	/**
+	 * @see #authSyncClusterTransportClass
+	 */
+	public void setAuthSyncClusterTransportClass(final String authSyncClusterTransportClass) {
+		this.authSyncClusterTransportClass = authSyncClusterTransportClass;
+	}
+
+	@XmlElement(required = false)
+	public String getAuthSyncClusterTransportFile() {
+		return authSyncClusterTransportFile;
+	}
+
+	/**
+	 * @see #authSyncClusterTransportFile
+	 */
+	public void setAuthSyncClusterTransportFile(final String authSyncClusterTransportFile) {
+		this.authSyncClusterTransportFile = authSyncClusterTransportFile;
+	}
+
+	@XmlElement(required = false)
+	public int getAuthStatusDispatchThreads() {
+		return authStatusDispatchThreads;
+	}
+
+	/**
+	 * @see #authStatusDispatchThreads
+	 */
+	public void setAuthStatusDispatchThreads(final int authStatusDispatchThreads) {
+		this.authStatusDispatchThreads = authStatusDispatchThreads;
+	}
+
+	@XmlElement(required = false)
+	public int getAuthStatusDispatchMaxQueued() {
+		return authStatusDispatchMaxQueued;
+	}
+
+	/**
+	 * @see #authStatusDispatchMaxQueued
+	 */
+	public void setAuthStatusDispatchMaxQueued(final int authStatusDispatchMaxQueued) {
+		this.authStatusDispatchMaxQueued = authStatusDispatchMaxQueued;
+	}
+
+	@XmlElement(required = false)
+	public int getAuthSyncPartitionCount() {
+		return authSyncPartitionCount;
+	}
+
+	/**
+	 * @see #authSyncPartitionCount
+	 */
+	public void setAuthSyncPartitionCount(final int authSyncPartitionCount) {
+		this.authSyncPartitionCount = authSyncPartitionCount;
+	}
+
+	@XmlElement(required = false)
+	public int getAuthSyncPartitionThreads() {
+		return authSyncPartitionThreads;
+	}
+
+	/**
+	 * @see #authSyncPartitionThreads
+	 */
+	public void setAuthSyncPartitionThreads(final int authSyncPartitionThreads) {
+		this.authSyncPartitionThreads = authSyncPartitionThreads;
+	}
+
+	@XmlElement(required = false)
+	public int getAuthSyncMaxChecksPerPartition() {
+		return authSyncMaxChecksPerPartition;
+	}
+
+	/**
+	 * @see #authSyncMaxChecksPerPartition
+	 */
+	public void setAuthSyncMaxChecksPerPartition(final int authSyncMaxChecksPerPartition) {
+		this.authSyncMaxChecksPerPartition = authSyncMaxChecksPerPartition;
+	}
+
+	@XmlElement(required = false)
+	public int getAuthStatusCacheMaxSize() {
+		return authStatusCacheMaxSize;
+	}
+
+	/**
+	 * @see #authStatusCacheMaxSize
+	 */
+	public void setAuthStatusCacheMaxSize(final int authStatusCacheMaxSize) {
+		this.authStatusCacheMaxSize = authStatusCacheMaxSize;
+	}
+
+	@XmlElement(required = false)
+	public long getAuthStatusCacheTtlMillis() {
+		return authStatusCacheTtlMillis;
+	}
+
+	/**
+	 * @see #authStatusCacheTtlMillis
+	 */
+	public void setAuthStatusCacheTtlMillis(final long authStatusCacheTtlMillis) {
+		this.authStatusCacheTtlMillis = authStatusCacheTtlMillis;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((aesKeyBase64 == null) ? 0 : aesKeyBase64.hashCode());
+		result = prime * result + authStatusCacheMaxSize;
+		result = prime * result + (int) (authStatusCacheTtlMillis ^ (authStatusCacheTtlMillis >>> 32));
+		result = prime * result + authStatusDispatchMaxQueued;
+		result = prime * result + authStatusDispatchThreads;
+		result = prime * result + (int) (authStatusLongPollTimeoutMillis ^ (authStatusLongPollTimeoutMillis >>> 32));
+		result = prime * result + (int) (authSyncChangeFeedOverlapMillis ^ (authSyncChangeFeedOverlapMillis >>> 32));
 		result = prime * result + (int) (authSyncCheckInMillis ^ (authSyncCheckInMillis >>> 32));
+		result = prime * result + (int) (authSyncClusterLeaseMillis ^ (authSyncClusterLeaseMillis >>> 32));
+		result = prime * result + ((authSyncClusterTransportClass == null) ? 0 : authSyncClusterTransportClass.hashCode());
+		result = prime * result + ((authSyncClusterTransportFile == null) ? 0 : authSyncClusterTransportFile.hashCode());
+		result = prime * result + (int) (authSyncMaxBackoffInMillis ^ (authSyncMaxBackoffInMillis >>> 32));
+		result = prime * result + authSyncMaxChecksPerPartition;
+		result = prime * result + authSyncPartitionCount;
+		result = prime * result + authSyncPartitionThreads;
+		result = prime * result + (int) (authSyncSafetyNetInMillis ^ (authSyncSafetyNetInMillis >>> 32));
 		result = prime * result + ((backchannelServletPath == null) ? 0 : backchannelServletPath.hashCode());
+		result = prime * result + cleanupChunkSize;
+		result = prime * result + cleanupMaxRowsPerSecond;
 		result = prime * result + cleanupTaskExecInMinutes;
 		result = prime * result + ((clientAuthStateUpdaterClass == null) ? 0 : clientAuthStateUpdaterClass.hashCode());
+		result = prime * result + (compactTransientAuthData ? 1231 : 1237);
 		result = prime * result + ((cookieDomain == null) ? 0 : cookieDomain.hashCode());
 		result = prime * result + ((cookiePath == null) ? 0 : cookiePath.hashCode());
+		result = prime * result + correlatorConflictRetries;
 		result = prime * result + ((correlatorCookieName == null) ? 0 : correlatorCookieName.hashCode());
 		result = prime * result + ((cpsCancelUri == null) ? 0 : cpsCancelUri.hashCode());
 		result = prime * result + (enableCps ? 1231 : 1237);
 		result = prime * result + ((firstNutCookieName == null) ? 0 : firstNutCookieName.hashCode());
+		result = prime * result + (hashNutTokenKeys ? 1231 : 1237);
+		result = prime * result + identityCacheMaxSize;
+		result = prime * result + identityCacheTtlSeconds;
+		result = prime * result + (identityCacheVersionCheck ? 1231 : 1237);
+		result = prime * result + idGeneratorBlockSize;
+		result = prime * result + idGeneratorNodeId;
+		result = prime * result + ((idGeneratorType == null) ? 0 : idGeneratorType.hashCode());
 		result = prime * result + Arrays.hashCode(ipForwardedForHeader);
+		result = prime * result + leakTrackingSampleInterval;
 		result = prime * result + (int) (nutValidityInMillis ^ (nutValidityInMillis >>> 32));
 		result = prime * result + nutValidityInSeconds;
+		result = prime * result + (persistenceShardIdentitiesByIdk ? 1231 : 1237);
+		result = prime * result + ((persistenceShardUnitNames == null) ? 0 : persistenceShardUnitNames.hashCode());
 		result = prime * result + ((qrCodeImageFormat == null) ? 0 : qrCodeImageFormat.hashCode());
+		result = prime * result + (int) (readReplicaMaxStalenessMillis ^ (readReplicaMaxStalenessMillis >>> 32));
+		result = prime * result + ((readReplicaPersistenceUnitName == null) ? 0 : readReplicaPersistenceUnitName.hashCode());
 		result = prime * result + sqrlDomainExtensionSpecifierUriCount;
 		result = prime * result + ((sqrlLoginServletPath == null) ? 0 : sqrlLoginServletPath.hashCode());
 		result = prime * result + sqrlNutTokenFormat;
 		result = prime * result + ((sqrlPersistenceFactoryClass == null) ? 0 : sqrlPersistenceFactoryClass.hashCode());
+		result = prime * result + writeBehindFlushMillis;
+		result = prime * result + writeBehindMaxPending;
 		return result;
 	}
 
@@ -545,9 +1219,59 @@ public class SqrlConfig {
 		} else if (!aesKeyBase64.equals(other.aesKeyBase64)) {
 			return false;
 		}
+		if (authStatusCacheMaxSize != other.authStatusCacheMaxSize) {
+			return false;
+		}
+		if (authStatusCacheTtlMillis != other.authStatusCacheTtlMillis) {
+			return false;
+		}
+		if (authStatusDispatchMaxQueued != other.authStatusDispatchMaxQueued) {
+			return false;
+		}
+		if (authStatusDispatchThreads != other.authStatusDispatchThreads) {
+			return false;
+		}
+		if (authStatusLongPollTimeoutMillis != other.authStatusLongPollTimeoutMillis) {
+			return false;
+		}
+		if (authSyncChangeFeedOverlapMillis != other.authSyncChangeFeedOverlapMillis) {
+			return false;
+		}
 		if (authSyncCheckInMillis != other.authSyncCheckInMillis) {
 			return false;
 		}
+		if (authSyncClusterLeaseMillis != other.authSyncClusterLeaseMillis) {
+			return false;
+		}
+		if (authSyncClusterTransportClass == null) {
+			if (other.authSyncClusterTransportClass != null) {
+				return false;
+			}
+		} else if (!authSyncClusterTransportClass.equals(other.authSyncClusterTransportClass)) {
+			return false;
+		}
+		if (authSyncClusterTransportFile == null) {
+			if (other.authSyncClusterTransportFile != null) {
+				return false;
+			}
+		} else if (!authSyncClusterTransportFile.equals(other.authSyncClusterTransportFile)) {
+			return false;
+		}
+		if (authSyncMaxBackoffInMillis != other.authSyncMaxBackoffInMillis) {
+			return false;
+		}
+		if (authSyncMaxChecksPerPartition != other.authSyncMaxChecksPerPartition) {
+			return false;
+		}
+		if (authSyncPartitionCount != other.authSyncPartitionCount) {
+			return false;
+		}
+		if (authSyncPartitionThreads != other.authSyncPartitionThreads) {
+			return false;
+		}
+		if (authSyncSafetyNetInMillis != other.authSyncSafetyNetInMillis) {
+			return false;
+		}
 		if (backchannelServletPath == null) {
 			if (other.backchannelServletPath != null) {
 				return false;
@@ -555,6 +1279,12 @@ public class SqrlConfig {
 		} else if (!backchannelServletPath.equals(other.backchannelServletPath)) {
 			return false;
 		}
+		if (cleanupChunkSize != other.cleanupChunkSize) {
+			return false;
+		}
+		if (cleanupMaxRowsPerSecond != other.cleanupMaxRowsPerSecond) {
+			return false;
+		}
 		if (cleanupTaskExecInMinutes != other.cleanupTaskExecInMinutes) {
 			return false;
 		}
@@ -565,6 +1295,9 @@ public class SqrlConfig {
 		} else if (!clientAuthStateUpdaterClass.equals(other.clientAuthStateUpdaterClass)) {
 			return false;
 		}
+		if (compactTransientAuthData != other.compactTransientAuthData) {
+			return false;
+		}
 		if (cookieDomain == null) {
 			if (other.cookieDomain != null) {
 				return false;
@@ -579,6 +1312,9 @@ public class SqrlConfig {
 		} else if (!cookiePath.equals(other.cookiePath)) {
 			return false;
 		}
+		if (correlatorConflictRetries != other.correlatorConflictRetries) {
+			return false;
+		}
 		if (correlatorCookieName == null) {
 			if (other.correlatorCookieName != null) {
 				return false;
@@ -603,18 +1339,62 @@ public class SqrlConfig {
 		} else if (!firstNutCookieName.equals(other.firstNutCookieName)) {
 			return false;
 		}
+		if (hashNutTokenKeys != other.hashNutTokenKeys) {
+			return false;
+		}
+		if (identityCacheMaxSize != other.identityCacheMaxSize) {
+			return false;
+		}
+		if (identityCacheTtlSeconds != other.identityCacheTtlSeconds) {
+			return false;
+		}
+		if (identityCacheVersionCheck != other.identityCacheVersionCheck) {
+			return false;
+		}
+		if (idGeneratorBlockSize != other.idGeneratorBlockSize) {
+			return false;
+		}
+		if (idGeneratorNodeId != other.idGeneratorNodeId) {
+			return false;
+		}
+		if (idGeneratorType != other.idGeneratorType) {
+			return false;
+		}
 		if (!Arrays.equals(ipForwardedForHeader, other.ipForwardedForHeader)) {
 			return false;
 		}
+		if (leakTrackingSampleInterval != other.leakTrackingSampleInterval) {
+			return false;
+		}
 		if (nutValidityInMillis != other.nutValidityInMillis) {
 			return false;
 		}
 		if (nutValidityInSeconds != other.nutValidityInSeconds) {
 			return false;
 		}
+		if (persistenceShardIdentitiesByIdk != other.persistenceShardIdentitiesByIdk) {
+			return false;
+		}
+		if (persistenceShardUnitNames == null) {
+			if (other.persistenceShardUnitNames != null) {
+				return false;
+			}
+		} else if (!persistenceShardUnitNames.equals(other.persistenceShardUnitNames)) {
+			return false;
+		}
 		if (qrCodeImageFormat != other.qrCodeImageFormat) {
 			return false;
 		}
+		if (readReplicaMaxStalenessMillis != other.readReplicaMaxStalenessMillis) {
+			return false;
+		}
+		if (readReplicaPersistenceUnitName == null) {
+			if (other.readReplicaPersistenceUnitName != null) {
+				return false;
+			}
+		} else if (!readReplicaPersistenceUnitName.equals(other.readReplicaPersistenceUnitName)) {
+			return false;
+		}
 		if (sqrlDomainExtensionSpecifierUriCount != other.sqrlDomainExtensionSpecifierUriCount) {
 			return false;
 		}
@@ -635,6 +1415,12 @@ public class SqrlConfig {
 		} else if (!sqrlPersistenceFactoryClass.equals(other.sqrlPersistenceFactoryClass)) {
 			return false;
 		}
+		if (writeBehindFlushMillis != other.writeBehindFlushMillis) {
+			return false;
+		}
+		if (writeBehindMaxPending != other.writeBehindMaxPending) {
+			return false;
+		}
 		return true;
 	}
 }
@@ -26,7 +26,11 @@ import org.slf4j.LoggerFactory;
 
 import com.github.sqrlserverjava.exception.SqrlConfigSettingException;
 import com.github.sqrlserverjava.exception.SqrlException;
+import com.github.sqrlserverjava.persistence.SqrlIdentityCache;
+import com.github.sqrlserverjava.persistence.SqrlIdentityCachingPersistenceFactory;
 import com.github.sqrlserverjava.persistence.SqrlJpaPersistenceFactory;
+import com.github.sqrlserverjava.persistence.SqrlShardedPersistenceFactory;
+import com.github.sqrlserverjava.persistence.SqrlWriteBehindQueue;
 import com.github.sqrlserverjava.util.SqrlConfigHelper;
 import com.github.sqrlserverjava.util.SqrlServiceExecutor;
 import com.github.sqrlserverjava.util.SqrlUtil;
@@ -53,6 +57,13 @@ public class SqrlConfigOperations {
 
 	private final Key						aesKey;
 	private final BackchannelSettingType	backchannelSettingType;
+	/**
+	 * null unless {@link SqrlConfig#getWriteBehindFlushMillis()} is set
+	 */
+	private final SqrlWriteBehindQueue		writeBehindQueue;
+	private final SqrlAuthStatusEventBus	authStatusEventBus	= new SqrlAuthStatusEventBus();
+	private final SqrlAsyncStatusRegistry	asyncStatusRegistry	= new SqrlAsyncStatusRegistry();
+	private final SqrlCorrelatorStatusCache	correlatorStatusCache;
 
 	private String	subsequentRequestPath;
 
@@ -94,19 +105,37 @@ public class SqrlConfigOperations {
 
 		// SQRL persistence factory class name
 		final String factoryClassName = config.getSqrlPersistenceFactoryClass();
+		SqrlPersistenceFactory configuredFactory = null;
 		if (SqrlUtil.isBlank(factoryClassName)) {
-			sqrlPersistenceFactory = new SqrlJpaPersistenceFactory();
+			configuredFactory = new SqrlJpaPersistenceFactory();
 		} else {
 			try {
 				@SuppressWarnings("rawtypes")
 				final Class clazz = Class.forName(factoryClassName);
-				sqrlPersistenceFactory = (SqrlPersistenceFactory) createInstanceFromNoArgConstructor(clazz,
+				configuredFactory = (SqrlPersistenceFactory) createInstanceFromNoArgConstructor(clazz,
 						"sqrlPersistenceFactory");
 			} catch (final Exception e) {
 				throw new IllegalArgumentException(
 						"Could not create SqrlPersistenceFactory with name '" + factoryClassName + "'", e);
 			}
 		}
+		configuredFactory.initSqrl(config);
+		if (configuredFactory instanceof SqrlShardedPersistenceFactory) {
+			sqrlServiceExecutor.runOnShutdown(((SqrlShardedPersistenceFactory) configuredFactory)::shutdown);
+		}
+		// Optional SqrlIdentity cache
+		if (config.getIdentityCacheMaxSize() > 0) {
+			if (config.getIdentityCacheTtlSeconds() <= 0) {
+				throw new SqrlConfigSettingException(
+						"config identityCacheTtlSeconds must be greater than zero when identityCacheMaxSize is set");
+			}
+			configuredFactory = new SqrlIdentityCachingPersistenceFactory(configuredFactory,
+					new SqrlIdentityCache(config));
+			logger.info("process=init detail=\"SqrlIdentity cache enabled\" maxSize={} ttlSeconds={} versionCheck={}",
+					config.getIdentityCacheMaxSize(), config.getIdentityCacheTtlSeconds(),
+					config.isIdentityCacheVersionCheck());
+		}
+		sqrlPersistenceFactory = configuredFactory;
 		// register the cleanup task
 		final Class<? extends Runnable> cleanUpTaskClass = sqrlPersistenceFactory.getCleanupTaskClass();
 		if (cleanUpTaskClass == null) {
@@ -117,6 +146,33 @@ public class SqrlConfigOperations {
 			final int intervalMinutes = config.getCleanupTaskExecInMinutes();
 			sqrlServiceExecutor.scheduleAtFixedRate(cleanupTask, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
 		}
+		// Optional write-behind queue
+		final int writeBehindFlushMillis = config.getWriteBehindFlushMillis();
+		if (writeBehindFlushMillis < 0) {
+			throw new SqrlConfigSettingException("config writeBehindFlushMillis must be 0 or greater");
+		} else if (writeBehindFlushMillis == 0) {
+			writeBehindQueue = null;
+		} else {
+			if (config.getWriteBehindMaxPending() <= 0) {
+				throw new SqrlConfigSettingException(
+						"config writeBehindMaxPending must be greater than zero when writeBehindFlushMillis is set");
+			}
+			writeBehindQueue = new SqrlWriteBehindQueue(sqrlPersistenceFactory, config.getWriteBehindMaxPending());
+			sqrlServiceExecutor.scheduleAtFixedRate(writeBehindQueue, writeBehindFlushMillis, writeBehindFlushMillis,
+					TimeUnit.MILLISECONDS);
+			sqrlServiceExecutor.runOnShutdown(writeBehindQueue::shutdown);
+			logger.info("process=init detail=\"Write-behind enabled\" flushMillis={} maxPending={}",
+					writeBehindFlushMillis, config.getWriteBehindMaxPending());
+		}
+		// Optional browser status poll cache
+		if (config.getAuthStatusCacheMaxSize() > 0 && config.getAuthStatusCacheTtlMillis() <= 0) {
+			throw new SqrlConfigSettingException(
+					"config authStatusCacheTtlMillis must be greater than zero when authStatusCacheMaxSize is set");
+		}
+		correlatorStatusCache = SqrlCorrelatorStatusCache.fromConfig(config);
+		if (correlatorStatusCache.isEnabled()) {
+			authStatusEventBus.addListener(correlatorStatusCache);
+		}
 	}
 
 	private static Object createInstanceFromNoArgConstructor(@SuppressWarnings("rawtypes") final Class clazz,
@@ -276,4 +332,31 @@ public class SqrlConfigOperations {
 	public SqrlPersistenceFactory getSqrlPersistenceFactory() {
 		return sqrlPersistenceFactory;
 	}
+
+	/**
+	 * @return the write-behind queue or null if write-behind is disabled
+	 */
+	public SqrlWriteBehindQueue getWriteBehindQueue() {
+		return writeBehindQueue;
+	}
+
+	public SqrlAuthStatusEventBus getAuthStatusEventBus() {
+		return authStatusEventBus;
+	}
+
+	/**
+	 * @return the browser status requests parked by
+	 *         {@link BrowserFacingOperations#handleAuthStatusRequest(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)}
+	 */
+	public SqrlAsyncStatusRegistry getAsyncStatusRegistry() {
+		return asyncStatusRegistry;
+	}
+
+	/**
+	 * @return the statuses used by
+	 *         {@link BrowserFacingOperations#handleAuthStatusPoll(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)}
+	 */
+	public SqrlCorrelatorStatusCache getCorrelatorStatusCache() {
+		return correlatorStatusCache;
+	}
 }
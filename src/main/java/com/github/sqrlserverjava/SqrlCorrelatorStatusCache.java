@@ -0,0 +1,124 @@
+package com.github.sqrlserverjava;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.sqrlserverjava.SqrlAuthStatusEventBus.SqrlAuthStatusListener;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.util.BoundedExpiringCache;
+
+/**
+ * The last known status of the correlators browsers are polling, so
+ * {@link BrowserFacingOperations#handleAuthStatusPoll(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)}
+ * can answer most polls without a persistence query.
+ * <p>
+ * Fed by {@link SqrlAuthStatusEventBus} with changes committed by SQRL clients in this JVM, and by
+ * {@link AuthStateMonitor} with changes it finds in persistence. Once the monitor is available, correlators loaded on
+ * a cache miss are registered with it so changes made elsewhere in the cluster reach the cache too. Entries expire
+ * after {@link SqrlConfig#getAuthStatusCacheTtlMillis()} regardless, which bounds how stale a change the monitor
+ * didn't see can be
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlCorrelatorStatusCache implements SqrlAuthStatusListener {
+	/**
+	 * null if the cache is disabled
+	 */
+	private final BoundedExpiringCache<String, SqrlAuthenticationStatus>	statusCache;
+	private volatile AuthStateMonitor										authStateMonitor;
+
+	private final AtomicLong	hitCount	= new AtomicLong();
+	private final AtomicLong	missCount	= new AtomicLong();
+
+	/**
+	 * @param maxSize
+	 *            the most statuses to hold, 0 disables the cache
+	 */
+	public SqrlCorrelatorStatusCache(final int maxSize, final long ttlMillis) {
+		this.statusCache = maxSize > 0 ? new BoundedExpiringCache<>(maxSize, ttlMillis) : null;
+	}
+
+	public static SqrlCorrelatorStatusCache fromConfig(final SqrlConfig sqrlConfig) {
+		return new SqrlCorrelatorStatusCache(sqrlConfig.getAuthStatusCacheMaxSize(),
+				sqrlConfig.getAuthStatusCacheTtlMillis());
+	}
+
+	public boolean isEnabled() {
+		return statusCache != null;
+	}
+
+	/**
+	 * Invoked once the monitor exists, correlators loaded after this are watched for changes
+	 */
+	void setAuthStateMonitor(final AuthStateMonitor authStateMonitor) {
+		this.authStateMonitor = authStateMonitor;
+	}
+
+	/**
+	 * @return the cached status or null if the correlator must be read from persistence
+	 */
+	public SqrlAuthenticationStatus get(final String correlatorString) {
+		if (statusCache == null) {
+			return null;
+		}
+		final SqrlAuthenticationStatus status = statusCache.get(correlatorString);
+		if (status == null) {
+			missCount.incrementAndGet();
+		} else {
+			hitCount.incrementAndGet();
+		}
+		return status;
+	}
+
+	/**
+	 * Caches a status read from persistence after a miss, and has the monitor watch the correlator if it can still
+	 * change. A correlator the monitor is already watching is left alone, the status it holds may be older than the
+	 * one just read and it must still push the difference
+	 */
+	public void loaded(final String correlatorString, final SqrlAuthenticationStatus status) {
+		if (statusCache == null) {
+			return;
+		}
+		statusCache.put(correlatorString, status);
+		final AuthStateMonitor monitor = authStateMonitor;
+		if (monitor != null && !status.isUpdatesForThisCorrelatorComplete()) {
+			monitor.monitorCorrelatorIfAbsent(correlatorString, status);
+		}
+	}
+
+	/**
+	 * Invoked by {@link SqrlAuthStatusEventBus} and {@link AuthStateMonitor} with a committed change
+	 */
+	@Override
+	public void authStatusChanged(final String correlatorString, final SqrlAuthenticationStatus newAuthStatus) {
+		if (statusCache != null) {
+			statusCache.put(correlatorString, newAuthStatus);
+		}
+	}
+
+	/**
+	 * Invoked by {@link AuthStateMonitor} with a change it found in persistence. Like
+	 * {@link SqrlAsyncStatusRegistry}, the monitor is told the new status so it stops reporting the same change
+	 */
+	void monitorStatusChanged(final String correlatorString, final SqrlAuthenticationStatus newAuthStatus) {
+		authStatusChanged(correlatorString, newAuthStatus);
+		final AuthStateMonitor monitor = authStateMonitor;
+		if (statusCache != null && monitor != null && !newAuthStatus.isUpdatesForThisCorrelatorComplete()) {
+			monitor.monitorCorrelatorForChange(correlatorString, newAuthStatus);
+		}
+	}
+
+	/**
+	 * @return the number of polls answered from the cache
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return the number of polls which had to read persistence
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+}
@@ -0,0 +1,177 @@
+package com.github.sqrlserverjava;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.exception.SqrlIllegalStateException;
+import com.github.sqrlserverjava.util.SqrlUtil;
+
+/**
+ * {@link SqrlClusterStatusTransport} which uses a file shared by every node, see
+ * {@link SqrlConfig#getAuthSyncClusterTransportFile()}. The leader appends one <code>correlator status</code> line per
+ * change, each batch in a single write, and the other nodes read whatever has been appended since their last tick.
+ * <p>
+ * Once the file exceeds {@link #MAX_FILE_BYTES} the leader renames it and starts a new one; readers finish the file
+ * they have open before moving on, the same way <code>tail -F</code> does. This relies on POSIX rename semantics so it
+ * is intended for testing and for nodes sharing a local or POSIX compliant network filesystem
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlFileClusterStatusTransport implements SqrlClusterStatusTransport {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlFileClusterStatusTransport.class);
+
+	static final long MAX_FILE_BYTES = 1024 * 1024;
+
+	private Path			path;
+	private Path			rotatedPath;
+	/**
+	 * Guarded by this
+	 */
+	private FileChannel		readChannel;
+	private Object			readFileKey;
+	private long			readPosition;
+
+	@Override
+	public void init(final SqrlConfig sqrlConfig) {
+		final String filename = sqrlConfig.getAuthSyncClusterTransportFile();
+		if (SqrlUtil.isBlank(filename)) {
+			throw new SqrlIllegalStateException(
+					"authSyncClusterTransportFile must be set to use " + getClass().getSimpleName());
+		}
+		path = Paths.get(filename);
+		rotatedPath = path.resolveSibling(path.getFileName() + ".1");
+	}
+
+	@Override
+	public synchronized void publish(final Map<String, SqrlAuthenticationStatus> changedTable) {
+		final StringBuilder buf = new StringBuilder();
+		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : changedTable.entrySet()) {
+			buf.append(entry.getKey()).append(' ').append(entry.getValue().name()).append('\n');
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(buf.toString().getBytes(StandardCharsets.UTF_8));
+		try {
+			if (Files.exists(path) && Files.size(path) > MAX_FILE_BYTES) {
+				Files.move(path, rotatedPath, StandardCopyOption.ATOMIC_MOVE);
+			}
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		} catch (final IOException e) {
+			logger.error("Error publishing {} status changes to {}", changedTable.size(), path, e);
+		}
+	}
+
+	@Override
+	public synchronized Map<String, SqrlAuthenticationStatus> receive() {
+		final Map<String, SqrlAuthenticationStatus> resultTable = new HashMap<>();
+		try {
+			if (readChannel == null) {
+				if (Files.exists(path)) {
+					// Earlier changes are picked up by the monitor's first check of each correlator
+					openReadChannel();
+					readPosition = readChannel.size();
+				}
+				return resultTable;
+			}
+			readAvailable(resultTable);
+			final Object currentFileKey = fileKey();
+			if (currentFileKey != null && !currentFileKey.equals(readFileKey)
+					|| readChannel.size() < readPosition) {
+				// Rotated by the leader; everything in the old file has been read so start on the new one
+				readChannel.close();
+				openReadChannel();
+				readPosition = 0;
+				readAvailable(resultTable);
+			}
+		} catch (final IOException e) {
+			logger.warn("Error reading status changes from {}: {}", path, e.getMessage());
+			closeReadChannel();
+		}
+		return resultTable;
+	}
+
+	private void openReadChannel() throws IOException {
+		readChannel = FileChannel.open(path, StandardOpenOption.READ);
+		readFileKey = fileKey();
+	}
+
+	private Object fileKey() throws IOException {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+		} catch (final NoSuchFileException e) {
+			// Between the leader's rename and its next write
+			return null;
+		}
+	}
+
+	/**
+	 * Parses every complete line after readPosition, a line which is still being written is read again next time
+	 */
+	private void readAvailable(final Map<String, SqrlAuthenticationStatus> resultTable) throws IOException {
+		final long available = readChannel.size() - readPosition;
+		if (available <= 0) {
+			return;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(available, Integer.MAX_VALUE));
+		while (buffer.hasRemaining() && readChannel.read(buffer, readPosition + buffer.position()) > 0) {
+			// keep reading
+		}
+		final byte[] bytes = buffer.array();
+		int lineStart = 0;
+		for (int i = 0; i < buffer.position(); i++) {
+			if (bytes[i] == '\n') {
+				parseLine(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8), resultTable);
+				lineStart = i + 1;
+			}
+		}
+		readPosition += lineStart;
+	}
+
+	private void parseLine(final String line, final Map<String, SqrlAuthenticationStatus> resultTable) {
+		final int index = line.indexOf(' ');
+		try {
+			if (index > 0) {
+				resultTable.put(line.substring(0, index), SqrlAuthenticationStatus.valueOf(line.substring(index + 1)));
+				return;
+			}
+		} catch (final IllegalArgumentException e) {
+			// Fall through
+		}
+		logger.warn("Ignoring invalid status change line in {}: {}", path, line);
+	}
+
+	private void closeReadChannel() {
+		if (readChannel != null) {
+			try {
+				readChannel.close();
+			} catch (final IOException e) {
+				logger.debug("Error closing {}", path, e);
+			}
+			readChannel = null;
+		}
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		closeReadChannel();
+	}
+}
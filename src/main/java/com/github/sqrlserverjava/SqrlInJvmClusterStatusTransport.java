@@ -0,0 +1,52 @@
+package com.github.sqrlserverjava;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * {@link SqrlClusterStatusTransport} which delivers changes to every node in the same JVM. Useful for testing leader
+ * election and for deployments which run several SqrlServerOperations instances side by side
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlInJvmClusterStatusTransport implements SqrlClusterStatusTransport {
+	private static final Set<SqrlInJvmClusterStatusTransport> subscriberSet = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Guarded by this
+	 */
+	private Map<String, SqrlAuthenticationStatus> pendingTable = new HashMap<>();
+
+	@Override
+	public void init(final SqrlConfig sqrlConfig) {
+		subscriberSet.add(this);
+	}
+
+	@Override
+	public void publish(final Map<String, SqrlAuthenticationStatus> changedTable) {
+		for (final SqrlInJvmClusterStatusTransport subscriber : subscriberSet) {
+			subscriber.deliver(changedTable);
+		}
+	}
+
+	private synchronized void deliver(final Map<String, SqrlAuthenticationStatus> changedTable) {
+		pendingTable.putAll(changedTable);
+	}
+
+	@Override
+	public synchronized Map<String, SqrlAuthenticationStatus> receive() {
+		final Map<String, SqrlAuthenticationStatus> resultTable = pendingTable;
+		pendingTable = new HashMap<>();
+		return resultTable;
+	}
+
+	@Override
+	public void shutdown() {
+		subscriberSet.remove(this);
+	}
+}
@@ -1,6 +1,8 @@
 package com.github.sqrlserverjava;
 
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -9,6 +11,7 @@ import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
 import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
 import com.github.sqrlserverjava.exception.SqrlPersistenceException;
 import com.github.sqrlserverjava.persistence.SqrlCorrelator;
+import com.github.sqrlserverjava.persistence.SqrlCorrelatorView;
 import com.github.sqrlserverjava.persistence.SqrlIdentity;
 import com.github.sqrlserverjava.persistence.SqrlJpaPersistenceProvider;
 
@@ -38,6 +41,35 @@ public interface SqrlPersistence {
 	 */
 	public boolean doesSqrlIdentityExistByIdk(String sqrlIdk);
 
+	/**
+	 * Fetch the sqrl identity for the given idk. Only required when {@link SqrlConfig#getIdentityCacheMaxSize()} is
+	 * greater than zero, so existing implementations aren't broken by it
+	 *
+	 * @param sqrlIdk
+	 *            the SQRL ID to search by
+	 * @return the SQRL identity or null if it does not exist
+	 * @throws SqrlPersistenceException
+	 *             if fetching the whole identity is not supported
+	 */
+	public default SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		throw new SqrlPersistenceException(getClass().getName() + " does not support fetching a SqrlIdentity by idk");
+	}
+
+	/**
+	 * Fetch only the version of the sqrl identity for the given idk. This is a much cheaper call than
+	 * {@link #fetchSqrlIdentity(String)} and is used to detect stale cache entries. Implementations which can't query
+	 * the version alone can rely on this default, which fetches the whole identity
+	 *
+	 * @param sqrlIdk
+	 *            the SQRL ID to search by
+	 * @return the current version or null if the identity does not exist
+	 * @see SqrlIdentity#getVersion()
+	 */
+	public default Long fetchSqrlIdentityVersion(final String sqrlIdk) {
+		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
+		return sqrlIdentity == null ? null : sqrlIdentity.getVersion();
+	}
+
 	/**
 	 * Fetch the sqrl identity for the the given app user cross reference id
 	 *
@@ -47,6 +79,46 @@ public interface SqrlPersistence {
 	 */
 	public SqrlIdentity fetchSqrlIdentityByUserXref(final String appUserXref);
 
+	/**
+	 * Batch form of {@link #fetchSqrlIdentityByUserXref(String)}. Implementations which don't support batch queries can
+	 * rely on this default, which looks up each value in turn
+	 *
+	 * @param appUserXrefSet
+	 *            the app user cross reference values to search by
+	 * @return table of app user cross reference to SQRL identity; values with no SQRL identity are not in the table
+	 * @throws SqrlPersistenceException
+	 *             if a value is mapped to more than one SQRL identity, just as the single lookup does
+	 */
+	public default Map<String, SqrlIdentity> fetchSqrlIdentitiesByUserXref(final Set<String> appUserXrefSet) {
+		final Map<String, SqrlIdentity> resultTable = new HashMap<>();
+		for (final String appUserXref : appUserXrefSet) {
+			final SqrlIdentity sqrlIdentity = fetchSqrlIdentityByUserXref(appUserXref);
+			if (sqrlIdentity != null) {
+				resultTable.put(appUserXref, sqrlIdentity);
+			}
+		}
+		return resultTable;
+	}
+
+	/**
+	 * Like {@link #fetchSqrlIdentitiesByUserXref(Set)} but returns only the enabled flags of each identity, which is
+	 * all that is needed to display SQRL status and is much cheaper to fetch
+	 *
+	 * @param appUserXrefSet
+	 *            the app user cross reference values to search by
+	 * @return table of app user cross reference to enabled flags; values with no SQRL identity are not in the table
+	 */
+	public default Map<String, Set<SqrlIdentityFlag>> fetchSqrlIdentityFlagsByUserXref(
+			final Set<String> appUserXrefSet) {
+		final Map<String, Set<SqrlIdentityFlag>> resultTable = new HashMap<>();
+		for (final Map.Entry<String, SqrlIdentity> entry : fetchSqrlIdentitiesByUserXref(appUserXrefSet).entrySet()) {
+			final Set<SqrlIdentityFlag> flagSet = EnumSet.noneOf(SqrlIdentityFlag.class);
+			flagSet.addAll(entry.getValue().getEnabledFlagList());
+			resultTable.put(entry.getKey(), flagSet);
+		}
+		return resultTable;
+	}
+
 	/**
 	 * The user has updated their SQRL ID but this application is still using the old one. The application must lookup
 	 * the user by previousSqrlIdk, and replace that SQRL ID with newSqrlIdk
@@ -241,8 +313,40 @@ public interface SqrlPersistence {
 	 */
 	public void cleanUpExpiredEntries();
 
+	/**
+	 * Delete up to maxRows expired objects of each type from the persistence store. Called repeatedly by the cleanup
+	 * task, each time in a new transaction, until it returns 0 so that no single transaction holds locks on a large
+	 * number of rows. Implementations which don't support chunking can rely on this default, which deletes everything
+	 * in one pass
+	 *
+	 * @param maxRows
+	 *            the maximum number of rows of each type to delete
+	 * @return the number of rows deleted
+	 */
+	public default int cleanUpExpiredEntries(final int maxRows) {
+		cleanUpExpiredEntries();
+		return 0;
+	}
+
 	Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(Set<String> correlatorStringSet);
 
+	/**
+	 * Like {@link #fetchSqrlCorrelatorsDetached(Set)} but returns only the columns needed to render or poll a login
+	 * page, without loading the transient auth data or the authenticated identity. Implementations which can't
+	 * project can rely on this default, which builds the views from detached correlators
+	 *
+	 * @param correlatorStringSet
+	 *            the correlators to fetch
+	 * @return table of correlator string to view; correlators which don't exist are not in the table
+	 */
+	public default Map<String, SqrlCorrelatorView> fetchSqrlCorrelatorViews(final Set<String> correlatorStringSet) {
+		final Map<String, SqrlCorrelatorView> resultTable = new HashMap<>();
+		for (final SqrlCorrelator sqrlCorrelator : fetchSqrlCorrelatorsDetached(correlatorStringSet).values()) {
+			resultTable.put(sqrlCorrelator.getCorrelatorString(), SqrlCorrelatorView.of(sqrlCorrelator));
+		}
+		return resultTable;
+	}
+
 	/**
 	 * Checks for correlators who's status has changed or is {@link SqrlAuthenticationStatus#AUTHENTICATED_BROWSER}. Complete
 	 * state is always returned in case the client didn't get the update the first time it was sent
@@ -256,4 +360,61 @@ public interface SqrlPersistence {
 
 	public void deleteSqrlCorrelator(SqrlCorrelator sqrlCorrelator);
 
+	/**
+	 * Sets the status of each of the given correlators which currently has expectedStatus to newStatus. Correlators
+	 * which do not exist or are in any other state are left unchanged. Implementations which don't support bulk
+	 * updates can rely on this default, which fetches and updates each correlator in turn
+	 *
+	 * @return the number of correlators updated
+	 */
+	public default int updateSqrlCorrelatorStatus(final Set<String> correlatorStringSet,
+			final SqrlAuthenticationStatus expectedStatus, final SqrlAuthenticationStatus newStatus) {
+		int updated = 0;
+		for (final String correlatorString : correlatorStringSet) {
+			final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelator(correlatorString);
+			if (sqrlCorrelator != null && sqrlCorrelator.getAuthenticationStatus() == expectedStatus) {
+				sqrlCorrelator.setAuthenticationStatus(newStatus);
+				updated++;
+			}
+		}
+		return updated;
+	}
+
+	/**
+	 * Fetches every correlator whose status changed after the given change sequence, regardless of how many
+	 * correlators are being monitored; see {@link SqrlCorrelator#getChangeSequence()}. Implementations which don't
+	 * maintain change sequences don't support this
+	 *
+	 * @param changeSequence
+	 *            only changes with a greater sequence are returned
+	 * @return table of correlators and their current status
+	 * @throws SqrlPersistenceException
+	 *             if change sequences are not supported
+	 */
+	public default Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusChangedSince(
+			final long changeSequence) {
+		throw new SqrlPersistenceException(getClass().getName() + " does not support correlator change sequences");
+	}
+
+	/**
+	 * Takes, renews or releases a cluster wide lease. The lease row holds the time the lease expires: once that has
+	 * passed anyone can take it, until then only the holder can, since only it knows the exact expiry it last wrote
+	 *
+	 * @param leaseName
+	 *            the name of the lease
+	 * @param heldUntil
+	 *            the expiry the caller last wrote, or 0 if it doesn't hold the lease
+	 * @param now
+	 *            the current time, a lease which expired before this is free
+	 * @param newExpiry
+	 *            the expiry to write, 0 releases the lease
+	 * @return true if the caller now holds the lease until newExpiry (or released it)
+	 * @throws SqrlPersistenceException
+	 *             if leases are not supported
+	 */
+	public default boolean compareAndSetLease(final String leaseName, final long heldUntil, final long now,
+			final long newExpiry) {
+		throw new SqrlPersistenceException(getClass().getName() + " does not support leases");
+	}
+
 }
@@ -4,4 +4,27 @@ public interface SqrlPersistenceFactory {
 	public SqrlPersistence createSqrlPersistence();
 
 	public Class<? extends Runnable> getCleanupTaskClass();
+
+	/**
+	 * Creates a persistence object for the pure read paths: status polling, browser side correlator reads and user
+	 * cross reference lookups. These may be served from a read replica, so results can lag behind the primary by the
+	 * configured staleness. Implementations may skip transaction handling entirely and reject write calls; returned
+	 * entities are detached once the persistence object is closed. The caller must still call
+	 * {@link SqrlPersistence#closeCommit()} or {@link SqrlPersistence#closeRollback()}
+	 *
+	 * @return a {@link SqrlPersistence}, by default the same as {@link #createSqrlPersistence()}
+	 */
+	public default SqrlPersistence createSqrlReadOnlyPersistence() {
+		return createSqrlPersistence();
+	}
+
+	/**
+	 * Called once, after construction, so the factory can apply any relevant {@link SqrlConfig} settings
+	 *
+	 * @param config
+	 *            the SQRL config object
+	 */
+	public default void initSqrl(final SqrlConfig config) {
+		// Nothing to do by default
+	}
 }
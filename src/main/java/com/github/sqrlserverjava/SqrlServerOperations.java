@@ -1,10 +1,15 @@
 package com.github.sqrlserverjava;
 import java.lang.reflect.Constructor;
 import java.net.URL;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -14,11 +19,14 @@ import org.slf4j.LoggerFactory;
 
 import com.github.sqrlserverjava.backchannel.LoggingUtil;
 import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlConcurrentUpdateException;
 import com.github.sqrlserverjava.exception.SqrlException;
 import com.github.sqrlserverjava.exception.SqrlIllegalStateException;
 import com.github.sqrlserverjava.exception.SqrlPersistenceException;
 import com.github.sqrlserverjava.persistence.SqrlAutoCloseablePersistence;
 import com.github.sqrlserverjava.persistence.SqrlCorrelator;
+import com.github.sqrlserverjava.persistence.SqrlCorrelatorView;
 import com.github.sqrlserverjava.persistence.SqrlIdentity;
 import com.github.sqrlserverjava.persistence.SqrlPersistenceCleanupTask;
 import com.github.sqrlserverjava.util.SqrlServiceExecutor;
@@ -36,6 +44,11 @@ import com.github.sqrlserverjava.util.VersionExtractor.Module;
 public class SqrlServerOperations {
 	private static final Logger logger = LoggerFactory.getLogger(SqrlServerOperations.class);
 
+	/**
+	 * The number of users looked up per transaction by the streaming user xref methods
+	 */
+	static final int							USER_XREF_STREAM_BATCH_SIZE	= 2048;
+
 	private static final AtomicBoolean			authStateMonitorInitialized	= new AtomicBoolean(false);
 	private static final AtomicBoolean			dbCleanupInitialized		= new AtomicBoolean(false);
 
@@ -93,7 +106,8 @@ public class SqrlServerOperations {
 		} else {
 			logger.info("process=init detail=\"Persistence cleanup task registered to run every {} minutes\"",
 					cleanupIntervalInMinutes);
-			final SqrlPersistenceCleanupTask cleanupRunnable = new SqrlPersistenceCleanupTask(persistenceFactory);
+			final SqrlPersistenceCleanupTask cleanupRunnable = new SqrlPersistenceCleanupTask(persistenceFactory,
+					config, sqrlServiceExecutor);
 			// TODO: put executor somewhere else, state?
 			sqrlServiceExecutor.scheduleAtFixedRate(cleanupRunnable, 0, cleanupIntervalInMinutes, TimeUnit.MINUTES);
 		}
@@ -128,11 +142,40 @@ public class SqrlServerOperations {
 				final AuthStateMonitor authStateMonitor = new AuthStateMonitor(config, serverOperations, clientAuthStateUpdater);
 
 				clientAuthStateUpdater.initSqrl(serverOperations, config, authStateMonitor);
-				final long intervalInMilis = config.getAuthSyncCheckInMillis();
-				logger.info("process=init detail=\"Client auth state task scheduled to run every {} ms\"",
-						intervalInMilis);
-				sqrlServiceExecutor.scheduleAtFixedRate(authStateMonitor, intervalInMilis, intervalInMilis,
-						TimeUnit.MILLISECONDS);
+				// Changes committed by this JVM are pushed immediately, polling picks up the rest
+				serverOperations.configOperations.getAuthStatusEventBus().addListener(authStateMonitor);
+				final SqrlCorrelatorStatusCache correlatorStatusCache = serverOperations.configOperations
+						.getCorrelatorStatusCache();
+				if (correlatorStatusCache.isEnabled()) {
+					authStateMonitor.addStatusListener(correlatorStatusCache::monitorStatusChanged);
+					correlatorStatusCache.setAuthStateMonitor(authStateMonitor);
+				}
+				final AuthStatePollingPolicy pollingPolicy = AuthStatePollingPolicy.fromConfig(config);
+				logger.info(
+						"process=init detail=\"Client auth state checks scheduled every {} to {} ms, safetyNet={}\"",
+						pollingPolicy.getTickMillis(), pollingPolicy.getMaxIntervalMillis(),
+						config.getAuthSyncSafetyNetInMillis() > 0);
+				if (config.getAuthSyncMaxBackoffInMillis() > 0 && config.getWriteBehindFlushMillis() == 0) {
+					logger.warn("process=init detail=\"authSyncMaxBackoffInMillis is set without "
+							+ "writeBehindFlushMillis, correlators stay backed off until authentication completes\"");
+				}
+				authStateMonitor.start(sqrlServiceExecutor);
+				if (config.getAuthStatusDispatchThreads() > 0) {
+					logger.info("process=init detail=\"Status changes delivered by {} dispatch threads\"",
+							config.getAuthStatusDispatchThreads());
+				}
+				if (config.getAuthSyncPartitionThreads() > 0) {
+					logger.info("process=init detail=\"Status checked in {} partitions on {} threads\"",
+							config.getAuthSyncPartitionCount(), config.getAuthSyncPartitionThreads());
+				}
+				sqrlServiceExecutor.runOnShutdown(authStateMonitor::shutdown);
+				if (config.getAuthSyncClusterLeaseMillis() > 0) {
+					final SqrlClusterStatusPoller clusterStatusPoller = new SqrlClusterStatusPoller(config,
+							serverOperations, authStateMonitor, SqrlClusterStatusPoller.createTransport(config));
+					logger.info("process=init detail=\"Cluster status poller started with transport {}\"",
+							config.getAuthSyncClusterTransportClass());
+					clusterStatusPoller.start(sqrlServiceExecutor);
+				}
 			} catch (final Exception e) {
 				throw new SqrlIllegalStateException(
 						"SQRL: Error instantiating or initializing ClientAuthStateUpdaterClass of " + classname, e);
@@ -173,6 +216,51 @@ public class SqrlServerOperations {
 		return new SqrlAutoCloseablePersistence(sqrlPersistence);
 	}
 
+	/**
+	 * Creates a persistence object for pure reads, which may be served from a read replica
+	 *
+	 * @see SqrlPersistenceFactory#createSqrlReadOnlyPersistence()
+	 */
+	static SqrlAutoCloseablePersistence createSqrlReadOnlyPersistence(
+			final SqrlConfigOperations sqrlConfigOperations) {
+		final SqrlPersistence sqrlPersistence = sqrlConfigOperations.getSqrlPersistenceFactory()
+				.createSqrlReadOnlyPersistence();
+		return new SqrlAutoCloseablePersistence(sqrlPersistence);
+	}
+
+	/**
+	 * A unit of work which is safe to run again from the start against a fresh {@link SqrlPersistence}
+	 */
+	@FunctionalInterface
+	interface SqrlIdempotentWork<T, E extends Exception> {
+		T execute(SqrlPersistence sqrlPersistence) throws E;
+	}
+
+	/**
+	 * Runs the work in its own transaction and commits. If the commit fails because another request modified the same
+	 * correlator, the work is retried up to {@link SqrlConfig#getCorrelatorConflictRetries()} times
+	 *
+	 * @throws SqrlConcurrentUpdateException
+	 *             if the conflict persists after all retries
+	 */
+	static <T, E extends Exception> T runIdempotentTransaction(final SqrlConfigOperations sqrlConfigOperations,
+			final String operation, final SqrlIdempotentWork<T, E> work) throws E {
+		final int maxRetries = sqrlConfigOperations.getSqrlConfig().getCorrelatorConflictRetries();
+		for (int attempt = 0;; attempt++) {
+			try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence(sqrlConfigOperations)) {
+				final T result = work.execute(sqrlPersistence);
+				sqrlPersistence.closeCommit();
+				return result;
+			} catch (final SqrlConcurrentUpdateException e) {
+				if (attempt >= maxRetries) {
+					throw e;
+				}
+				logger.info("process=retry detail=\"Concurrent correlator update, retrying\" operation={} attempt={}",
+						operation, attempt + 1);
+			}
+		}
+	}
+
 	public void updateNativeUserXref(final SqrlIdentity sqrlIdentity, final String nativeUserCrossReference) {
 		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence(configOperations)) {
 			sqrlPersistence.updateNativeUserXref(sqrlIdentity.getId(), nativeUserCrossReference);
@@ -202,7 +290,7 @@ public class SqrlServerOperations {
 		if (SqrlUtil.isBlank(correlatorString)) {
 			throw new SqrlPersistenceException("Correlator cookie not found on request");
 		}
-		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence(configOperations)) {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlReadOnlyPersistence(configOperations)) {
 			final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelator(correlatorString);
 			sqrlPersistence.closeCommit();
 			return sqrlCorrelator;
@@ -226,15 +314,91 @@ public class SqrlServerOperations {
 	 * @return the SQRL identity or null if none exists for this web app user
 	 */
 	public SqrlIdentity fetchSqrlIdentityByUserXref(final String webAppUserCrossReference) {
-		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence(configOperations)) {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlReadOnlyPersistence(configOperations)) {
 			final SqrlIdentity sqrlIdentity = sqrlPersistence.fetchSqrlIdentityByUserXref(webAppUserCrossReference);
 			sqrlPersistence.closeCommit();
 			return sqrlIdentity;
 		}
 	}
 
+	/**
+	 * Batch form of {@link #fetchSqrlIdentityByUserXref(String)} which looks up all of the given users in a single
+	 * transaction
+	 *
+	 * @param webAppUserCrossReferences
+	 *            the web app users to look up
+	 * @return table of web app user to SQRL identity; users with no SQRL identity are not in the table
+	 */
+	public Map<String, SqrlIdentity> fetchSqrlIdentitiesByUserXref(final Collection<String> webAppUserCrossReferences) {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlReadOnlyPersistence(configOperations)) {
+			final Map<String, SqrlIdentity> resultTable = sqrlPersistence
+					.fetchSqrlIdentitiesByUserXref(new HashSet<>(webAppUserCrossReferences));
+			sqrlPersistence.closeCommit();
+			return resultTable;
+		}
+	}
+
+	/**
+	 * Like {@link #fetchSqrlIdentitiesByUserXref(Collection)} but only fetches the enabled flags of each identity. Use
+	 * this when only the SQRL status of the users is needed, such as in user lists and admin screens
+	 *
+	 * @param webAppUserCrossReferences
+	 *            the web app users to look up
+	 * @return table of web app user to enabled flags; users with no SQRL identity are not in the table
+	 */
+	public Map<String, Set<SqrlIdentityFlag>> fetchSqrlIdentityFlagsByUserXref(
+			final Collection<String> webAppUserCrossReferences) {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlReadOnlyPersistence(configOperations)) {
+			final Map<String, Set<SqrlIdentityFlag>> resultTable = sqrlPersistence
+					.fetchSqrlIdentityFlagsByUserXref(new HashSet<>(webAppUserCrossReferences));
+			sqrlPersistence.closeCommit();
+			return resultTable;
+		}
+	}
+
+	/**
+	 * Streaming form of {@link #fetchSqrlIdentitiesByUserXref(Collection)} for sets of users too large to hold in
+	 * memory. The users are read from the iterator and looked up {@link #USER_XREF_STREAM_BATCH_SIZE} at a time, each
+	 * batch in its own read only persistence so memory use is bounded by the batch size
+	 *
+	 * @param webAppUserCrossReferences
+	 *            the web app users to look up
+	 * @param consumer
+	 *            invoked with each web app user which has a SQRL identity, in no particular order
+	 */
+	public void streamSqrlIdentitiesByUserXref(final Iterator<String> webAppUserCrossReferences,
+			final BiConsumer<String, SqrlIdentity> consumer) {
+		streamByUserXref(webAppUserCrossReferences, SqrlPersistence::fetchSqrlIdentitiesByUserXref, consumer);
+	}
+
+	/**
+	 * Streaming form of {@link #fetchSqrlIdentityFlagsByUserXref(Collection)}, see
+	 * {@link #streamSqrlIdentitiesByUserXref(Iterator, BiConsumer)}
+	 */
+	public void streamSqrlIdentityFlagsByUserXref(final Iterator<String> webAppUserCrossReferences,
+			final BiConsumer<String, Set<SqrlIdentityFlag>> consumer) {
+		streamByUserXref(webAppUserCrossReferences, SqrlPersistence::fetchSqrlIdentityFlagsByUserXref, consumer);
+	}
+
+	private <V> void streamByUserXref(final Iterator<String> webAppUserCrossReferences,
+			final BiFunction<SqrlPersistence, Set<String>, Map<String, V>> query, final BiConsumer<String, V> consumer) {
+		final Set<String> batch = new HashSet<>();
+		while (webAppUserCrossReferences.hasNext()) {
+			batch.add(webAppUserCrossReferences.next());
+			if (batch.size() == USER_XREF_STREAM_BATCH_SIZE || !webAppUserCrossReferences.hasNext()) {
+				final Map<String, V> resultTable;
+				try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlReadOnlyPersistence(configOperations)) {
+					resultTable = query.apply(sqrlPersistence, batch);
+					sqrlPersistence.closeCommit();
+				}
+				resultTable.forEach(consumer);
+				batch.clear();
+			}
+		}
+	}
+
 	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
-		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence(configOperations)) {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlReadOnlyPersistence(configOperations)) {
 			final Map<String, SqrlCorrelator> resultTable = sqrlPersistence
 					.fetchSqrlCorrelatorsDetached(correlatorStringSet);
 			sqrlPersistence.closeCommit();
@@ -242,9 +406,21 @@ public class SqrlServerOperations {
 		}
 	}
 
+	/**
+	 * @see SqrlPersistence#fetchSqrlCorrelatorViews(Set)
+	 */
+	public Map<String, SqrlCorrelatorView> fetchSqrlCorrelatorViews(final Set<String> correlatorStringSet) {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlReadOnlyPersistence(configOperations)) {
+			final Map<String, SqrlCorrelatorView> resultTable = sqrlPersistence
+					.fetchSqrlCorrelatorViews(correlatorStringSet);
+			sqrlPersistence.closeCommit();
+			return resultTable;
+		}
+	}
+
 	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
 			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
-		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence(configOperations)) {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlReadOnlyPersistence(configOperations)) {
 			final Map<String, SqrlAuthenticationStatus> resultTable = sqrlPersistence
 					.fetchSqrlCorrelatorStatusUpdates(correlatorToCurrentStatusTable);
 			sqrlPersistence.closeCommit();
@@ -252,13 +428,40 @@ public class SqrlServerOperations {
 		}
 	}
 
-	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
+	/**
+	 * @see SqrlPersistence#fetchSqrlCorrelatorStatusChangedSince(long)
+	 */
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusChangedSince(final long changeSequence) {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlReadOnlyPersistence(configOperations)) {
+			final Map<String, SqrlAuthenticationStatus> resultTable = sqrlPersistence
+					.fetchSqrlCorrelatorStatusChangedSince(changeSequence);
+			sqrlPersistence.closeCommit();
+			return resultTable;
+		}
+	}
+
+	/**
+	 * @see SqrlPersistence#compareAndSetLease(String, long, long, long)
+	 */
+	public boolean compareAndSetLease(final String leaseName, final long heldUntil, final long now,
+			final long newExpiry) {
 		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence(configOperations)) {
-			sqrlPersistence.deleteSqrlCorrelator(sqrlCorrelator);
+			final boolean result = sqrlPersistence.compareAndSetLease(leaseName, heldUntil, now, newExpiry);
 			sqrlPersistence.closeCommit();
+			return result;
 		}
 	}
 
+	/**
+	 * Deletes the correlator, retrying if the backchannel updated it concurrently
+	 */
+	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
+		runIdempotentTransaction(configOperations, "deleteSqrlCorrelator", sqrlPersistence -> {
+			sqrlPersistence.deleteSqrlCorrelator(sqrlCorrelator);
+			return null;
+		});
+	}
+
 	public void shutdwon() {
 		sqrlServiceExecutor.shutdown();
 	}
@@ -0,0 +1,60 @@
+package com.github.sqrlserverjava;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * Delivers batches to a single item {@link SqrlClientAuthStateUpdater} one change at a time, so existing
+ * implementations work unchanged with {@link SqrlAuthStatusDispatcher}
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlSingleItemAuthStateUpdaterAdapter implements SqrlBatchClientAuthStateUpdater {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlSingleItemAuthStateUpdaterAdapter.class);
+
+	private final SqrlClientAuthStateUpdater delegate;
+
+	public SqrlSingleItemAuthStateUpdaterAdapter(final SqrlClientAuthStateUpdater delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @return the updater itself if it already supports batches, otherwise an adapter for it
+	 */
+	public static SqrlBatchClientAuthStateUpdater of(final SqrlClientAuthStateUpdater clientAuthStateUpdater) {
+		if (clientAuthStateUpdater instanceof SqrlBatchClientAuthStateUpdater) {
+			return (SqrlBatchClientAuthStateUpdater) clientAuthStateUpdater;
+		}
+		return new SqrlSingleItemAuthStateUpdaterAdapter(clientAuthStateUpdater);
+	}
+
+	@Override
+	public void initSqrl(final SqrlServerOperations sqrlServerOperations, final SqrlConfig sqrlConfig,
+			final AuthStateMonitor sqrlAuthStateMonitor) {
+		delegate.initSqrl(sqrlServerOperations, sqrlConfig, sqrlAuthStateMonitor);
+	}
+
+	@Override
+	public void pushStatusUpdatesToBrowsers(final List<SqrlAuthStatusUpdate> updateList) {
+		for (final SqrlAuthStatusUpdate update : updateList) {
+			try {
+				delegate.pushStatusUpdateToBrowser(update.getCorrelatorString(), update.getOldAuthStatus(),
+						update.getNewAuthStatus());
+			} catch (final RuntimeException e) {
+				// Don't let one browser stop the rest of the batch
+				logger.error("Error pushing status update for correlator " + update.getCorrelatorString(), e);
+			}
+		}
+	}
+
+	@Override
+	public void pushStatusUpdateToBrowser(final String browserId, final SqrlAuthenticationStatus oldAuthStatus,
+			final SqrlAuthenticationStatus newAuthStatus) {
+		delegate.pushStatusUpdateToBrowser(browserId, oldAuthStatus, newAuthStatus);
+	}
+}
@@ -37,6 +37,10 @@ public class SqrlClientRequestProcessor {
 	private final SqrlConfig			sqrlconfig;
 
 	private SqrlInternalUserState		sqrlInternalUserState	= NONE_EXIST;
+	/**
+	 * The status this request moved the correlator to, null if unchanged
+	 */
+	private SqrlAuthenticationStatus	authStatusChange		= null;
 
 	public SqrlClientRequestProcessor(final SqrlClientRequest sqrlClientRequest,
 			final SqrlPersistence sqrlPersistence, final SqrlConfig sqrlConfig) throws SqrlInvalidRequestException {
@@ -79,6 +83,7 @@ public class SqrlClientRequestProcessor {
 			final boolean dbValue = sqrlPersistence.fetchSqrlFlagForIdentity(sqrlIdk, flag);
 			if (clientValue != dbValue) { // update it
 				logger.debug(formatForLogging("Updating SQRL opt flag ", opt, " from ", dbValue, " to ", clientValue));
+				// A change to SQRLONLY or HARDLOCK must take effect with this request, so it is never written behind
 				sqrlPersistence.setSqrlFlagForIdentity(sqrlIdk, flag, clientValue);
 				// TODO_AUDIT, client updated value to clientSet
 			}
@@ -188,11 +193,22 @@ public class SqrlClientRequestProcessor {
 				final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
 				// Setting AuthenticationStatus to CPS drives the CPS logic in the rest of this code
 				sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.AUTHENTICATED_CPS);
+				authStatusChange = SqrlAuthenticationStatus.AUTHENTICATED_CPS;
 			} else {
 				// Per the SQRL spec, servers are not required to support cps, but the client can always request it
 				logger.debug("cps was requested but is disabled in sqrlconfig.  Continuing with browser sign on");
 			}
 		}
 		sqrlPersistence.userAuthenticatedViaSqrl(sqrlIdk, correlator);
+		if (authStatusChange == null) {
+			authStatusChange = SqrlAuthenticationStatus.AUTHENTICATED_BROWSER;
+		}
+	}
+
+	/**
+	 * @return the status {@link #processClientCommand()} moved the correlator to, or null if it was not changed
+	 */
+	public SqrlAuthenticationStatus getAuthStatusChange() {
+		return authStatusChange;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package com.github.sqrlserverjava.enums;
+
+/**
+ * The strategies available for assigning database ids to SQRL entities
+ *
+ * @author Dave Badia
+ *
+ */
+public enum SqrlIdGeneratorType {
+	// @formatter:off
+	/**
+	 * Hi-lo allocation of id blocks from the sqrl_db_id_gen table
+	 */
+	POOLED,
+	/**
+	 * Time ordered 64 bit ids computed locally without any database access
+	 */
+	TIME_ORDERED,
+	;
+	// @formatter:on
+}
@@ -0,0 +1,20 @@
+package com.github.sqrlserverjava.exception;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+
+/**
+ * Indicates a {@link SqrlPersistence#closeCommit()} failed because another request modified or deleted the same
+ * correlator after it was read. The transaction has been rolled back; the operation can be safely retried from the
+ * start only if it is idempotent
+ *
+ * @author Dave Badia
+ */
+public class SqrlConcurrentUpdateException extends SqrlPersistenceException {
+	private static final long serialVersionUID = -3387160254316462051L;
+
+	public SqrlConcurrentUpdateException(final String message, final Throwable cause) {
+		super(message);
+		initCause(cause);
+	}
+
+}
@@ -51,11 +51,31 @@ public class SqrlAutoCloseablePersistence implements SqrlPersistence, AutoClosea
 		return sqrlPersistence.doesSqrlIdentityExistByIdk(sqrlIdk);
 	}
 
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		return sqrlPersistence.fetchSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public Long fetchSqrlIdentityVersion(final String sqrlIdk) {
+		return sqrlPersistence.fetchSqrlIdentityVersion(sqrlIdk);
+	}
+
 	@Override
 	public SqrlIdentity fetchSqrlIdentityByUserXref(final String appUserXref) {
 		return sqrlPersistence.fetchSqrlIdentityByUserXref(appUserXref);
 	}
 
+	@Override
+	public Map<String, SqrlIdentity> fetchSqrlIdentitiesByUserXref(final Set<String> appUserXrefSet) {
+		return sqrlPersistence.fetchSqrlIdentitiesByUserXref(appUserXrefSet);
+	}
+
+	@Override
+	public Map<String, Set<SqrlIdentityFlag>> fetchSqrlIdentityFlagsByUserXref(final Set<String> appUserXrefSet) {
+		return sqrlPersistence.fetchSqrlIdentityFlagsByUserXref(appUserXrefSet);
+	}
+
 	@Override
 	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
 		sqrlPersistence.updateIdkForSqrlIdentity(previousSqrlIdk, newSqrlIdk);
@@ -146,11 +166,21 @@ public class SqrlAutoCloseablePersistence implements SqrlPersistence, AutoClosea
 		sqrlPersistence.cleanUpExpiredEntries();
 	}
 
+	@Override
+	public int cleanUpExpiredEntries(final int maxRows) {
+		return sqrlPersistence.cleanUpExpiredEntries(maxRows);
+	}
+
 	@Override
 	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
 		return sqrlPersistence.fetchSqrlCorrelatorsDetached(correlatorStringSet);
 	}
 
+	@Override
+	public Map<String, SqrlCorrelatorView> fetchSqrlCorrelatorViews(final Set<String> correlatorStringSet) {
+		return sqrlPersistence.fetchSqrlCorrelatorViews(correlatorStringSet);
+	}
+
 	@Override
 	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
 			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
@@ -161,4 +191,21 @@ public class SqrlAutoCloseablePersistence implements SqrlPersistence, AutoClosea
 	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
 		sqrlPersistence.deleteSqrlCorrelator(sqrlCorrelator);
 	}
+
+	@Override
+	public int updateSqrlCorrelatorStatus(final Set<String> correlatorStringSet,
+			final SqrlAuthenticationStatus expectedStatus, final SqrlAuthenticationStatus newStatus) {
+		return sqrlPersistence.updateSqrlCorrelatorStatus(correlatorStringSet, expectedStatus, newStatus);
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusChangedSince(final long changeSequence) {
+		return sqrlPersistence.fetchSqrlCorrelatorStatusChangedSince(changeSequence);
+	}
+
+	@Override
+	public boolean compareAndSetLease(final String leaseName, final long heldUntil, final long now,
+			final long newExpiry) {
+		return sqrlPersistence.compareAndSetLease(leaseName, heldUntil, now, newExpiry);
+	}
 }
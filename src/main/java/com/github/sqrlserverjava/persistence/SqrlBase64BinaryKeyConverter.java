@@ -0,0 +1,39 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.Base64;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * Stores a base64url key (an idk or a hashed nut token key) as the raw bytes it encodes, so a 43 character idk becomes
+ * a 32 byte BINARY column. Applied by META-INF/sqrl-binary-keys-orm.xml
+ *
+ * @author Dave Badia
+ *
+ */
+@Converter
+public class SqrlBase64BinaryKeyConverter implements AttributeConverter<String, byte[]> {
+
+	@Override
+	public byte[] convertToDatabaseColumn(final String attribute) {
+		if (attribute == null) {
+			return null;
+		}
+		try {
+			return Base64.getUrlDecoder().decode(attribute);
+		} catch (final IllegalArgumentException e) {
+			throw new SqrlPersistenceException("Binary storage keys require base64url keys, but got " + attribute);
+		}
+	}
+
+	@Override
+	public String convertToEntityAttribute(final byte[] dbData) {
+		if (dbData == null) {
+			return null;
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(dbData);
+	}
+}
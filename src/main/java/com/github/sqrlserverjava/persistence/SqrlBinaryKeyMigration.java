@@ -0,0 +1,180 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies SQRL data from a persistence unit using the default string keys into an empty schema which uses
+ * META-INF/sqrl-binary-keys-orm.xml. Identities keep their database ids, unexpired used nut tokens are rekeyed to the
+ * hashed format and the id generator rows are copied. Correlators are not copied since they expire within
+ * nutValidityInSeconds; logins which are in progress during the switch must be restarted.
+ * <p>
+ * Work is committed in batches and rows which already exist in the target are skipped, so an interrupted migration can
+ * simply be run again.
+ * <p>
+ * Usage: <code>SqrlBinaryKeyMigration &lt;sourcePersistenceUnit&gt; &lt;targetPersistenceUnit&gt; [batchSize]</code>
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlBinaryKeyMigration {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlBinaryKeyMigration.class);
+
+	static final int	DEFAULT_BATCH_SIZE	= 1000;
+	static final int	IDK_BYTE_LENGTH		= 32;
+
+	private final EntityManagerFactory			sourceEntityManagerFactory;
+	private final EntityManagerFactory			targetEntityManagerFactory;
+	private final int							batchSize;
+	private final SqrlBase64BinaryKeyConverter	idkConverter	= new SqrlBase64BinaryKeyConverter();
+
+	public SqrlBinaryKeyMigration(final EntityManagerFactory sourceEntityManagerFactory,
+			final EntityManagerFactory targetEntityManagerFactory, final int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be 1 or greater");
+		}
+		this.sourceEntityManagerFactory = sourceEntityManagerFactory;
+		this.targetEntityManagerFactory = targetEntityManagerFactory;
+		this.batchSize = batchSize;
+	}
+
+	public static void main(final String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: SqrlBinaryKeyMigration <sourcePersistenceUnit> <targetPersistenceUnit> [batchSize]");
+			System.exit(1);
+		}
+		final int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BATCH_SIZE;
+		final SqrlBinaryKeyMigration migration = new SqrlBinaryKeyMigration(
+				Persistence.createEntityManagerFactory(args[0]), Persistence.createEntityManagerFactory(args[1]),
+				batchSize);
+		migration.migrate();
+		System.exit(0);
+	}
+
+	public void migrate() {
+		final long start = System.currentTimeMillis();
+		final int identityCount = migrateIdentities();
+		final int tokenCount = migrateUsedNutTokens();
+		migrateIdGenerators();
+		logger.info("process=migrate identities={} usedNutTokens={} durationMs={}", identityCount, tokenCount,
+				System.currentTimeMillis() - start);
+	}
+
+	int migrateIdentities() {
+		int copied = 0;
+		long lastId = Long.MIN_VALUE;
+		final EntityManager sourceEntityManager = sourceEntityManagerFactory.createEntityManager();
+		final EntityManager targetEntityManager = targetEntityManagerFactory.createEntityManager();
+		try {
+			while (true) {
+				final List<SqrlIdentity> batch = sourceEntityManager
+						.createQuery("SELECT i FROM SqrlIdentity i WHERE i.id > :lastId ORDER BY i.id",
+								SqrlIdentity.class)
+						.setParameter("lastId", lastId).setMaxResults(batchSize).getResultList();
+				if (batch.isEmpty()) {
+					break;
+				}
+				targetEntityManager.getTransaction().begin();
+				for (final SqrlIdentity sqrlIdentity : batch) {
+					lastId = sqrlIdentity.getId();
+					if (!isValidIdk(sqrlIdentity.getIdk())) {
+						logger.error("process=migrate detail=\"Skipping identity with idk that is not 32 bytes\" id={}",
+								sqrlIdentity.getId());
+					} else if (targetEntityManager.find(SqrlIdentity.class, sqrlIdentity.getId()) == null) {
+						targetEntityManager.persist(new SqrlIdentity(sqrlIdentity));
+						copied++;
+					}
+				}
+				targetEntityManager.getTransaction().commit();
+				// Keep memory flat
+				sourceEntityManager.clear();
+				targetEntityManager.clear();
+				logger.info("process=migrate table=sqrl_identity copied={} lastId={}", copied, lastId);
+			}
+		} finally {
+			close(sourceEntityManager);
+			close(targetEntityManager);
+		}
+		return copied;
+	}
+
+	private boolean isValidIdk(final String idk) {
+		try {
+			return idk != null && idkConverter.convertToDatabaseColumn(idk).length == IDK_BYTE_LENGTH;
+		} catch (final RuntimeException e) {
+			return false;
+		}
+	}
+
+	int migrateUsedNutTokens() {
+		int copied = 0;
+		String lastValue = "";
+		final Date now = new Date();
+		final EntityManager sourceEntityManager = sourceEntityManagerFactory.createEntityManager();
+		final EntityManager targetEntityManager = targetEntityManagerFactory.createEntityManager();
+		try {
+			while (true) {
+				final List<SqrlUsedNutToken> batch = sourceEntityManager
+						.createQuery("SELECT t FROM SqrlUsedNutToken t WHERE t.value > :lastValue "
+								+ "AND t.expiryTime > :now ORDER BY t.value", SqrlUsedNutToken.class)
+						.setParameter("lastValue", lastValue).setParameter("now", now).setMaxResults(batchSize)
+						.getResultList();
+				if (batch.isEmpty()) {
+					break;
+				}
+				targetEntityManager.getTransaction().begin();
+				for (final SqrlUsedNutToken usedNutToken : batch) {
+					lastValue = usedNutToken.getValue();
+					final String hashedKey = SqrlJpaPersistenceProvider.hashNutTokenKey(usedNutToken.getValue());
+					if (targetEntityManager.find(SqrlUsedNutToken.class, hashedKey) == null) {
+						targetEntityManager.persist(new SqrlUsedNutToken(hashedKey, usedNutToken.getExpiryTime()));
+						copied++;
+					}
+				}
+				targetEntityManager.getTransaction().commit();
+				sourceEntityManager.clear();
+				targetEntityManager.clear();
+			}
+		} finally {
+			close(sourceEntityManager);
+			close(targetEntityManager);
+		}
+		return copied;
+	}
+
+	/**
+	 * Copies the pooled id generator rows so new ids don't collide with the migrated identities
+	 */
+	void migrateIdGenerators() {
+		final EntityManager sourceEntityManager = sourceEntityManagerFactory.createEntityManager();
+		final EntityManager targetEntityManager = targetEntityManagerFactory.createEntityManager();
+		try {
+			targetEntityManager.getTransaction().begin();
+			for (final SqrlDbIdGen idGen : sourceEntityManager
+					.createQuery("SELECT g FROM SqrlDbIdGen g", SqrlDbIdGen.class).getResultList()) {
+				final SqrlDbIdGen existing = targetEntityManager.find(SqrlDbIdGen.class, idGen.getName());
+				if (existing == null || existing.getValue() < idGen.getValue()) {
+					targetEntityManager.merge(new SqrlDbIdGen(idGen.getName(), idGen.getValue()));
+				}
+			}
+			targetEntityManager.getTransaction().commit();
+		} finally {
+			close(sourceEntityManager);
+			close(targetEntityManager);
+		}
+	}
+
+	private static void close(final EntityManager entityManager) {
+		if (entityManager.getTransaction().isActive()) {
+			entityManager.getTransaction().rollback();
+		}
+		entityManager.close();
+	}
+}
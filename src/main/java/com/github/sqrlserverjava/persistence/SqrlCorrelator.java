@@ -1,9 +1,12 @@
 package com.github.sqrlserverjava.persistence;
 
 import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.CollectionTable;
 import javax.persistence.Column;
@@ -12,15 +15,19 @@ import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.FetchType;
-import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.MapKeyColumn;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
-import javax.persistence.TableGenerator;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Transient;
+import javax.persistence.Version;
 
 import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
 import com.github.sqrlserverjava.exception.SqrlPersistenceException;
@@ -31,15 +38,64 @@ import com.github.sqrlserverjava.exception.SqrlPersistenceException;
  * @author Dave Badia
  *
  */
+@NamedQueries({
+		@NamedQuery(name = SqrlCorrelator.QUERY_BY_VALUE,
+		query = "SELECT i FROM SqrlCorrelator i WHERE i.value = :correlator"),
+		@NamedQuery(name = SqrlCorrelator.QUERY_BY_VALUE_LIST,
+		query = "SELECT i FROM SqrlCorrelator i WHERE i.value IN :correlatorList",
+		hints = @QueryHint(name = SqrlJpaPersistenceProvider.HINT_FETCH_SIZE,
+		value = SqrlJpaPersistenceProvider.FETCH_SIZE_IN_CLAUSE)),
+		@NamedQuery(name = SqrlCorrelator.QUERY_STATUS_BY_VALUE_LIST,
+		query = "SELECT i.value, i.authenticationStatus FROM SqrlCorrelator i "
+				+ "WHERE i.value IN :correlatorList",
+		hints = { @QueryHint(name = SqrlJpaPersistenceProvider.HINT_READ_ONLY, value = "true"),
+				@QueryHint(name = SqrlJpaPersistenceProvider.HINT_FETCH_SIZE,
+				value = SqrlJpaPersistenceProvider.FETCH_SIZE_IN_CLAUSE) }),
+		@NamedQuery(name = SqrlCorrelator.QUERY_VIEW_BY_VALUE_LIST,
+		query = "SELECT NEW com.github.sqrlserverjava.persistence.SqrlCorrelatorView(i.value, "
+				+ "i.authenticationStatus, i.expiryTime, i.changeSequence) FROM SqrlCorrelator i "
+				+ "WHERE i.value IN :correlatorList",
+		hints = @QueryHint(name = SqrlJpaPersistenceProvider.HINT_FETCH_SIZE,
+		value = SqrlJpaPersistenceProvider.FETCH_SIZE_IN_CLAUSE)),
+		@NamedQuery(name = SqrlCorrelator.QUERY_DELETE_EXPIRED,
+		query = "DELETE FROM SqrlCorrelator i WHERE i.expiryTime < :now"),
+		@NamedQuery(name = SqrlCorrelator.QUERY_IDS_EXPIRED,
+		query = "SELECT c.id FROM SqrlCorrelator c WHERE c.expiryTime < :now"),
+		@NamedQuery(name = SqrlCorrelator.QUERY_DELETE_BY_ID_LIST,
+		query = "DELETE FROM SqrlCorrelator c WHERE c.id IN :idList"),
+		@NamedQuery(name = SqrlCorrelator.QUERY_UPDATE_STATUS_BY_VALUE_LIST,
+		query = "UPDATE SqrlCorrelator c SET c.authenticationStatus = :newStatus, c.changeSequence = :changeSequence "
+				+ "WHERE c.value IN :correlatorList AND c.authenticationStatus = :expectedStatus"),
+		@NamedQuery(name = SqrlCorrelator.QUERY_STATUS_CHANGED_SINCE,
+		query = "SELECT c.value, c.authenticationStatus FROM SqrlCorrelator c WHERE c.changeSequence > :changeSequence",
+		hints = @QueryHint(name = SqrlJpaPersistenceProvider.HINT_READ_ONLY, value = "true")),
+		@NamedQuery(name = SqrlCorrelator.QUERY_BY_AUTHENTICATED_IDENTITY,
+		query = "SELECT c FROM SqrlCorrelator c WHERE c.authenticatedIdentity = :sqrlIdentity") })
 @Entity
-@Table(name = "sqrl_correlator")
+@Table(name = "sqrl_correlator", indexes = @Index(name = "sqrl_correlator_change_seq", columnList = "change_seq"))
 public class SqrlCorrelator implements Serializable {
 	private static final long serialVersionUID = -670589151677266808L;
 
+	static final String	QUERY_BY_VALUE						= "SqrlCorrelator.byValue";
+	static final String	QUERY_BY_VALUE_LIST					= "SqrlCorrelator.byValueList";
+	static final String	QUERY_STATUS_BY_VALUE_LIST			= "SqrlCorrelator.statusByValueList";
+	static final String	QUERY_VIEW_BY_VALUE_LIST			= "SqrlCorrelator.viewByValueList";
+	static final String	QUERY_DELETE_EXPIRED				= "SqrlCorrelator.deleteExpired";
+	static final String	QUERY_IDS_EXPIRED					= "SqrlCorrelator.idsExpired";
+	static final String	QUERY_DELETE_BY_ID_LIST				= "SqrlCorrelator.deleteByIdList";
+	static final String	QUERY_UPDATE_STATUS_BY_VALUE_LIST	= "SqrlCorrelator.updateStatusByValueList";
+	static final String	QUERY_STATUS_CHANGED_SINCE			= "SqrlCorrelator.statusChangedSince";
+	static final String	QUERY_BY_AUTHENTICATED_IDENTITY		= "SqrlCorrelator.byAuthenticatedIdentity";
+
+	/**
+	 * Change sequences are time ordered ids, the node id is irrelevant since they only need to be ordered, not unique
+	 */
+	private static final SqrlTimeOrderedIdGenerator CHANGE_SEQUENCE_GENERATOR = new SqrlTimeOrderedIdGenerator(0);
+
+	/**
+	 * Assigned by {@link SqrlIdGenerator} when persisted
+	 */
 	@Id
-	@TableGenerator(name = "correlator_gen", table = "sqrl_db_id_gen", pkColumnName = "name", valueColumnName = "value",
-	allocationSize = 1)
-	@GeneratedValue(generator = "correlator_gen")
 	@Column(name = "id")
 	private long id;
 
@@ -54,17 +110,53 @@ public class SqrlCorrelator implements Serializable {
 	@Temporal(TemporalType.TIMESTAMP)
 	private Date expiryTime;
 
-	@ElementCollection(fetch = FetchType.EAGER)
+	/**
+	 * Optimistic lock; concurrent updates from the backchannel and the browser are detected at commit time, see
+	 * {@link com.github.sqrlserverjava.exception.SqrlConcurrentUpdateException}
+	 */
+	@Version
+	@Column(name = "version", nullable = false)
+	private long version;
+
+	/**
+	 * Bumped on every status change so cluster nodes can ask for the correlators changed since a point in time instead
+	 * of checking each one, see {@link #nextChangeSequence()}
+	 */
+	@Column(name = "change_seq", nullable = false)
+	private long changeSequence;
+
+	/**
+	 * Legacy storage of transient auth data, see {@link #transientAuthData}. LAZY so compact correlators never read the
+	 * child table; {@link SqrlJpaPersistenceProvider} loads it before a fetched correlator can be detached
+	 */
+	@ElementCollection(fetch = FetchType.LAZY)
 	@CollectionTable(name = "sqrl_transient_auth_data",
 	joinColumns = @JoinColumn(name = "id", referencedColumnName = "id"))
 	@MapKeyColumn(name = "name")
 	@Column(name = "value", length = 5000)
 	private final Map<String, String> transientAuthDataTable = new HashMap<>();
 
+	/**
+	 * Compact storage of transient auth data in a single column, see {@link SqrlTransientAuthDataConverter}. If null,
+	 * this correlator uses the legacy sqrl_transient_auth_data table
+	 */
+	@Column(name = "transient_auth_data", length = 10000, nullable = true)
+	private String transientAuthData;
+
+	@Transient
+	private transient Map<String, String> compactTransientAuthDataTable;
+
 	@ManyToOne
 	@JoinColumn(name = "authenticated_identity", nullable = true)
 	private SqrlIdentity authenticatedIdentity;
 
+	/**
+	 * Set by {@link SqrlShardedPersistence} when the authenticated identity lives on a different shard, in which case
+	 * there is no foreign key and {@link #authenticatedIdentity} is null
+	 */
+	@Transient
+	private transient SqrlIdentity shardAuthenticatedIdentity;
+
 	public SqrlCorrelator() {
 		// Required by JPA
 	}
@@ -72,6 +164,7 @@ public class SqrlCorrelator implements Serializable {
 	public SqrlCorrelator(final String correlatorString, final Date expiryTime) {
 		this.value = correlatorString;
 		this.expiryTime = expiryTime;
+		this.changeSequence = nextChangeSequence();
 	}
 
 	public Date getExpiryTime() {
@@ -82,8 +175,28 @@ public class SqrlCorrelator implements Serializable {
 		this.expiryTime = expiryTime;
 	}
 
+	/**
+	 * @return the modifiable transient auth data for this correlator
+	 */
 	public Map<String, String> getTransientAuthDataTable() {
-		return transientAuthDataTable;
+		if (transientAuthData == null) {
+			return transientAuthDataTable;
+		}
+		if (compactTransientAuthDataTable == null) {
+			compactTransientAuthDataTable = new CompactTransientAuthDataTable(
+					SqrlTransientAuthDataConverter.decode(transientAuthData));
+		}
+		return compactTransientAuthDataTable;
+	}
+
+	/**
+	 * Switch a new correlator to compact transient auth data storage
+	 */
+	void enableCompactTransientAuthData() {
+		if (transientAuthData == null) {
+			transientAuthData = SqrlTransientAuthDataConverter.encode(transientAuthDataTable);
+			transientAuthDataTable.clear();
+		}
 	}
 
 	public SqrlIdentity getAuthenticatedIdentity() {
@@ -91,10 +204,13 @@ public class SqrlCorrelator implements Serializable {
 			throw new SqrlPersistenceException( // TOOD: create SqrlRuntimeException
 					"getAuthenticatedIdentity() can only be called when getAuthenticationStatus() == SqrlAuthenticationStatus.AUTH_COMPLETE");
 		}
-		return authenticatedIdentity;
+		return authenticatedIdentity != null ? authenticatedIdentity : shardAuthenticatedIdentity;
 	}
 
 	public void setAuthenticationStatus(final SqrlAuthenticationStatus authenticationStatus) {
+		if (this.authenticationStatus != authenticationStatus) {
+			changeSequence = nextChangeSequence();
+		}
 		this.authenticationStatus = authenticationStatus;
 	}
 
@@ -106,10 +222,33 @@ public class SqrlCorrelator implements Serializable {
 		return value;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
+	public long getChangeSequence() {
+		return changeSequence;
+	}
+
+	/**
+	 * Change sequences are {@link SqrlTimeOrderedIdGenerator} ids so they increase with time across the cluster, within
+	 * the clock skew between servers. Readers must allow for that skew and for transactions which commit after a later
+	 * sequence has become visible, see {@link SqrlTimeOrderedIdGenerator#firstIdAt(long)}
+	 *
+	 * @return a sequence greater than any previously returned by this JVM
+	 */
+	static long nextChangeSequence() {
+		return CHANGE_SEQUENCE_GENERATOR.nextId(SqrlIdGenerator.SEQUENCE_CORRELATOR);
+	}
+
 	public void setAuthenticatedIdentity(final SqrlIdentity authenticatedIdentity) {
 		this.authenticatedIdentity = authenticatedIdentity;
 	}
 
+	void setShardAuthenticatedIdentity(final SqrlIdentity shardAuthenticatedIdentity) {
+		this.shardAuthenticatedIdentity = shardAuthenticatedIdentity;
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder builder = new StringBuilder();
@@ -121,8 +260,10 @@ public class SqrlCorrelator implements Serializable {
 		builder.append(authenticationStatus);
 		builder.append(", expiryTime=");
 		builder.append(expiryTime);
+		builder.append(", version=");
+		builder.append(version);
 		builder.append(", transientAuthDataTable=");
-		builder.append(transientAuthDataTable);
+		builder.append(getTransientAuthDataTable());
 		builder.append(", authenticatedIdentity=");
 		builder.append(authenticatedIdentity);
 		builder.append("]");
@@ -137,7 +278,7 @@ public class SqrlCorrelator implements Serializable {
 		result = prime * result + ((authenticationStatus == null) ? 0 : authenticationStatus.hashCode());
 		result = prime * result + ((expiryTime == null) ? 0 : expiryTime.hashCode());
 		result = prime * result + (int) (id ^ (id >>> 32));
-		result = prime * result + ((transientAuthDataTable == null) ? 0 : transientAuthDataTable.hashCode());
+		result = prime * result + getTransientAuthDataTable().hashCode();
 		result = prime * result + ((value == null) ? 0 : value.hashCode());
 		return result;
 	}
@@ -174,11 +315,7 @@ public class SqrlCorrelator implements Serializable {
 		if (id != other.id) {
 			return false;
 		}
-		if (transientAuthDataTable == null) {
-			if (other.transientAuthDataTable != null) {
-				return false;
-			}
-		} else if (!transientAuthDataTable.equals(other.transientAuthDataTable)) {
+		if (!getTransientAuthDataTable().equals(other.getTransientAuthDataTable())) {
 			return false;
 		}
 		if (value == null) {
@@ -195,4 +332,49 @@ public class SqrlCorrelator implements Serializable {
 		return id;
 	}
 
+	void setId(final long id) {
+		this.id = id;
+	}
+
+	/**
+	 * Map view which re-encodes {@link SqrlCorrelator#transientAuthData} on every change so JPA sees a simple column
+	 * update
+	 */
+	private class CompactTransientAuthDataTable extends AbstractMap<String, String> {
+		private final Map<String, String> table;
+
+		private CompactTransientAuthDataTable(final Map<String, String> table) {
+			this.table = table;
+		}
+
+		@Override
+		public String get(final Object key) {
+			return table.get(key);
+		}
+
+		@Override
+		public String put(final String key, final String value) {
+			final String previous = table.put(key, value);
+			transientAuthData = SqrlTransientAuthDataConverter.encode(table);
+			return previous;
+		}
+
+		@Override
+		public String remove(final Object key) {
+			final String previous = table.remove(key);
+			transientAuthData = SqrlTransientAuthDataConverter.encode(table);
+			return previous;
+		}
+
+		@Override
+		public void clear() {
+			table.clear();
+			transientAuthData = "";
+		}
+
+		@Override
+		public Set<Map.Entry<String, String>> entrySet() {
+			return Collections.unmodifiableSet(table.entrySet());
+		}
+	}
 }
@@ -0,0 +1,68 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * A read only copy of the columns of a {@link SqrlCorrelator} which the web app needs to render or poll a login page.
+ * Built directly by a JPQL constructor expression, so fetching one never loads the transient auth data or the
+ * authenticated identity; see {@link SqrlPersistence#fetchSqrlCorrelatorViews(java.util.Set)}
+ *
+ * @author Dave Badia
+ *
+ */
+public final class SqrlCorrelatorView implements Serializable {
+	private static final long serialVersionUID = 2831190755641630624L;
+
+	private final String					correlatorString;
+	private final SqrlAuthenticationStatus	authenticationStatus;
+	private final long						expiryTime;
+	private final long						changeSequence;
+
+	/**
+	 * Invoked by the {@link SqrlCorrelator#QUERY_VIEW_BY_VALUE_LIST} constructor expression
+	 */
+	public SqrlCorrelatorView(final String correlatorString, final SqrlAuthenticationStatus authenticationStatus,
+			final Date expiryTime, final long changeSequence) {
+		this.correlatorString = correlatorString;
+		this.authenticationStatus = authenticationStatus;
+		this.expiryTime = expiryTime.getTime();
+		this.changeSequence = changeSequence;
+	}
+
+	/**
+	 * @return a view of the given correlator, for implementations which can only fetch whole entities
+	 */
+	public static SqrlCorrelatorView of(final SqrlCorrelator sqrlCorrelator) {
+		return new SqrlCorrelatorView(sqrlCorrelator.getCorrelatorString(), sqrlCorrelator.getAuthenticationStatus(),
+				sqrlCorrelator.getExpiryTime(), sqrlCorrelator.getChangeSequence());
+	}
+
+	public String getCorrelatorString() {
+		return correlatorString;
+	}
+
+	public SqrlAuthenticationStatus getAuthenticationStatus() {
+		return authenticationStatus;
+	}
+
+	public Date getExpiryTime() {
+		return new Date(expiryTime);
+	}
+
+	/**
+	 * @see SqrlCorrelator#getChangeSequence()
+	 */
+	public long getChangeSequence() {
+		return changeSequence;
+	}
+
+	@Override
+	public String toString() {
+		return "SqrlCorrelatorView [correlatorString=" + correlatorString + ", authenticationStatus="
+				+ authenticationStatus + ", expiryTime=" + expiryTime + ", changeSequence=" + changeSequence + "]";
+	}
+}
@@ -0,0 +1,48 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * A row in the id generator table, which holds the highest id that has been handed out for each sequence
+ * <p>
+ * Row names in use: {@link SqrlIdGenerator#SEQUENCE_IDENTITY}, {@link SqrlIdGenerator#SEQUENCE_CORRELATOR} and
+ * {@link SqrlReplicaLagMonitor#HEARTBEAT_NAME}. Cluster leases live in their own table, see {@link SqrlLease}
+ *
+ * @author Dave Badia
+ *
+ * @see SqrlPooledIdGenerator
+ */
+@Entity
+@Table(name = "sqrl_db_id_gen")
+public class SqrlDbIdGen implements Serializable {
+	private static final long serialVersionUID = -4381527000468245013L;
+
+	@Id
+	@Column(name = "name", length = 50, nullable = false)
+	private String name;
+
+	@Column(name = "value", nullable = false)
+	private long value;
+
+	public SqrlDbIdGen() {
+		// Required by JPA
+	}
+
+	SqrlDbIdGen(final String name, final long value) {
+		this.name = name;
+		this.value = value;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getValue() {
+		return value;
+	}
+}
@@ -0,0 +1,22 @@
+package com.github.sqrlserverjava.persistence;
+
+/**
+ * Assigns database ids to new {@link SqrlIdentity} and {@link SqrlCorrelator} entities. Implementations must be thread
+ * safe and must never return the same id twice for a given sequence, even across servers in a cluster
+ *
+ * @author Dave Badia
+ *
+ * @see SqrlPooledIdGenerator
+ * @see SqrlTimeOrderedIdGenerator
+ */
+public interface SqrlIdGenerator {
+	public static final String	SEQUENCE_IDENTITY	= "identity_gen";
+	public static final String	SEQUENCE_CORRELATOR	= "correlator_gen";
+
+	/**
+	 * @param sequenceName
+	 *            the sequence to allocate from, one of the SEQUENCE_ constants
+	 * @return a new unique id
+	 */
+	public long nextId(String sequenceName);
+}
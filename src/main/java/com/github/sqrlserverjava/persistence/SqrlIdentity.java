@@ -13,12 +13,13 @@ import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.FetchType;
-import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.MapKeyColumn;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
-import javax.persistence.TableGenerator;
 
 import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
 
@@ -28,15 +29,38 @@ import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
  * @author Dave Badia
  *
  */
+@NamedQueries({
+		@NamedQuery(name = SqrlIdentity.QUERY_BY_IDK, query = "SELECT i FROM SqrlIdentity i WHERE i.idk = :sqrlIdk"),
+		@NamedQuery(name = SqrlIdentity.QUERY_VERSION_BY_IDK,
+		query = "SELECT i.version FROM SqrlIdentity i WHERE i.idk = :sqrlIdk",
+		hints = @QueryHint(name = SqrlJpaPersistenceProvider.HINT_READ_ONLY, value = "true")),
+		@NamedQuery(name = SqrlIdentity.QUERY_BY_USER_XREF,
+		query = "SELECT i FROM SqrlIdentity i WHERE i.nativeUserXref = :userXref"),
+		@NamedQuery(name = SqrlIdentity.QUERY_BY_USER_XREF_LIST,
+		query = "SELECT i FROM SqrlIdentity i WHERE i.nativeUserXref IN :userXrefList",
+		hints = @QueryHint(name = SqrlJpaPersistenceProvider.HINT_FETCH_SIZE,
+		value = SqrlJpaPersistenceProvider.FETCH_SIZE_IN_CLAUSE)),
+		@NamedQuery(name = SqrlIdentity.QUERY_FLAGS_BY_USER_XREF_LIST,
+		query = "SELECT i.nativeUserXref, f FROM SqrlIdentity i LEFT JOIN i.enabledFlagList f "
+				+ "WHERE i.nativeUserXref IN :userXrefList",
+		hints = { @QueryHint(name = SqrlJpaPersistenceProvider.HINT_READ_ONLY, value = "true"),
+				@QueryHint(name = SqrlJpaPersistenceProvider.HINT_FETCH_SIZE,
+				value = SqrlJpaPersistenceProvider.FETCH_SIZE_IN_CLAUSE) }) })
 @Entity
 @Table(name = "sqrl_identity")
 public class SqrlIdentity implements Serializable {
 	private static final long serialVersionUID = 8253431723090135998L;
 
+	static final String	QUERY_BY_IDK					= "SqrlIdentity.byIdk";
+	static final String	QUERY_VERSION_BY_IDK			= "SqrlIdentity.versionByIdk";
+	static final String	QUERY_BY_USER_XREF				= "SqrlIdentity.byUserXref";
+	static final String	QUERY_BY_USER_XREF_LIST			= "SqrlIdentity.byUserXrefList";
+	static final String	QUERY_FLAGS_BY_USER_XREF_LIST	= "SqrlIdentity.flagsByUserXrefList";
+
+	/**
+	 * Assigned by {@link SqrlIdGenerator} when persisted
+	 */
 	@Id
-	@TableGenerator(name = "identity_gen", table = "sqrl_db_id_gen", pkColumnName = "name", valueColumnName = "value",
-	allocationSize = 1)
-	@GeneratedValue(generator = "identity_gen")
 	@Column(name = "id")
 	private long id;
 
@@ -61,6 +85,13 @@ public class SqrlIdentity implements Serializable {
 	@Column(name = "name")
 	private final Set<SqrlIdentityFlag> enabledFlagList = new HashSet<SqrlIdentityFlag>();
 
+	/**
+	 * Incremented by the persistence layer on every change so cached copies of this identity can be checked for
+	 * staleness. This is a change counter only, it is not used for JPA optimistic locking
+	 */
+	@Column(name = "version", nullable = false)
+	private long version;
+
 	public SqrlIdentity() {
 		// Required by JPA
 	}
@@ -69,6 +100,18 @@ public class SqrlIdentity implements Serializable {
 		this.idk = sqrlIdk;
 	}
 
+	/**
+	 * Creates a detached deep copy of the given identity, used by {@link SqrlIdentityCache}
+	 */
+	SqrlIdentity(final SqrlIdentity toCopy) {
+		this.id = toCopy.getId();
+		this.idk = toCopy.getIdk();
+		this.nativeUserXref = toCopy.getNativeUserXref();
+		this.identityDataTable.putAll(toCopy.getIdentityDataTable());
+		this.enabledFlagList.addAll(toCopy.getEnabledFlagList());
+		this.version = toCopy.getVersion();
+	}
+
 	public long getId() {
 		return id;
 	}
@@ -101,12 +144,20 @@ public class SqrlIdentity implements Serializable {
 		return enabledFlagList;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
+	void incrementVersion() {
+		version++;
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder builder = new StringBuilder();
 		builder.append("SqrlIdentity [id=").append(id).append(", idk=").append(idk).append(", nativeUserXref=")
 		.append(nativeUserXref).append(", identityDataTable=").append(identityDataTable).append(", flagTable=")
-		.append(enabledFlagList).append("]");
+		.append(enabledFlagList).append(", version=").append(version).append("]");
 		return builder.toString();
 	}
 
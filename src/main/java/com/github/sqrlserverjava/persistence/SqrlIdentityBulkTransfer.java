@@ -0,0 +1,457 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * Streams {@link SqrlIdentity} data, including flags and identity data, to and from a line oriented UTF-8 format. This
+ * avoids the per identity transactions required when going through {@link SqrlPersistence}: exports page through the
+ * identities by id and imports insert in batches with a commit per batch. The persistence context is cleared after
+ * every batch so memory use is flat regardless of the number of identities.
+ * <p>
+ * Format: a {@link #HEADER} line followed by one line per identity with tab separated fields
+ * <code>idk, nativeUserXref, flags, data</code>. Flags are comma separated {@link SqrlIdentityFlag} names, data is
+ * <code>name=value</code> pairs separated by <code>&amp;</code>. The xref and the data names and values are URL
+ * encoded; an empty xref is imported as null. Database ids are not exported, new ids are assigned on import.
+ * <p>
+ * Imports skip identities whose idk already exists, so merging into a populated schema and re-running an interrupted
+ * import are both safe. {@link #importIdentities(BufferedReader, long)} can also skip records known to be committed.
+ * <p>
+ * Usage:
+ * <code>SqrlIdentityBulkTransfer export|import &lt;persistenceUnit&gt; &lt;file&gt; [batchSize]</code>. The command
+ * line tool keeps a <code>&lt;file&gt;.checkpoint</code> file and resumes from it when run again after a failure
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlIdentityBulkTransfer {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlIdentityBulkTransfer.class);
+
+	static final String			HEADER				= "# sqrl-identities v1";
+	static final int			DEFAULT_BATCH_SIZE	= 1000;
+	private static final String	CHECKPOINT_SUFFIX	= ".checkpoint";
+	private static final char	FIELD_SEPARATOR		= '\t';
+
+	private final EntityManagerFactory	entityManagerFactory;
+	private final SqrlIdGenerator		idGenerator;
+	private final int					batchSize;
+
+	/**
+	 * @param entityManagerFactory
+	 *            the persistence unit to export from or import into. For best import performance, create it with JDBC
+	 *            batch writing enabled, as {@link #main(String[])} does
+	 * @param idGenerator
+	 *            assigns ids to imported identities, must not be null for imports
+	 */
+	public SqrlIdentityBulkTransfer(final EntityManagerFactory entityManagerFactory,
+			final SqrlIdGenerator idGenerator, final int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be 1 or greater");
+		}
+		this.entityManagerFactory = entityManagerFactory;
+		this.idGenerator = idGenerator;
+		this.batchSize = batchSize;
+	}
+
+	/* ************************ Export *****************************/
+
+	/**
+	 * Writes all identities with an id greater than afterId, in id order
+	 *
+	 * @param afterId
+	 *            {@link Long#MIN_VALUE} to export everything, or the last id of a previous partial export
+	 * @param progressListener
+	 *            notified after each batch has been written and flushed, may be null
+	 * @return the number of identities written
+	 */
+	public long exportIdentities(final Writer writer, final long afterId, final ExportProgressListener progressListener)
+			throws IOException {
+		long lastId = afterId;
+		long count = 0;
+		if (afterId == Long.MIN_VALUE) {
+			writer.write(HEADER);
+			writer.write('\n');
+		}
+		final EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			while (true) {
+				// Projections only, so no entities or lazy collections are loaded
+				final List<Object[]> identityRowList = entityManager
+						.createQuery("SELECT i.id, i.idk, i.nativeUserXref FROM SqrlIdentity i WHERE i.id > :lastId "
+								+ "ORDER BY i.id", Object[].class)
+						.setParameter("lastId", lastId).setMaxResults(batchSize).getResultList();
+				if (identityRowList.isEmpty()) {
+					break;
+				}
+				final List<Long> idList = new ArrayList<>(identityRowList.size());
+				for (final Object[] row : identityRowList) {
+					idList.add((Long) row[0]);
+				}
+				final Map<Long, List<String>> flagTable = fetchFlags(entityManager, idList);
+				final Map<Long, Map<String, String>> dataTable = fetchData(entityManager, idList);
+				for (final Object[] row : identityRowList) {
+					final Long id = (Long) row[0];
+					writeLine(writer, (String) row[1], (String) row[2], flagTable.get(id), dataTable.get(id));
+					lastId = id;
+					count++;
+				}
+				writer.flush();
+				entityManager.clear();
+				if (progressListener != null) {
+					progressListener.batchWritten(lastId, count);
+				}
+				logger.info("process=export exported={} lastId={}", count, lastId);
+			}
+		} finally {
+			entityManager.close();
+		}
+		return count;
+	}
+
+	private static Map<Long, List<String>> fetchFlags(final EntityManager entityManager, final List<Long> idList) {
+		final Map<Long, List<String>> flagTable = new HashMap<>();
+		for (final List<Long> chunk : SqrlJpaPersistenceProvider.buildInClauseChunks(idList)) {
+			for (final Object[] row : entityManager
+					.createQuery("SELECT i.id, f FROM SqrlIdentity i JOIN i.enabledFlagList f WHERE i.id IN :idList",
+							Object[].class)
+					.setParameter("idList", chunk).getResultList()) {
+				flagTable.computeIfAbsent((Long) row[0], k -> new ArrayList<>()).add(((SqrlIdentityFlag) row[1]).name());
+			}
+		}
+		return flagTable;
+	}
+
+	private static Map<Long, Map<String, String>> fetchData(final EntityManager entityManager,
+			final List<Long> idList) {
+		final Map<Long, Map<String, String>> dataTable = new HashMap<>();
+		for (final List<Long> chunk : SqrlJpaPersistenceProvider.buildInClauseChunks(idList)) {
+			for (final Object[] row : entityManager
+					.createQuery("SELECT i.id, KEY(d), VALUE(d) FROM SqrlIdentity i JOIN i.identityDataTable d "
+							+ "WHERE i.id IN :idList", Object[].class)
+					.setParameter("idList", chunk).getResultList()) {
+				dataTable.computeIfAbsent((Long) row[0], k -> new LinkedHashMap<>()).put((String) row[1],
+						(String) row[2]);
+			}
+		}
+		return dataTable;
+	}
+
+	static void writeLine(final Writer writer, final String idk, final String nativeUserXref,
+			final List<String> flagList, final Map<String, String> dataTable) throws IOException {
+		final StringBuilder buf = new StringBuilder(128);
+		buf.append(idk).append(FIELD_SEPARATOR);
+		if (nativeUserXref != null) {
+			buf.append(encode(nativeUserXref));
+		}
+		buf.append(FIELD_SEPARATOR);
+		if (flagList != null) {
+			buf.append(String.join(",", flagList));
+		}
+		buf.append(FIELD_SEPARATOR);
+		if (dataTable != null) {
+			boolean first = true;
+			for (final Map.Entry<String, String> entry : dataTable.entrySet()) {
+				if (!first) {
+					buf.append('&');
+				}
+				buf.append(encode(entry.getKey())).append('=').append(encode(entry.getValue()));
+				first = false;
+			}
+		}
+		buf.append('\n');
+		writer.write(buf.toString());
+	}
+
+	/* ************************ Import *****************************/
+
+	/**
+	 * Reads identities from the reader and inserts them, committing every batchSize records
+	 *
+	 * @param skipRecords
+	 *            the number of records to skip without reading them from the database, typically
+	 *            {@link ImportResult#getRecordsCommitted()} from an earlier failed run
+	 * @param progressListener
+	 *            notified after each commit, may be null
+	 */
+	public ImportResult importIdentities(final BufferedReader reader, final long skipRecords,
+			final ImportProgressListener progressListener) throws IOException {
+		final ImportResult result = new ImportResult();
+		final String header = reader.readLine();
+		if (!HEADER.equals(header)) {
+			throw new SqrlPersistenceException("Not a SQRL identity export, expected header " + HEADER);
+		}
+		long lineNumber = 1;
+		for (long i = 0; i < skipRecords; i++) {
+			if (reader.readLine() == null) {
+				return result;
+			}
+			lineNumber++;
+			result.recordsCommitted++;
+		}
+		final List<SqrlIdentity> batch = new ArrayList<>(batchSize);
+		final EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				batch.add(parseLine(line, lineNumber));
+				if (batch.size() == batchSize) {
+					insertBatch(entityManager, batch, result);
+					notifyProgress(progressListener, result);
+				}
+			}
+			if (!batch.isEmpty()) {
+				insertBatch(entityManager, batch, result);
+				notifyProgress(progressListener, result);
+			}
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Convenience method for {@link #importIdentities(BufferedReader, long, ImportProgressListener)} without a listener
+	 */
+	public ImportResult importIdentities(final BufferedReader reader, final long skipRecords) throws IOException {
+		return importIdentities(reader, skipRecords, null);
+	}
+
+	private static void notifyProgress(final ImportProgressListener progressListener, final ImportResult result)
+			throws IOException {
+		logger.info("process=import {}", result);
+		if (progressListener != null) {
+			progressListener.batchCommitted(result);
+		}
+	}
+
+	private void insertBatch(final EntityManager entityManager, final List<SqrlIdentity> batch,
+			final ImportResult result) {
+		final List<String> idkList = new ArrayList<>(batch.size());
+		for (final SqrlIdentity sqrlIdentity : batch) {
+			idkList.add(sqrlIdentity.getIdk());
+		}
+		final Set<String> existingIdkSet = new HashSet<>();
+		for (final List<String> chunk : SqrlJpaPersistenceProvider.buildInClauseChunks(idkList)) {
+			existingIdkSet.addAll(entityManager
+					.createQuery("SELECT i.idk FROM SqrlIdentity i WHERE i.idk IN :idkList", String.class)
+					.setParameter("idkList", chunk).getResultList());
+		}
+		entityManager.getTransaction().begin();
+		for (final SqrlIdentity sqrlIdentity : batch) {
+			// Also guards against the same idk appearing twice in one batch
+			if (!existingIdkSet.add(sqrlIdentity.getIdk())) {
+				result.skippedExisting++;
+				continue;
+			}
+			sqrlIdentity.setId(idGenerator.nextId(SqrlIdGenerator.SEQUENCE_IDENTITY));
+			entityManager.persist(sqrlIdentity);
+			result.imported++;
+		}
+		entityManager.getTransaction().commit();
+		entityManager.clear();
+		result.recordsCommitted += batch.size();
+		batch.clear();
+	}
+
+	static SqrlIdentity parseLine(final String line, final long lineNumber) {
+		final String[] fields = line.split(String.valueOf(FIELD_SEPARATOR), -1);
+		if (fields.length != 4 || fields[0].isEmpty()) {
+			throw new SqrlPersistenceException("Invalid identity record on line " + lineNumber);
+		}
+		final SqrlIdentity sqrlIdentity = new SqrlIdentity(fields[0]);
+		if (!fields[1].isEmpty()) {
+			sqrlIdentity.setNativeUserXref(decode(fields[1]));
+		}
+		if (!fields[2].isEmpty()) {
+			for (final String flagName : fields[2].split(",")) {
+				try {
+					sqrlIdentity.getEnabledFlagList().add(SqrlIdentityFlag.valueOf(flagName));
+				} catch (final IllegalArgumentException e) {
+					throw new SqrlPersistenceException("Unknown flag " + flagName + " on line " + lineNumber);
+				}
+			}
+		}
+		if (!fields[3].isEmpty()) {
+			for (final String pair : fields[3].split("&")) {
+				final int index = pair.indexOf('=');
+				if (index < 1) {
+					throw new SqrlPersistenceException("Invalid identity data on line " + lineNumber);
+				}
+				sqrlIdentity.getIdentityDataTable().put(decode(pair.substring(0, index)),
+						decode(pair.substring(index + 1)));
+			}
+		}
+		return sqrlIdentity;
+	}
+
+	private static String encode(final String value) {
+		try {
+			return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+		} catch (final UnsupportedEncodingException e) {
+			throw new SqrlPersistenceException("UTF-8 is not supported: " + e.getMessage());
+		}
+	}
+
+	private static String decode(final String value) {
+		try {
+			return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+		} catch (final UnsupportedEncodingException e) {
+			throw new SqrlPersistenceException("UTF-8 is not supported: " + e.getMessage());
+		}
+	}
+
+	/* ************************ Command line *****************************/
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 3 || !("export".equals(args[0]) || "import".equals(args[0]))) {
+			System.err.println("Usage: SqrlIdentityBulkTransfer export|import <persistenceUnit> <file> [batchSize]");
+			System.exit(1);
+		}
+		final int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BATCH_SIZE;
+		final Map<String, String> propertyTable = new HashMap<>();
+		propertyTable.put("eclipselink.jdbc.batch-writing", "JDBC");
+		propertyTable.put("eclipselink.jdbc.batch-writing.size", Integer.toString(batchSize));
+		final EntityManagerFactory entityManagerFactory = Persistence.createEntityManagerFactory(args[1],
+				propertyTable);
+		// Reserve ids a batch at a time
+		final SqrlIdentityBulkTransfer transfer = new SqrlIdentityBulkTransfer(entityManagerFactory,
+				new SqrlPooledIdGenerator(batchSize, () -> entityManagerFactory), batchSize);
+		final File file = new File(args[2]);
+		final File checkpointFile = new File(args[2] + CHECKPOINT_SUFFIX);
+		final long start = System.currentTimeMillis();
+		if ("export".equals(args[0])) {
+			transfer.exportToFile(file, checkpointFile);
+		} else {
+			transfer.importFromFile(file, checkpointFile);
+		}
+		logger.info("process={} durationMs={}", args[0], System.currentTimeMillis() - start);
+		System.exit(0);
+	}
+
+	/**
+	 * The checkpoint holds the last exported id and the file length at that point, anything written after the
+	 * checkpoint is truncated on resume
+	 */
+	void exportToFile(final File file, final File checkpointFile) throws IOException {
+		long afterId = Long.MIN_VALUE;
+		if (checkpointFile.exists()) {
+			final String[] checkpoint = readCheckpoint(checkpointFile).split(" ");
+			afterId = Long.parseLong(checkpoint[0]);
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+				channel.truncate(Long.parseLong(checkpoint[1]));
+			}
+			logger.info("process=export detail=\"Resuming from checkpoint\" lastId={}", afterId);
+		}
+		try (FileOutputStream outputStream = new FileOutputStream(file, afterId != Long.MIN_VALUE);
+				Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
+			exportIdentities(writer, afterId,
+					(lastId, count) -> writeCheckpoint(checkpointFile, lastId + " " + outputStream.getChannel().size()));
+		}
+		Files.deleteIfExists(checkpointFile.toPath());
+	}
+
+	/**
+	 * The checkpoint holds the number of records committed
+	 */
+	void importFromFile(final File file, final File checkpointFile) throws IOException {
+		long skipRecords = 0;
+		if (checkpointFile.exists()) {
+			skipRecords = Long.parseLong(readCheckpoint(checkpointFile));
+			logger.info("process=import detail=\"Resuming from checkpoint\" recordsCommitted={}", skipRecords);
+		}
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			final ImportResult result = importIdentities(reader, skipRecords,
+					progress -> writeCheckpoint(checkpointFile, Long.toString(progress.getRecordsCommitted())));
+			logger.info("process=import detail=\"Import complete\" {}", result);
+		}
+		Files.deleteIfExists(checkpointFile.toPath());
+	}
+
+	private static String readCheckpoint(final File checkpointFile) throws IOException {
+		return new String(Files.readAllBytes(checkpointFile.toPath()), StandardCharsets.UTF_8).trim();
+	}
+
+	private static void writeCheckpoint(final File checkpointFile, final String value) throws IOException {
+		Files.write(checkpointFile.toPath(), Collections.singletonList(value), StandardCharsets.UTF_8);
+	}
+
+	/* ************************ Progress *****************************/
+
+	@FunctionalInterface
+	public interface ExportProgressListener {
+		void batchWritten(long lastId, long exportedCount) throws IOException;
+	}
+
+	@FunctionalInterface
+	public interface ImportProgressListener {
+		void batchCommitted(ImportResult progress) throws IOException;
+	}
+
+	public static class ImportResult {
+		private long	recordsCommitted;
+		private long	imported;
+		private long	skippedExisting;
+
+		/**
+		 * @return the number of records read and committed (imported or skipped), including any skipped on resume
+		 */
+		public long getRecordsCommitted() {
+			return recordsCommitted;
+		}
+
+		public long getImported() {
+			return imported;
+		}
+
+		/**
+		 * @return the number of records skipped because an identity with the same idk already exists
+		 */
+		public long getSkippedExisting() {
+			return skippedExisting;
+		}
+
+		@Override
+		public String toString() {
+			return "recordsCommitted=" + recordsCommitted + " imported=" + imported + " skippedExisting="
+					+ skippedExisting;
+		}
+	}
+}
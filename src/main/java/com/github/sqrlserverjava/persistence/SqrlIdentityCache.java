@@ -0,0 +1,182 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.sqrlserverjava.SqrlConfig;
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.util.BoundedExpiringCache;
+
+/**
+ * A cross request, read-through cache of {@link SqrlIdentity} data keyed by idk and by native user cross reference.
+ * Entries are detached copies and are never handed out directly, see {@link SqrlIdentityCachingPersistence}.
+ * <p>
+ * Hit ratio metrics are available via {@link #getHitRatio()} and {@link #toString()}
+ *
+ * @author Dave Badia
+ *
+ * @see SqrlConfig#getIdentityCacheMaxSize()
+ */
+public class SqrlIdentityCache {
+	/**
+	 * Used to cache the fact that no identity exists for a given idk
+	 */
+	private static final SqrlIdentity NOT_FOUND = new SqrlIdentity();
+
+	private final BoundedExpiringCache<String, SqrlIdentity>	idkTable;
+	/**
+	 * Maps native user xref to idk; the identity itself is always read from {@link #idkTable}
+	 */
+	private final BoundedExpiringCache<String, String>			xrefTable;
+	private final boolean										versionCheck;
+	/**
+	 * Incremented by every invalidation, guarded by this. A value read from persistence is only stored if no
+	 * invalidation happened since the read started, otherwise it may be older than a change that was just committed
+	 */
+	private long												invalidationGeneration	= 0;
+
+	private final AtomicLong	hitCount		= new AtomicLong();
+	private final AtomicLong	missCount		= new AtomicLong();
+	private final AtomicLong	staleCount		= new AtomicLong();
+	private final AtomicLong	invalidateCount	= new AtomicLong();
+
+	public SqrlIdentityCache(final SqrlConfig config) {
+		this(config.getIdentityCacheMaxSize(), TimeUnit.SECONDS.toMillis(config.getIdentityCacheTtlSeconds()),
+				config.isIdentityCacheVersionCheck());
+	}
+
+	public SqrlIdentityCache(final int maxSize, final long ttlMillis, final boolean versionCheck) {
+		this.idkTable = new BoundedExpiringCache<>(maxSize, ttlMillis);
+		this.xrefTable = new BoundedExpiringCache<>(maxSize, ttlMillis);
+		this.versionCheck = versionCheck;
+	}
+
+	/**
+	 * @return true if every cache hit must be validated via {@link SqrlPersistence#fetchSqrlIdentityVersion(String)}
+	 */
+	boolean isVersionCheck() {
+		return versionCheck;
+	}
+
+	/**
+	 * @return the cached identity, {@link #NOT_FOUND} if the identity is known not to exist, or null on a cache miss
+	 */
+	SqrlIdentity lookupByIdk(final String sqrlIdk) {
+		return idkTable.get(sqrlIdk);
+	}
+
+	String lookupIdkByXref(final String nativeUserXref) {
+		return xrefTable.get(nativeUserXref);
+	}
+
+	/**
+	 * @return the value to pass to {@link #store(String, SqrlIdentity, long)}, taken before reading persistence
+	 */
+	synchronized long getInvalidationGeneration() {
+		return invalidationGeneration;
+	}
+
+	/**
+	 * Caches the identity unless there has been an invalidation since generation was taken
+	 *
+	 * @param generation
+	 *            the result of {@link #getInvalidationGeneration()} from before the identity was read
+	 * @return true if the identity was cached
+	 */
+	synchronized boolean store(final String sqrlIdk, final SqrlIdentity sqrlIdentity, final long generation) {
+		if (generation != invalidationGeneration) {
+			return false;
+		}
+		if (sqrlIdentity == null) {
+			idkTable.put(sqrlIdk, NOT_FOUND);
+		} else {
+			final SqrlIdentity copy = new SqrlIdentity(sqrlIdentity);
+			idkTable.put(sqrlIdk, copy);
+			if (copy.getNativeUserXref() != null) {
+				xrefTable.put(copy.getNativeUserXref(), sqrlIdk);
+			}
+		}
+		return true;
+	}
+
+	synchronized void invalidateIdk(final String sqrlIdk) {
+		// Any xref table entry pointing at this idk is validated against the identity on read, so no need to scan
+		invalidationGeneration++;
+		idkTable.remove(sqrlIdk);
+		invalidateCount.incrementAndGet();
+	}
+
+	/**
+	 * Invalidate by database id. Requires a scan of the cache, but is only used when an app user is mapped to a SQRL
+	 * identity, which is rare
+	 */
+	synchronized void invalidateIdentityId(final long sqrlIdentityId) {
+		invalidationGeneration++;
+		idkTable.removeIf(sqrlIdentity -> sqrlIdentity != NOT_FOUND && sqrlIdentity.getId() == sqrlIdentityId);
+		invalidateCount.incrementAndGet();
+	}
+
+	static boolean isNotFound(final SqrlIdentity cached) {
+		return cached == NOT_FOUND;
+	}
+
+	void recordHit() {
+		hitCount.incrementAndGet();
+	}
+
+	void recordMiss() {
+		missCount.incrementAndGet();
+	}
+
+	void recordStale() {
+		staleCount.incrementAndGet();
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return the number of cache entries that were found to be stale by the version check
+	 * @see SqrlConfig#isIdentityCacheVersionCheck()
+	 */
+	public long getStaleCount() {
+		return staleCount.get();
+	}
+
+	public long getInvalidateCount() {
+		return invalidateCount.get();
+	}
+
+	/**
+	 * @return the fraction of lookups which were served from the cache, between 0.0 and 1.0
+	 */
+	public double getHitRatio() {
+		final long hits = hitCount.get();
+		final long total = hits + missCount.get();
+		return total == 0 ? 0.0 : (double) hits / total;
+	}
+
+	public int size() {
+		return idkTable.size();
+	}
+
+	public synchronized void clear() {
+		invalidationGeneration++;
+		idkTable.clear();
+		xrefTable.clear();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("SqrlIdentityCache [size=").append(size()).append(", hits=").append(hitCount)
+		.append(", misses=").append(missCount).append(", stale=").append(staleCount).append(", invalidations=")
+		.append(invalidateCount).append(", hitRatio=").append(String.format("%.3f", getHitRatio())).append("]");
+		return builder.toString();
+	}
+}
@@ -0,0 +1,328 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+
+/**
+ * Decorator pattern wrapper for {@link SqrlPersistence} which serves {@link SqrlIdentity} reads from a
+ * {@link SqrlIdentityCache} that is shared across requests.
+ * <p>
+ * Once an identity has been modified by this persistence object, all further reads for that identity go directly to
+ * the underlying persistence until the transaction is closed, at which point the modified identities are invalidated
+ * again. This ensures other requests never cache uncommitted (or rolled back) state
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlIdentityCachingPersistence implements SqrlPersistence {
+	private final SqrlPersistence	sqrlPersistence;
+	private final SqrlIdentityCache	identityCache;
+
+	/**
+	 * idks which have been modified during this transaction
+	 */
+	private final Set<String>	dirtyIdkSet			= new HashSet<>();
+	/**
+	 * identity database ids which have been modified during this transaction
+	 */
+	private final Set<Long>		dirtyIdentityIdSet	= new HashSet<>();
+
+	public SqrlIdentityCachingPersistence(final SqrlPersistence sqrlPersistence,
+			final SqrlIdentityCache identityCache) {
+		this.sqrlPersistence = sqrlPersistence;
+		this.identityCache = identityCache;
+	}
+
+	/**
+	 * @return the identity, which must be treated as read only, or null if it doesn't exist
+	 */
+	private SqrlIdentity lookupSqrlIdentity(final String sqrlIdk) {
+		if (dirtyIdkSet.contains(sqrlIdk)) {
+			// This transaction has modified the identity, so only the underlying persistence has the correct state
+			return sqrlPersistence.fetchSqrlIdentity(sqrlIdk);
+		}
+		// Taken before anything is read so a change committed by another request meanwhile isn't cached over
+		final long generation = identityCache.getInvalidationGeneration();
+		final SqrlIdentity cached = lookupCachedSqrlIdentity(sqrlIdk);
+		if (cached == null) {
+			identityCache.recordMiss();
+			final SqrlIdentity sqrlIdentity = sqrlPersistence.fetchSqrlIdentity(sqrlIdk);
+			identityCache.store(sqrlIdk, sqrlIdentity, generation);
+			return sqrlIdentity;
+		}
+		identityCache.recordHit();
+		return SqrlIdentityCache.isNotFound(cached) ? null : cached;
+	}
+
+	/**
+	 * Checks the cache only, the caller records the hit or miss
+	 *
+	 * @return the cached entry, which may be the not found marker, or null if there is no current entry
+	 */
+	private SqrlIdentity lookupCachedSqrlIdentity(final String sqrlIdk) {
+		final SqrlIdentity cached = identityCache.lookupByIdk(sqrlIdk);
+		if (cached != null && identityCache.isVersionCheck()) {
+			final Long cachedVersion = SqrlIdentityCache.isNotFound(cached) ? null : cached.getVersion();
+			if (!Objects.equals(cachedVersion, sqrlPersistence.fetchSqrlIdentityVersion(sqrlIdk))) {
+				// Changed by another node
+				identityCache.recordStale();
+				return null;
+			}
+		}
+		return cached;
+	}
+
+	private void markDirty(final String sqrlIdk) {
+		dirtyIdkSet.add(sqrlIdk);
+		identityCache.invalidateIdk(sqrlIdk);
+	}
+
+	private void invalidateDirtyEntries() {
+		for (final String sqrlIdk : dirtyIdkSet) {
+			identityCache.invalidateIdk(sqrlIdk);
+		}
+		for (final Long sqrlIdentityId : dirtyIdentityIdSet) {
+			identityCache.invalidateIdentityId(sqrlIdentityId);
+		}
+		dirtyIdkSet.clear();
+		dirtyIdentityIdSet.clear();
+	}
+
+	/* ************** Cached SqrlIdentity reads ***************/
+	@Override
+	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
+		return lookupSqrlIdentity(sqrlIdk) != null;
+	}
+
+	@Override
+	public boolean fetchSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToFetch) {
+		final SqrlIdentity sqrlIdentity = lookupSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			// Let the underlying persistence generate the appropriate error
+			return sqrlPersistence.fetchSqrlFlagForIdentity(sqrlIdk, flagToFetch);
+		}
+		return sqrlIdentity.getEnabledFlagList().contains(flagToFetch);
+	}
+
+	@Override
+	public String fetchSqrlIdentityDataItem(final String sqrlIdk, final String toFetch) {
+		final SqrlIdentity sqrlIdentity = lookupSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			// Let the underlying persistence generate the appropriate error
+			return sqrlPersistence.fetchSqrlIdentityDataItem(sqrlIdk, toFetch);
+		}
+		return sqrlIdentity.getIdentityDataTable().get(toFetch);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentityByUserXref(final String appUserXref) {
+		final long generation = identityCache.getInvalidationGeneration();
+		if (dirtyIdentityIdSet.isEmpty()) {
+			final String sqrlIdk = identityCache.lookupIdkByXref(appUserXref);
+			if (sqrlIdk != null && !dirtyIdkSet.contains(sqrlIdk)) {
+				final SqrlIdentity cached = lookupCachedSqrlIdentity(sqrlIdk);
+				// The xref may have been moved to a different identity since it was cached
+				if (cached != null && !SqrlIdentityCache.isNotFound(cached)
+						&& appUserXref.equals(cached.getNativeUserXref())) {
+					identityCache.recordHit();
+					return new SqrlIdentity(cached);
+				}
+			}
+			// Whatever was missing, the xref query below reads and caches the identity in one go
+			identityCache.recordMiss();
+		}
+		final SqrlIdentity sqrlIdentity = sqrlPersistence.fetchSqrlIdentityByUserXref(appUserXref);
+		if (sqrlIdentity != null && dirtyIdentityIdSet.isEmpty() && !dirtyIdkSet.contains(sqrlIdentity.getIdk())) {
+			identityCache.store(sqrlIdentity.getIdk(), sqrlIdentity, generation);
+		}
+		return sqrlIdentity;
+	}
+
+	/**
+	 * Batch lookups go straight to the underlying persistence since checking each cached entry would cost a query per
+	 * value, the results are used to warm the cache
+	 */
+	@Override
+	public Map<String, SqrlIdentity> fetchSqrlIdentitiesByUserXref(final Set<String> appUserXrefSet) {
+		final long generation = identityCache.getInvalidationGeneration();
+		final Map<String, SqrlIdentity> resultTable = sqrlPersistence.fetchSqrlIdentitiesByUserXref(appUserXrefSet);
+		if (dirtyIdentityIdSet.isEmpty()) {
+			for (final SqrlIdentity sqrlIdentity : resultTable.values()) {
+				if (!dirtyIdkSet.contains(sqrlIdentity.getIdk())) {
+					identityCache.store(sqrlIdentity.getIdk(), sqrlIdentity, generation);
+				}
+			}
+		}
+		return resultTable;
+	}
+
+	@Override
+	public Map<String, Set<SqrlIdentityFlag>> fetchSqrlIdentityFlagsByUserXref(final Set<String> appUserXrefSet) {
+		return sqrlPersistence.fetchSqrlIdentityFlagsByUserXref(appUserXrefSet);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		// Callers may modify the returned entity, so never serve this from the cache
+		return sqrlPersistence.fetchSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public Long fetchSqrlIdentityVersion(final String sqrlIdk) {
+		return sqrlPersistence.fetchSqrlIdentityVersion(sqrlIdk);
+	}
+
+	/* ************** SqrlIdentity writes which invalidate the cache ***************/
+	@Override
+	public void createAndEnableSqrlIdentity(final String sqrlIdk) {
+		markDirty(sqrlIdk);
+		sqrlPersistence.createAndEnableSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
+		markDirty(previousSqrlIdk);
+		markDirty(newSqrlIdk);
+		sqrlPersistence.updateIdkForSqrlIdentity(previousSqrlIdk, newSqrlIdk);
+	}
+
+	@Override
+	public void deleteSqrlIdentity(final String sqrlIdk) {
+		markDirty(sqrlIdk);
+		sqrlPersistence.deleteSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public void updateNativeUserXref(final long sqrlIdentityId, final String nativeUserXref) {
+		dirtyIdentityIdSet.add(sqrlIdentityId);
+		identityCache.invalidateIdentityId(sqrlIdentityId);
+		sqrlPersistence.updateNativeUserXref(sqrlIdentityId, nativeUserXref);
+	}
+
+	@Override
+	public void setSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToSet, final boolean valueToSet) {
+		markDirty(sqrlIdk);
+		sqrlPersistence.setSqrlFlagForIdentity(sqrlIdk, flagToSet, valueToSet);
+	}
+
+	@Override
+	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
+		markDirty(sqrlIdk);
+		sqrlPersistence.storeSqrlDataForSqrlIdentity(sqrlIdk, dataToStore);
+	}
+
+	/* ************** Transaction handling ***************/
+	@Override
+	public void closeCommit() {
+		try {
+			sqrlPersistence.closeCommit();
+		} finally {
+			invalidateDirtyEntries();
+		}
+	}
+
+	@Override
+	public void closeRollback() {
+		try {
+			sqrlPersistence.closeRollback();
+		} finally {
+			invalidateDirtyEntries();
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return sqrlPersistence.isClosed();
+	}
+
+	/* ************** Remaining SqrlPersistence delegate methods ***************/
+	@Override
+	public void userAuthenticatedViaSqrl(final String sqrlIdk, final String correlator) {
+		sqrlPersistence.userAuthenticatedViaSqrl(sqrlIdk, correlator);
+	}
+
+	@Override
+	public boolean hasTokenBeenUsed(final String nutTokenString) {
+		return sqrlPersistence.hasTokenBeenUsed(nutTokenString);
+	}
+
+	@Override
+	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
+		sqrlPersistence.markTokenAsUsed(nutTokenString, expiryTime);
+	}
+
+	@Override
+	public String fetchTransientAuthData(final String correlator, final String transientNameServerParrot) {
+		return sqrlPersistence.fetchTransientAuthData(correlator, transientNameServerParrot);
+	}
+
+	@Override
+	public SqrlCorrelator createCorrelator(final String correlatorString, final Date expiryTime) {
+		return sqrlPersistence.createCorrelator(correlatorString, expiryTime);
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelatorRequired(final String correlator) {
+		return sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelator(final String correlator) {
+		return sqrlPersistence.fetchSqrlCorrelator(correlator);
+	}
+
+	@Override
+	public void cleanUpExpiredEntries() {
+		sqrlPersistence.cleanUpExpiredEntries();
+	}
+
+	@Override
+	public int cleanUpExpiredEntries(final int maxRows) {
+		return sqrlPersistence.cleanUpExpiredEntries(maxRows);
+	}
+
+	@Override
+	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
+		return sqrlPersistence.fetchSqrlCorrelatorsDetached(correlatorStringSet);
+	}
+
+	@Override
+	public Map<String, SqrlCorrelatorView> fetchSqrlCorrelatorViews(final Set<String> correlatorStringSet) {
+		return sqrlPersistence.fetchSqrlCorrelatorViews(correlatorStringSet);
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
+			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
+		return sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(correlatorToCurrentStatusTable);
+	}
+
+	@Override
+	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
+		sqrlPersistence.deleteSqrlCorrelator(sqrlCorrelator);
+	}
+
+	@Override
+	public int updateSqrlCorrelatorStatus(final Set<String> correlatorStringSet,
+			final SqrlAuthenticationStatus expectedStatus, final SqrlAuthenticationStatus newStatus) {
+		return sqrlPersistence.updateSqrlCorrelatorStatus(correlatorStringSet, expectedStatus, newStatus);
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusChangedSince(final long changeSequence) {
+		return sqrlPersistence.fetchSqrlCorrelatorStatusChangedSince(changeSequence);
+	}
+
+	@Override
+	public boolean compareAndSetLease(final String leaseName, final long heldUntil, final long now,
+			final long newExpiry) {
+		return sqrlPersistence.compareAndSetLease(leaseName, heldUntil, now, newExpiry);
+	}
+}
@@ -0,0 +1,46 @@
+package com.github.sqrlserverjava.persistence;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+
+/**
+ * Wraps another {@link SqrlPersistenceFactory} so that all {@link SqrlPersistence} objects it creates share a single
+ * {@link SqrlIdentityCache}. Installed automatically when {@link com.github.sqrlserverjava.SqrlConfig} has the
+ * identity cache enabled
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlIdentityCachingPersistenceFactory implements SqrlPersistenceFactory {
+	private final SqrlPersistenceFactory	delegate;
+	private final SqrlIdentityCache			identityCache;
+
+	public SqrlIdentityCachingPersistenceFactory(final SqrlPersistenceFactory delegate,
+			final SqrlIdentityCache identityCache) {
+		this.delegate = delegate;
+		this.identityCache = identityCache;
+	}
+
+	@Override
+	public SqrlPersistence createSqrlPersistence() {
+		return new SqrlIdentityCachingPersistence(delegate.createSqrlPersistence(), identityCache);
+	}
+
+	@Override
+	public SqrlPersistence createSqrlReadOnlyPersistence() {
+		return new SqrlIdentityCachingPersistence(delegate.createSqrlReadOnlyPersistence(), identityCache);
+	}
+
+	@Override
+	public Class<? extends Runnable> getCleanupTaskClass() {
+		return delegate.getCleanupTaskClass();
+	}
+
+	public SqrlIdentityCache getIdentityCache() {
+		return identityCache;
+	}
+
+	public SqrlPersistenceFactory getDelegate() {
+		return delegate;
+	}
+}
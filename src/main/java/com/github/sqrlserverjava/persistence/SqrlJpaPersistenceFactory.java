@@ -1,10 +1,27 @@
 package com.github.sqrlserverjava.persistence;
 
+import java.util.Collections;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.SqrlConfig;
 import com.github.sqrlserverjava.SqrlPersistence;
 import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.enums.SqrlIdGeneratorType;
+import com.github.sqrlserverjava.exception.SqrlConfigSettingException;
 import com.github.sqrlserverjava.persistence.SqrlJpaPersistenceProvider.SqrlJpaEntityManagerMonitorTask;
+import com.github.sqrlserverjava.util.SqrlUtil;
 
 public class SqrlJpaPersistenceFactory implements SqrlPersistenceFactory {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlJpaPersistenceFactory.class);
+
+	private EntityManagerFactory	replicaEntityManagerFactory;
+	private SqrlReplicaLagMonitor	replicaLagMonitor;
 
 	@SuppressWarnings("deprecation")
 	@Override
@@ -12,9 +29,95 @@ public class SqrlJpaPersistenceFactory implements SqrlPersistenceFactory {
 		return new SqrlJpaPersistenceProvider();
 	}
 
+	/**
+	 * Read only instances never begin a transaction, see {@link SqrlPersistenceFactory#createSqrlReadOnlyPersistence()}
+	 */
+	@Override
+	public SqrlPersistence createSqrlReadOnlyPersistence() {
+		final Supplier<SqrlPersistence> primarySupplier = () -> new SqrlJpaPersistenceProvider(
+				SqrlJpaPersistenceProvider.getEntityManagerFactory(), null, false);
+		if (replicaEntityManagerFactory == null) {
+			return primarySupplier.get();
+		}
+		return new SqrlReadReplicaPersistence(new SqrlJpaPersistenceProvider(replicaEntityManagerFactory, null, false),
+				primarySupplier, replicaLagMonitor);
+	}
+
 	@Override
 	public Class<? extends Runnable> getCleanupTaskClass() {
 		return SqrlJpaEntityManagerMonitorTask.class;
 	}
 
+	@Override
+	public void initSqrl(final SqrlConfig config) {
+		SqrlJpaPersistenceProvider.setIdGenerator(buildIdGenerator(config));
+		SqrlJpaPersistenceProvider.setCompactTransientAuthData(config.isCompactTransientAuthData());
+		SqrlJpaPersistenceProvider.setHashNutTokenKeys(config.isHashNutTokenKeys());
+		initLeakTracking(config);
+		SqrlJpaPersistenceProvider.validateNamedQueries(SqrlJpaPersistenceProvider.getEntityManagerFactory());
+		if (!SqrlUtil.isBlank(config.getReadReplicaPersistenceUnitName())) {
+			if (config.getReadReplicaMaxStalenessMillis() <= 0) {
+				throw new SqrlConfigSettingException("config readReplicaMaxStalenessMillis must be greater than 0");
+			}
+			// The EclipseLink shared cache would hide replicated changes, so always read through to the replica
+			replicaEntityManagerFactory = Persistence.createEntityManagerFactory(
+					config.getReadReplicaPersistenceUnitName(),
+					Collections.singletonMap("eclipselink.cache.shared.default", "false"));
+			SqrlJpaPersistenceProvider.validateNamedQueries(replicaEntityManagerFactory);
+			replicaLagMonitor = new SqrlReplicaLagMonitor(SqrlJpaPersistenceProvider::getEntityManagerFactory,
+					replicaEntityManagerFactory, config.getReadReplicaMaxStalenessMillis());
+			logger.info("process=init detail=\"Using read replica\" persistenceUnit={} maxStalenessMillis={}",
+					config.getReadReplicaPersistenceUnitName(), config.getReadReplicaMaxStalenessMillis());
+		}
+	}
+
+	SqrlReplicaLagMonitor getReplicaLagMonitor() {
+		return replicaLagMonitor;
+	}
+
+	static void initLeakTracking(final SqrlConfig config) {
+		if (config.getLeakTrackingSampleInterval() < 0) {
+			throw new SqrlConfigSettingException("config leakTrackingSampleInterval must be 0 or greater");
+		}
+		if (config.getLeakTrackingSampleInterval() > 0) {
+			logger.info("process=init detail=\"EntityManager leak tracking enabled\" sampleInterval={}",
+					config.getLeakTrackingSampleInterval());
+		}
+		SqrlJpaPersistenceProvider.setLeakTrackingSampleInterval(config.getLeakTrackingSampleInterval());
+	}
+
+	static SqrlIdGenerator buildIdGenerator(final SqrlConfig config) {
+		return buildIdGenerator(config, SqrlJpaPersistenceProvider::getEntityManagerFactory);
+	}
+
+	/**
+	 * @param entityManagerFactorySupplier
+	 *            the persistence unit holding the sqrl_db_id_gen table, only used for the pooled generator
+	 */
+	static SqrlIdGenerator buildIdGenerator(final SqrlConfig config,
+			final Supplier<EntityManagerFactory> entityManagerFactorySupplier) {
+		final SqrlIdGeneratorType type = config.getIdGeneratorType();
+		if (type == null || type == SqrlIdGeneratorType.POOLED) {
+			if (config.getIdGeneratorBlockSize() < 1) {
+				throw new SqrlConfigSettingException("config idGeneratorBlockSize must be 1 or greater");
+			}
+			logger.info("process=init detail=\"Using pooled id generator\" blockSize={}",
+					config.getIdGeneratorBlockSize());
+			return new SqrlPooledIdGenerator(config.getIdGeneratorBlockSize(), entityManagerFactorySupplier);
+		} else if (type == SqrlIdGeneratorType.TIME_ORDERED) {
+			int nodeId = config.getIdGeneratorNodeId();
+			if (nodeId == -1) {
+				nodeId = config.getSecureRandom().nextInt(SqrlTimeOrderedIdGenerator.MAX_NODE_ID + 1);
+				logger.warn("process=init detail=\"idGeneratorNodeId not set, using random node id {}; "
+						+ "set a unique idGeneratorNodeId on each server in a cluster\"", nodeId);
+			} else if (nodeId < 0 || nodeId > SqrlTimeOrderedIdGenerator.MAX_NODE_ID) {
+				throw new SqrlConfigSettingException("config idGeneratorNodeId must be between 0 and "
+						+ SqrlTimeOrderedIdGenerator.MAX_NODE_ID + " or -1 for random");
+			}
+			logger.info("process=init detail=\"Using time ordered id generator\" nodeId={}", nodeId);
+			return new SqrlTimeOrderedIdGenerator(nodeId);
+		} else {
+			throw new SqrlConfigSettingException("Don't know how to handle idGeneratorType " + type);
+		}
+	}
 }
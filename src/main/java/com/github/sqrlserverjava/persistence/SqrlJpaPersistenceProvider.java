@@ -3,31 +3,48 @@ package com.github.sqrlserverjava.persistence;
 import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_BROWSER;
 import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_CPS;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.NoResultException;
+import javax.persistence.NonUniqueResultException;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
 import javax.persistence.TemporalType;
 import javax.persistence.TypedQuery;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.sqrlserverjava.SqrlConfig;
 import com.github.sqrlserverjava.SqrlPersistence;
 import com.github.sqrlserverjava.SqrlServerOperations;
 import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
 import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlConcurrentUpdateException;
 import com.github.sqrlserverjava.exception.SqrlDebugException;
 import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+import com.github.sqrlserverjava.util.SqrlConstants;
 
 /**
  * The default implementation of {@link SqrlPersistence} which uses JPA in order to provide SQL and no-SQL connectivity.
@@ -44,13 +61,55 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	public static final String	PERSISTENCE_UNIT_NAME	= "javasqrl-persistence";
 	private static final String	PARAM_CORRELATOR		= "correlator";
+	private static final String	PARAM_CORRELATOR_LIST	= "correlatorList";
+	private static final String	PARAM_USER_XREF_LIST	= "userXrefList";
+	/**
+	 * The largest number of values we will put into a single IN clause; well under the limits of all common databases
+	 */
+	static final int			IN_CLAUSE_MAX_CHUNK_SIZE	= 512;
+	private static final int	IN_CLAUSE_MIN_CHUNK_SIZE	= 8;
+	private static final int	NUT_KEY_HASH_BYTES			= 16;
+	/**
+	 * Query hints for the named queries; plain strings since the JPA provider is only a runtime dependency. Unknown
+	 * hints are ignored by other providers
+	 */
+	static final String	HINT_READ_ONLY			= "eclipselink.read-only";
+	static final String	HINT_FETCH_SIZE			= "eclipselink.jdbc.fetch-size";
+	static final String	FETCH_SIZE_IN_CLAUSE	= "" + IN_CLAUSE_MAX_CHUNK_SIZE;
+	/**
+	 * Every named query used by this class, checked at startup by {@link #validateNamedQueries(EntityManagerFactory)}
+	 */
+	static final List<String> NAMED_QUERY_LIST = Collections.unmodifiableList(Arrays.asList(
+			SqrlIdentity.QUERY_BY_IDK, SqrlIdentity.QUERY_VERSION_BY_IDK, SqrlIdentity.QUERY_BY_USER_XREF,
+			SqrlIdentity.QUERY_BY_USER_XREF_LIST, SqrlIdentity.QUERY_FLAGS_BY_USER_XREF_LIST,
+			SqrlCorrelator.QUERY_BY_VALUE, SqrlCorrelator.QUERY_BY_VALUE_LIST, SqrlCorrelator.QUERY_STATUS_BY_VALUE_LIST,
+			SqrlCorrelator.QUERY_VIEW_BY_VALUE_LIST, SqrlCorrelator.QUERY_DELETE_EXPIRED, SqrlCorrelator.QUERY_IDS_EXPIRED,
+			SqrlCorrelator.QUERY_DELETE_BY_ID_LIST, SqrlCorrelator.QUERY_UPDATE_STATUS_BY_VALUE_LIST,
+			SqrlCorrelator.QUERY_STATUS_CHANGED_SINCE, SqrlCorrelator.QUERY_BY_AUTHENTICATED_IDENTITY,
+			SqrlUsedNutToken.QUERY_DELETE_EXPIRED, SqrlUsedNutToken.QUERY_VALUES_EXPIRED,
+			SqrlUsedNutToken.QUERY_DELETE_BY_VALUE_LIST, SqrlLease.QUERY_COMPARE_AND_SET));
 
-	private static final Map<EntityManager, Long>	LAST_USED_TIME_TABLE	= new WeakHashMap<>();
-	// Need strong references so we can check that it was closed, will be removed below
-	private static final Map<EntityManager, Exception> CREATED_BY_STACK_TABLE = new ConcurrentHashMap<>();
+	/**
+	 * Only sampled instances are tracked, see {@link SqrlConfig#getLeakTrackingSampleInterval()}
+	 */
+	private static final Set<LeakTracker>	LEAK_TRACKER_SET			= ConcurrentHashMap.newKeySet();
+	private static volatile int				leakTrackingSampleInterval	= 0;
 
 	private static EntityManagerFactory					entityManagerFactory;
+	private static SqrlIdGenerator						idGenerator				= null;
+	private static boolean								compactTransientAuthData	= false;
+	private static boolean								hashNutTokenKeys			= false;
 	private final EntityManager							entityManager;
+	private final SqrlIdGenerator						instanceIdGenerator;
+	/**
+	 * null unless this instance was sampled for leak tracking
+	 */
+	private final LeakTracker							leakTracker;
+	/**
+	 * false for the read only instances created by {@link SqrlJpaPersistenceFactory#createSqrlReadOnlyPersistence()},
+	 * which never begin a transaction
+	 */
+	private final boolean								transactional;
 
 	/**
 	 * @deprecated do not invoke this constructor directly, use <code>SqrlJpaPersistenceFactory</code> instead
@@ -61,10 +120,89 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 				.createEntityManagerFactory(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
 		entityManager = entityManagerFactory.createEntityManager();
 		entityManager.getTransaction().begin();
-		LAST_USED_TIME_TABLE.put(entityManager, System.currentTimeMillis());
-		CREATED_BY_STACK_TABLE.put(entityManager, new Exception("create SqrlJpaPersistenceProvider trace"));
+		leakTracker = LeakTracker.sample(entityManager);
+		instanceIdGenerator = null;
+		transactional = true;
+	}
+
+	/**
+	 * Creates a provider against a specific persistence unit instead of the static {@link #PERSISTENCE_UNIT_NAME};
+	 * used by {@link SqrlShardedPersistence}
+	 */
+	SqrlJpaPersistenceProvider(final EntityManagerFactory shardEntityManagerFactory,
+			final SqrlIdGenerator shardIdGenerator) {
+		this(shardEntityManagerFactory, shardIdGenerator, true);
+	}
+
+	/**
+	 * @param transactional
+	 *            if false, no transaction is started and all write methods throw {@link SqrlPersistenceException}.
+	 *            Reads run directly against the database and the entities returned are detached when this instance is
+	 *            closed
+	 */
+	SqrlJpaPersistenceProvider(final EntityManagerFactory shardEntityManagerFactory,
+			final SqrlIdGenerator shardIdGenerator, final boolean transactional) {
+		entityManager = shardEntityManagerFactory.createEntityManager();
+		if (transactional) {
+			entityManager.getTransaction().begin();
+		}
+		leakTracker = LeakTracker.sample(entityManager);
+		instanceIdGenerator = shardIdGenerator;
+		this.transactional = transactional;
 	}
 	
+	/**
+	 * Sets the generator used to assign ids to new entities; called by {@link SqrlJpaPersistenceFactory}
+	 */
+	static void setIdGenerator(final SqrlIdGenerator idGenerator) {
+		SqrlJpaPersistenceProvider.idGenerator = idGenerator;
+	}
+
+	/**
+	 * Determines if new correlators store transient auth data in a single column; called by
+	 * {@link SqrlJpaPersistenceFactory}
+	 */
+	static void setCompactTransientAuthData(final boolean compactTransientAuthData) {
+		SqrlJpaPersistenceProvider.compactTransientAuthData = compactTransientAuthData;
+	}
+
+	/**
+	 * Sets how often new instances are sampled for leak tracking; called by {@link SqrlJpaPersistenceFactory}
+	 *
+	 * @see SqrlConfig#getLeakTrackingSampleInterval()
+	 */
+	static void setLeakTrackingSampleInterval(final int leakTrackingSampleInterval) {
+		SqrlJpaPersistenceProvider.leakTrackingSampleInterval = leakTrackingSampleInterval;
+	}
+
+	/**
+	 * Determines if used nut tokens are stored under a fixed size hash; called by {@link SqrlJpaPersistenceFactory}
+	 */
+	static void setHashNutTokenKeys(final boolean hashNutTokenKeys) {
+		SqrlJpaPersistenceProvider.hashNutTokenKeys = hashNutTokenKeys;
+	}
+
+	private SqrlIdGenerator idGenerator() {
+		return instanceIdGenerator == null ? getIdGenerator() : instanceIdGenerator;
+	}
+
+	private static synchronized SqrlIdGenerator getIdGenerator() {
+		if (idGenerator == null) {
+			// Not configured, use the pooled defaults
+			idGenerator = new SqrlPooledIdGenerator(new SqrlConfig().getIdGeneratorBlockSize(),
+					SqrlJpaPersistenceProvider::getEntityManagerFactory);
+		}
+		return idGenerator;
+	}
+
+	/**
+	 * @return the current entity manager factory, for use by {@link SqrlPooledIdGenerator}
+	 */
+	static EntityManagerFactory getEntityManagerFactory() {
+		checkInit();
+		return entityManagerFactory;
+	}
+
 	private static void checkInit() {
 		if (entityManagerFactory == null) {
 			entityManagerFactory = Persistence
@@ -72,32 +210,73 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		}
 	}
 
-	private void updateLastUsed(final EntityManager entityManger) {
-		LAST_USED_TIME_TABLE.put(entityManger, System.currentTimeMillis());
+	/**
+	 * Creates every named query against the given persistence unit so that a bad mapping or JPQL error is reported at
+	 * startup instead of on the first login; called by {@link SqrlJpaPersistenceFactory}
+	 *
+	 * @throws SqrlPersistenceException
+	 *             if any query is missing or invalid
+	 */
+	static void validateNamedQueries(final EntityManagerFactory toValidate) {
+		final EntityManager validationEntityManager = toValidate.createEntityManager();
+		try {
+			for (final String queryName : NAMED_QUERY_LIST) {
+				try {
+					validationEntityManager.createNamedQuery(queryName);
+				} catch (final RuntimeException e) {
+					throw new SqrlPersistenceException(
+							"Named query " + queryName + " failed validation: " + e.getMessage());
+				}
+			}
+		} finally {
+			validationEntityManager.close();
+		}
+		logger.debug("process=init detail=\"Validated named queries\" count={}", NAMED_QUERY_LIST.size());
+	}
+
+	private void checkWritable() {
+		if (!transactional) {
+			throw new SqrlPersistenceException("Write attempted on read only SqrlPersistence");
+		}
+	}
+
+	private void updateLastUsed() {
+		if (leakTracker != null) {
+			leakTracker.lastUsedTime = System.currentTimeMillis();
+		}
 	}
 
 	@Override
 	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		return fetchSqrlIdentity(sqrlIdk) != null;
 	}
 
 	@Override
 	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
-		updateLastUsed(entityManager);
+		checkWritable();
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = fetchRequiredSqrlIdentity(previousSqrlIdk);
 		sqrlIdentity.setIdk(newSqrlIdk);
+		sqrlIdentity.incrementVersion();
 	}
 
-	private SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
-		updateLastUsed(entityManager);
-		return (SqrlIdentity) returnOneOrNull(
-				entityManager.createQuery("SELECT i FROM SqrlIdentity i WHERE i.idk = :sqrlIdk")
-				.setParameter("sqrlIdk", sqrlIdk).getResultList());
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		updateLastUsed();
+		return singleResultOrNull(entityManager.createNamedQuery(SqrlIdentity.QUERY_BY_IDK, SqrlIdentity.class)
+				.setParameter("sqrlIdk", sqrlIdk));
+	}
+
+	@Override
+	public Long fetchSqrlIdentityVersion(final String sqrlIdk) {
+		updateLastUsed();
+		return singleResultOrNull(entityManager.createNamedQuery(SqrlIdentity.QUERY_VERSION_BY_IDK, Long.class)
+				.setParameter("sqrlIdk", sqrlIdk));
 	}
 
 	private SqrlIdentity fetchRequiredSqrlIdentity(final String sqrlIdk) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
 		if (sqrlIdentity == null) {
 			throw new SqrlPersistenceException("SqrlIdentity does not exist for idk=" + sqrlIdk);
@@ -108,15 +287,53 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public SqrlIdentity fetchSqrlIdentityByUserXref(final String userXref) {
-		updateLastUsed(entityManager);
-		return (SqrlIdentity) returnOneOrNull(
-				entityManager.createQuery("SELECT i FROM SqrlIdentity i WHERE i.nativeUserXref = :userXref")
-				.setParameter("userXref", userXref).getResultList());
+		updateLastUsed();
+		return singleResultOrNull(entityManager.createNamedQuery(SqrlIdentity.QUERY_BY_USER_XREF, SqrlIdentity.class)
+				.setParameter("userXref", userXref));
+	}
+
+	@Override
+	public Map<String, SqrlIdentity> fetchSqrlIdentitiesByUserXref(final Set<String> userXrefSet) {
+		updateLastUsed();
+		final Map<String, SqrlIdentity> resultTable = new HashMap<>();
+		for (final List<String> chunk : buildInClauseChunks(userXrefSet)) {
+			for (final SqrlIdentity sqrlIdentity : entityManager
+					.createNamedQuery(SqrlIdentity.QUERY_BY_USER_XREF_LIST, SqrlIdentity.class)
+					.setParameter(PARAM_USER_XREF_LIST, chunk).getResultList()) {
+				// Same as fetchSqrlIdentityByUserXref, an xref mapped to more than one identity is an error
+				if (resultTable.put(sqrlIdentity.getNativeUserXref(), sqrlIdentity) != null) {
+					throw new SqrlPersistenceException("Expected one, but found multiple results for userXref="
+							+ sqrlIdentity.getNativeUserXref());
+				}
+			}
+		}
+		return resultTable;
+	}
+
+	@Override
+	public Map<String, Set<SqrlIdentityFlag>> fetchSqrlIdentityFlagsByUserXref(final Set<String> userXrefSet) {
+		updateLastUsed();
+		final Map<String, Set<SqrlIdentityFlag>> resultTable = new HashMap<>();
+		for (final List<String> chunk : buildInClauseChunks(userXrefSet)) {
+			final TypedQuery<Object[]> query = entityManager
+					.createNamedQuery(SqrlIdentity.QUERY_FLAGS_BY_USER_XREF_LIST, Object[].class)
+					.setParameter(PARAM_USER_XREF_LIST, chunk);
+			// One row per flag, the outer join returns a null flag for identities without any
+			for (final Object[] row : query.getResultList()) {
+				final Set<SqrlIdentityFlag> flagSet = resultTable.computeIfAbsent((String) row[0],
+						k -> EnumSet.noneOf(SqrlIdentityFlag.class));
+				if (row[1] != null) {
+					flagSet.add((SqrlIdentityFlag) row[1]);
+				}
+			}
+		}
+		return resultTable;
 	}
 
 	@Override
 	public void deleteSqrlIdentity(final String sqrlIdk) {
-		updateLastUsed(entityManager);
+		checkWritable();
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
 		if (sqrlIdentity == null) {
 			logger.warn("Can't find idk " + sqrlIdk + " to delete");
@@ -127,7 +344,8 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public void userAuthenticatedViaSqrl(final String sqrlIdk, final String correlatorString) {
-		updateLastUsed(entityManager);
+		checkWritable();
+		updateLastUsed();
 		// Find the sqrlIdentity and mark SQRL authentication as occurred
 		final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelatorRequired(correlatorString);
 		final SqrlIdentity sqrlIdentity = fetchRequiredSqrlIdentity(sqrlIdk);
@@ -139,24 +357,67 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public void updateNativeUserXref(final long sqrlIdentityDbId, final String nativeUserXref) {
-		updateLastUsed(entityManager);
+		checkWritable();
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = entityManager.find(SqrlIdentity.class, sqrlIdentityDbId);
 		sqrlIdentity.setNativeUserXref(nativeUserXref);
+		sqrlIdentity.incrementVersion();
+	}
+
+	/**
+	 * @return true if a {@link SqrlIdentity} with the given database id exists in this persistence unit
+	 */
+	boolean containsSqrlIdentity(final long sqrlIdentityDbId) {
+		updateLastUsed();
+		return entityManager.find(SqrlIdentity.class, sqrlIdentityDbId) != null;
+	}
+
+	/**
+	 * Stores an identity which already has its id assigned, used when an identity moves between shards
+	 */
+	void persistSqrlIdentity(final SqrlIdentity sqrlIdentity) {
+		checkWritable();
+		updateLastUsed();
+		entityManager.persist(sqrlIdentity);
+	}
+
+	/**
+	 * Points the correlators which authenticated with the given identity at its new idk through their transient data,
+	 * as for an identity on another shard, so the identity row can be deleted without breaking the foreign key. Used
+	 * when an identity moves between shards
+	 */
+	void repointCorrelatorsToIdk(final SqrlIdentity sqrlIdentity, final String newSqrlIdk) {
+		checkWritable();
+		updateLastUsed();
+		for (final SqrlCorrelator sqrlCorrelator : entityManager
+				.createNamedQuery(SqrlCorrelator.QUERY_BY_AUTHENTICATED_IDENTITY, SqrlCorrelator.class)
+				.setParameter("sqrlIdentity", sqrlIdentity).getResultList()) {
+			sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_AUTHENTICATED_IDK, newSqrlIdk);
+			sqrlCorrelator.setAuthenticatedIdentity(null);
+		}
+		// The foreign key must be cleared before the identity delete is issued
+		entityManager.flush();
 	}
 
 	/* ************************ Sqrl Correlator methods *****************************/
 
 	@Override
 	public SqrlCorrelator fetchSqrlCorrelator(final String sqrlCorrelatorString) {
-		updateLastUsed(entityManager);
-		return (SqrlCorrelator) returnOneOrNull(
-				entityManager.createQuery("SELECT i FROM SqrlCorrelator i WHERE i.value = :correlator")
-				.setParameter(PARAM_CORRELATOR, sqrlCorrelatorString).getResultList());
+		updateLastUsed();
+		final SqrlCorrelator sqrlCorrelator = singleResultOrNull(
+				entityManager.createNamedQuery(SqrlCorrelator.QUERY_BY_VALUE, SqrlCorrelator.class)
+				.setParameter(PARAM_CORRELATOR, sqrlCorrelatorString));
+		if (sqrlCorrelator != null) {
+			// Load any legacy transient auth data while we are still attached, callers such as
+			// SqrlServerOperations.fetchSqrlCorrelator read it after the EntityManager is closed
+			sqrlCorrelator.getTransientAuthDataTable().size();
+		}
+		return sqrlCorrelator;
 	}
 
 	@Override
 	public SqrlCorrelator fetchSqrlCorrelatorRequired(final String sqrlCorrelatorString) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelator(sqrlCorrelatorString);
 		if (sqrlCorrelator == null) {
 			throw new SqrlPersistenceException("SqrlCorrelator does not exist for correlator=" + sqrlCorrelatorString);
@@ -167,27 +428,37 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		if (correlatorStringSet.isEmpty()) {
 			return Collections.emptyMap();
 		}
-		final StringBuilder buf = new StringBuilder("SELECT i FROM SqrlCorrelator i WHERE ");
-
-		for (int i = 0; i < correlatorStringSet.size(); i++) {
-			buf.append(" i.value = :correlator").append(i).append(" OR");
-		}
-		buf.replace(buf.length() - 3, buf.length(), ""); // Remove OR
-		final TypedQuery<SqrlCorrelator> query = entityManager.createQuery(buf.toString(), SqrlCorrelator.class);
-		int i = 0;
-		for (final String correlatorString : correlatorStringSet) {
-			query.setParameter(PARAM_CORRELATOR + (i++), correlatorString);
-		}
-
 		// Parse the result into a table
 		final Map<String, SqrlCorrelator> resultTable = new ConcurrentHashMap<>();
-		for (final SqrlCorrelator correlator : query.getResultList()) {
-			entityManager.detach(correlator);
-			resultTable.put(correlator.getCorrelatorString(), correlator);
+		for (final List<String> chunk : buildInClauseChunks(correlatorStringSet)) {
+			final TypedQuery<SqrlCorrelator> query = entityManager
+					.createNamedQuery(SqrlCorrelator.QUERY_BY_VALUE_LIST, SqrlCorrelator.class)
+					.setParameter(PARAM_CORRELATOR_LIST, chunk);
+			for (final SqrlCorrelator correlator : query.getResultList()) {
+				// Load any legacy transient auth data while we are still attached
+				correlator.getTransientAuthDataTable().size();
+				entityManager.detach(correlator);
+				resultTable.put(correlator.getCorrelatorString(), correlator);
+			}
+		}
+		return resultTable;
+	}
+
+	@Override
+	public Map<String, SqrlCorrelatorView> fetchSqrlCorrelatorViews(final Set<String> correlatorStringSet) {
+		updateLastUsed();
+		final Map<String, SqrlCorrelatorView> resultTable = new HashMap<>();
+		for (final List<String> chunk : buildInClauseChunks(correlatorStringSet)) {
+			final TypedQuery<SqrlCorrelatorView> query = entityManager
+					.createNamedQuery(SqrlCorrelator.QUERY_VIEW_BY_VALUE_LIST, SqrlCorrelatorView.class)
+					.setParameter(PARAM_CORRELATOR_LIST, chunk);
+			for (final SqrlCorrelatorView view : query.getResultList()) {
+				resultTable.put(view.getCorrelatorString(), view);
+			}
 		}
 		return resultTable;
 	}
@@ -195,54 +466,124 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 	@Override
 	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
 			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		if (correlatorToCurrentStatusTable.isEmpty()) {
 			return Collections.emptyMap();
 		}
-		final StringBuilder buf = new StringBuilder("SELECT i FROM SqrlCorrelator i WHERE ");
-
-		int counter = 0;
-		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : correlatorToCurrentStatusTable.entrySet()) {
-			buf.append(" (i.value = :correlator").append(counter);
-			// If we are in the end state (isAuthComplete), always return the result
-			if (entry.getValue().isAuthComplete() == false) {
-				buf.append(" AND i.authenticationStatus <> :authenticationStatus").append(counter);
-			}
-			buf.append(" ) OR");
-			counter++;
-		}
-		buf.replace(buf.length() - 2, buf.length(), ""); // Remove "OR"
-		final TypedQuery<SqrlCorrelator> query = entityManager.createQuery(buf.toString(), SqrlCorrelator.class);
-		counter = 0;
-		final StringBuilder debugBuf = new StringBuilder(buf);
-		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : correlatorToCurrentStatusTable.entrySet()) {
-			query.setParameter(PARAM_CORRELATOR + counter, entry.getKey());
-			updateDebugBuf(debugBuf, ":correlator" + counter, entry.getKey());
-			if (entry.getValue().isAuthComplete() == false) {
-				query.setParameter("authenticationStatus" + counter, entry.getValue());
-				updateDebugBuf(debugBuf, ":authenticationStatus" + counter, entry.getValue().toString());
+		// Only fetch the 2 columns we need, then determine which have changed in memory
+		final Map<String, SqrlAuthenticationStatus> resultTable = new ConcurrentHashMap<>();
+		final List<List<String>> chunkList = buildInClauseChunks(correlatorToCurrentStatusTable.keySet());
+		logger.trace("monitor correlator for change with {} chunks for {} correlators", chunkList.size(),
+				correlatorToCurrentStatusTable.size());
+		for (final List<String> chunk : chunkList) {
+			final TypedQuery<Object[]> query = entityManager
+					.createNamedQuery(SqrlCorrelator.QUERY_STATUS_BY_VALUE_LIST, Object[].class)
+					.setParameter(PARAM_CORRELATOR_LIST, chunk);
+			for (final Object[] row : query.getResultList()) {
+				final String correlatorString = (String) row[0];
+				final SqrlAuthenticationStatus dbStatus = (SqrlAuthenticationStatus) row[1];
+				final SqrlAuthenticationStatus currentStatus = correlatorToCurrentStatusTable.get(correlatorString);
+				// If we are in the end state (isAuthComplete), always return the result
+				if (currentStatus != null && (currentStatus.isAuthComplete() || dbStatus != currentStatus)) {
+					resultTable.put(correlatorString, dbStatus);
+				}
 			}
-			counter++;
 		}
+		return resultTable;
+	}
 
-		logger.trace("monitor correaltor for change SQL: {}", debugBuf);
-		// Parse the result into a table
-		final Map<String, SqrlAuthenticationStatus> resultTable = new ConcurrentHashMap<>();
-		for (final SqrlCorrelator correlator : query.getResultList()) {
-			resultTable.put(correlator.getCorrelatorString(), correlator.getAuthenticationStatus());
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusChangedSince(final long changeSequence) {
+		updateLastUsed();
+		final Map<String, SqrlAuthenticationStatus> resultTable = new HashMap<>();
+		final TypedQuery<Object[]> query = entityManager
+				.createNamedQuery(SqrlCorrelator.QUERY_STATUS_CHANGED_SINCE, Object[].class)
+				.setParameter("changeSequence", changeSequence);
+		for (final Object[] row : query.getResultList()) {
+			resultTable.put((String) row[0], (SqrlAuthenticationStatus) row[1]);
 		}
 		return resultTable;
 	}
 
-	private static void updateDebugBuf(final StringBuilder buf, final String name, final String value) {
-		final int start = buf.indexOf(name);
-		final int end = start + name.length();
-		buf.replace(start, end, "'" + value + "'");
+	@Override
+	public boolean compareAndSetLease(final String leaseName, final long heldUntil, final long now,
+			final long newExpiry) {
+		checkWritable();
+		updateLastUsed();
+		final int updated = entityManager.createNamedQuery(SqrlLease.QUERY_COMPARE_AND_SET)
+				.setParameter("newExpiry", newExpiry).setParameter("name", leaseName)
+				.setParameter("heldUntil", heldUntil).setParameter("now", now).executeUpdate();
+		if (updated > 0) {
+			return true;
+		}
+		if (entityManager.find(SqrlLease.class, leaseName) != null) {
+			return false;
+		}
+		return createLease(leaseName, newExpiry);
+	}
+
+	/**
+	 * Creates a lease on first use in its own transaction, so losing a race with another node to create it fails only
+	 * that transaction and leaves the caller's usable
+	 *
+	 * @return true if the lease was created, false if another node created it first
+	 */
+	boolean createLease(final String leaseName, final long newExpiry) {
+		final EntityManager leaseEntityManager = entityManager.getEntityManagerFactory().createEntityManager();
+		try {
+			leaseEntityManager.getTransaction().begin();
+			leaseEntityManager.persist(new SqrlLease(leaseName, newExpiry));
+			leaseEntityManager.getTransaction().commit();
+			return true;
+		} catch (final PersistenceException e) {
+			logger.debug("Lease {} was created by another node: {}", leaseName, e.getMessage());
+			if (leaseEntityManager.getTransaction().isActive()) {
+				leaseEntityManager.getTransaction().rollback();
+			}
+			return false;
+		} finally {
+			leaseEntityManager.close();
+		}
+	}
+
+	/**
+	 * Splits the given values into chunks suitable for use as an IN clause parameter. To keep the number of distinct
+	 * SQL statements small (so the JPA provider and database can cache them), each chunk is padded to a power of two
+	 * size, up to {@link #IN_CLAUSE_MAX_CHUNK_SIZE}, by repeating the last value. Duplicates in an IN clause have no
+	 * effect on the result
+	 */
+	static <T> List<List<T>> buildInClauseChunks(final Collection<T> valueCollection) {
+		final List<List<T>> chunkList = new ArrayList<>();
+		final Iterator<T> iter = valueCollection.iterator();
+		int remaining = valueCollection.size();
+		while (remaining > 0) {
+			final int chunkSize = Math.min(remaining, IN_CLAUSE_MAX_CHUNK_SIZE);
+			final List<T> chunk = new ArrayList<>(computePaddedChunkSize(chunkSize));
+			for (int i = 0; i < chunkSize; i++) {
+				chunk.add(iter.next());
+			}
+			final T padValue = chunk.get(chunk.size() - 1);
+			while (chunk.size() < computePaddedChunkSize(chunkSize)) {
+				chunk.add(padValue);
+			}
+			chunkList.add(chunk);
+			remaining -= chunkSize;
+		}
+		return chunkList;
+	}
+
+	private static int computePaddedChunkSize(final int size) {
+		int padded = IN_CLAUSE_MIN_CHUNK_SIZE;
+		while (padded < size) {
+			padded <<= 1;
+		}
+		return Math.min(padded, IN_CLAUSE_MAX_CHUNK_SIZE);
 	}
 
 	@Override
 	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
-		updateLastUsed(entityManager);
+		checkWritable();
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
 		if (sqrlIdentity == null) {
 			throw new SqrlPersistenceException("SqrlIdentity not found for " + sqrlIdk);
@@ -251,17 +592,18 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 	}
 
 	private void storeSqrlDataForSqrlIdentity(final SqrlIdentity sqrlIdentity, final Map<String, String> dataToStore) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		// Update any SQRL specific data we have received from the SQRL client
 		if (!dataToStore.isEmpty()) {
 			sqrlIdentity.getIdentityDataTable().putAll(dataToStore);
+			sqrlIdentity.incrementVersion();
 		}
 		entityManager.persist(sqrlIdentity);
 	}
 
 	@Override
 	public String fetchSqrlIdentityDataItem(final String sqrlIdk, final String toFetch) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
 		if (sqrlIdentity == null) {
 			throw new SqrlPersistenceException("Couldn't find SqrlIdentity for idk " + sqrlIdk);
@@ -270,33 +612,55 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		}
 	}
 
+	/**
+	 * @return the key the nut token is stored under, a 128 bit hash if {@link SqrlConfig#isHashNutTokenKeys()} is set
+	 */
+	static String nutTokenStorageKey(final String nutTokenString) {
+		return hashNutTokenKeys ? hashNutTokenKey(nutTokenString) : nutTokenString;
+	}
+
+	static String hashNutTokenKey(final String nutTokenString) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256")
+					.digest(nutTokenString.getBytes(StandardCharsets.UTF_8));
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, NUT_KEY_HASH_BYTES));
+		} catch (final NoSuchAlgorithmException e) {
+			throw new SqrlPersistenceException("SHA-256 is not available: " + e.getMessage());
+		}
+	}
+
 	@Override
 	public boolean hasTokenBeenUsed(final String nutTokenString) {
-		updateLastUsed(entityManager);
-		return entityManager.find(SqrlUsedNutToken.class, nutTokenString) != null;
+		updateLastUsed();
+		return entityManager.find(SqrlUsedNutToken.class, nutTokenStorageKey(nutTokenString)) != null;
 	}
 
 	@Override
 	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
-		updateLastUsed(entityManager);
-		final SqrlUsedNutToken sqrlUsedNutToken = new SqrlUsedNutToken(nutTokenString, expiryTime);
+		checkWritable();
+		updateLastUsed();
+		final SqrlUsedNutToken sqrlUsedNutToken = new SqrlUsedNutToken(nutTokenStorageKey(nutTokenString),
+				expiryTime);
 		entityManager.persist(sqrlUsedNutToken);
 	}
 
 	@Override
 	public String fetchTransientAuthData(final String correlator, final String dataName) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlCorrelator correlatorObject = fetchSqrlCorrelatorRequired(correlator);
 		return correlatorObject.getTransientAuthDataTable().get(dataName);
 	}
 
-	private Object returnOneOrNull(@SuppressWarnings("rawtypes") final List resultList) {
-		if (resultList == null || resultList.isEmpty()) {
+	/**
+	 * Neither exception marks the transaction for rollback, so a miss is safe to ignore
+	 */
+	private static <T> T singleResultOrNull(final TypedQuery<T> query) {
+		try {
+			return query.getSingleResult();
+		} catch (final NoResultException e) {
 			return null;
-		} else if (resultList.size() == 1) {
-			return resultList.get(0);
-		} else {
-			throw new SqrlPersistenceException("Expected one, but found multiple results: " + resultList);
+		} catch (final NonUniqueResultException e) {
+			throw new SqrlPersistenceException("Expected one, but found multiple results: " + e.getMessage());
 		}
 	}
 
@@ -314,12 +678,35 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		if (!entityManager.isOpen()) {
 			throw new SqrlPersistenceException("EntityManager is not open");
 		}
-		if (commit) {
-			entityManager.getTransaction().commit();
-		} else {
-			entityManager.getTransaction().rollback();
+		try {
+			// Read only instances have no transaction to end
+			if (transactional && commit) {
+				entityManager.getTransaction().commit();
+			} else if (transactional) {
+				entityManager.getTransaction().rollback();
+			}
+		} catch (final PersistenceException e) {
+			if (isOptimisticLockFailure(e)) {
+				throw new SqrlConcurrentUpdateException(
+						"SqrlCorrelator was modified by another request: " + e.getMessage(), e);
+			}
+			throw e;
+		} finally {
+			// A failed commit has already been rolled back, so always close
+			entityManager.close();
+			if (leakTracker != null) {
+				LEAK_TRACKER_SET.remove(leakTracker);
+			}
 		}
-		entityManager.close();
+	}
+
+	static boolean isOptimisticLockFailure(final Throwable throwable) {
+		for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+			if (cause instanceof OptimisticLockException) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@Override
@@ -329,6 +716,7 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public void setSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToSet, final boolean enableOrDisable) {
+		checkWritable();
 		final SqrlIdentity sqrlIdentity = fetchRequiredSqrlIdentity(sqrlIdk);
 		final Set<SqrlIdentityFlag> enabledFlagSet = sqrlIdentity.getEnabledFlagList();
 		if (enableOrDisable && !enabledFlagSet.add(flagToSet)) {
@@ -340,20 +728,28 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 					new SqrlDebugException());
 			return; // Don't call entityManager.persist(sqrlIdentity);
 		}
+		sqrlIdentity.incrementVersion();
 		entityManager.persist(sqrlIdentity);
 	}
 
 	@Override
 	public void createAndEnableSqrlIdentity(final String sqrlIdk) {
-		updateLastUsed(entityManager);
+		checkWritable();
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = new SqrlIdentity(sqrlIdk);
+		sqrlIdentity.setId(idGenerator().nextId(SqrlIdGenerator.SEQUENCE_IDENTITY));
 		sqrlIdentity.getEnabledFlagList().add(SqrlIdentityFlag.SQRL_AUTH_ENABLED);
 		entityManager.persist(sqrlIdentity);
 	}
 
 	@Override
 	public SqrlCorrelator createCorrelator(final String correlatorString, final Date expiryTime) {
+		checkWritable();
 		final SqrlCorrelator sqrlCorrelator = new SqrlCorrelator(correlatorString, expiryTime);
+		sqrlCorrelator.setId(idGenerator().nextId(SqrlIdGenerator.SEQUENCE_CORRELATOR));
+		if (compactTransientAuthData) {
+			sqrlCorrelator.enableCompactTransientAuthData();
+		}
 		entityManager.persist(sqrlCorrelator);
 		return sqrlCorrelator;
 	}
@@ -363,8 +759,9 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		if (sqrlCorrelator == null) {
 			return;
 		}
+		checkWritable();
 		SqrlCorrelator toRemove = sqrlCorrelator;
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		if (!entityManager.contains(sqrlCorrelator)) {
 			toRemove = fetchSqrlCorrelator(sqrlCorrelator.getCorrelatorString());
 		}
@@ -375,6 +772,25 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		}
 	}
 
+	/**
+	 * Uses a bulk update which does not increment {@link SqrlCorrelator#getVersion()}, so a status change made this way
+	 * never causes a concurrent request transaction to fail
+	 */
+	@Override
+	public int updateSqrlCorrelatorStatus(final Set<String> correlatorStringSet,
+			final SqrlAuthenticationStatus expectedStatus, final SqrlAuthenticationStatus newStatus) {
+		checkWritable();
+		updateLastUsed();
+		int updated = 0;
+		for (final List<String> chunk : buildInClauseChunks(correlatorStringSet)) {
+			updated += entityManager.createNamedQuery(SqrlCorrelator.QUERY_UPDATE_STATUS_BY_VALUE_LIST)
+					.setParameter("newStatus", newStatus).setParameter("expectedStatus", expectedStatus)
+					.setParameter("changeSequence", SqrlCorrelator.nextChangeSequence())
+					.setParameter(PARAM_CORRELATOR_LIST, chunk).executeUpdate();
+		}
+		return updated;
+	}
+
 	@Override
 	public boolean isClosed() {
 		return !entityManager.isOpen();
@@ -382,20 +798,60 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public void cleanUpExpiredEntries() {
+		checkWritable();
 		final Date now = new Date();
-		int rowsDeleted = entityManager.createQuery("DELETE FROM SqrlCorrelator i WHERE i.expiryTime < :now")
+		// Bulk deletes don't cascade to element collections, so remove any legacy transient auth data first
+		entityManager.createNativeQuery("DELETE FROM sqrl_transient_auth_data WHERE id IN "
+				+ "(SELECT c.id FROM sqrl_correlator c WHERE c.expiryTime < ?1)")
+		.setParameter(1, now, TemporalType.TIMESTAMP).executeUpdate();
+		int rowsDeleted = entityManager.createNamedQuery(SqrlCorrelator.QUERY_DELETE_EXPIRED)
 				.setParameter("now", now, TemporalType.TIMESTAMP).executeUpdate();
 		if (rowsDeleted > 0) {
 			logger.info("SqrlCorrelatorc cleanup deleted {} rows", rowsDeleted);
 		}
 
-		rowsDeleted = entityManager.createQuery("DELETE FROM SqrlUsedNutToken i WHERE i.expiryTime < :now")
+		rowsDeleted = entityManager.createNamedQuery(SqrlUsedNutToken.QUERY_DELETE_EXPIRED)
 				.setParameter("now", now, TemporalType.TIMESTAMP).executeUpdate();
 		if (rowsDeleted > 0) {
 			logger.info("SqrlUsedNutToken cleanup deleted {} rows", rowsDeleted);
 		}
 	}
 
+	@Override
+	public int cleanUpExpiredEntries(final int maxRows) {
+		checkWritable();
+		updateLastUsed();
+		final Date now = new Date();
+		int rowsDeleted = 0;
+		// Correlators and their transient auth data
+		final List<Long> correlatorIdList = entityManager
+				.createNamedQuery(SqrlCorrelator.QUERY_IDS_EXPIRED, Long.class)
+				.setParameter("now", now, TemporalType.TIMESTAMP).setMaxResults(maxRows).getResultList();
+		for (final List<Long> chunk : buildInClauseChunks(correlatorIdList)) {
+			final StringBuilder buf = new StringBuilder("DELETE FROM sqrl_transient_auth_data WHERE id IN (");
+			for (int i = 1; i <= chunk.size(); i++) {
+				buf.append('?').append(i).append(i < chunk.size() ? "," : ")");
+			}
+			final Query childQuery = entityManager.createNativeQuery(buf.toString());
+			for (int i = 0; i < chunk.size(); i++) {
+				childQuery.setParameter(i + 1, chunk.get(i));
+			}
+			childQuery.executeUpdate();
+			rowsDeleted += entityManager.createNamedQuery(SqrlCorrelator.QUERY_DELETE_BY_ID_LIST)
+					.setParameter("idList", chunk).executeUpdate();
+		}
+
+		// Used nut tokens
+		final List<String> tokenList = entityManager
+				.createNamedQuery(SqrlUsedNutToken.QUERY_VALUES_EXPIRED, String.class)
+				.setParameter("now", now, TemporalType.TIMESTAMP).setMaxResults(maxRows).getResultList();
+		for (final List<String> chunk : buildInClauseChunks(tokenList)) {
+			rowsDeleted += entityManager.createNamedQuery(SqrlUsedNutToken.QUERY_DELETE_BY_VALUE_LIST)
+					.setParameter("valueList", chunk).executeUpdate();
+		}
+		return rowsDeleted;
+	}
+
 	/**
 	 * A task which periodically checks the state of various {@link EntityManager} instances to ensure they are being
 	 * closed properly by the library
@@ -417,37 +873,22 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 			}
 		}
 
-		private void removeFromTrackingTable(final Iterator<EntityManager> iter, final EntityManager entityManager) {
-			iter.remove();
-			LAST_USED_TIME_TABLE.remove(entityManager); // May or may not exist, ok
-		}
-
 		@Override
 		public void run() {
 			try {
 				final long threshold = computeThresholdInMillis();
-				logger.trace("Running EntityManagerMonitorTimerTask");
-				final Iterator<EntityManager> iter = CREATED_BY_STACK_TABLE.keySet().iterator();
+				logger.trace("Running EntityManagerMonitorTimerTask, tracked={}", LEAK_TRACKER_SET.size());
+				final Iterator<LeakTracker> iter = LEAK_TRACKER_SET.iterator();
 				while (iter.hasNext()) {
-					final EntityManager entityManager = iter.next();
-					if (!entityManager.isOpen()) {
+					final LeakTracker leakTracker = iter.next();
+					if (!leakTracker.entityManager.isOpen()) {
 						logger.trace("entityManager closed, removing from monitor table");
-						removeFromTrackingTable(iter, entityManager);
-					} else {
-						final Long lastUsed = LAST_USED_TIME_TABLE.get(entityManager);
-						if (lastUsed == null) {
-							logger.error(
-									"EntityManagerMonitorTask found null lastUsedTime for entityManager which was created at",
-									CREATED_BY_STACK_TABLE.get(entityManager));
-						} else {
-							if (System.currentTimeMillis() - lastUsed > threshold) {
-								logger.error("Entity Manager is still open and has not been used for "
-										+ threshold + "ms.  Closing now.  Was created from",
-										CREATED_BY_STACK_TABLE.get(entityManager));
-								entityManager.close();
-								removeFromTrackingTable(iter, entityManager);
-							}
-						}
+						iter.remove();
+					} else if (System.currentTimeMillis() - leakTracker.lastUsedTime > threshold) {
+						logger.error("Entity Manager is still open and has not been used for " + threshold
+								+ "ms.  Closing now.  Was created from", leakTracker.createdBy);
+						leakTracker.entityManager.close();
+						iter.remove();
 					}
 				}
 			} catch (final RuntimeException e) {
@@ -457,4 +898,34 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		}
 	}
 
+	/**
+	 * Leak tracking state for a single sampled instance. The creation stack is captured as an exception, the JVM only
+	 * converts it to {@link StackTraceElement}s if it is logged
+	 */
+	static final class LeakTracker {
+		private final EntityManager	entityManager;
+		private final Exception		createdBy;
+		private volatile long		lastUsedTime;
+
+		private LeakTracker(final EntityManager entityManager) {
+			this.entityManager = entityManager;
+			this.createdBy = new Exception("create SqrlJpaPersistenceProvider trace");
+			this.lastUsedTime = System.currentTimeMillis();
+		}
+
+		/**
+		 * @return a tracker which has been registered with the monitor task, or null if this instance was not sampled
+		 */
+		static LeakTracker sample(final EntityManager entityManager) {
+			final int sampleInterval = leakTrackingSampleInterval;
+			if (sampleInterval <= 0
+					|| (sampleInterval > 1 && ThreadLocalRandom.current().nextInt(sampleInterval) != 0)) {
+				return null;
+			}
+			final LeakTracker leakTracker = new LeakTracker(entityManager);
+			LEAK_TRACKER_SET.add(leakTracker);
+			return leakTracker;
+		}
+	}
+
 }
@@ -0,0 +1,56 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+
+/**
+ * A cluster wide lease, which holds the time the lease expires. Kept apart from the id generator table so a lease
+ * name can never collide with a sequence name
+ *
+ * @author Dave Badia
+ *
+ * @see SqrlPersistence#compareAndSetLease(String, long, long, long)
+ */
+@NamedQueries({
+		@NamedQuery(name = SqrlLease.QUERY_COMPARE_AND_SET,
+		query = "UPDATE SqrlLease l SET l.heldUntil = :newExpiry WHERE l.name = :name "
+				+ "AND (l.heldUntil = :heldUntil OR l.heldUntil < :now)") })
+@Entity
+@Table(name = "sqrl_lease")
+public class SqrlLease implements Serializable {
+	private static final long serialVersionUID = 2716389624123957613L;
+
+	static final String QUERY_COMPARE_AND_SET = "SqrlLease.compareAndSet";
+
+	@Id
+	@Column(name = "name", length = 50, nullable = false)
+	private String name;
+
+	@Column(name = "held_until", nullable = false)
+	private long heldUntil;
+
+	public SqrlLease() {
+		// Required by JPA
+	}
+
+	SqrlLease(final String name, final long heldUntil) {
+		this.name = name;
+		this.heldUntil = heldUntil;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getHeldUntil() {
+		return heldUntil;
+	}
+}
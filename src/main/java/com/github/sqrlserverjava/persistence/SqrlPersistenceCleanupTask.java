@@ -1,28 +1,160 @@
 package com.github.sqrlserverjava.persistence;
 
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.sqrlserverjava.SqrlConfig;
+import com.github.sqrlserverjava.SqrlPersistence;
 import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.util.SqrlServiceExecutor;
 
+/**
+ * Deletes expired entries from persistence in chunks of {@link SqrlConfig#getCleanupChunkSize()} rows, each in its own
+ * transaction, staying within {@link SqrlConfig#getCleanupMaxRowsPerSecond()}.
+ * <p>
+ * Runs on the shared {@link SqrlServiceExecutor} threads, so it never sleeps to stay within the limit: once a run is
+ * ahead of its budget the remaining chunks are scheduled to run after the required delay, leaving the thread free in
+ * the meantime. Without an executor the run stops instead, and the next run carries on where it left off
+ *
+ * @author Dave Badia
+ *
+ * @see SqrlPersistence#cleanUpExpiredEntries(int)
+ */
 public class SqrlPersistenceCleanupTask implements Runnable {
 	private static final Logger				logger	= LoggerFactory.getLogger(SqrlPersistenceCleanupTask.class);
 	private final SqrlPersistenceFactory	persistenceFactory;
+	private final int						chunkSize;
+	private final int						maxRowsPerSecond;
+	/**
+	 * null if the remaining chunks can't be rescheduled
+	 */
+	private final SqrlServiceExecutor		executor;
+	/**
+	 * true from the start of a run until its last chunk, so a run which is still waiting to continue isn't overlapped
+	 */
+	private final AtomicBoolean				runInProgress	= new AtomicBoolean(false);
+
+	private volatile long	lastRunRowsDeleted	= 0;
+	private volatile long	lastRunDurationMs	= 0;
 
 	public SqrlPersistenceCleanupTask(final SqrlPersistenceFactory persistenceFactory) {
+		this(persistenceFactory, new SqrlConfig());
+	}
+
+	public SqrlPersistenceCleanupTask(final SqrlPersistenceFactory persistenceFactory, final SqrlConfig config) {
+		this(persistenceFactory, config, null);
+	}
+
+	/**
+	 * @param executor
+	 *            used to run the remaining chunks later when a run gets ahead of
+	 *            {@link SqrlConfig#getCleanupMaxRowsPerSecond()}, may be null
+	 */
+	public SqrlPersistenceCleanupTask(final SqrlPersistenceFactory persistenceFactory, final SqrlConfig config,
+			final SqrlServiceExecutor executor) {
 		super();
 		this.persistenceFactory = persistenceFactory;
+		if (config.getCleanupChunkSize() <= 0) {
+			throw new IllegalArgumentException("config.getCleanupChunkSize() must be > 0");
+		}
+		this.chunkSize = config.getCleanupChunkSize();
+		this.maxRowsPerSecond = Math.max(0, config.getCleanupMaxRowsPerSecond());
+		this.executor = executor;
 	}
 
 	@Override
 	public void run() {
-		try (SqrlAutoCloseablePersistence sqrlPersistence = new SqrlAutoCloseablePersistence(
-				persistenceFactory.createSqrlPersistence())) {
-			sqrlPersistence.cleanUpExpiredEntries();
-			sqrlPersistence.closeCommit();
-		} catch (final RuntimeException e) {
-			logger.error("Error during execution cleanup tasks", e);
+		if (!runInProgress.compareAndSet(false, true)) {
+			logger.debug("Previous cleanup run still in progress, skipping");
+			return;
 		}
+		new CleanupRun().run();
+	}
+
+	/**
+	 * @return the total number of rows deleted during the most recent run
+	 */
+	public long getLastRunRowsDeleted() {
+		return lastRunRowsDeleted;
 	}
 
+	/**
+	 * @return the duration of the most recent run, in milliseconds
+	 */
+	public long getLastRunDurationMs() {
+		return lastRunDurationMs;
+	}
+
+	/**
+	 * One cleanup run, which may be spread over several executions when it is throttled. Only one execution is ever
+	 * pending, so the state needs no locking
+	 */
+	private class CleanupRun implements Runnable {
+		private final long	startTime	= System.currentTimeMillis();
+		private long		rowsDeleted	= 0;
+		private int			chunkCount	= 0;
+
+		@Override
+		public void run() {
+			try {
+				int chunkRowsDeleted;
+				do {
+					try (SqrlAutoCloseablePersistence sqrlPersistence = new SqrlAutoCloseablePersistence(
+							persistenceFactory.createSqrlPersistence())) {
+						chunkRowsDeleted = sqrlPersistence.cleanUpExpiredEntries(chunkSize);
+						sqrlPersistence.closeCommit();
+					}
+					rowsDeleted += chunkRowsDeleted;
+					chunkCount++;
+					if (chunkRowsDeleted > 0 && continueLaterIfThrottled()) {
+						return;
+					}
+				} while (chunkRowsDeleted > 0);
+			} catch (final RuntimeException e) {
+				logger.error("Error during execution cleanup tasks", e);
+			}
+			complete();
+		}
+
+		/**
+		 * @return true if the rest of the run was handed off or abandoned to stay within maxRowsPerSecond
+		 */
+		private boolean continueLaterIfThrottled() {
+			if (maxRowsPerSecond == 0) {
+				return false;
+			}
+			final long budgetMillis = TimeUnit.SECONDS.toMillis(rowsDeleted) / maxRowsPerSecond;
+			final long delayMillis = budgetMillis - (System.currentTimeMillis() - startTime);
+			if (delayMillis <= 0) {
+				return false;
+			}
+			if (executor == null) {
+				logger.debug("Cleanup over budget after {} rows, the next run will continue", rowsDeleted);
+			} else {
+				try {
+					executor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+					return true;
+				} catch (final RejectedExecutionException e) {
+					logger.warn("Cleanup run stopped by shutdown after {} rows", rowsDeleted);
+				}
+			}
+			complete();
+			return true;
+		}
+
+		private void complete() {
+			lastRunRowsDeleted = rowsDeleted;
+			lastRunDurationMs = System.currentTimeMillis() - startTime;
+			runInProgress.set(false);
+			if (rowsDeleted > 0) {
+				logger.info(
+						"process=cleanup detail=\"Persistence cleanup complete\" rowsDeleted={} chunks={} durationMs={}",
+						rowsDeleted, chunkCount, lastRunDurationMs);
+			}
+		}
+	}
 }
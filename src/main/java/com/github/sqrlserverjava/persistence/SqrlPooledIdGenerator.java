@@ -0,0 +1,105 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * Hi-lo id generator which reserves blocks of ids from the sqrl_db_id_gen table in a short, separate transaction. Ids
+ * within a block are then handed out from memory, so the hot id generator row is only locked once per block instead of
+ * once per insert.
+ * <p>
+ * The table format is the same one used by the JPA TableGenerator this replaces (value holds the highest id handed
+ * out) so existing schemas work unchanged
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlPooledIdGenerator implements SqrlIdGenerator {
+	private static final Logger	logger						= LoggerFactory.getLogger(SqrlPooledIdGenerator.class);
+	private static final int	MAX_BLOCK_ALLOCATE_ATTEMPTS	= 3;
+
+	private final int								blockSize;
+	private final Supplier<EntityManagerFactory>	entityManagerFactorySupplier;
+	private final Map<String, IdBlock>				blockTable	= new HashMap<>();
+
+	/**
+	 * @param blockSize
+	 *            the number of ids to reserve at a time
+	 * @param entityManagerFactorySupplier
+	 *            supplies the entity manager factory to reserve blocks with
+	 */
+	public SqrlPooledIdGenerator(final int blockSize,
+			final Supplier<EntityManagerFactory> entityManagerFactorySupplier) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("blockSize must be 1 or greater");
+		}
+		this.blockSize = blockSize;
+		this.entityManagerFactorySupplier = entityManagerFactorySupplier;
+	}
+
+	@Override
+	public synchronized long nextId(final String sequenceName) {
+		final IdBlock idBlock = blockTable.computeIfAbsent(sequenceName, k -> new IdBlock());
+		if (idBlock.next > idBlock.max) {
+			// Block exhausted; other threads wait here, which is far cheaper than waiting on the database row lock
+			final long highestReserved = reserveBlock(sequenceName);
+			idBlock.next = highestReserved - blockSize + 1;
+			idBlock.max = highestReserved;
+		}
+		return idBlock.next++;
+	}
+
+	/**
+	 * @return the highest id of the newly reserved block
+	 */
+	private long reserveBlock(final String sequenceName) {
+		PersistenceException lastException = null;
+		for (int attempt = 1; attempt <= MAX_BLOCK_ALLOCATE_ATTEMPTS; attempt++) {
+			final EntityManager entityManager = entityManagerFactorySupplier.get().createEntityManager();
+			try {
+				entityManager.getTransaction().begin();
+				final int updated = entityManager
+						.createQuery("UPDATE SqrlDbIdGen g SET g.value = g.value + :blockSize WHERE g.name = :name")
+						.setParameter("blockSize", (long) blockSize).setParameter("name", sequenceName)
+						.executeUpdate();
+				if (updated == 0) {
+					// First use of this sequence; another node could be doing the same, in which case we retry
+					entityManager.persist(new SqrlDbIdGen(sequenceName, blockSize));
+					entityManager.flush();
+				}
+				final long highestReserved = entityManager
+						.createQuery("SELECT g.value FROM SqrlDbIdGen g WHERE g.name = :name", Long.class)
+						.setParameter("name", sequenceName).getSingleResult();
+				entityManager.getTransaction().commit();
+				logger.debug("Reserved id block for {} ending at {}", sequenceName, highestReserved);
+				return highestReserved;
+			} catch (final PersistenceException e) {
+				lastException = e;
+				logger.info("Error reserving id block for {} on attempt {}: {}", sequenceName, attempt,
+						e.getMessage());
+				if (entityManager.getTransaction().isActive()) {
+					entityManager.getTransaction().rollback();
+				}
+			} finally {
+				entityManager.close();
+			}
+		}
+		throw new SqrlPersistenceException(
+				"Could not reserve id block for " + sequenceName + ": " + lastException.getMessage());
+	}
+
+	private static class IdBlock {
+		private long	next	= 1;
+		private long	max		= 0;
+	}
+}
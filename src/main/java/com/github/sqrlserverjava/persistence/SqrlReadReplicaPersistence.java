@@ -0,0 +1,301 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+
+/**
+ * Returned by {@link SqrlPersistenceFactory#createSqrlReadOnlyPersistence()} when a read replica is configured.
+ * Correlator reads are served by the replica as long as {@link SqrlReplicaLagMonitor} reports it is within the
+ * tolerated staleness. Correlators that the replica reports as missing (possibly not yet replicated) or in a terminal
+ * state (the web app is about to act on it) are re-read from the primary. All other calls go to the primary, which is
+ * only opened if needed
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlReadReplicaPersistence implements SqrlPersistence {
+	private final SqrlPersistence			replicaPersistence;
+	private final Supplier<SqrlPersistence>	primarySupplier;
+	private final SqrlReplicaLagMonitor		lagMonitor;
+	private SqrlPersistence					primaryPersistence;
+	private boolean							closed	= false;
+
+	SqrlReadReplicaPersistence(final SqrlPersistence replicaPersistence,
+			final Supplier<SqrlPersistence> primarySupplier, final SqrlReplicaLagMonitor lagMonitor) {
+		this.replicaPersistence = replicaPersistence;
+		this.primarySupplier = primarySupplier;
+		this.lagMonitor = lagMonitor;
+	}
+
+	private SqrlPersistence primary() {
+		if (primaryPersistence == null) {
+			primaryPersistence = primarySupplier.get();
+		}
+		return primaryPersistence;
+	}
+
+	private static boolean isTerminal(final SqrlAuthenticationStatus status) {
+		return status != null && status.isUpdatesForThisCorrelatorComplete();
+	}
+
+	/* ***************** Replica routed reads *********************/
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelator(final String correlator) {
+		if (!lagMonitor.isReplicaFresh()) {
+			return primary().fetchSqrlCorrelator(correlator);
+		}
+		final SqrlCorrelator sqrlCorrelator = replicaPersistence.fetchSqrlCorrelator(correlator);
+		if (sqrlCorrelator == null || isTerminal(sqrlCorrelator.getAuthenticationStatus())) {
+			return primary().fetchSqrlCorrelator(correlator);
+		}
+		return sqrlCorrelator;
+	}
+
+	@Override
+	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
+		if (!lagMonitor.isReplicaFresh()) {
+			return primary().fetchSqrlCorrelatorsDetached(correlatorStringSet);
+		}
+		final Map<String, SqrlCorrelator> resultTable = new HashMap<>(
+				replicaPersistence.fetchSqrlCorrelatorsDetached(correlatorStringSet));
+		final Set<String> primarySet = new HashSet<>();
+		for (final String correlatorString : correlatorStringSet) {
+			final SqrlCorrelator sqrlCorrelator = resultTable.get(correlatorString);
+			if (sqrlCorrelator == null || isTerminal(sqrlCorrelator.getAuthenticationStatus())) {
+				primarySet.add(correlatorString);
+			}
+		}
+		if (!primarySet.isEmpty()) {
+			resultTable.keySet().removeAll(primarySet);
+			resultTable.putAll(primary().fetchSqrlCorrelatorsDetached(primarySet));
+		}
+		return resultTable;
+	}
+
+	@Override
+	public Map<String, SqrlCorrelatorView> fetchSqrlCorrelatorViews(final Set<String> correlatorStringSet) {
+		if (!lagMonitor.isReplicaFresh()) {
+			return primary().fetchSqrlCorrelatorViews(correlatorStringSet);
+		}
+		final Map<String, SqrlCorrelatorView> resultTable = new HashMap<>(
+				replicaPersistence.fetchSqrlCorrelatorViews(correlatorStringSet));
+		final Set<String> primarySet = new HashSet<>();
+		for (final String correlatorString : correlatorStringSet) {
+			final SqrlCorrelatorView view = resultTable.get(correlatorString);
+			if (view == null || isTerminal(view.getAuthenticationStatus())) {
+				primarySet.add(correlatorString);
+			}
+		}
+		if (!primarySet.isEmpty()) {
+			resultTable.keySet().removeAll(primarySet);
+			resultTable.putAll(primary().fetchSqrlCorrelatorViews(primarySet));
+		}
+		return resultTable;
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
+			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
+		if (!lagMonitor.isReplicaFresh()) {
+			return primary().fetchSqrlCorrelatorStatusUpdates(correlatorToCurrentStatusTable);
+		}
+		final Map<String, SqrlAuthenticationStatus> resultTable = new HashMap<>(
+				replicaPersistence.fetchSqrlCorrelatorStatusUpdates(correlatorToCurrentStatusTable));
+		// A terminal status stops monitoring, so confirm it against the primary
+		final Map<String, SqrlAuthenticationStatus> confirmTable = new HashMap<>();
+		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : resultTable.entrySet()) {
+			if (isTerminal(entry.getValue())) {
+				confirmTable.put(entry.getKey(), correlatorToCurrentStatusTable.get(entry.getKey()));
+			}
+		}
+		if (!confirmTable.isEmpty()) {
+			resultTable.keySet().removeAll(confirmTable.keySet());
+			resultTable.putAll(primary().fetchSqrlCorrelatorStatusUpdates(confirmTable));
+		}
+		return resultTable;
+	}
+
+	/* ***************** Primary *********************/
+
+	@Override
+	public void createAndEnableSqrlIdentity(final String sqrlIdk) {
+		primary().createAndEnableSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
+		return primary().doesSqrlIdentityExistByIdk(sqrlIdk);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		return primary().fetchSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public Long fetchSqrlIdentityVersion(final String sqrlIdk) {
+		return primary().fetchSqrlIdentityVersion(sqrlIdk);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentityByUserXref(final String appUserXref) {
+		return primary().fetchSqrlIdentityByUserXref(appUserXref);
+	}
+
+	@Override
+	public Map<String, SqrlIdentity> fetchSqrlIdentitiesByUserXref(final Set<String> appUserXrefSet) {
+		return primary().fetchSqrlIdentitiesByUserXref(appUserXrefSet);
+	}
+
+	@Override
+	public Map<String, Set<SqrlIdentityFlag>> fetchSqrlIdentityFlagsByUserXref(final Set<String> appUserXrefSet) {
+		return primary().fetchSqrlIdentityFlagsByUserXref(appUserXrefSet);
+	}
+
+	@Override
+	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
+		primary().updateIdkForSqrlIdentity(previousSqrlIdk, newSqrlIdk);
+	}
+
+	@Override
+	public void deleteSqrlIdentity(final String sqrlIdk) {
+		primary().deleteSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public void updateNativeUserXref(final long sqrlIdentityId, final String nativeUserXref) {
+		primary().updateNativeUserXref(sqrlIdentityId, nativeUserXref);
+	}
+
+	@Override
+	public void userAuthenticatedViaSqrl(final String sqrlIdk, final String correlator) {
+		primary().userAuthenticatedViaSqrl(sqrlIdk, correlator);
+	}
+
+	@Override
+	public boolean fetchSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToFetch) {
+		return primary().fetchSqrlFlagForIdentity(sqrlIdk, flagToFetch);
+	}
+
+	@Override
+	public void setSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToSet,
+			final boolean valueToSet) {
+		primary().setSqrlFlagForIdentity(sqrlIdk, flagToSet, valueToSet);
+	}
+
+	@Override
+	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
+		primary().storeSqrlDataForSqrlIdentity(sqrlIdk, dataToStore);
+	}
+
+	@Override
+	public String fetchSqrlIdentityDataItem(final String sqrlIdk, final String toFetch) {
+		return primary().fetchSqrlIdentityDataItem(sqrlIdk, toFetch);
+	}
+
+	@Override
+	public boolean hasTokenBeenUsed(final String nutTokenString) {
+		return primary().hasTokenBeenUsed(nutTokenString);
+	}
+
+	@Override
+	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
+		primary().markTokenAsUsed(nutTokenString, expiryTime);
+	}
+
+	@Override
+	public String fetchTransientAuthData(final String correlator, final String transientNameServerParrot) {
+		return primary().fetchTransientAuthData(correlator, transientNameServerParrot);
+	}
+
+	@Override
+	public SqrlCorrelator createCorrelator(final String correlatorString, final Date expiryTime) {
+		return primary().createCorrelator(correlatorString, expiryTime);
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelatorRequired(final String correlator) {
+		return primary().fetchSqrlCorrelatorRequired(correlator);
+	}
+
+	@Override
+	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
+		primary().deleteSqrlCorrelator(sqrlCorrelator);
+	}
+
+	@Override
+	public int updateSqrlCorrelatorStatus(final Set<String> correlatorStringSet,
+			final SqrlAuthenticationStatus expectedStatus, final SqrlAuthenticationStatus newStatus) {
+		return primary().updateSqrlCorrelatorStatus(correlatorStringSet, expectedStatus, newStatus);
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusChangedSince(final long changeSequence) {
+		// A cheap range scan, and the caller's overlap window isn't sized for replica lag
+		return primary().fetchSqrlCorrelatorStatusChangedSince(changeSequence);
+	}
+
+	@Override
+	public boolean compareAndSetLease(final String leaseName, final long heldUntil, final long now,
+			final long newExpiry) {
+		return primary().compareAndSetLease(leaseName, heldUntil, now, newExpiry);
+	}
+
+	@Override
+	public void cleanUpExpiredEntries() {
+		primary().cleanUpExpiredEntries();
+	}
+
+	@Override
+	public int cleanUpExpiredEntries(final int maxRows) {
+		return primary().cleanUpExpiredEntries(maxRows);
+	}
+
+	/* ***************** TRANSACTION START / STOP *********************/
+
+	/**
+	 * Commits the primary if it was used; the replica transaction only ever reads so it is rolled back
+	 */
+	@Override
+	public void closeCommit() {
+		closed = true;
+		try {
+			replicaPersistence.closeRollback();
+		} finally {
+			if (primaryPersistence != null) {
+				primaryPersistence.closeCommit();
+			}
+		}
+	}
+
+	@Override
+	public void closeRollback() {
+		closed = true;
+		try {
+			replicaPersistence.closeRollback();
+		} finally {
+			if (primaryPersistence != null) {
+				primaryPersistence.closeRollback();
+			}
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	boolean isPrimaryOpened() {
+		return primaryPersistence != null;
+	}
+}
@@ -0,0 +1,117 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how far a read replica lags behind the primary. A heartbeat row in sqrl_db_id_gen is periodically stamped
+ * with the current time on the primary and then read back from the replica; the difference is an upper bound of the
+ * replication lag. The check runs at most every 1/4 of the tolerated staleness, on whichever request thread happens
+ * to need the answer, so the extra load on the primary is one tiny update per interval per server
+ *
+ * @author Dave Badia
+ *
+ */
+class SqrlReplicaLagMonitor {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlReplicaLagMonitor.class);
+
+	static final String			HEARTBEAT_NAME				= "replica_heartbeat";
+	private static final long	MIN_CHECK_INTERVAL_MILLIS	= 50;
+
+	private final Supplier<EntityManagerFactory>	primarySupplier;
+	private final EntityManagerFactory				replicaEntityManagerFactory;
+	private final long								maxStalenessMillis;
+	private final long								checkIntervalMillis;
+
+	private volatile long		nextCheckAt		= 0;
+	private volatile boolean	replicaFresh	= false;
+	private volatile long		lastLagMillis	= -1;
+
+	SqrlReplicaLagMonitor(final Supplier<EntityManagerFactory> primarySupplier,
+			final EntityManagerFactory replicaEntityManagerFactory, final long maxStalenessMillis) {
+		this.primarySupplier = primarySupplier;
+		this.replicaEntityManagerFactory = replicaEntityManagerFactory;
+		this.maxStalenessMillis = maxStalenessMillis;
+		this.checkIntervalMillis = Math.max(MIN_CHECK_INTERVAL_MILLIS, maxStalenessMillis / 4);
+	}
+
+	/**
+	 * @return true if the replica was within the tolerated staleness at the last check
+	 */
+	boolean isReplicaFresh() {
+		final long now = currentTimeMillis();
+		if (now >= nextCheckAt) {
+			synchronized (this) {
+				if (now >= nextCheckAt) {
+					check(now);
+					nextCheckAt = now + checkIntervalMillis;
+				}
+			}
+		}
+		return replicaFresh;
+	}
+
+	private void check(final long now) {
+		boolean fresh;
+		try {
+			writeHeartbeat(now);
+			final Long replicaValue = readReplicaHeartbeat();
+			lastLagMillis = replicaValue == null ? Long.MAX_VALUE : Math.max(0, now - replicaValue);
+			fresh = lastLagMillis <= maxStalenessMillis;
+		} catch (final RuntimeException e) {
+			logger.warn("Error checking read replica lag, routing reads to the primary", e);
+			fresh = false;
+		}
+		if (fresh != replicaFresh) {
+			if (fresh) {
+				logger.info("Read replica is current, lagMillis={}", lastLagMillis);
+			} else {
+				logger.warn("Read replica exceeded staleness tolerance of {} ms, lagMillis={}", maxStalenessMillis,
+						lastLagMillis);
+			}
+		}
+		replicaFresh = fresh;
+	}
+
+	private void writeHeartbeat(final long now) {
+		final EntityManager entityManager = primarySupplier.get().createEntityManager();
+		try {
+			entityManager.getTransaction().begin();
+			final int rows = entityManager
+					.createQuery("UPDATE SqrlDbIdGen g SET g.value = :value WHERE g.name = :name")
+					.setParameter("value", now).setParameter("name", HEARTBEAT_NAME).executeUpdate();
+			if (rows == 0) {
+				entityManager.persist(new SqrlDbIdGen(HEARTBEAT_NAME, now));
+			}
+			entityManager.getTransaction().commit();
+		} finally {
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			entityManager.close();
+		}
+	}
+
+	private Long readReplicaHeartbeat() {
+		final EntityManager entityManager = replicaEntityManagerFactory.createEntityManager();
+		try {
+			final SqrlDbIdGen heartbeat = entityManager.find(SqrlDbIdGen.class, HEARTBEAT_NAME);
+			return heartbeat == null ? null : heartbeat.getValue();
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	long getLastLagMillis() {
+		return lastLagMillis;
+	}
+
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,66 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring which maps a key (correlator, nut token or idk) to a shard index. Each shard is placed on the
+ * ring many times using its persistence unit name, so adding a shard only remaps roughly 1/N of the keys and the
+ * mapping is identical on every server in a cluster
+ *
+ * @author Dave Badia
+ *
+ */
+class SqrlShardRing {
+	private static final int	VIRTUAL_NODES_PER_SHARD	= 160;
+	private static final long	FNV_OFFSET_BASIS		= 0xcbf29ce484222325L;
+	private static final long	FNV_PRIME				= 0x100000001b3L;
+
+	private final NavigableMap<Long, Integer>	ring	= new TreeMap<>();
+	private final int							shardCount;
+
+	SqrlShardRing(final List<String> shardNameList) {
+		this.shardCount = shardNameList.size();
+		for (int i = 0; i < shardCount; i++) {
+			for (int v = 0; v < VIRTUAL_NODES_PER_SHARD; v++) {
+				ring.put(hash(shardNameList.get(i) + "#" + v), i);
+			}
+		}
+	}
+
+	int shardFor(final String key) {
+		if (shardCount == 1) {
+			return 0;
+		}
+		Map.Entry<Long, Integer> entry = ring.ceilingEntry(hash(key));
+		if (entry == null) {
+			entry = ring.firstEntry();
+		}
+		return entry.getValue();
+	}
+
+	int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * 64 bit FNV-1a followed by a murmur3 finalizer; stable across JVMs, unlike {@link String#hashCode()} based
+	 * schemes it spreads similar keys (such as base64 correlators sharing a prefix) evenly
+	 */
+	static long hash(final String key) {
+		long hash = FNV_OFFSET_BASIS;
+		for (final byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= FNV_PRIME;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
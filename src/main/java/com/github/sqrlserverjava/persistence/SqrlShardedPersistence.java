@@ -0,0 +1,474 @@
+package com.github.sqrlserverjava.persistence;
+
+import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_BROWSER;
+import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_CPS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+/**
+ * Routes each {@link SqrlPersistence} call to the shard which owns the data, see
+ * {@link SqrlShardedPersistenceFactory}. A transaction is started on a shard the first time this object touches it,
+ * and all opened shard transactions are committed or rolled back together. Commits are not atomic across shards; they
+ * are issued in shard order and any remaining shards are rolled back if one fails. Since all data for a single
+ * correlator or nut token lives on one shard this is sufficient for the SQRL protocol. The exception is an idk change
+ * which moves an identity to another shard; the copy is committed on the new shard straight away, see
+ * {@link #updateIdkForSqrlIdentity(String, String)}.
+ * <p>
+ * When an identity and the correlator it authenticated are on different shards there can be no foreign key between
+ * them, so the idk is stored in the correlators transient data instead and resolved from the identity shard when the
+ * correlator is fetched
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlShardedPersistence implements SqrlPersistence {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlShardedPersistence.class);
+
+	private final SqrlShardedPersistenceFactory	factory;
+	private final SqrlShardRing					shardRing;
+	private final SqrlJpaPersistenceProvider[]	shardPersistenceArray;
+	private boolean								closed	= false;
+
+	SqrlShardedPersistence(final SqrlShardedPersistenceFactory factory) {
+		this.factory = factory;
+		this.shardRing = factory.getShardRing();
+		this.shardPersistenceArray = new SqrlJpaPersistenceProvider[shardRing.getShardCount()];
+	}
+
+	private SqrlJpaPersistenceProvider shard(final int shardIndex) {
+		if (closed) {
+			throw new SqrlPersistenceException("SqrlShardedPersistence is closed");
+		}
+		SqrlJpaPersistenceProvider shardPersistence = shardPersistenceArray[shardIndex];
+		if (shardPersistence == null) {
+			shardPersistence = new SqrlJpaPersistenceProvider(
+					factory.getShardEntityManagerFactoryList().get(shardIndex), factory.getIdGenerator());
+			shardPersistenceArray[shardIndex] = shardPersistence;
+		}
+		return shardPersistence;
+	}
+
+	int correlatorShardIndex(final String correlatorString) {
+		return shardRing.shardFor(correlatorString);
+	}
+
+	int identityShardIndex(final String sqrlIdk) {
+		return factory.isIdentitiesByIdk() ? shardRing.shardFor(sqrlIdk) : 0;
+	}
+
+	private SqrlJpaPersistenceProvider correlatorShard(final String correlatorString) {
+		return shard(correlatorShardIndex(correlatorString));
+	}
+
+	private SqrlJpaPersistenceProvider identityShard(final String sqrlIdk) {
+		return shard(identityShardIndex(sqrlIdk));
+	}
+
+	/* ***************** SqrlIdentity *********************/
+
+	@Override
+	public void createAndEnableSqrlIdentity(final String sqrlIdk) {
+		identityShard(sqrlIdk).createAndEnableSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
+		return identityShard(sqrlIdk).doesSqrlIdentityExistByIdk(sqrlIdk);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		return identityShard(sqrlIdk).fetchSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public Long fetchSqrlIdentityVersion(final String sqrlIdk) {
+		return identityShard(sqrlIdk).fetchSqrlIdentityVersion(sqrlIdk);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentityByUserXref(final String appUserXref) {
+		if (!factory.isIdentitiesByIdk()) {
+			return shard(0).fetchSqrlIdentityByUserXref(appUserXref);
+		}
+		for (int i = 0; i < shardPersistenceArray.length; i++) {
+			final SqrlIdentity sqrlIdentity = shard(i).fetchSqrlIdentityByUserXref(appUserXref);
+			if (sqrlIdentity != null) {
+				return sqrlIdentity;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Map<String, SqrlIdentity> fetchSqrlIdentitiesByUserXref(final Set<String> appUserXrefSet) {
+		return scatterGather(identityShardInputTable(appUserXrefSet), SqrlPersistence::fetchSqrlIdentitiesByUserXref);
+	}
+
+	@Override
+	public Map<String, Set<SqrlIdentityFlag>> fetchSqrlIdentityFlagsByUserXref(final Set<String> appUserXrefSet) {
+		return scatterGather(identityShardInputTable(appUserXrefSet),
+				SqrlPersistence::fetchSqrlIdentityFlagsByUserXref);
+	}
+
+	/**
+	 * xrefs are not part of the shard key, so when identities are sharded every shard must be asked
+	 */
+	private Map<Integer, Set<String>> identityShardInputTable(final Set<String> appUserXrefSet) {
+		if (appUserXrefSet.isEmpty()) {
+			return Collections.emptyMap();
+		} else if (!factory.isIdentitiesByIdk()) {
+			return Collections.singletonMap(0, appUserXrefSet);
+		}
+		final Map<Integer, Set<String>> shardTable = new HashMap<>();
+		for (int i = 0; i < shardPersistenceArray.length; i++) {
+			shardTable.put(i, appUserXrefSet);
+		}
+		return shardTable;
+	}
+
+	@Override
+	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
+		final int previousShardIndex = identityShardIndex(previousSqrlIdk);
+		final int newShardIndex = identityShardIndex(newSqrlIdk);
+		if (previousShardIndex == newShardIndex) {
+			shard(previousShardIndex).updateIdkForSqrlIdentity(previousSqrlIdk, newSqrlIdk);
+			return;
+		}
+		// The new idk hashes to a different shard, so move the row
+		final SqrlJpaPersistenceProvider previousShard = shard(previousShardIndex);
+		final SqrlIdentity previous = previousShard.fetchSqrlIdentity(previousSqrlIdk);
+		if (previous == null) {
+			throw new SqrlPersistenceException("SqrlIdentity does not exist for idk=" + previousSqrlIdk);
+		}
+		final SqrlIdentity moved = new SqrlIdentity(previous);
+		moved.setIdk(newSqrlIdk);
+		moved.incrementVersion();
+		// Commit the copy before touching the original: if anything after this fails the identity exists under both
+		// idks instead of neither
+		shard(newShardIndex).persistSqrlIdentity(moved);
+		commitShard(newShardIndex);
+		previousShard.repointCorrelatorsToIdk(previous, newSqrlIdk);
+		previousShard.deleteSqrlIdentity(previousSqrlIdk);
+		logger.info("Moved SqrlIdentity id={} from shard {} to shard {} due to idk change", moved.getId(),
+				previousShardIndex, newShardIndex);
+	}
+
+	/**
+	 * Commits a single shard ahead of the others, the next call which touches it starts a new transaction
+	 */
+	private void commitShard(final int shardIndex) {
+		final SqrlJpaPersistenceProvider shardPersistence = shardPersistenceArray[shardIndex];
+		shardPersistenceArray[shardIndex] = null;
+		shardPersistence.closeCommit();
+	}
+
+	@Override
+	public void deleteSqrlIdentity(final String sqrlIdk) {
+		identityShard(sqrlIdk).deleteSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public void updateNativeUserXref(final long sqrlIdentityId, final String nativeUserXref) {
+		if (!factory.isIdentitiesByIdk()) {
+			shard(0).updateNativeUserXref(sqrlIdentityId, nativeUserXref);
+			return;
+		}
+		// Ids are unique across shards, so at most one shard will contain it
+		for (int i = 0; i < shardPersistenceArray.length; i++) {
+			if (shard(i).containsSqrlIdentity(sqrlIdentityId)) {
+				shard(i).updateNativeUserXref(sqrlIdentityId, nativeUserXref);
+				return;
+			}
+		}
+		throw new SqrlPersistenceException("SqrlIdentity does not exist for id=" + sqrlIdentityId);
+	}
+
+	@Override
+	public void userAuthenticatedViaSqrl(final String sqrlIdk, final String correlatorString) {
+		final int identityShardIndex = identityShardIndex(sqrlIdk);
+		final int correlatorShardIndex = correlatorShardIndex(correlatorString);
+		if (identityShardIndex == correlatorShardIndex) {
+			shard(correlatorShardIndex).userAuthenticatedViaSqrl(sqrlIdk, correlatorString);
+			return;
+		}
+		final SqrlIdentity sqrlIdentity = shard(identityShardIndex).fetchSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			throw new SqrlPersistenceException("SqrlIdentity does not exist for idk=" + sqrlIdk);
+		}
+		final SqrlCorrelator sqrlCorrelator = shard(correlatorShardIndex).fetchSqrlCorrelatorRequired(correlatorString);
+		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_AUTHENTICATED_IDK, sqrlIdk);
+		sqrlCorrelator.setShardAuthenticatedIdentity(sqrlIdentity);
+		if (sqrlCorrelator.getAuthenticationStatus() != AUTHENTICATED_CPS) {
+			sqrlCorrelator.setAuthenticationStatus(AUTHENTICATED_BROWSER);
+		}
+	}
+
+	@Override
+	public boolean fetchSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToFetch) {
+		return identityShard(sqrlIdk).fetchSqrlFlagForIdentity(sqrlIdk, flagToFetch);
+	}
+
+	@Override
+	public void setSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToSet,
+			final boolean valueToSet) {
+		identityShard(sqrlIdk).setSqrlFlagForIdentity(sqrlIdk, flagToSet, valueToSet);
+	}
+
+	@Override
+	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
+		identityShard(sqrlIdk).storeSqrlDataForSqrlIdentity(sqrlIdk, dataToStore);
+	}
+
+	@Override
+	public String fetchSqrlIdentityDataItem(final String sqrlIdk, final String toFetch) {
+		return identityShard(sqrlIdk).fetchSqrlIdentityDataItem(sqrlIdk, toFetch);
+	}
+
+	/* ***************** SQRL USED TOKENS *********************/
+
+	@Override
+	public boolean hasTokenBeenUsed(final String nutTokenString) {
+		return shard(shardRing.shardFor(nutTokenString)).hasTokenBeenUsed(nutTokenString);
+	}
+
+	@Override
+	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
+		shard(shardRing.shardFor(nutTokenString)).markTokenAsUsed(nutTokenString, expiryTime);
+	}
+
+	@Override
+	public String fetchTransientAuthData(final String correlator, final String transientNameServerParrot) {
+		return correlatorShard(correlator).fetchTransientAuthData(correlator, transientNameServerParrot);
+	}
+
+	/* ***************** SqrlCorrelator *********************/
+
+	@Override
+	public SqrlCorrelator createCorrelator(final String correlatorString, final Date expiryTime) {
+		return correlatorShard(correlatorString).createCorrelator(correlatorString, expiryTime);
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelatorRequired(final String correlator) {
+		return resolveShardAuthenticatedIdentity(correlatorShard(correlator).fetchSqrlCorrelatorRequired(correlator));
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelator(final String correlator) {
+		return resolveShardAuthenticatedIdentity(correlatorShard(correlator).fetchSqrlCorrelator(correlator));
+	}
+
+	private SqrlCorrelator resolveShardAuthenticatedIdentity(final SqrlCorrelator sqrlCorrelator) {
+		if (sqrlCorrelator == null || !sqrlCorrelator.getAuthenticationStatus().isAuthComplete()
+				|| sqrlCorrelator.getAuthenticatedIdentity() != null) {
+			return sqrlCorrelator;
+		}
+		final String sqrlIdk = sqrlCorrelator.getTransientAuthDataTable().get(SqrlConstants.TRANSIENT_AUTHENTICATED_IDK);
+		if (sqrlIdk != null) {
+			sqrlCorrelator.setShardAuthenticatedIdentity(identityShard(sqrlIdk).fetchSqrlIdentity(sqrlIdk));
+		}
+		return sqrlCorrelator;
+	}
+
+	@Override
+	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
+		final Map<Integer, Set<String>> shardTable = new HashMap<>();
+		for (final String correlatorString : correlatorStringSet) {
+			shardTable.computeIfAbsent(correlatorShardIndex(correlatorString), k -> new HashSet<>())
+			.add(correlatorString);
+		}
+		final Map<String, SqrlCorrelator> resultTable = scatterGather(shardTable,
+				(shardPersistence, shardCorrelatorSet) -> shardPersistence
+				.fetchSqrlCorrelatorsDetached(shardCorrelatorSet));
+		for (final SqrlCorrelator sqrlCorrelator : resultTable.values()) {
+			resolveShardAuthenticatedIdentity(sqrlCorrelator);
+		}
+		return resultTable;
+	}
+
+	@Override
+	public Map<String, SqrlCorrelatorView> fetchSqrlCorrelatorViews(final Set<String> correlatorStringSet) {
+		final Map<Integer, Set<String>> shardTable = new HashMap<>();
+		for (final String correlatorString : correlatorStringSet) {
+			shardTable.computeIfAbsent(correlatorShardIndex(correlatorString), k -> new HashSet<>())
+			.add(correlatorString);
+		}
+		return scatterGather(shardTable, SqrlPersistence::fetchSqrlCorrelatorViews);
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
+			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
+		final Map<Integer, Map<String, SqrlAuthenticationStatus>> shardTable = new HashMap<>();
+		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : correlatorToCurrentStatusTable.entrySet()) {
+			shardTable.computeIfAbsent(correlatorShardIndex(entry.getKey()), k -> new HashMap<>())
+			.put(entry.getKey(), entry.getValue());
+		}
+		return scatterGather(shardTable, SqrlPersistence::fetchSqrlCorrelatorStatusUpdates);
+	}
+
+	/**
+	 * Runs the given query against each shard in parallel and merges the results. Each shard EntityManager is
+	 * only ever used by one thread at a time
+	 */
+	private <I, V> Map<String, V> scatterGather(final Map<Integer, I> shardInputTable,
+			final BiFunction<SqrlPersistence, I, Map<String, V>> query) {
+		final Map<String, V> resultTable = new HashMap<>();
+		if (shardInputTable.size() <= 1) {
+			for (final Map.Entry<Integer, I> entry : shardInputTable.entrySet()) {
+				resultTable.putAll(query.apply(shard(entry.getKey()), entry.getValue()));
+			}
+			return resultTable;
+		}
+		final List<Future<Map<String, V>>> futureList = new ArrayList<>(shardInputTable.size());
+		for (final Map.Entry<Integer, I> entry : shardInputTable.entrySet()) {
+			// Open the shard on this thread, the shard array is not thread safe
+			final SqrlJpaPersistenceProvider shardPersistence = shard(entry.getKey());
+			final I shardInput = entry.getValue();
+			final Callable<Map<String, V>> task = () -> query.apply(shardPersistence, shardInput);
+			futureList.add(factory.getScatterExecutor().submit(task));
+		}
+		try {
+			for (final Future<Map<String, V>> future : futureList) {
+				resultTable.putAll(future.get());
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SqrlPersistenceException("Interrupted while querying shards");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new SqrlPersistenceException("Error querying shards: " + e.getCause());
+		}
+		return resultTable;
+	}
+
+	@Override
+	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
+		if (sqrlCorrelator == null) {
+			return;
+		}
+		correlatorShard(sqrlCorrelator.getCorrelatorString()).deleteSqrlCorrelator(sqrlCorrelator);
+	}
+
+	@Override
+	public int updateSqrlCorrelatorStatus(final Set<String> correlatorStringSet,
+			final SqrlAuthenticationStatus expectedStatus, final SqrlAuthenticationStatus newStatus) {
+		final Map<Integer, Set<String>> shardTable = new HashMap<>();
+		for (final String correlatorString : correlatorStringSet) {
+			shardTable.computeIfAbsent(correlatorShardIndex(correlatorString), k -> new HashSet<>())
+			.add(correlatorString);
+		}
+		int updated = 0;
+		for (final Map.Entry<Integer, Set<String>> entry : shardTable.entrySet()) {
+			updated += shard(entry.getKey()).updateSqrlCorrelatorStatus(entry.getValue(), expectedStatus, newStatus);
+		}
+		return updated;
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusChangedSince(final long changeSequence) {
+		final Map<Integer, Long> shardTable = new HashMap<>();
+		for (int i = 0; i < shardPersistenceArray.length; i++) {
+			shardTable.put(i, changeSequence);
+		}
+		return scatterGather(shardTable, SqrlPersistence::fetchSqrlCorrelatorStatusChangedSince);
+	}
+
+	@Override
+	public boolean compareAndSetLease(final String leaseName, final long heldUntil, final long now,
+			final long newExpiry) {
+		// Leases are cluster wide rather than per correlator, so they always live on the first shard
+		return shard(0).compareAndSetLease(leaseName, heldUntil, now, newExpiry);
+	}
+
+	/* ***************** TRANSACTION START / STOP *********************/
+
+	@Override
+	public void closeCommit() {
+		closed = true;
+		RuntimeException commitException = null;
+		for (final SqrlJpaPersistenceProvider shardPersistence : shardPersistenceArray) {
+			if (shardPersistence == null || shardPersistence.isClosed()) {
+				continue;
+			}
+			if (commitException == null) {
+				try {
+					shardPersistence.closeCommit();
+				} catch (final RuntimeException e) {
+					commitException = e;
+				}
+			} else {
+				rollbackQuietly(shardPersistence);
+			}
+		}
+		if (commitException != null) {
+			throw commitException;
+		}
+	}
+
+	@Override
+	public void closeRollback() {
+		closed = true;
+		for (final SqrlJpaPersistenceProvider shardPersistence : shardPersistenceArray) {
+			if (shardPersistence != null && !shardPersistence.isClosed()) {
+				rollbackQuietly(shardPersistence);
+			}
+		}
+	}
+
+	private void rollbackQuietly(final SqrlJpaPersistenceProvider shardPersistence) {
+		try {
+			shardPersistence.closeRollback();
+		} catch (final RuntimeException e) {
+			logger.error("Error rolling back shard transaction", e);
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void cleanUpExpiredEntries() {
+		for (int i = 0; i < shardPersistenceArray.length; i++) {
+			shard(i).cleanUpExpiredEntries();
+		}
+	}
+
+	/**
+	 * @param maxRows
+	 *            the maximum number of rows to delete from <b>each</b> shard
+	 */
+	@Override
+	public int cleanUpExpiredEntries(final int maxRows) {
+		int rowsDeleted = 0;
+		for (int i = 0; i < shardPersistenceArray.length; i++) {
+			rowsDeleted += shard(i).cleanUpExpiredEntries(maxRows);
+		}
+		return rowsDeleted;
+	}
+}
@@ -0,0 +1,139 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.SqrlConfig;
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.exception.SqrlConfigSettingException;
+import com.github.sqrlserverjava.exception.SqrlIllegalStateException;
+import com.github.sqrlserverjava.persistence.SqrlJpaPersistenceProvider.SqrlJpaEntityManagerMonitorTask;
+
+/**
+ * A {@link SqrlPersistenceFactory} which spreads SQRL data across multiple JPA persistence units (shards). Correlators
+ * and nut tokens are routed by a consistent hash of their string value; identities are stored on the first shard or,
+ * if {@link SqrlConfig#isPersistenceShardIdentitiesByIdk()} is set, routed by idk.
+ * <p>
+ * To enable, set {@link SqrlConfig#setSqrlPersistenceFactoryClass(String)} to this class and
+ * {@link SqrlConfig#setPersistenceShardUnitNames(String)} to the persistence units, each of which must list the same
+ * entity classes as the default <code>javasqrl-persistence</code> unit
+ *
+ * @author Dave Badia
+ *
+ * @see SqrlShardedPersistence
+ */
+public class SqrlShardedPersistenceFactory implements SqrlPersistenceFactory {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlShardedPersistenceFactory.class);
+
+	private List<EntityManagerFactory>	shardEntityManagerFactoryList;
+	private SqrlShardRing				shardRing;
+	private SqrlIdGenerator				idGenerator;
+	private boolean						identitiesByIdk;
+	private ExecutorService				scatterExecutor;
+
+	@Override
+	public void initSqrl(final SqrlConfig config) {
+		final List<String> shardNameList = parseShardUnitNames(config.getPersistenceShardUnitNames());
+		final List<EntityManagerFactory> entityManagerFactoryList = new ArrayList<>(shardNameList.size());
+		for (final String shardName : shardNameList) {
+			final EntityManagerFactory shardEntityManagerFactory = Persistence.createEntityManagerFactory(shardName);
+			SqrlJpaPersistenceProvider.validateNamedQueries(shardEntityManagerFactory);
+			entityManagerFactoryList.add(shardEntityManagerFactory);
+		}
+		this.shardEntityManagerFactoryList = Collections.unmodifiableList(entityManagerFactoryList);
+		this.shardRing = new SqrlShardRing(shardNameList);
+		this.identitiesByIdk = config.isPersistenceShardIdentitiesByIdk();
+		// A single generator backed by the first shard keeps ids unique across all shards
+		final EntityManagerFactory firstShard = entityManagerFactoryList.get(0);
+		this.idGenerator = SqrlJpaPersistenceFactory.buildIdGenerator(config, () -> firstShard);
+		SqrlJpaPersistenceProvider.setCompactTransientAuthData(config.isCompactTransientAuthData());
+		SqrlJpaPersistenceProvider.setHashNutTokenKeys(config.isHashNutTokenKeys());
+		SqrlJpaPersistenceFactory.initLeakTracking(config);
+		final AtomicInteger threadCounter = new AtomicInteger();
+		this.scatterExecutor = Executors.newFixedThreadPool(shardNameList.size(), runnable -> {
+			final Thread thread = new Thread(runnable, "sqrl-shard-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		logger.info("process=init detail=\"Using sharded persistence\" shards={} identitiesByIdk={}", shardNameList,
+				identitiesByIdk);
+	}
+
+	static List<String> parseShardUnitNames(final String shardUnitNames) {
+		final List<String> shardNameList = new ArrayList<>();
+		final Set<String> seen = new HashSet<>();
+		if (shardUnitNames != null) {
+			for (final String token : shardUnitNames.split(",")) {
+				final String shardName = token.trim();
+				if (shardName.isEmpty()) {
+					continue;
+				}
+				if (!seen.add(shardName)) {
+					throw new SqrlConfigSettingException(
+							"config persistenceShardUnitNames contains duplicate persistence unit " + shardName);
+				}
+				shardNameList.add(shardName);
+			}
+		}
+		if (shardNameList.isEmpty()) {
+			throw new SqrlConfigSettingException(
+					"config persistenceShardUnitNames must be set when using SqrlShardedPersistenceFactory");
+		}
+		return shardNameList;
+	}
+
+	@Override
+	public SqrlPersistence createSqrlPersistence() {
+		if (shardRing == null) {
+			throw new SqrlIllegalStateException("SqrlShardedPersistenceFactory.initSqrl() has not been called");
+		}
+		return new SqrlShardedPersistence(this);
+	}
+
+	@Override
+	public Class<? extends Runnable> getCleanupTaskClass() {
+		return SqrlJpaEntityManagerMonitorTask.class;
+	}
+
+	List<EntityManagerFactory> getShardEntityManagerFactoryList() {
+		return shardEntityManagerFactoryList;
+	}
+
+	SqrlShardRing getShardRing() {
+		return shardRing;
+	}
+
+	SqrlIdGenerator getIdGenerator() {
+		return idGenerator;
+	}
+
+	boolean isIdentitiesByIdk() {
+		return identitiesByIdk;
+	}
+
+	ExecutorService getScatterExecutor() {
+		return scatterExecutor;
+	}
+
+	/**
+	 * Stops the shard query threads, registered with {@link com.github.sqrlserverjava.util.SqrlServiceExecutor}
+	 */
+	public void shutdown() {
+		if (scatterExecutor != null) {
+			scatterExecutor.shutdown();
+		}
+	}
+}
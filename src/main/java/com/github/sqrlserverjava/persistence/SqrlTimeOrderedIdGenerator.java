@@ -0,0 +1,72 @@
+package com.github.sqrlserverjava.persistence;
+
+/**
+ * Computes time ordered 64 bit ids without any database access: 41 bits of milliseconds since 2017-01-01 UTC, a 10 bit
+ * node id and a 12 bit per millisecond counter. Ids are unique as long as each server in a cluster has a unique node
+ * id.
+ * <p>
+ * If the clock moves backwards, or more than 4096 ids are requested in one millisecond, the generator borrows from the
+ * next millisecond instead of blocking so ids are always increasing
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlTimeOrderedIdGenerator implements SqrlIdGenerator {
+	static final long			EPOCH_MILLIS	= 1483228800000L;	// 2017-01-01T00:00:00Z
+	static final int			NODE_ID_BITS	= 10;
+	static final int			SEQUENCE_BITS	= 12;
+	static final int			MAX_NODE_ID		= (1 << NODE_ID_BITS) - 1;
+	private static final int	MAX_SEQUENCE	= (1 << SEQUENCE_BITS) - 1;
+
+	private final long	nodeIdBits;
+	private long		lastTimestamp	= -1;
+	private int			sequence		= 0;
+
+	public SqrlTimeOrderedIdGenerator(final int nodeId) {
+		if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+			throw new IllegalArgumentException("nodeId must be between 0 and " + MAX_NODE_ID);
+		}
+		this.nodeIdBits = ((long) nodeId) << SEQUENCE_BITS;
+	}
+
+	/**
+	 * All sequences share the same id space since every id is unique
+	 */
+	@Override
+	public synchronized long nextId(final String sequenceName) {
+		final long now = currentTimeMillis();
+		if (now > lastTimestamp) {
+			lastTimestamp = now;
+			sequence = 0;
+		} else if (sequence < MAX_SEQUENCE) {
+			sequence++;
+		} else {
+			lastTimestamp++;
+			sequence = 0;
+		}
+		return ((lastTimestamp - EPOCH_MILLIS) << (NODE_ID_BITS + SEQUENCE_BITS)) | nodeIdBits | sequence;
+	}
+
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the time at which the given id was generated, in millis since the epoch
+	 */
+	public static long extractTimestamp(final long id) {
+		return (id >>> (NODE_ID_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+	}
+
+	/**
+	 * @return the smallest id which can be generated at the given time, in millis since the epoch
+	 */
+	public static long firstIdAt(final long timeMillis) {
+		return Math.max(0, timeMillis - EPOCH_MILLIS) << (NODE_ID_BITS + SEQUENCE_BITS);
+	}
+
+	@Override
+	public String toString() {
+		return "SqrlTimeOrderedIdGenerator [nodeId=" + (nodeIdBits >>> SEQUENCE_BITS) + "]";
+	}
+}
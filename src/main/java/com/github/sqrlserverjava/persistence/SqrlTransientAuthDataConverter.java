@@ -0,0 +1,66 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * Converts the transient auth data of a {@link SqrlCorrelator} to and from a compact, length prefixed single column
+ * format: <code>&lt;nameLength&gt;:&lt;name&gt;&lt;valueLength&gt;:&lt;value&gt;</code> repeated for each entry. Since
+ * lengths are explicit, names and values may contain any character
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlTransientAuthDataConverter {
+	private static final char SEPARATOR = ':';
+
+	private SqrlTransientAuthDataConverter() {
+		// Static use only
+	}
+
+	public static String encode(final Map<String, String> dataTable) {
+		final StringBuilder buf = new StringBuilder(128);
+		for (final Map.Entry<String, String> entry : dataTable.entrySet()) {
+			appendItem(buf, entry.getKey());
+			appendItem(buf, entry.getValue());
+		}
+		return buf.toString();
+	}
+
+	private static void appendItem(final StringBuilder buf, final String item) {
+		buf.append(item.length()).append(SEPARATOR).append(item);
+	}
+
+	public static Map<String, String> decode(final String encoded) {
+		final Map<String, String> dataTable = new HashMap<>();
+		int index = 0;
+		while (index < encoded.length()) {
+			final String[] holder = new String[1];
+			index = readItem(encoded, index, holder);
+			final String name = holder[0];
+			index = readItem(encoded, index, holder);
+			dataTable.put(name, holder[0]);
+		}
+		return dataTable;
+	}
+
+	/**
+	 * @return the index immediately after the item that was read
+	 */
+	private static int readItem(final String encoded, final int start, final String[] holder) {
+		final int separatorIndex = encoded.indexOf(SEPARATOR, start);
+		if (separatorIndex < 0) {
+			throw new SqrlPersistenceException("Invalid transient auth data encoding at index " + start);
+		}
+		try {
+			final int length = Integer.parseInt(encoded.substring(start, separatorIndex));
+			final int end = separatorIndex + 1 + length;
+			holder[0] = encoded.substring(separatorIndex + 1, end);
+			return end;
+		} catch (final NumberFormatException | IndexOutOfBoundsException e) {
+			throw new SqrlPersistenceException("Invalid transient auth data encoding at index " + start);
+		}
+	}
+}
@@ -6,15 +6,28 @@ import java.util.Date;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
+@NamedQueries({
+		@NamedQuery(name = SqrlUsedNutToken.QUERY_DELETE_EXPIRED,
+		query = "DELETE FROM SqrlUsedNutToken i WHERE i.expiryTime < :now"),
+		@NamedQuery(name = SqrlUsedNutToken.QUERY_VALUES_EXPIRED,
+		query = "SELECT t.value FROM SqrlUsedNutToken t WHERE t.expiryTime < :now"),
+		@NamedQuery(name = SqrlUsedNutToken.QUERY_DELETE_BY_VALUE_LIST,
+		query = "DELETE FROM SqrlUsedNutToken t WHERE t.value IN :valueList") })
 @Entity
 @Table(name = "sqrl_used_nut_token")
 public class SqrlUsedNutToken implements Serializable {
 	private static final long serialVersionUID = 9159251149539334522L;
 
+	static final String	QUERY_DELETE_EXPIRED		= "SqrlUsedNutToken.deleteExpired";
+	static final String	QUERY_VALUES_EXPIRED		= "SqrlUsedNutToken.valuesExpired";
+	static final String	QUERY_DELETE_BY_VALUE_LIST	= "SqrlUsedNutToken.deleteByValueList";
+
 	@Id
 	@Column(name = "value", nullable = false)
 	private String value;
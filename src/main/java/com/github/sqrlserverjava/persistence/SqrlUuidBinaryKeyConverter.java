@@ -0,0 +1,53 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * Stores a UUID correlator string as a 16 byte BINARY column instead of 36 characters. Applied by
+ * META-INF/sqrl-binary-keys-orm.xml
+ *
+ * @author Dave Badia
+ *
+ */
+@Converter
+public class SqrlUuidBinaryKeyConverter implements AttributeConverter<String, byte[]> {
+	private static final int UUID_BYTE_LENGTH = 16;
+
+	@Override
+	public byte[] convertToDatabaseColumn(final String attribute) {
+		if (attribute == null) {
+			return null;
+		}
+		UUID uuid = null;
+		try {
+			uuid = UUID.fromString(attribute);
+		} catch (final IllegalArgumentException e) {
+			// Handled below
+		}
+		// Only the canonical lower case form survives the round trip unchanged
+		if (uuid == null || !uuid.toString().equals(attribute)) {
+			throw new SqrlPersistenceException("Binary storage keys require UUID correlators, but got " + attribute);
+		}
+		return ByteBuffer.allocate(UUID_BYTE_LENGTH).putLong(uuid.getMostSignificantBits())
+				.putLong(uuid.getLeastSignificantBits()).array();
+	}
+
+	@Override
+	public String convertToEntityAttribute(final byte[] dbData) {
+		if (dbData == null) {
+			return null;
+		}
+		if (dbData.length != UUID_BYTE_LENGTH) {
+			throw new SqrlPersistenceException("Expected " + UUID_BYTE_LENGTH + " byte correlator but found "
+					+ dbData.length);
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(dbData);
+		return new UUID(buffer.getLong(), buffer.getLong()).toString();
+	}
+}
@@ -0,0 +1,143 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.SqrlConfig;
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.util.SqrlServiceExecutor;
+
+/**
+ * Holds non-critical writes so they can be made outside of the request transaction. Writes are coalesced per
+ * correlator, so each is written once, and are flushed in a single transaction every
+ * {@link SqrlConfig#getWriteBehindFlushMillis()} and when {@link SqrlServiceExecutor} shuts down.
+ * <p>
+ * Durability contract; queued writes are made at most once and are lost if the JVM stops without a clean shutdown or
+ * the flush fails:
+ * <ul>
+ * <li>{@link SqrlAuthenticationStatus#COMMUNICATING}: only applied to correlators which are still
+ * {@link SqrlAuthenticationStatus#CORRELATOR_ISSUED} so it can never overwrite a later state. This marks a SQRL
+ * client's first contact and is only ever made through this queue, it is not a deferred request write. Losing it
+ * only affects the progress shown on the login page and how quickly other nodes notice the correlator</li>
+ * </ul>
+ * Writes which protect against replay, change what the server enforces (such as the SQRLONLY and HARDLOCK opt flags)
+ * or record the outcome of authentication, such as {@link SqrlPersistence#markTokenAsUsed(String, java.util.Date)},
+ * are never queued.
+ * <p>
+ * The queue methods return false once {@link SqrlConfig#getWriteBehindMaxPending()} writes are pending or after
+ * shutdown, in which case the write is dropped
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlWriteBehindQueue implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlWriteBehindQueue.class);
+
+	private final SqrlPersistenceFactory	persistenceFactory;
+	private final int						maxPending;
+	private final Object					lock	= new Object();
+
+	/**
+	 * Guarded by lock, swapped out on each flush
+	 */
+	private Set<String>	communicatingCorrelatorSet	= new HashSet<>();
+	private int			pendingCount				= 0;
+	private boolean		shutdown					= false;
+
+	public SqrlWriteBehindQueue(final SqrlPersistenceFactory persistenceFactory, final int maxPending) {
+		this.persistenceFactory = persistenceFactory;
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Queues a change from {@link SqrlAuthenticationStatus#CORRELATOR_ISSUED} to
+	 * {@link SqrlAuthenticationStatus#COMMUNICATING}
+	 *
+	 * @return true if the write was queued, false if it was dropped
+	 */
+	public boolean queueCorrelatorCommunicating(final String correlatorString) {
+		synchronized (lock) {
+			final boolean coalesced = communicatingCorrelatorSet.contains(correlatorString);
+			if (shutdown || (!coalesced && pendingCount >= maxPending)) {
+				return false;
+			}
+			if (!coalesced) {
+				communicatingCorrelatorSet.add(correlatorString);
+				pendingCount++;
+			}
+			return true;
+		}
+	}
+
+	public int getPendingCount() {
+		synchronized (lock) {
+			return pendingCount;
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			flush();
+		} catch (final RuntimeException e) {
+			// Never let the exception escape, the executor would stop scheduling us
+			logger.error("Error flushing write-behind queue", e);
+		}
+	}
+
+	/**
+	 * Writes everything which is currently pending. Flushes are serialized so writes to the same row are always made
+	 * in the order they were queued
+	 */
+	public synchronized void flush() {
+		final Set<String> correlatorBatch;
+		synchronized (lock) {
+			if (pendingCount == 0) {
+				return;
+			}
+			correlatorBatch = communicatingCorrelatorSet;
+			communicatingCorrelatorSet = new HashSet<>();
+			pendingCount = 0;
+		}
+		flushCorrelatorStatus(correlatorBatch);
+	}
+
+	/**
+	 * Stops accepting writes and flushes anything pending, registered with {@link SqrlServiceExecutor}
+	 */
+	public void shutdown() {
+		synchronized (lock) {
+			shutdown = true;
+		}
+		flush();
+	}
+
+	private void flushCorrelatorStatus(final Set<String> correlatorBatch) {
+		final SqrlPersistence sqrlPersistence = persistenceFactory.createSqrlPersistence();
+		try {
+			final int updated = sqrlPersistence.updateSqrlCorrelatorStatus(correlatorBatch,
+					SqrlAuthenticationStatus.CORRELATOR_ISSUED, SqrlAuthenticationStatus.COMMUNICATING);
+			sqrlPersistence.closeCommit();
+			logger.debug("Write-behind set {} of {} correlators to COMMUNICATING", updated, correlatorBatch.size());
+		} catch (final RuntimeException e) {
+			closeRollbackQuietly(sqrlPersistence);
+			logger.warn("Write-behind flush of COMMUNICATING status for {} correlators failed: {}",
+					correlatorBatch.size(), e.getMessage());
+		}
+	}
+
+	private static void closeRollbackQuietly(final SqrlPersistence sqrlPersistence) {
+		try {
+			if (!sqrlPersistence.isClosed()) {
+				sqrlPersistence.closeRollback();
+			}
+		} catch (final RuntimeException e) {
+			logger.warn("Error rolling back write-behind flush", e);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.github.sqrlserverjava.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A simple, thread safe, size bounded cache whose entries expire a fixed amount of time after they were inserted.
+ * When the cache is full the least recently used entry is evicted.
+ * <p>
+ * Unlike {@link SelfExpiringHashMap}, expiry is checked lazily on access so there is no background work and no
+ * per-call cleanup pass
+ *
+ * @author Dave Badia
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public class BoundedExpiringCache<K, V> {
+	private final int							maxSize;
+	private final long							ttlMillis;
+	private final LinkedHashMap<K, ExpiringValue<V>>	table;
+
+	public BoundedExpiringCache(final int maxSize, final long ttlMillis) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize must be greater than zero");
+		}
+		if (ttlMillis <= 0) {
+			throw new IllegalArgumentException("ttlMillis must be greater than zero");
+		}
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		// access order = true gives us LRU eviction
+		this.table = new LinkedHashMap<K, ExpiringValue<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 6304577137658377208L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<K, ExpiringValue<V>> eldest) {
+				return size() > BoundedExpiringCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @return the value or null if it does not exist or has expired
+	 */
+	public synchronized V get(final K key) {
+		final ExpiringValue<V> expiringValue = table.get(key);
+		if (expiringValue == null) {
+			return null;
+		} else if (expiringValue.isExpired(System.currentTimeMillis())) {
+			table.remove(key);
+			return null;
+		}
+		return expiringValue.value;
+	}
+
+	public synchronized void put(final K key, final V value) {
+		table.put(key, new ExpiringValue<>(value, System.currentTimeMillis() + ttlMillis));
+	}
+
+	public synchronized V remove(final K key) {
+		final ExpiringValue<V> expiringValue = table.remove(key);
+		return expiringValue == null ? null : expiringValue.value;
+	}
+
+	/**
+	 * Removes all entries whose value matches the given predicate. This is a full scan so it should only be used for
+	 * infrequent operations
+	 *
+	 * @return the number of entries removed
+	 */
+	public synchronized int removeIf(final Predicate<V> predicate) {
+		int count = 0;
+		final Iterator<ExpiringValue<V>> iter = table.values().iterator();
+		while (iter.hasNext()) {
+			if (predicate.test(iter.next().value)) {
+				iter.remove();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public synchronized int size() {
+		return table.size();
+	}
+
+	public synchronized void clear() {
+		table.clear();
+	}
+
+	private static class ExpiringValue<V> {
+		private final V		value;
+		private final long	expiresAt;
+
+		private ExpiringValue(final V value, final long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+		private boolean isExpired(final long now) {
+			return now > expiresAt;
+		}
+	}
+}
@@ -42,6 +42,7 @@ public class SqrlConstants {
 	public static final String			TRANSIENT_NAME_SERVER_PARROT		= "lastServerParam";
 	public static final String			TRANSIENT_ENTRY_URL					= "entryPointUrl";
 	public static final String			TRANSIENT_CPS_NONCE					= "cpsNonce";
+	public static final String			TRANSIENT_AUTHENTICATED_IDK			= "authenticatedIdk";
 	public static final String			ERROR								= "error";
 
 	public static final String	REGEX_BASE64_URL	= "[a-zA-Z0-9_-]+";
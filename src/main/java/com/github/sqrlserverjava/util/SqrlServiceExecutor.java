@@ -2,9 +2,11 @@ package com.github.sqrlserverjava.util;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -28,11 +30,23 @@ public class SqrlServiceExecutor implements ServletContextListener {
 	 * SQRL clients
 	 */
 	private static final int						THREAD_COUNT		= 2;
-	private static final ScheduledExecutorService	EXECUTOR_SERVICE	= Executors.newScheduledThreadPool(THREAD_COUNT,
-			new SqrlThreadFactory());
+	private static final ScheduledExecutorService	EXECUTOR_SERVICE	= buildExecutorService();
 
 	@SuppressWarnings("rawtypes")
 	private static List<ScheduledFuture> backgroundTaskList = new ArrayList<>();
+	/**
+	 * Run once, in order, when we shut down; after the background tasks are cancelled
+	 */
+	private static final List<Runnable> shutdownTaskList = new CopyOnWriteArrayList<>();
+
+	private static ScheduledExecutorService buildExecutorService() {
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(THREAD_COUNT,
+				new SqrlThreadFactory());
+		// One-off tasks are rescheduled frequently, don't let cancelled ones pile up or run after shutdown
+		executor.setRemoveOnCancelPolicy(true);
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		return executor;
+	}
 
 	@Override
 	public void contextInitialized(final ServletContextEvent servletContextEvent) {
@@ -48,6 +62,24 @@ public class SqrlServiceExecutor implements ServletContextListener {
 		backgroundTaskList.add(future);
 	}
 
+	/**
+	 * Runs a task once after the given delay. Unlike {@link #scheduleAtFixedRate(Runnable, long, long, TimeUnit)} the
+	 * caller owns the returned future
+	 *
+	 * @throws RejectedExecutionException
+	 *             if we have been shut down
+	 */
+	public ScheduledFuture<?> schedule(final Runnable runnable, final long delay, final TimeUnit unit) {
+		return EXECUTOR_SERVICE.schedule(runnable, delay, unit);
+	}
+
+	/**
+	 * Registers a task, such as flushing queued writes, to be run when the web app is stopped
+	 */
+	public void runOnShutdown(final Runnable runnable) {
+		shutdownTaskList.add(runnable);
+	}
+
 	@Override
 	public void contextDestroyed(final ServletContextEvent servletContextEvent) {
 		logger.info("contextDestroyed invoked");
@@ -61,6 +93,14 @@ public class SqrlServiceExecutor implements ServletContextListener {
 			// @formatter:on
 			backgroundTask.cancel(false);
 		}
+		for (final Runnable shutdownTask : shutdownTaskList) {
+			try {
+				shutdownTask.run();
+			} catch (final RuntimeException e) {
+				logger.error("Error running shutdown task", e);
+			}
+		}
+		shutdownTaskList.clear();
 		EXECUTOR_SERVICE.shutdown();
 	}
 
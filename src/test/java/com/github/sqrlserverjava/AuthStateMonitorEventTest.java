@@ -0,0 +1,68 @@
+package com.github.sqrlserverjava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class AuthStateMonitorEventTest {
+	private final List<String>		pushList	= new ArrayList<>();
+	private SqrlAuthStatusEventBus	eventBus;
+	private AuthStateMonitor		authStateMonitor;
+
+	@Before
+	public void setUp() throws Exception {
+		final SqrlClientAuthStateUpdater recordingUpdater = new SqrlClientAuthStateUpdater() {
+			@Override
+			public void initSqrl(final SqrlServerOperations sqrlServerOperations, final SqrlConfig sqrlConfig,
+					final AuthStateMonitor sqrlAuthStateMonitor) {
+				// Nothing to do
+			}
+
+			@Override
+			public void pushStatusUpdateToBrowser(final String browserId,
+					final SqrlAuthenticationStatus oldAuthStatus, final SqrlAuthenticationStatus newAuthStatus) {
+				pushList.add(browserId + ":" + oldAuthStatus + "->" + newAuthStatus);
+			}
+		};
+		// Events never query persistence so no server operations are needed
+		authStateMonitor = new AuthStateMonitor(TestCaseUtil.buildTestSqrlConfig(), null, recordingUpdater);
+		eventBus = new SqrlAuthStatusEventBus();
+		eventBus.addListener(authStateMonitor);
+	}
+
+	@Test
+	public void testCompleteStatusPushedOnce() {
+		authStateMonitor.monitorCorrelatorForChange("evt1", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		eventBus.publish("evt1", SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+		eventBus.publish("evt1", SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+		assertEquals(1, pushList.size());
+		assertEquals("evt1:CORRELATOR_ISSUED->AUTHENTICATED_BROWSER", pushList.get(0));
+	}
+
+	@Test
+	public void testUnmonitoredAndUnchangedIgnored() {
+		eventBus.publish("notMonitored", SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+		authStateMonitor.monitorCorrelatorForChange("evt2", SqrlAuthenticationStatus.COMMUNICATING);
+		eventBus.publish("evt2", SqrlAuthenticationStatus.COMMUNICATING);
+		assertTrue(pushList.isEmpty());
+	}
+
+	@Test
+	public void testFailingListenerDoesNotStopOthers() {
+		final SqrlAuthStatusEventBus failingFirstBus = new SqrlAuthStatusEventBus();
+		failingFirstBus.addListener((correlator, status) -> {
+			throw new IllegalStateException("test");
+		});
+		failingFirstBus.addListener(authStateMonitor);
+		authStateMonitor.monitorCorrelatorForChange("evt3", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		failingFirstBus.publish("evt3", SqrlAuthenticationStatus.ERROR_BAD_REQUEST);
+		assertEquals(1, pushList.size());
+	}
+}
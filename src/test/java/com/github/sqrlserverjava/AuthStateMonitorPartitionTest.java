@@ -0,0 +1,119 @@
+package com.github.sqrlserverjava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class AuthStateMonitorPartitionTest {
+	private final List<Set<String>>		queriedList	= Collections.synchronizedList(new ArrayList<>());
+	private final SqrlServerOperations	serverOperations;
+	private AuthStateMonitor			monitor;
+
+	@SuppressWarnings("unchecked")
+	public AuthStateMonitorPartitionTest() {
+		serverOperations = Mockito.mock(SqrlServerOperations.class);
+		Mockito.when(serverOperations.fetchSqrlCorrelatorStatusUpdates(Mockito.anyMap())).thenAnswer(invocation -> {
+			queriedList.add(new HashSet<>(((Map<String, SqrlAuthenticationStatus>) invocation.getArguments()[0])
+					.keySet()));
+			return Collections.emptyMap();
+		});
+	}
+
+	@After
+	public void tearDown() {
+		if (monitor != null) {
+			monitor.shutdown();
+		}
+	}
+
+	private AuthStateMonitor buildMonitor(final int partitionCount, final int partitionThreads,
+			final int maxChecksPerPartition, final int correlatorCount) throws Exception {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setAuthSyncCheckInMillis(1);
+		config.setAuthSyncMaxBackoffInMillis(0);
+		config.setAuthSyncPartitionCount(partitionCount);
+		config.setAuthSyncPartitionThreads(partitionThreads);
+		config.setAuthSyncMaxChecksPerPartition(maxChecksPerPartition);
+		monitor = new AuthStateMonitor(config, serverOperations, Mockito.mock(SqrlClientAuthStateUpdater.class));
+		for (int i = 0; i < correlatorCount; i++) {
+			monitor.monitorCorrelatorForChange("correlator" + i, SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		}
+		Thread.sleep(10);
+		return monitor;
+	}
+
+	@Test
+	public void testEachPartitionQueriedSeparately() throws Exception {
+		buildMonitor(4, 2, 4096, 40);
+		monitor.run();
+
+		final Set<String> allQueried = new HashSet<>();
+		for (final Set<String> queried : queriedList) {
+			final Set<Integer> partitionSet = new HashSet<>();
+			for (final String correlator : queried) {
+				partitionSet.add(Math.floorMod(correlator.hashCode(), 4));
+			}
+			assertEquals("Query spans partitions: " + queried, 1, partitionSet.size());
+			allQueried.addAll(queried);
+		}
+		assertEquals(4, queriedList.size());
+		assertEquals(40, allQueried.size());
+		assertEquals(1, monitor.getTickCount());
+		assertEquals(0, monitor.getDeferredCount());
+	}
+
+	@Test
+	public void testChecksOverLimitDeferredToNextRun() throws Exception {
+		buildMonitor(1, 0, 5, 12);
+		monitor.run();
+		assertEquals(1, queriedList.size());
+		assertEquals(5, queriedList.get(0).size());
+		assertEquals(7, monitor.getDeferredCount());
+
+		Thread.sleep(10);
+		monitor.run();
+		assertEquals(2, queriedList.size());
+		// The ones left out were due first, so they go ahead of those just checked
+		final Set<String> overlap = new HashSet<>(queriedList.get(0));
+		overlap.retainAll(queriedList.get(1));
+		assertTrue("Checked twice before others: " + overlap, overlap.isEmpty());
+		assertEquals(2, monitor.getTickCount());
+		assertTrue(monitor.getMaxTickMillis() >= monitor.getLastTickMillis());
+	}
+
+	/**
+	 * A change the feed misses, such as a late commit, must still be found by checking the correlator itself
+	 */
+	@Test
+	public void testChangeFeedSafetyNetRechecksEachCorrelator() throws Exception {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setAuthSyncCheckInMillis(1);
+		config.setAuthSyncMaxBackoffInMillis(0);
+		config.setAuthSyncChangeFeedOverlapMillis(500);
+		monitor = new AuthStateMonitor(config, serverOperations, Mockito.mock(SqrlClientAuthStateUpdater.class));
+		monitor.monitorCorrelatorForChange("feed1", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		monitor.run();
+		assertEquals(Collections.singletonList(Collections.singleton("feed1")), queriedList);
+
+		// Within the safety net interval only the feed is read
+		monitor.run();
+		assertEquals(1, queriedList.size());
+
+		Thread.sleep(600);
+		monitor.run();
+		assertEquals(2, queriedList.size());
+		assertEquals(Collections.singleton("feed1"), queriedList.get(1));
+	}
+}
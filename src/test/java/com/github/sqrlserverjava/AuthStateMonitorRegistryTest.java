@@ -0,0 +1,204 @@
+package com.github.sqrlserverjava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class AuthStateMonitorRegistryTest {
+	private static final int	THREAD_COUNT			= 8;
+	private static final int	KEYS_PER_THREAD			= 200;
+	private static final int	ITERATIONS_PER_THREAD	= 20000;
+
+	private final ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT + 2);
+
+	@After
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+
+	@Test
+	public void testRegisterGetRemove() {
+		final AuthStateMonitorRegistry registry = new AuthStateMonitorRegistry(60000);
+		assertTrue(registry.isEmpty());
+		assertNull(registry.register("a", SqrlAuthenticationStatus.CORRELATOR_ISSUED));
+		assertEquals(SqrlAuthenticationStatus.CORRELATOR_ISSUED,
+				registry.register("a", SqrlAuthenticationStatus.COMMUNICATING));
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, registry.get("a"));
+		assertEquals(1, registry.size());
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, registry.remove("a"));
+		assertNull(registry.remove("a"));
+		assertNull(registry.get("a"));
+		assertTrue(registry.isEmpty());
+	}
+
+	@Test
+	public void testRegisterIfAbsentKeepsExistingStatus() throws Exception {
+		final AuthStateMonitorRegistry registry = new AuthStateMonitorRegistry(60000);
+		assertTrue(registry.registerIfAbsent("a", SqrlAuthenticationStatus.CORRELATOR_ISSUED));
+		assertFalse(registry.registerIfAbsent("a", SqrlAuthenticationStatus.COMMUNICATING));
+		assertEquals(SqrlAuthenticationStatus.CORRELATOR_ISSUED, registry.get("a"));
+		assertEquals(1, registry.snapshot().size());
+
+		// An expired registration is replaced
+		final AuthStateMonitorRegistry shortRegistry = new AuthStateMonitorRegistry(50);
+		shortRegistry.register("a", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		Thread.sleep(100);
+		assertTrue(shortRegistry.registerIfAbsent("a", SqrlAuthenticationStatus.COMMUNICATING));
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, shortRegistry.get("a"));
+	}
+
+	@Test
+	public void testExpiredRegistrationInvisibleThenRemoved() throws Exception {
+		final AuthStateMonitorRegistry registry = new AuthStateMonitorRegistry(50);
+		registry.register("a", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		assertFalse(registry.snapshot().isEmpty());
+		Thread.sleep(100);
+		registry.register("b", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		// Gone before the background task has run
+		assertNull(registry.get("a"));
+		assertFalse(registry.snapshot().containsKey("a"));
+		assertEquals(1, registry.expireEntries());
+		assertEquals(0, registry.expireEntries());
+		assertEquals(SqrlAuthenticationStatus.CORRELATOR_ISSUED, registry.get("b"));
+	}
+
+	@Test
+	public void testSnapshotReusedUntilChanged() {
+		final AuthStateMonitorRegistry registry = new AuthStateMonitorRegistry(60000);
+		registry.register("a", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		final Map<String, SqrlAuthenticationStatus> first = registry.snapshot();
+		assertSame(first, registry.snapshot());
+		registry.register("b", SqrlAuthenticationStatus.COMMUNICATING);
+		final Map<String, SqrlAuthenticationStatus> second = registry.snapshot();
+		assertNotSame(first, second);
+		assertEquals(1, first.size());
+		assertEquals(2, second.size());
+		registry.remove("a");
+		assertEquals(1, registry.snapshot().size());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSnapshotUnmodifiable() {
+		final AuthStateMonitorRegistry registry = new AuthStateMonitorRegistry(60000);
+		registry.snapshot().put("a", SqrlAuthenticationStatus.COMMUNICATING);
+	}
+
+	/**
+	 * Only one of many threads removing a registration may push its final status
+	 */
+	@Test
+	public void testConcurrentRemoveSingleWinner() throws Exception {
+		final AuthStateMonitorRegistry registry = new AuthStateMonitorRegistry(60000);
+		for (int round = 0; round < 500; round++) {
+			registry.register("shared", SqrlAuthenticationStatus.COMMUNICATING);
+			final CountDownLatch startLatch = new CountDownLatch(1);
+			final AtomicInteger winnerCount = new AtomicInteger();
+			final List<Future<?>> futureList = new ArrayList<>();
+			for (int i = 0; i < THREAD_COUNT; i++) {
+				futureList.add(executorService.submit(() -> {
+					startLatch.await();
+					if (registry.remove("shared") != null) {
+						winnerCount.incrementAndGet();
+					}
+					return null;
+				}));
+			}
+			startLatch.countDown();
+			for (final Future<?> future : futureList) {
+				future.get(5, TimeUnit.SECONDS);
+			}
+			assertEquals(1, winnerCount.get());
+		}
+	}
+
+	/**
+	 * Writers register and remove their own correlators while a reader takes snapshots and an expiry pass runs; the
+	 * final contents must be exactly what each writer left behind
+	 */
+	@Test
+	public void testConcurrentRegisterAndRemoveStress() throws Exception {
+		final AuthStateMonitorRegistry registry = new AuthStateMonitorRegistry(60000);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final AtomicBoolean writersDone = new AtomicBoolean(false);
+		final AtomicInteger snapshotCount = new AtomicInteger();
+		final List<Future<?>> writerList = new ArrayList<>();
+		for (int t = 0; t < THREAD_COUNT; t++) {
+			final int thread = t;
+			writerList.add(executorService.submit(() -> {
+				startLatch.await();
+				final ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < ITERATIONS_PER_THREAD; i++) {
+					final String correlator = "t" + thread + "k" + random.nextInt(KEYS_PER_THREAD);
+					if (random.nextBoolean()) {
+						registry.register(correlator, SqrlAuthenticationStatus.COMMUNICATING);
+						assertEquals(SqrlAuthenticationStatus.COMMUNICATING, registry.get(correlator));
+					} else {
+						registry.remove(correlator);
+						assertNull(registry.get(correlator));
+					}
+				}
+				// Leave even keys registered and odd keys removed
+				for (int k = 0; k < KEYS_PER_THREAD; k++) {
+					if (k % 2 == 0) {
+						registry.register("t" + thread + "k" + k, SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+					} else {
+						registry.remove("t" + thread + "k" + k);
+					}
+				}
+				return null;
+			}));
+		}
+		final Future<?> reader = executorService.submit(() -> {
+			startLatch.await();
+			while (!writersDone.get()) {
+				for (final Map.Entry<String, SqrlAuthenticationStatus> entry : registry.snapshot().entrySet()) {
+					assertTrue(entry.getKey().startsWith("t"));
+					assertTrue(entry.getValue() != null);
+				}
+				registry.expireEntries();
+				snapshotCount.incrementAndGet();
+			}
+			return null;
+		});
+		startLatch.countDown();
+		for (final Future<?> writer : writerList) {
+			writer.get(60, TimeUnit.SECONDS);
+		}
+		writersDone.set(true);
+		reader.get(10, TimeUnit.SECONDS);
+
+		final Map<String, SqrlAuthenticationStatus> snapshot = registry.snapshot();
+		assertEquals(THREAD_COUNT * KEYS_PER_THREAD / 2, snapshot.size());
+		for (int t = 0; t < THREAD_COUNT; t++) {
+			for (int k = 0; k < KEYS_PER_THREAD; k++) {
+				final String correlator = "t" + t + "k" + k;
+				if (k % 2 == 0) {
+					assertEquals(correlator, SqrlAuthenticationStatus.CORRELATOR_ISSUED, snapshot.get(correlator));
+				} else {
+					assertFalse(correlator, snapshot.containsKey(correlator));
+				}
+			}
+		}
+		assertTrue(snapshotCount.get() > 0);
+	}
+}
@@ -0,0 +1,89 @@
+package com.github.sqrlserverjava;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class AuthStatePollingPolicyTest {
+	@Test
+	public void testCommunicatingPolledEveryTick() {
+		final AuthStatePollingPolicy policy = new AuthStatePollingPolicy(500, 5000);
+		assertEquals(500, policy.computePollIntervalMillis(SqrlAuthenticationStatus.COMMUNICATING, 0));
+		assertEquals(500, policy.computePollIntervalMillis(SqrlAuthenticationStatus.COMMUNICATING, 600000));
+	}
+
+	@Test
+	public void testIssuedBacksOffWithAge() {
+		final AuthStatePollingPolicy policy = new AuthStatePollingPolicy(500, 5000);
+		assertEquals(1000, policy.computePollIntervalMillis(SqrlAuthenticationStatus.CORRELATOR_ISSUED, 0));
+		assertEquals(4000, policy.computePollIntervalMillis(SqrlAuthenticationStatus.CORRELATOR_ISSUED, 30000));
+		assertEquals(5000, policy.computePollIntervalMillis(SqrlAuthenticationStatus.CORRELATOR_ISSUED, 600000));
+	}
+
+	@Test
+	public void testZeroMaxDisablesBackoff() {
+		final AuthStatePollingPolicy policy = new AuthStatePollingPolicy(500, 0);
+		assertEquals(500, policy.computePollIntervalMillis(SqrlAuthenticationStatus.CORRELATOR_ISSUED, 0));
+		assertEquals(500, policy.computePollIntervalMillis(SqrlAuthenticationStatus.CORRELATOR_ISSUED, 600000));
+	}
+
+	@Test
+	public void testFromConfig_noBackoffByDefault() throws Exception {
+		final AuthStatePollingPolicy policy = AuthStatePollingPolicy.fromConfig(TestCaseUtil.buildTestSqrlConfig());
+		assertEquals(policy.getTickMillis(), policy.getMaxIntervalMillis());
+		assertEquals(policy.getTickMillis(),
+				policy.computePollIntervalMillis(SqrlAuthenticationStatus.CORRELATOR_ISSUED, 600000));
+	}
+
+	@Test
+	public void testFromConfig_safetyNetIsTick() throws Exception {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setAuthSyncSafetyNetInMillis(3000);
+		config.setAuthSyncMaxBackoffInMillis(5000);
+		final AuthStatePollingPolicy policy = AuthStatePollingPolicy.fromConfig(config);
+		assertEquals(3000, policy.getTickMillis());
+		assertEquals(5000, policy.getMaxIntervalMillis());
+	}
+
+	@Test
+	public void testMonitorOnlyQueriesDueCorrelators() throws Exception {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setAuthSyncCheckInMillis(60000);
+		config.setAuthSyncMaxBackoffInMillis(60000);
+		final SqrlServerOperations serverOperations = Mockito.mock(SqrlServerOperations.class);
+		Mockito.when(serverOperations.fetchSqrlCorrelatorStatusUpdates(Mockito.anyMap()))
+				.thenReturn(Collections.emptyMap());
+		final AuthStateMonitor monitor = new AuthStateMonitor(config, serverOperations,
+				Mockito.mock(SqrlClientAuthStateUpdater.class));
+		monitor.monitorCorrelatorForChange("poll1", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		// Not due for another 2 ticks
+		monitor.run();
+		Mockito.verify(serverOperations, Mockito.never()).fetchSqrlCorrelatorStatusUpdates(Mockito.anyMap());
+	}
+
+	@Test
+	public void testMonitorQueriesDueCorrelators() throws Exception {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setAuthSyncCheckInMillis(1);
+		config.setAuthSyncMaxBackoffInMillis(0);
+		final SqrlServerOperations serverOperations = Mockito.mock(SqrlServerOperations.class);
+		Mockito.when(serverOperations.fetchSqrlCorrelatorStatusUpdates(Mockito.anyMap()))
+				.thenReturn(Collections.singletonMap("poll2", SqrlAuthenticationStatus.COMMUNICATING));
+		final SqrlClientAuthStateUpdater updater = Mockito.mock(SqrlClientAuthStateUpdater.class);
+		final AuthStateMonitor monitor = new AuthStateMonitor(config, serverOperations, updater);
+		monitor.monitorCorrelatorForChange("poll2", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		Thread.sleep(10);
+		monitor.run();
+		final Map<String, SqrlAuthenticationStatus> expected = Collections.singletonMap("poll2",
+				SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		Mockito.verify(serverOperations).fetchSqrlCorrelatorStatusUpdates(expected);
+		Mockito.verify(updater).pushStatusUpdateToBrowser("poll2", SqrlAuthenticationStatus.CORRELATOR_ISSUED,
+				SqrlAuthenticationStatus.COMMUNICATING);
+	}
+}
@@ -0,0 +1,156 @@
+package com.github.sqrlserverjava;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.github.sqrlserverjava.AuthStateMonitor.CorrelatorPollSchedule;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * Simulates {@link AuthStateMonitor} scheduling for 10k open login pages on a virtual clock and reports persistence
+ * load against the time taken to notice a SQRL client. Run manually; pass the page count as the first argument to
+ * change it.
+ * <p>
+ * Pages open evenly over the first {@link #OPEN_WINDOW_MILLIS} and stay open for the whole run. A fraction of users
+ * scan the QR code after a random delay, the client then communicates for a few seconds before authenticating. Only
+ * polling is modelled, as in a cluster where the SQRL client request lands on another node; with the status event bus
+ * in a single JVM changes are seen immediately regardless of policy.
+ * <p>
+ * Each policy is run twice. By default the server never records COMMUNICATING, so a page goes straight from
+ * CORRELATOR_ISSUED to authenticated and stays backed off until then. With write-behind enabled the first contact is
+ * recorded as COMMUNICATING once the queue is next flushed, which ends the back off
+ */
+public class AuthStatePollingSimulation {
+	private static final long	TICK_MILLIS					= 500;
+	private static final long[]	MAX_BACKOFF_MILLIS			= { 0, 2000, 5000, 10000 };
+	private static final long	OPEN_WINDOW_MILLIS			= 120_000;
+	private static final long	RUN_MILLIS					= 600_000;
+	private static final double	SCAN_FRACTION				= 0.1;
+	/**
+	 * Mirrors SqrlJpaPersistenceProvider.IN_CLAUSE_MAX_CHUNK_SIZE, one query is issued per chunk
+	 */
+	private static final int	IN_CLAUSE_CHUNK				= 512;
+	/**
+	 * writeBehindFlushMillis for the scenario which records COMMUNICATING, -1 for the default which doesn't
+	 */
+	private static final long[]	WRITE_BEHIND_FLUSH_MILLIS	= { -1, 1000 };
+
+	public static void main(final String[] args) {
+		final int pageCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+		System.out.println(String.format("pages=%,d tick=%dms scanFraction=%.2f", pageCount, TICK_MILLIS,
+				SCAN_FRACTION));
+		for (final long writeBehindFlush : WRITE_BEHIND_FLUSH_MILLIS) {
+			System.out.println(writeBehindFlush < 0 ? "COMMUNICATING not recorded (default)"
+					: String.format("COMMUNICATING recorded by write-behind, flush=%dms", writeBehindFlush));
+			for (final long maxBackoff : MAX_BACKOFF_MILLIS) {
+				simulate(pageCount, new AuthStatePollingPolicy(TICK_MILLIS, maxBackoff), writeBehindFlush);
+			}
+		}
+	}
+
+	private static class SimulatedPage {
+		private final long						openAt;
+		private final long						communicatingAt;
+		private final long						authenticatedAt;
+		private CorrelatorPollSchedule			schedule;
+		private SqrlAuthenticationStatus		browserStatus	= SqrlAuthenticationStatus.CORRELATOR_ISSUED;
+		private long							communicatingSeenAt;
+
+		private SimulatedPage(final long openAt, final long communicatingAt, final long authenticatedAt) {
+			this.openAt = openAt;
+			this.communicatingAt = communicatingAt;
+			this.authenticatedAt = authenticatedAt;
+		}
+
+		private SqrlAuthenticationStatus statusAt(final long now) {
+			if (now >= authenticatedAt) {
+				return SqrlAuthenticationStatus.AUTHENTICATED_BROWSER;
+			} else if (now >= communicatingAt) {
+				return SqrlAuthenticationStatus.COMMUNICATING;
+			}
+			return SqrlAuthenticationStatus.CORRELATOR_ISSUED;
+		}
+	}
+
+	private static void simulate(final int pageCount, final AuthStatePollingPolicy policy,
+			final long writeBehindFlush) {
+		// Same seed for every policy so they see identical traffic
+		final Random random = new Random(42);
+		final List<SimulatedPage> pageList = new ArrayList<>(pageCount);
+		for (int i = 0; i < pageCount; i++) {
+			final long openAt = OPEN_WINDOW_MILLIS * i / pageCount;
+			if (random.nextDouble() < SCAN_FRACTION) {
+				final long contactAt = openAt + 5_000 + random.nextInt(55_000);
+				final long authenticatedAt = contactAt + 3_000 + random.nextInt(7_000);
+				// Recorded on the first flush after contact, never if write-behind is off
+				final long communicatingAt = writeBehindFlush < 0 ? Long.MAX_VALUE
+						: (contactAt / writeBehindFlush + 1) * writeBehindFlush;
+				pageList.add(new SimulatedPage(openAt, communicatingAt, authenticatedAt));
+			} else {
+				pageList.add(new SimulatedPage(openAt, Long.MAX_VALUE, Long.MAX_VALUE));
+			}
+		}
+
+		long rowsChecked = 0;
+		long queries = 0;
+		final List<Long> communicatingLatencyList = new ArrayList<>();
+		final List<Long> authLatencyList = new ArrayList<>();
+		for (long now = 0; now < RUN_MILLIS; now += TICK_MILLIS) {
+			int due = 0;
+			for (final SimulatedPage page : pageList) {
+				if (page.openAt > now || page.browserStatus.isUpdatesForThisCorrelatorComplete()) {
+					continue;
+				}
+				if (page.schedule == null) {
+					// Browser registers as soon as the page is open
+					page.schedule = new CorrelatorPollSchedule(page.openAt);
+					page.schedule.statusObserved(page.browserStatus, page.openAt, policy);
+				}
+				if (!page.schedule.pollIfDue(page.browserStatus, now, policy)) {
+					continue;
+				}
+				due++;
+				final SqrlAuthenticationStatus dbStatus = page.statusAt(now);
+				if (dbStatus == page.browserStatus) {
+					continue;
+				}
+				if (dbStatus.isUpdatesForThisCorrelatorComplete()) {
+					authLatencyList.add(now - page.authenticatedAt);
+					if (page.communicatingSeenAt == 0 && page.communicatingAt < page.authenticatedAt) {
+						communicatingLatencyList.add(now - page.communicatingAt);
+					}
+				} else {
+					communicatingLatencyList.add(now - page.communicatingAt);
+					page.communicatingSeenAt = now;
+					// Browser receives the push and re-registers with the new status
+					page.schedule.statusObserved(dbStatus, now, policy);
+				}
+				page.browserStatus = dbStatus;
+			}
+			rowsChecked += due;
+			queries += (due + IN_CLAUSE_CHUNK - 1) / IN_CLAUSE_CHUNK;
+		}
+		final double seconds = RUN_MILLIS / 1000.0;
+		System.out.println(String.format(
+				"maxBackoff=%5dms queries/sec=%6.2f rowsChecked/sec=%,8.0f communicating latency %s auth latency %s",
+				policy.getMaxIntervalMillis(), queries / seconds, rowsChecked / seconds,
+				summarize(communicatingLatencyList), summarize(authLatencyList)));
+	}
+
+	private static String summarize(final List<Long> latencyList) {
+		if (latencyList.isEmpty()) {
+			return "n/a";
+		}
+		final long[] sorted = new long[latencyList.size()];
+		long total = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = latencyList.get(i);
+			total += sorted[i];
+		}
+		Arrays.sort(sorted);
+		return String.format("mean=%dms p95=%dms max=%dms", total / sorted.length,
+				sorted[(int) (sorted.length * 0.95)], sorted[sorted.length - 1]);
+	}
+}
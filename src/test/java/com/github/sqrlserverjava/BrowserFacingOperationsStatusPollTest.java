@@ -0,0 +1,106 @@
+package com.github.sqrlserverjava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.persistence.SqrlAutoCloseablePersistence;
+
+public class BrowserFacingOperationsStatusPollTest {
+	private SqrlConfig				config;
+	private SqrlConfigOperations	configOperations;
+	private BrowserFacingOperations	browserFacingOperations;
+
+	@Before
+	public void setUp() throws Exception {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence()) {
+			sqrlPersistence.createCorrelator("poll1", TestCaseUtil.AWHILE_FROM_NOW);
+			sqrlPersistence.closeCommit();
+		}
+		config = TestCaseUtil.buildTestSqrlConfig();
+		config.setAuthStatusCacheMaxSize(10000);
+		configOperations = TestCaseUtil.buildSqrlConfigOperations(config);
+		browserFacingOperations = new BrowserFacingOperations(config, configOperations);
+	}
+
+	private MockHttpServletResponse poll(final String correlator, final String ifNoneMatch) throws Exception {
+		final MockHttpServletRequest request = new MockHttpServletRequest();
+		if (correlator != null) {
+			request.setCookies(new Cookie(config.getCorrelatorCookieName(), correlator));
+		}
+		if (ifNoneMatch != null) {
+			request.addHeader("If-None-Match", ifNoneMatch);
+		}
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		browserFacingOperations.handleAuthStatusPoll(request, response);
+		return response;
+	}
+
+	@Test
+	public void testUnchangedStatusAnsweredFromCacheWith304() throws Exception {
+		final SqrlCorrelatorStatusCache statusCache = configOperations.getCorrelatorStatusCache();
+		MockHttpServletResponse response = poll("poll1", null);
+		assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		assertEquals("CORRELATOR_ISSUED", response.getContentAsString());
+		final String etag = response.getHeader("ETag");
+		assertEquals("\"CORRELATOR_ISSUED\"", etag);
+		assertEquals(1, statusCache.getMissCount());
+
+		response = poll("poll1", etag);
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+		assertEquals("", response.getContentAsString());
+		assertEquals(etag, response.getHeader("ETag"));
+		assertEquals(1, statusCache.getHitCount());
+		assertEquals(1, statusCache.getMissCount());
+	}
+
+	@Test
+	public void testChangeFromBackchannelUpdatesCache() throws Exception {
+		final String etag = poll("poll1", null).getHeader("ETag");
+		configOperations.getAuthStatusEventBus().publish("poll1", SqrlAuthenticationStatus.COMMUNICATING);
+
+		final MockHttpServletResponse response = poll("poll1", etag);
+		assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		assertEquals("COMMUNICATING", response.getContentAsString());
+		assertEquals("\"COMMUNICATING\"", response.getHeader("ETag"));
+		// Never went back to persistence
+		assertEquals(1, configOperations.getCorrelatorStatusCache().getMissCount());
+	}
+
+	@Test
+	public void testUnknownCorrelatorAndMissingCookie() throws Exception {
+		assertEquals(HttpServletResponse.SC_NOT_FOUND, poll("doesNotExist", null).getStatus());
+		assertEquals(HttpServletResponse.SC_BAD_REQUEST, poll(null, null).getStatus());
+	}
+
+	@Test
+	public void testCacheDisabledReadsPersistence() throws Exception {
+		config.setAuthStatusCacheMaxSize(0);
+		configOperations = TestCaseUtil.buildSqrlConfigOperations(config);
+		browserFacingOperations = new BrowserFacingOperations(config, configOperations);
+		final String etag = poll("poll1", null).getHeader("ETag");
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, poll("poll1", etag).getStatus());
+		assertFalse(configOperations.getCorrelatorStatusCache().isEnabled());
+		assertEquals(0, configOperations.getCorrelatorStatusCache().getHitCount());
+	}
+
+	@Test
+	public void testIsEtagMatch() {
+		final String etag = BrowserFacingOperations.buildStatusEtag(SqrlAuthenticationStatus.COMMUNICATING);
+		assertTrue(BrowserFacingOperations.isEtagMatch(etag, etag));
+		assertTrue(BrowserFacingOperations.isEtagMatch("\"other\", W/" + etag, etag));
+		assertTrue(BrowserFacingOperations.isEtagMatch("*", etag));
+		assertFalse(BrowserFacingOperations.isEtagMatch("\"CORRELATOR_ISSUED\"", etag));
+		assertFalse(BrowserFacingOperations.isEtagMatch(null, etag));
+		assertFalse(BrowserFacingOperations.isEtagMatch(" ", etag));
+	}
+}
@@ -0,0 +1,112 @@
+package com.github.sqrlserverjava;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class SqrlAsyncStatusRegistryTest {
+	private SqrlAsyncStatusRegistry	registry;
+	private AuthStateMonitor		authStateMonitor;
+
+	@Before
+	public void setUp() throws Exception {
+		registry = new SqrlAsyncStatusRegistry();
+		final SqrlClientAuthStateUpdater updater = new SqrlClientAuthStateUpdater() {
+			@Override
+			public void initSqrl(final SqrlServerOperations sqrlServerOperations, final SqrlConfig sqrlConfig,
+					final AuthStateMonitor sqrlAuthStateMonitor) {
+				registry.setAuthStateMonitor(sqrlAuthStateMonitor);
+			}
+
+			@Override
+			public void pushStatusUpdateToBrowser(final String browserId,
+					final SqrlAuthenticationStatus oldAuthStatus, final SqrlAuthenticationStatus newAuthStatus) {
+				registry.statusChanged(browserId, newAuthStatus);
+			}
+		};
+		// Only status events are used so no server operations are needed
+		authStateMonitor = new AuthStateMonitor(TestCaseUtil.buildTestSqrlConfig(), null, updater);
+		updater.initSqrl(null, null, authStateMonitor);
+	}
+
+	private static class MockParkedRequest {
+		private final HttpServletRequest	request			= Mockito.mock(HttpServletRequest.class);
+		private final HttpServletResponse	response		= Mockito.mock(HttpServletResponse.class);
+		private final AsyncContext			asyncContext	= Mockito.mock(AsyncContext.class);
+		private final StringWriter			body			= new StringWriter();
+
+		private MockParkedRequest() throws Exception {
+			Mockito.when(request.startAsync(request, response)).thenReturn(asyncContext);
+			Mockito.when(asyncContext.getResponse()).thenReturn(response);
+			Mockito.when(response.getWriter()).thenReturn(new PrintWriter(body));
+		}
+	}
+
+	private MockParkedRequest park(final String correlator, final boolean eventStream) throws Exception {
+		final MockParkedRequest parked = new MockParkedRequest();
+		registry.park(parked.request, parked.response, correlator, SqrlAuthenticationStatus.CORRELATOR_ISSUED,
+				eventStream, 30000);
+		return parked;
+	}
+
+	@Test
+	public void testLongPollAnsweredOnce() throws Exception {
+		final MockParkedRequest parked = park("async1", false);
+		assertEquals(1, registry.getParkedCount());
+		Mockito.verify(parked.asyncContext).setTimeout(30000);
+		authStateMonitor.authStatusChanged("async1", SqrlAuthenticationStatus.COMMUNICATING);
+		assertEquals("COMMUNICATING", parked.body.toString());
+		Mockito.verify(parked.asyncContext).complete();
+		assertEquals(0, registry.getParkedCount());
+	}
+
+	@Test
+	public void testEventStreamStaysOpenUntilFinalStatus() throws Exception {
+		final MockParkedRequest parked = park("async2", true);
+		Mockito.verify(parked.response).setContentType(SqrlAsyncStatusRegistry.CONTENT_TYPE_EVENT_STREAM);
+		authStateMonitor.authStatusChanged("async2", SqrlAuthenticationStatus.COMMUNICATING);
+		Mockito.verify(parked.asyncContext, Mockito.never()).complete();
+		assertEquals(1, registry.getParkedCount());
+		authStateMonitor.authStatusChanged("async2", SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+		assertEquals("event: status\ndata: COMMUNICATING\n\nevent: status\ndata: AUTHENTICATED_BROWSER\n\n",
+				parked.body.toString());
+		Mockito.verify(parked.asyncContext).complete();
+		assertEquals(0, registry.getParkedCount());
+	}
+
+	@Test
+	public void testThousandsParked() throws Exception {
+		final int count = 2000;
+		final MockParkedRequest[] parkedArray = new MockParkedRequest[count];
+		for (int i = 0; i < count; i++) {
+			parkedArray[i] = park("many" + i, false);
+		}
+		assertEquals(count, registry.getParkedCount());
+		for (int i = 0; i < count; i++) {
+			authStateMonitor.authStatusChanged("many" + i, SqrlAuthenticationStatus.AUTHENTICATED_CPS);
+		}
+		assertEquals(0, registry.getParkedCount());
+		for (final MockParkedRequest parked : parkedArray) {
+			assertEquals("AUTHENTICATED_CPS", parked.body.toString());
+		}
+	}
+
+	@Test
+	public void testUnknownCorrelatorIgnored() throws Exception {
+		final MockParkedRequest parked = park("async3", false);
+		registry.statusChanged("other", SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+		assertEquals("", parked.body.toString());
+		assertEquals(1, registry.getParkedCount());
+	}
+}
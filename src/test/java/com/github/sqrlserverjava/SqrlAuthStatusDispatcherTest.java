@@ -0,0 +1,145 @@
+package com.github.sqrlserverjava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class SqrlAuthStatusDispatcherTest {
+	private final List<String>			batchList		= Collections.synchronizedList(new ArrayList<>());
+	private final List<String>			threadNameList	= Collections.synchronizedList(new ArrayList<>());
+	private final CountDownLatch		firstEntered	= new CountDownLatch(1);
+	private final CountDownLatch		releaseFirst	= new CountDownLatch(1);
+	private SqrlAuthStatusDispatcher	dispatcher;
+
+	/**
+	 * Records each batch; the first batch blocks until released, like an updater writing to a stalled socket
+	 */
+	private final SqrlBatchClientAuthStateUpdater blockingUpdater = new SqrlBatchClientAuthStateUpdater() {
+		private final AtomicBoolean first = new AtomicBoolean(true);
+
+		@Override
+		public void initSqrl(final SqrlServerOperations sqrlServerOperations, final SqrlConfig sqrlConfig,
+				final AuthStateMonitor sqrlAuthStateMonitor) {
+			// Nothing to do
+		}
+
+		@Override
+		public void pushStatusUpdatesToBrowsers(final List<SqrlAuthStatusUpdate> updateList) {
+			if (first.getAndSet(false)) {
+				firstEntered.countDown();
+				try {
+					releaseFirst.await(5, TimeUnit.SECONDS);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			batchList.add(updateList.toString());
+			threadNameList.add(Thread.currentThread().getName());
+		}
+	};
+
+	@After
+	public void tearDown() {
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+		}
+	}
+
+	private static SqrlAuthStatusUpdate update(final String correlator, final SqrlAuthenticationStatus oldStatus,
+			final SqrlAuthenticationStatus newStatus) {
+		return new SqrlAuthStatusUpdate(correlator, oldStatus, newStatus, System.currentTimeMillis());
+	}
+
+	private void waitForDispatched(final long count) throws InterruptedException {
+		final long giveUpAt = System.currentTimeMillis() + 5000;
+		while (dispatcher.getDispatchedCount() < count && System.currentTimeMillis() < giveUpAt) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, dispatcher.getDispatchedCount());
+	}
+
+	@Test
+	public void testInlineThroughSingleItemAdapter() {
+		final List<String> pushList = new ArrayList<>();
+		final SqrlClientAuthStateUpdater singleItemUpdater = new SqrlClientAuthStateUpdater() {
+			@Override
+			public void initSqrl(final SqrlServerOperations sqrlServerOperations, final SqrlConfig sqrlConfig,
+					final AuthStateMonitor sqrlAuthStateMonitor) {
+				// Nothing to do
+			}
+
+			@Override
+			public void pushStatusUpdateToBrowser(final String browserId,
+					final SqrlAuthenticationStatus oldAuthStatus, final SqrlAuthenticationStatus newAuthStatus) {
+				if ("bad".equals(browserId)) {
+					throw new IllegalStateException("test");
+				}
+				pushList.add(browserId + ":" + newAuthStatus);
+			}
+		};
+		dispatcher = new SqrlAuthStatusDispatcher(SqrlSingleItemAuthStateUpdaterAdapter.of(singleItemUpdater), 0,
+				10);
+		dispatcher.dispatch(Arrays.asList(
+				update("one", SqrlAuthenticationStatus.CORRELATOR_ISSUED, SqrlAuthenticationStatus.COMMUNICATING),
+				update("bad", SqrlAuthenticationStatus.CORRELATOR_ISSUED, SqrlAuthenticationStatus.COMMUNICATING),
+				update("two", SqrlAuthenticationStatus.COMMUNICATING, SqrlAuthenticationStatus.AUTHENTICATED_CPS)));
+		// Delivered before dispatch returns, a failing browser doesn't stop the rest
+		assertEquals(Arrays.asList("one:COMMUNICATING", "two:AUTHENTICATED_CPS"), pushList);
+		assertEquals(1, dispatcher.getBatchCount());
+		assertEquals(3, dispatcher.getDispatchedCount());
+	}
+
+	@Test
+	public void testSlowUpdaterDoesNotBlockCaller() throws Exception {
+		dispatcher = new SqrlAuthStatusDispatcher(blockingUpdater, 1, 100);
+		dispatcher.dispatch(
+				update("a", SqrlAuthenticationStatus.CORRELATOR_ISSUED, SqrlAuthenticationStatus.COMMUNICATING));
+		assertTrue(firstEntered.await(5, TimeUnit.SECONDS));
+
+		// Both return while the first batch is stuck; the two changes to b are merged
+		dispatcher.dispatch(
+				update("b", SqrlAuthenticationStatus.CORRELATOR_ISSUED, SqrlAuthenticationStatus.COMMUNICATING));
+		dispatcher.dispatch(Arrays.asList(
+				update("a", SqrlAuthenticationStatus.COMMUNICATING, SqrlAuthenticationStatus.AUTHENTICATED_BROWSER),
+				update("b", SqrlAuthenticationStatus.COMMUNICATING, SqrlAuthenticationStatus.AUTHENTICATED_CPS)));
+		assertEquals(2, dispatcher.getQueuedCount());
+		Thread.sleep(50);
+		releaseFirst.countDown();
+
+		waitForDispatched(3);
+		assertEquals(Arrays.asList("[a:CORRELATOR_ISSUED->COMMUNICATING]",
+				"[b:CORRELATOR_ISSUED->AUTHENTICATED_CPS, a:COMMUNICATING->AUTHENTICATED_BROWSER]"), batchList);
+		assertEquals(0, dispatcher.getQueuedCount());
+		assertEquals(0, dispatcher.getOverflowCount());
+		assertTrue(dispatcher.getMaxLagMillis() >= 50);
+	}
+
+	@Test
+	public void testFullQueueDeliveredOnCaller() throws Exception {
+		dispatcher = new SqrlAuthStatusDispatcher(blockingUpdater, 1, 1);
+		dispatcher.dispatch(
+				update("a", SqrlAuthenticationStatus.CORRELATOR_ISSUED, SqrlAuthenticationStatus.COMMUNICATING));
+		assertTrue(firstEntered.await(5, TimeUnit.SECONDS));
+		dispatcher.dispatch(
+				update("b", SqrlAuthenticationStatus.CORRELATOR_ISSUED, SqrlAuthenticationStatus.COMMUNICATING));
+		dispatcher.dispatch(
+				update("c", SqrlAuthenticationStatus.CORRELATOR_ISSUED, SqrlAuthenticationStatus.COMMUNICATING));
+		assertEquals(1, dispatcher.getOverflowCount());
+		assertEquals(Collections.singletonList("[c:CORRELATOR_ISSUED->COMMUNICATING]"), batchList);
+		assertEquals(Thread.currentThread().getName(), threadNameList.get(0));
+		releaseFirst.countDown();
+		waitForDispatched(3);
+	}
+}
@@ -0,0 +1,158 @@
+package com.github.sqrlserverjava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class SqrlClusterStatusPollerTest {
+	private static final long LEASE_MILLIS = 3000;
+
+	private final AtomicInteger							feedReadCount	= new AtomicInteger();
+	private final Map<String, SqrlAuthenticationStatus>	changedTable	= new HashMap<>();
+	private final List<TestNode>						nodeList		= new ArrayList<>();
+	private SqrlConfig									config;
+	private SqrlServerOperations						sqrlServerOperations;
+	private long										now;
+
+	@Before
+	public void setUp() throws Exception {
+		config = TestCaseUtil.buildTestSqrlConfig();
+		config.setAuthSyncChangeFeedOverlapMillis(1000);
+		config.setAuthSyncClusterLeaseMillis(LEASE_MILLIS);
+		now = System.currentTimeMillis();
+		// Leases are real, reads of the change feed are counted
+		sqrlServerOperations = Mockito.mock(SqrlServerOperations.class);
+		Mockito.when(sqrlServerOperations.compareAndSetLease(Mockito.anyString(), Mockito.anyLong(),
+				Mockito.anyLong(), Mockito.anyLong())).thenAnswer(invocation -> {
+					final Object[] args = invocation.getArguments();
+					final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+					final boolean result = sqrlPersistence.compareAndSetLease((String) args[0], (Long) args[1],
+							(Long) args[2], (Long) args[3]);
+					sqrlPersistence.closeCommit();
+					return result;
+				});
+		Mockito.when(sqrlServerOperations.fetchSqrlCorrelatorStatusChangedSince(Mockito.anyLong()))
+		.thenAnswer(invocation -> {
+			feedReadCount.incrementAndGet();
+			// Each change is only read once, as if the overlap window had passed
+			final Map<String, SqrlAuthenticationStatus> resultTable = new HashMap<>(changedTable);
+			changedTable.clear();
+			return resultTable;
+		});
+		// Free the lease left by a previous test
+		sqrlServerOperations.compareAndSetLease(SqrlClusterStatusPoller.LEASE_NAME, 0, Long.MAX_VALUE, 0);
+	}
+
+	@After
+	public void tearDown() {
+		for (final TestNode node : nodeList) {
+			node.transport.shutdown();
+		}
+	}
+
+	private class TestNode {
+		private final List<String>					pushList	= new ArrayList<>();
+		private final AuthStateMonitor				authStateMonitor;
+		private final SqrlClusterStatusTransport	transport	= new SqrlInJvmClusterStatusTransport();
+		private final SqrlClusterStatusPoller		poller;
+
+		private TestNode() {
+			final SqrlClientAuthStateUpdater recordingUpdater = new SqrlClientAuthStateUpdater() {
+				@Override
+				public void initSqrl(final SqrlServerOperations sqrlServerOperations, final SqrlConfig sqrlConfig,
+						final AuthStateMonitor sqrlAuthStateMonitor) {
+					// Nothing to do
+				}
+
+				@Override
+				public void pushStatusUpdateToBrowser(final String browserId,
+						final SqrlAuthenticationStatus oldAuthStatus, final SqrlAuthenticationStatus newAuthStatus) {
+					pushList.add(browserId + ":" + newAuthStatus);
+				}
+			};
+			authStateMonitor = new AuthStateMonitor(config, sqrlServerOperations, recordingUpdater);
+			transport.init(config);
+			poller = new SqrlClusterStatusPoller(config, sqrlServerOperations, authStateMonitor, transport) {
+				@Override
+				long currentTimeMillis() {
+					return now;
+				}
+			};
+			nodeList.add(this);
+		}
+	}
+
+	@Test
+	public void testOnlyLeaderReadsFeed() {
+		final TestNode nodeA = new TestNode();
+		final TestNode nodeB = new TestNode();
+		final TestNode nodeC = new TestNode();
+		nodeA.authStateMonitor.monitorCorrelatorForChange("cluster1", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		nodeB.authStateMonitor.monitorCorrelatorForChange("cluster2", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		changedTable.put("cluster1", SqrlAuthenticationStatus.COMMUNICATING);
+		changedTable.put("cluster2", SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+
+		for (int i = 0; i < 5; i++) {
+			nodeA.poller.run();
+			nodeB.poller.run();
+			nodeC.poller.run();
+			now += 500;
+		}
+		assertTrue(nodeA.poller.isLeader());
+		assertFalse(nodeB.poller.isLeader());
+		assertFalse(nodeC.poller.isLeader());
+		// Once per tick regardless of the number of nodes
+		assertEquals(5, feedReadCount.get());
+		assertEquals(Collections.singletonList("cluster1:COMMUNICATING"), nodeA.pushList);
+		assertEquals(Collections.singletonList("cluster2:AUTHENTICATED_BROWSER"), nodeB.pushList);
+		assertTrue(nodeC.pushList.isEmpty());
+	}
+
+	@Test
+	public void testFailover() {
+		final TestNode nodeA = new TestNode();
+		final TestNode nodeB = new TestNode();
+		nodeA.poller.run();
+		nodeB.poller.run();
+		assertTrue(nodeA.poller.isLeader());
+
+		// nodeA dies, nodeB must take over within 4/3 of the lease
+		final long diedAt = now;
+		while (!nodeB.poller.isLeader()) {
+			now += 500;
+			nodeB.poller.run();
+			assertTrue(now - diedAt <= LEASE_MILLIS * 4 / 3 + 500);
+		}
+		nodeB.authStateMonitor.monitorCorrelatorForChange("cluster3", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		changedTable.put("cluster3", SqrlAuthenticationStatus.COMMUNICATING);
+		now += 500;
+		nodeB.poller.run();
+		assertEquals(Collections.singletonList("cluster3:COMMUNICATING"), nodeB.pushList);
+	}
+
+	@Test
+	public void testShutdownReleasesLease() {
+		final TestNode nodeA = new TestNode();
+		final TestNode nodeB = new TestNode();
+		nodeA.poller.run();
+		nodeA.poller.shutdown();
+		// Well before the lease would have expired
+		now += LEASE_MILLIS / 2;
+		nodeB.poller.run();
+		assertTrue(nodeB.poller.isLeader());
+	}
+}
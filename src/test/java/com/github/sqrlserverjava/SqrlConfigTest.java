@@ -24,7 +24,7 @@ public class SqrlConfigTest {
 		jaxbContext = JAXBContext.newInstance(SqrlConfig.class);
 	}
 
-	private static final String EXPECTED_TEST_MARSHALL = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sqrlConfig><aesKeyBase64>KCI0BLITcZiR8b8hp3VWtA==</aesKeyBase64><authSyncCheckInMillis>500</authSyncCheckInMillis><backchannelServletPath>/sqrlbc</backchannelServletPath><cleanupTaskExecInMinutes>15</cleanupTaskExecInMinutes><clientAuthStateUpdaterClass>com.MyClass</clientAuthStateUpdaterClass><cookiePath>/</cookiePath><correlatorCookieName>sqrlcorrelator</correlatorCookieName><enableCps>true</enableCps><firstNutCookieName>sqrlfirstnut</firstNutCookieName><nutValidityInSeconds>900</nutValidityInSeconds><qrCodeImageFormat>PNG</qrCodeImageFormat><sqrlDomainExtensionSpecifierUriCount>0</sqrlDomainExtensionSpecifierUriCount><sqrlLoginServletPath>/sqrllogin</sqrlLoginServletPath><sqrlNutTokenFormat>2</sqrlNutTokenFormat><sqrlPersistenceFactoryClass>com.github.sqrlserverjava.persistence.SqrlJpaPersistenceFactory</sqrlPersistenceFactoryClass></sqrlConfig>";
+	private static final String EXPECTED_TEST_MARSHALL = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sqrlConfig><aesKeyBase64>KCI0BLITcZiR8b8hp3VWtA==</aesKeyBase64><authStatusCacheMaxSize>0</authStatusCacheMaxSize><authStatusCacheTtlMillis>30000</authStatusCacheTtlMillis><authStatusDispatchMaxQueued>10000</authStatusDispatchMaxQueued><authStatusDispatchThreads>0</authStatusDispatchThreads><authStatusLongPollTimeoutMillis>30000</authStatusLongPollTimeoutMillis><authSyncChangeFeedOverlapMillis>0</authSyncChangeFeedOverlapMillis><authSyncCheckInMillis>500</authSyncCheckInMillis><authSyncClusterLeaseMillis>0</authSyncClusterLeaseMillis><authSyncClusterTransportClass>com.github.sqrlserverjava.SqrlInJvmClusterStatusTransport</authSyncClusterTransportClass><authSyncMaxBackoffInMillis>0</authSyncMaxBackoffInMillis><authSyncMaxChecksPerPartition>4096</authSyncMaxChecksPerPartition><authSyncPartitionCount>1</authSyncPartitionCount><authSyncPartitionThreads>0</authSyncPartitionThreads><authSyncSafetyNetInMillis>0</authSyncSafetyNetInMillis><backchannelServletPath>/sqrlbc</backchannelServletPath><cleanupChunkSize>500</cleanupChunkSize><cleanupMaxRowsPerSecond>2000</cleanupMaxRowsPerSecond><cleanupTaskExecInMinutes>15</cleanupTaskExecInMinutes><clientAuthStateUpdaterClass>com.MyClass</clientAuthStateUpdaterClass><compactTransientAuthData>false</compactTransientAuthData><cookiePath>/</cookiePath><correlatorConflictRetries>2</correlatorConflictRetries><correlatorCookieName>sqrlcorrelator</correlatorCookieName><enableCps>true</enableCps><firstNutCookieName>sqrlfirstnut</firstNutCookieName><hashNutTokenKeys>false</hashNutTokenKeys><idGeneratorBlockSize>50</idGeneratorBlockSize><idGeneratorNodeId>-1</idGeneratorNodeId><idGeneratorType>POOLED</idGeneratorType><identityCacheMaxSize>0</identityCacheMaxSize><identityCacheTtlSeconds>60</identityCacheTtlSeconds><identityCacheVersionCheck>false</identityCacheVersionCheck><leakTrackingSampleInterval>0</leakTrackingSampleInterval><nutValidityInSeconds>900</nutValidityInSeconds><persistenceShardIdentitiesByIdk>false</persistenceShardIdentitiesByIdk><qrCodeImageFormat>PNG</qrCodeImageFormat><readReplicaMaxStalenessMillis>2000</readReplicaMaxStalenessMillis><sqrlDomainExtensionSpecifierUriCount>0</sqrlDomainExtensionSpecifierUriCount><sqrlLoginServletPath>/sqrllogin</sqrlLoginServletPath><sqrlNutTokenFormat>2</sqrlNutTokenFormat><sqrlPersistenceFactoryClass>com.github.sqrlserverjava.persistence.SqrlJpaPersistenceFactory</sqrlPersistenceFactoryClass><writeBehindFlushMillis>0</writeBehindFlushMillis><writeBehindMaxPending>10000</writeBehindMaxPending></sqrlConfig>";
 
 	/**
 	 * Basic test to ensure we don't break {@link SqrlConfig} JAXB marshalling by trying to do something illegal (try
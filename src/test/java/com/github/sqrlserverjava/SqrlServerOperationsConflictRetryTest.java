@@ -0,0 +1,74 @@
+package com.github.sqrlserverjava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.exception.SqrlConcurrentUpdateException;
+import com.github.sqrlserverjava.persistence.SqrlCorrelator;
+
+public class SqrlServerOperationsConflictRetryTest {
+	private SqrlConfig				config;
+	private SqrlConfigOperations	configOperations;
+
+	@Before
+	public void setUp() throws Exception {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createCorrelator("retry1", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+		config = TestCaseUtil.buildTestSqrlConfig();
+		configOperations = TestCaseUtil.buildSqrlConfigOperations(config);
+	}
+
+	/**
+	 * Simulates the browser updating the correlator after the work has read it
+	 */
+	private static void updateConcurrently() {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelator("retry1");
+		sqrlCorrelator.setExpiryTime(new Date(sqrlCorrelator.getExpiryTime().getTime() + 1000));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testRetriedAfterConflict() {
+		final AtomicInteger attempts = new AtomicInteger();
+		SqrlServerOperations.runIdempotentTransaction(configOperations, "test", sqrlPersistence -> {
+			sqrlPersistence.fetchSqrlCorrelator("retry1")
+			.setAuthenticationStatus(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+			if (attempts.incrementAndGet() == 1) {
+				updateConcurrently();
+			}
+			return null;
+		});
+		assertEquals(2, attempts.get());
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER,
+				sqrlPersistence.fetchSqrlCorrelator("retry1").getAuthenticationStatus());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testConflictOutcomeWhenRetriesExhausted() {
+		config.setCorrelatorConflictRetries(1);
+		final AtomicInteger attempts = new AtomicInteger();
+		try {
+			SqrlServerOperations.runIdempotentTransaction(configOperations, "test", sqrlPersistence -> {
+				attempts.incrementAndGet();
+				sqrlPersistence.fetchSqrlCorrelator("retry1")
+				.setAuthenticationStatus(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+				updateConcurrently();
+				return null;
+			});
+			fail("Exception expected");
+		} catch (final SqrlConcurrentUpdateException e) {
+			assertEquals(2, attempts.get());
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+
+/**
+ * Compares the idk index size and lookup latency of the default string keys with the binary storage keys. Run
+ * manually; the identity count defaults to 200k, pass 10000000 as the first argument (with a large -Xmx, the test
+ * units are in memory Derby databases) for the 10M identity numbers
+ */
+public class SqrlBinaryKeyBenchmark {
+	private static final int	BATCH_SIZE		= 5000;
+	private static final int	LOOKUP_COUNT	= 20000;
+
+	public static void main(final String[] args) throws Exception {
+		final int identityCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		run("string keys", Persistence.createEntityManagerFactory(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME),
+				identityCount);
+		run("binary keys", Persistence.createEntityManagerFactory("javasqrl-binary-keys"), identityCount);
+		System.exit(0);
+	}
+
+	private static void run(final String label, final EntityManagerFactory entityManagerFactory,
+			final int identityCount) {
+		// Every Nth inserted idk is looked up afterwards
+		final int sampleEvery = Math.max(1, identityCount / LOOKUP_COUNT);
+		final List<String> lookupList = new ArrayList<>(LOOKUP_COUNT);
+		final EntityManager entityManager = entityManagerFactory.createEntityManager();
+		long nextId = 1;
+		for (int i = 0; i < identityCount; i += BATCH_SIZE) {
+			entityManager.getTransaction().begin();
+			for (int j = i; j < Math.min(identityCount, i + BATCH_SIZE); j++) {
+				final String idk = SqrlBinaryStorageKeyTest.randomIdk();
+				final SqrlIdentity sqrlIdentity = new SqrlIdentity(idk);
+				sqrlIdentity.setId(nextId++);
+				entityManager.persist(sqrlIdentity);
+				if (j % sampleEvery == 0) {
+					lookupList.add(idk);
+				}
+			}
+			entityManager.getTransaction().commit();
+			entityManager.clear();
+		}
+		entityManager.getTransaction().begin();
+		entityManager.createNativeQuery("CREATE UNIQUE INDEX BENCH_IDK_IDX ON sqrl_identity(idk)").executeUpdate();
+		entityManager.getTransaction().commit();
+		final Object[] space = (Object[]) entityManager
+				.createNativeQuery("SELECT NUMALLOCATEDPAGES, PAGESIZE FROM TABLE (SYSCS_DIAG.SPACE_TABLE('APP', "
+						+ "'SQRL_IDENTITY')) T WHERE CONGLOMERATENAME = 'BENCH_IDK_IDX'")
+				.getSingleResult();
+		final long indexBytes = ((Number) space[0]).longValue() * ((Number) space[1]).longValue();
+		entityManager.close();
+
+		Collections.shuffle(lookupList);
+		final SqrlPersistence sqrlPersistence = new SqrlJpaPersistenceProvider(entityManagerFactory, null);
+		final long start = System.nanoTime();
+		for (final String idk : lookupList) {
+			sqrlPersistence.doesSqrlIdentityExistByIdk(idk);
+		}
+		final double micros = (System.nanoTime() - start) / 1000.0 / lookupList.size();
+		sqrlPersistence.closeRollback();
+		System.out.println(String.format("%-12s identities=%,d idkIndexBytes=%,d (%.1f bytes/row) lookup=%.1f us",
+				label, identityCount, indexBytes, indexBytes / (double) identityCount, micros));
+	}
+}
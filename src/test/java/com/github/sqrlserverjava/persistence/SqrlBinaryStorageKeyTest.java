@@ -0,0 +1,145 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * Runs against the javasqrl-binary-keys unit in src/test/resources/META-INF/persistence.xml
+ */
+public class SqrlBinaryStorageKeyTest {
+	private static final SecureRandom secureRandom = new SecureRandom();
+
+	private static EntityManagerFactory binaryEntityManagerFactory;
+
+	@BeforeClass
+	public static void setUpClass() {
+		binaryEntityManagerFactory = Persistence.createEntityManagerFactory("javasqrl-binary-keys");
+	}
+
+	@After
+	public void tearDown() {
+		SqrlJpaPersistenceProvider.setHashNutTokenKeys(false);
+	}
+
+	static String randomIdk() {
+		final byte[] bytes = new byte[32];
+		secureRandom.nextBytes(bytes);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+	}
+
+	@Test
+	public void testBase64Converter_roundTrip() {
+		final SqrlBase64BinaryKeyConverter converter = new SqrlBase64BinaryKeyConverter();
+		final String idk = randomIdk();
+		final byte[] bytes = converter.convertToDatabaseColumn(idk);
+		assertEquals(32, bytes.length);
+		assertEquals(idk, converter.convertToEntityAttribute(bytes));
+	}
+
+	@Test(expected = SqrlPersistenceException.class)
+	public void testBase64Converter_invalid() {
+		new SqrlBase64BinaryKeyConverter().convertToDatabaseColumn("not base64!");
+	}
+
+	@Test
+	public void testUuidConverter_roundTrip() {
+		final SqrlUuidBinaryKeyConverter converter = new SqrlUuidBinaryKeyConverter();
+		final String correlator = UUID.randomUUID().toString();
+		final byte[] bytes = converter.convertToDatabaseColumn(correlator);
+		assertEquals(16, bytes.length);
+		assertEquals(correlator, converter.convertToEntityAttribute(bytes));
+	}
+
+	@Test(expected = SqrlPersistenceException.class)
+	public void testUuidConverter_nonCanonical() {
+		new SqrlUuidBinaryKeyConverter().convertToDatabaseColumn(UUID.randomUUID().toString().toUpperCase());
+	}
+
+	@Test
+	public void testHashNutTokenKey() {
+		final String key = SqrlJpaPersistenceProvider.hashNutTokenKey("someNutToken");
+		assertEquals(22, key.length());
+		assertEquals(key, SqrlJpaPersistenceProvider.hashNutTokenKey("someNutToken"));
+		assertNotEquals(key, SqrlJpaPersistenceProvider.hashNutTokenKey("someNutToken2"));
+		assertArrayEquals(Base64.getUrlDecoder().decode(key),
+				new SqrlBase64BinaryKeyConverter().convertToDatabaseColumn(key));
+	}
+
+	@Test
+	public void testPersistenceAgainstBinarySchema() {
+		SqrlJpaPersistenceProvider.setHashNutTokenKeys(true);
+		final String idk = randomIdk();
+		final String correlator = UUID.randomUUID().toString();
+		SqrlPersistence sqrlPersistence = new SqrlJpaPersistenceProvider(binaryEntityManagerFactory, null);
+		sqrlPersistence.createAndEnableSqrlIdentity(idk);
+		sqrlPersistence.createCorrelator(correlator, TestCaseUtil.AWHILE_FROM_NOW)
+		.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlPersistence.markTokenAsUsed("nut" + correlator, TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = new SqrlJpaPersistenceProvider(binaryEntityManagerFactory, null);
+		assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(idk, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator(correlator));
+		assertTrue(sqrlPersistence.hasTokenBeenUsed("nut" + correlator));
+		assertFalse(sqrlPersistence.hasTokenBeenUsed("other" + correlator));
+		final Map<String, SqrlAuthenticationStatus> updateTable = sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(
+				Collections.singletonMap(correlator, SqrlAuthenticationStatus.CORRELATOR_ISSUED));
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, updateTable.get(correlator));
+		sqrlPersistence.userAuthenticatedViaSqrl(idk, correlator);
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testMigration() throws Exception {
+		final String idk = randomIdk();
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity(idk);
+		sqrlPersistence.createAndEnableSqrlIdentity("notBinary!");
+		sqrlPersistence.markTokenAsUsed("migratedNut", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		final SqrlBinaryKeyMigration migration = new SqrlBinaryKeyMigration(
+				SqrlJpaPersistenceProvider.getEntityManagerFactory(), binaryEntityManagerFactory, 1);
+		migration.migrate();
+		// Running again is a no-op
+		assertEquals(0, migration.migrateIdentities());
+
+		SqrlJpaPersistenceProvider.setHashNutTokenKeys(true);
+		sqrlPersistence = new SqrlJpaPersistenceProvider(binaryEntityManagerFactory, null);
+		assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk(idk));
+		assertTrue(sqrlPersistence.hasTokenBeenUsed("migratedNut"));
+		sqrlPersistence.closeCommit();
+
+		final EntityManager entityManager = binaryEntityManagerFactory.createEntityManager();
+		try {
+			final SqrlDbIdGen idGen = entityManager.find(SqrlDbIdGen.class, SqrlIdGenerator.SEQUENCE_IDENTITY);
+			assertNotNull(idGen);
+		} finally {
+			entityManager.close();
+		}
+	}
+}
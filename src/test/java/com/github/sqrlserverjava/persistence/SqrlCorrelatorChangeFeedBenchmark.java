@@ -0,0 +1,76 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * Compares the per correlator status poll with the change sequence query at 1k and 50k monitored correlators, with 10
+ * correlators changed since the previous check. Run manually
+ */
+public class SqrlCorrelatorChangeFeedBenchmark {
+	private static final int[]	CORRELATOR_COUNTS	= { 1000, 50000 };
+	private static final int	CHANGED_COUNT		= 10;
+	private static final int	ITERATIONS			= 20;
+
+	public static void main(final String[] args) throws Throwable {
+		for (final int count : CORRELATOR_COUNTS) {
+			final Map<String, SqrlAuthenticationStatus> monitorTable = setup(count);
+			final long since = SqrlCorrelator.nextChangeSequence();
+			changeSome(count);
+
+			// warm up
+			runPoll(monitorTable);
+			long start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				runPoll(monitorTable);
+			}
+			final double pollMs = (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+
+			runChangeFeed(since);
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				runChangeFeed(since);
+			}
+			final double feedMs = (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+			System.out.println(String.format("correlators=%6d statusPoll=%10.2f ms/check changeFeed=%10.2f ms/check",
+					count, pollMs, feedMs));
+		}
+		System.exit(0);
+	}
+
+	private static Map<String, SqrlAuthenticationStatus> setup(final int count) throws Throwable {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		final Map<String, SqrlAuthenticationStatus> monitorTable = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			sqrlPersistence.createCorrelator("bench" + i, TestCaseUtil.AWHILE_FROM_NOW);
+			monitorTable.put("bench" + i, SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		}
+		sqrlPersistence.closeCommit();
+		return monitorTable;
+	}
+
+	private static void changeSome(final int count) {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		for (int i = 0; i < CHANGED_COUNT; i++) {
+			sqrlPersistence.fetchSqrlCorrelator("bench" + (i * count / CHANGED_COUNT))
+			.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		}
+		sqrlPersistence.closeCommit();
+	}
+
+	private static void runPoll(final Map<String, SqrlAuthenticationStatus> monitorTable) {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(monitorTable);
+		sqrlPersistence.closeCommit();
+	}
+
+	private static void runChangeFeed(final long since) {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.fetchSqrlCorrelatorStatusChangedSince(since);
+		sqrlPersistence.closeCommit();
+	}
+}
@@ -0,0 +1,73 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class SqrlCorrelatorChangeSequenceTest {
+
+	@Test
+	public void testChangeSequenceOnlyBumpedOnStatusChange() throws Throwable {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator("seq1", TestCaseUtil.AWHILE_FROM_NOW);
+		final long created = sqrlCorrelator.getChangeSequence();
+		sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		assertEquals(created, sqrlCorrelator.getChangeSequence());
+		sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		assertTrue(sqrlCorrelator.getChangeSequence() > created);
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testFetchStatusChangedSince() throws Throwable {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		for (int i = 0; i < 5; i++) {
+			sqrlPersistence.createCorrelator("feed" + i, TestCaseUtil.AWHILE_FROM_NOW);
+		}
+		sqrlPersistence.closeCommit();
+		final long since = SqrlCorrelator.nextChangeSequence();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.fetchSqrlCorrelator("feed1").setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final Map<String, SqrlAuthenticationStatus> resultTable = sqrlPersistence
+				.fetchSqrlCorrelatorStatusChangedSince(since);
+		sqrlPersistence.closeCommit();
+		assertEquals(1, resultTable.size());
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, resultTable.get("feed1"));
+	}
+
+	@Test
+	public void testBulkUpdateBumpsChangeSequence() throws Throwable {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		for (int i = 0; i < 3; i++) {
+			sqrlPersistence.createCorrelator("bulk" + i, TestCaseUtil.AWHILE_FROM_NOW);
+		}
+		sqrlPersistence.closeCommit();
+		final long since = SqrlCorrelator.nextChangeSequence();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertEquals(2, sqrlPersistence.updateSqrlCorrelatorStatus(new HashSet<>(Arrays.asList("bulk0", "bulk2")),
+				SqrlAuthenticationStatus.CORRELATOR_ISSUED, SqrlAuthenticationStatus.COMMUNICATING));
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final Map<String, SqrlAuthenticationStatus> resultTable = sqrlPersistence
+				.fetchSqrlCorrelatorStatusChangedSince(since);
+		sqrlPersistence.closeCommit();
+		assertEquals(2, resultTable.size());
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, resultTable.get("bulk0"));
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, resultTable.get("bulk2"));
+	}
+}
@@ -0,0 +1,70 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.exception.SqrlConcurrentUpdateException;
+
+public class SqrlCorrelatorOptimisticLockTest {
+
+	@Before
+	public void setUp() throws Exception {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createCorrelator("lock1", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testVersionIncrementedOnUpdate() {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final long initialVersion = sqrlPersistence.fetchSqrlCorrelator("lock1").getVersion();
+		sqrlPersistence.fetchSqrlCorrelator("lock1").setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertEquals(initialVersion + 1, sqrlPersistence.fetchSqrlCorrelator("lock1").getVersion());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testConcurrentUpdate_secondCommitFails() {
+		final SqrlPersistence backchannel = TestCaseUtil.createSqrlPersistence();
+		final SqrlPersistence browser = TestCaseUtil.createSqrlPersistence();
+		backchannel.fetchSqrlCorrelator("lock1").setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		final SqrlCorrelator browserCorrelator = browser.fetchSqrlCorrelator("lock1");
+		browserCorrelator.setExpiryTime(new Date(browserCorrelator.getExpiryTime().getTime() + 1000));
+		backchannel.closeCommit();
+		try {
+			browser.closeCommit();
+			fail("Exception expected");
+		} catch (final SqrlConcurrentUpdateException e) {
+			// The persistence is closed even though the commit failed
+			assertTrue(browser.isClosed());
+		}
+
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelator("lock1");
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, sqrlCorrelator.getAuthenticationStatus());
+		assertEquals(TestCaseUtil.AWHILE_FROM_NOW.getTime(), sqrlCorrelator.getExpiryTime().getTime());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test(expected = SqrlConcurrentUpdateException.class)
+	public void testConcurrentDelete_updateFails() {
+		final SqrlPersistence backchannel = TestCaseUtil.createSqrlPersistence();
+		final SqrlPersistence browser = TestCaseUtil.createSqrlPersistence();
+		backchannel.fetchSqrlCorrelator("lock1").setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		browser.deleteSqrlCorrelator(browser.fetchSqrlCorrelator("lock1"));
+		browser.closeCommit();
+		backchannel.closeCommit();
+	}
+}
@@ -0,0 +1,103 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+import junitx.util.PrivateAccessor;
+
+/**
+ * Measures the AuthStateMonitor status poll at 100, 1k and 10k monitored correlators, comparing the chunked IN query
+ * projection with the previous dynamically built OR chain. Run manually
+ */
+public class SqrlCorrelatorStatusQueryBenchmark {
+	private static final int[]	CORRELATOR_COUNTS	= { 100, 1000, 10000 };
+	private static final int	ITERATIONS			= 20;
+
+	public static void main(final String[] args) throws Throwable {
+		for (final int count : CORRELATOR_COUNTS) {
+			final Map<String, SqrlAuthenticationStatus> monitorTable = setup(count);
+			// warm up
+			runChunked(monitorTable);
+			long start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				runChunked(monitorTable);
+			}
+			final double chunkedMs = (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+
+			String legacy;
+			try {
+				runLegacyOrChain(monitorTable);
+				start = System.nanoTime();
+				for (int i = 0; i < ITERATIONS; i++) {
+					runLegacyOrChain(monitorTable);
+				}
+				legacy = String.format("%10.2f ms/poll", (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS);
+			} catch (final RuntimeException | StackOverflowError e) {
+				legacy = "failed: " + e.getClass().getSimpleName();
+			}
+			System.out.println(String.format("correlators=%6d chunkedIn=%10.2f ms/poll orChain=%s", count, chunkedMs,
+					legacy));
+		}
+		System.exit(0);
+	}
+
+	private static Map<String, SqrlAuthenticationStatus> setup(final int count) throws Throwable {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		final Map<String, SqrlAuthenticationStatus> monitorTable = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator("bench" + i,
+					TestCaseUtil.AWHILE_FROM_NOW);
+			// ~1% of login pages change state between polls
+			if (i % 100 == 0) {
+				sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+			}
+			monitorTable.put("bench" + i, SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		}
+		sqrlPersistence.closeCommit();
+		return monitorTable;
+	}
+
+	private static void runChunked(final Map<String, SqrlAuthenticationStatus> monitorTable) {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(monitorTable);
+		sqrlPersistence.closeCommit();
+	}
+
+	/**
+	 * The query shape used before chunked IN queries were introduced
+	 */
+	private static void runLegacyOrChain(final Map<String, SqrlAuthenticationStatus> monitorTable)
+			throws NoSuchFieldException {
+		final EntityManagerFactory entityManagerFactory = (EntityManagerFactory) PrivateAccessor
+				.getField(SqrlJpaPersistenceProvider.class, "entityManagerFactory");
+		final EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			final StringBuilder buf = new StringBuilder("SELECT i FROM SqrlCorrelator i WHERE ");
+			int counter = 0;
+			for (int i = 0; i < monitorTable.size(); i++) {
+				buf.append(" (i.value = :correlator").append(counter).append(" AND i.authenticationStatus <> :status")
+				.append(counter).append(" ) OR");
+				counter++;
+			}
+			buf.replace(buf.length() - 2, buf.length(), "");
+			final TypedQuery<SqrlCorrelator> query = entityManager.createQuery(buf.toString(), SqrlCorrelator.class);
+			counter = 0;
+			for (final Map.Entry<String, SqrlAuthenticationStatus> entry : monitorTable.entrySet()) {
+				query.setParameter("correlator" + counter, entry.getKey());
+				query.setParameter("status" + counter, entry.getValue());
+				counter++;
+			}
+			query.getResultList();
+		} finally {
+			entityManager.close();
+		}
+	}
+}
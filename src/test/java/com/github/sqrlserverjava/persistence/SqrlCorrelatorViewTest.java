@@ -0,0 +1,77 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class SqrlCorrelatorViewTest {
+	/**
+	 * More than one IN clause chunk
+	 */
+	private static final int CORRELATOR_COUNT = SqrlJpaPersistenceProvider.IN_CLAUSE_MAX_CHUNK_SIZE + 10;
+
+	@Test
+	public void testFetchSqrlCorrelatorViews() throws Throwable {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		final Set<String> correlatorSet = new HashSet<>();
+		for (int i = 0; i < CORRELATOR_COUNT; i++) {
+			final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator("view" + i,
+					TestCaseUtil.AWHILE_FROM_NOW);
+			sqrlCorrelator.getTransientAuthDataTable().put("key", "value");
+			if (i == 3) {
+				sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+			}
+			correlatorSet.add("view" + i);
+		}
+		sqrlPersistence.closeCommit();
+		correlatorSet.add("doesNotExist");
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final Map<String, SqrlCorrelatorView> viewTable = sqrlPersistence.fetchSqrlCorrelatorViews(correlatorSet);
+		final SqrlCorrelator expected = sqrlPersistence.fetchSqrlCorrelator("view3");
+		sqrlPersistence.closeCommit();
+
+		assertEquals(CORRELATOR_COUNT, viewTable.size());
+		assertFalse(viewTable.containsKey("doesNotExist"));
+		final SqrlCorrelatorView view = viewTable.get("view3");
+		assertEquals("view3", view.getCorrelatorString());
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, view.getAuthenticationStatus());
+		assertEquals(expected.getExpiryTime().getTime(), view.getExpiryTime().getTime());
+		assertEquals(expected.getChangeSequence(), view.getChangeSequence());
+		assertEquals(SqrlAuthenticationStatus.CORRELATOR_ISSUED, viewTable.get("view4").getAuthenticationStatus());
+	}
+
+	@Test
+	public void testFetchSqrlCorrelatorViews_empty() throws Throwable {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertTrue(sqrlPersistence.fetchSqrlCorrelatorViews(Collections.emptySet()).isEmpty());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testViewIsDetachedCopy() throws Throwable {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createCorrelator("copy", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final SqrlCorrelatorView view = sqrlPersistence.fetchSqrlCorrelatorViews(Collections.singleton("copy"))
+				.get("copy");
+		sqrlPersistence.fetchSqrlCorrelator("copy").setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlPersistence.closeCommit();
+		assertEquals(SqrlAuthenticationStatus.CORRELATOR_ISSUED, view.getAuthenticationStatus());
+		view.getExpiryTime().setTime(0);
+		assertEquals(TestCaseUtil.AWHILE_FROM_NOW.getTime(), view.getExpiryTime().getTime());
+	}
+}
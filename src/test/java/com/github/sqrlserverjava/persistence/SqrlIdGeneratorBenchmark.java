@@ -0,0 +1,64 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+
+/**
+ * Contention benchmark: many threads concurrently calling createCorrelator, as happens when many users view the login
+ * page at once. Compares the old behaviour (one id row update per insert, block size 1) with pooled blocks and time
+ * ordered ids. Run manually
+ */
+public class SqrlIdGeneratorBenchmark {
+	private static final int	THREADS					= 32;
+	private static final int	CORRELATORS_PER_THREAD	= 250;
+
+	public static void main(final String[] args) throws Throwable {
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		// Warm up
+		run("warmup", new SqrlPooledIdGenerator(50, SqrlJpaPersistenceProvider::getEntityManagerFactory));
+
+		run("pooled blockSize=1", new SqrlPooledIdGenerator(1, SqrlJpaPersistenceProvider::getEntityManagerFactory));
+		run("pooled blockSize=50", new SqrlPooledIdGenerator(50, SqrlJpaPersistenceProvider::getEntityManagerFactory));
+		run("pooled blockSize=500",
+				new SqrlPooledIdGenerator(500, SqrlJpaPersistenceProvider::getEntityManagerFactory));
+		run("timeOrdered", new SqrlTimeOrderedIdGenerator(1));
+		System.exit(0);
+	}
+
+	private static void run(final String label, final SqrlIdGenerator idGenerator) throws Exception {
+		SqrlJpaPersistenceProvider.setIdGenerator(idGenerator);
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final AtomicLong counter = new AtomicLong();
+		final List<Future<?>> futureList = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			futureList.add(executor.submit(() -> {
+				startLatch.await();
+				for (int i = 0; i < CORRELATORS_PER_THREAD; i++) {
+					@SuppressWarnings("deprecation")
+					final SqrlPersistence sqrlPersistence = new SqrlJpaPersistenceProvider();
+					sqrlPersistence.createCorrelator(label + counter.incrementAndGet(), TestCaseUtil.AWHILE_FROM_NOW);
+					sqrlPersistence.closeCommit();
+				}
+				return null;
+			}));
+		}
+		final long start = System.nanoTime();
+		startLatch.countDown();
+		for (final Future<?> future : futureList) {
+			future.get();
+		}
+		final double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+		executor.shutdown();
+		System.out.println(String.format("%-22s %8.0f createCorrelator/sec", label,
+				(THREADS * CORRELATORS_PER_THREAD) / seconds));
+	}
+}
@@ -0,0 +1,86 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.github.sqrlserverjava.TestCaseUtil;
+
+public class SqrlIdGeneratorTest {
+
+	@Test
+	public void testTimeOrdered_increasingAndUnique() {
+		final SqrlTimeOrderedIdGenerator generator = new SqrlTimeOrderedIdGenerator(5);
+		final Set<Long> idSet = new HashSet<>();
+		long previous = 0;
+		for (int i = 0; i < 10000; i++) {
+			final long id = generator.nextId(SqrlIdGenerator.SEQUENCE_CORRELATOR);
+			assertTrue(id > previous);
+			assertTrue(idSet.add(id));
+			previous = id;
+		}
+	}
+
+	@Test
+	public void testTimeOrdered_clockStuck() {
+		final long fixedTime = System.currentTimeMillis();
+		final SqrlTimeOrderedIdGenerator generator = new SqrlTimeOrderedIdGenerator(1023) {
+			@Override
+			long currentTimeMillis() {
+				return fixedTime;
+			}
+		};
+		long previous = 0;
+		// More than the 4096 per millisecond sequence limit
+		for (int i = 0; i < 10000; i++) {
+			final long id = generator.nextId(SqrlIdGenerator.SEQUENCE_IDENTITY);
+			assertTrue(id > previous);
+			previous = id;
+		}
+		assertTrue(SqrlTimeOrderedIdGenerator.extractTimestamp(previous) > fixedTime);
+	}
+
+	@Test
+	public void testTimeOrdered_extractTimestamp() {
+		final long before = System.currentTimeMillis();
+		final long id = new SqrlTimeOrderedIdGenerator(0).nextId(SqrlIdGenerator.SEQUENCE_IDENTITY);
+		final long timestamp = SqrlTimeOrderedIdGenerator.extractTimestamp(id);
+		assertTrue(timestamp >= before);
+		assertTrue(timestamp <= System.currentTimeMillis());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTimeOrdered_invalidNodeId() {
+		new SqrlTimeOrderedIdGenerator(1024);
+	}
+
+	@Test
+	public void testPooled_twoNodesNeverOverlap() throws Throwable {
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		final SqrlPooledIdGenerator node1 = new SqrlPooledIdGenerator(10,
+				SqrlJpaPersistenceProvider::getEntityManagerFactory);
+		final SqrlPooledIdGenerator node2 = new SqrlPooledIdGenerator(7,
+				SqrlJpaPersistenceProvider::getEntityManagerFactory);
+		final Set<Long> idSet = new HashSet<>();
+		for (int i = 0; i < 50; i++) {
+			assertTrue(idSet.add(node1.nextId("test_gen")));
+			assertTrue(idSet.add(node2.nextId("test_gen")));
+		}
+		assertEquals(100, idSet.size());
+	}
+
+	@Test
+	public void testPooled_idsWithinBlockAreSequential() throws Throwable {
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		final SqrlPooledIdGenerator generator = new SqrlPooledIdGenerator(20,
+				SqrlJpaPersistenceProvider::getEntityManagerFactory);
+		final long first = generator.nextId("sequential_gen");
+		for (int i = 1; i < 20; i++) {
+			assertEquals(first + i, generator.nextId("sequential_gen"));
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.persistence.SqrlIdentityBulkTransfer.ImportResult;
+
+/**
+ * Exports and re-imports identities with {@link SqrlIdentityBulkTransfer} against the in memory Derby test unit and
+ * reports throughput and heap use after each phase. Run manually; the identity count defaults to 1M, pass a smaller
+ * count as the first argument for a quick run. Heap after each phase should stay roughly constant since the persistence
+ * context is cleared per batch, the in memory database itself accounts for most of the growth
+ */
+public class SqrlIdentityBulkTransferBenchmark {
+	private static final int BATCH_SIZE = 5000;
+
+	public static void main(final String[] args) throws Exception {
+		final int identityCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final Map<String, String> propertyTable = new HashMap<>();
+		propertyTable.put("eclipselink.jdbc.batch-writing", "JDBC");
+		propertyTable.put("eclipselink.jdbc.batch-writing.size", Integer.toString(BATCH_SIZE));
+		final EntityManagerFactory entityManagerFactory = Persistence
+				.createEntityManagerFactory(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME, propertyTable);
+		final SqrlIdentityBulkTransfer transfer = new SqrlIdentityBulkTransfer(entityManagerFactory,
+				new SqrlPooledIdGenerator(BATCH_SIZE, () -> entityManagerFactory), BATCH_SIZE);
+		final File file = File.createTempFile("sqrlBulkBenchmark", ".txt");
+		try {
+			// Generate the input file directly so the first import measures an empty schema
+			try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+				writer.write(SqrlIdentityBulkTransfer.HEADER);
+				writer.write('\n');
+				final Map<String, String> dataTable = new HashMap<>();
+				for (int i = 0; i < identityCount; i++) {
+					dataTable.put("suk", SqrlBinaryStorageKeyTest.randomIdk());
+					dataTable.put("vuk", SqrlBinaryStorageKeyTest.randomIdk());
+					SqrlIdentityBulkTransfer.writeLine(writer, SqrlBinaryStorageKeyTest.randomIdk(),
+							i % 2 == 0 ? "user" + i : null,
+							Collections.singletonList(SqrlIdentityFlag.SQRL_AUTH_ENABLED.name()), dataTable);
+				}
+			}
+			report("generate", identityCount, 0, file);
+
+			long start = System.nanoTime();
+			try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+				final ImportResult result = transfer.importIdentities(reader, 0);
+				report("import", result.getImported(), System.nanoTime() - start, file);
+			}
+
+			final File exportFile = File.createTempFile("sqrlBulkBenchmarkExport", ".txt");
+			try {
+				start = System.nanoTime();
+				try (BufferedWriter writer = Files.newBufferedWriter(exportFile.toPath(), StandardCharsets.UTF_8)) {
+					final long count = transfer.exportIdentities(writer, Long.MIN_VALUE, null);
+					report("export", count, System.nanoTime() - start, exportFile);
+				}
+
+				// Every record already exists, measures the idk existence checks on their own
+				start = System.nanoTime();
+				try (BufferedReader reader = Files.newBufferedReader(exportFile.toPath(), StandardCharsets.UTF_8)) {
+					final ImportResult result = transfer.importIdentities(reader, 0);
+					report("reimport", result.getSkippedExisting(), System.nanoTime() - start, exportFile);
+				}
+			} finally {
+				Files.deleteIfExists(exportFile.toPath());
+			}
+		} finally {
+			Files.deleteIfExists(file.toPath());
+		}
+		final EntityManager entityManager = entityManagerFactory.createEntityManager();
+		System.out.println("identities in db="
+				+ entityManager.createQuery("SELECT COUNT(i) FROM SqrlIdentity i", Long.class).getSingleResult());
+		entityManager.close();
+		System.exit(0);
+	}
+
+	private static void report(final String label, final long count, final long nanos, final File file) {
+		final Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		final long usedHeapMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+		final double seconds = nanos / 1_000_000_000.0;
+		System.out.println(String.format("%-9s records=%,d seconds=%.1f records/sec=%,.0f fileBytes=%,d heapMb=%,d",
+				label, count, seconds, seconds == 0 ? 0 : count / seconds, file.length(), usedHeapMb));
+	}
+}
@@ -0,0 +1,151 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+import com.github.sqrlserverjava.persistence.SqrlIdentityBulkTransfer.ImportResult;
+
+public class SqrlIdentityBulkTransferTest {
+	private SqrlIdentityBulkTransfer transfer;
+
+	@Before
+	public void setUp() throws Exception {
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		transfer = new SqrlIdentityBulkTransfer(SqrlJpaPersistenceProvider.getEntityManagerFactory(),
+				new SqrlPooledIdGenerator(10, SqrlJpaPersistenceProvider::getEntityManagerFactory), 2);
+	}
+
+	private static void createIdentities(final int count) {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		for (int i = 0; i < count; i++) {
+			sqrlPersistence.createAndEnableSqrlIdentity("bulkIdk" + i);
+		}
+		sqrlPersistence.closeCommit();
+	}
+
+	private String export() throws Exception {
+		final StringWriter writer = new StringWriter();
+		transfer.exportIdentities(writer, Long.MIN_VALUE, null);
+		return writer.toString();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		createIdentities(5);
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.updateNativeUserXref(sqrlPersistence.fetchSqrlIdentity("bulkIdk1").getId(), "user\t1&=");
+		sqrlPersistence.setSqrlFlagForIdentity("bulkIdk1", SqrlIdentityFlag.HARDLOCK, true);
+		final Map<String, String> dataTable = new HashMap<>();
+		dataTable.put("suk", "abc=&def");
+		dataTable.put("vuk", "xyz");
+		sqrlPersistence.storeSqrlDataForSqrlIdentity("bulkIdk1", dataTable);
+		sqrlPersistence.closeCommit();
+
+		final String exported = export();
+		assertTrue(exported.startsWith(SqrlIdentityBulkTransfer.HEADER + "\n"));
+		assertEquals(6, exported.split("\n").length);
+
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		final ImportResult result = transfer.importIdentities(new BufferedReader(new StringReader(exported)), 0);
+		assertEquals(5, result.getImported());
+		assertEquals(5, result.getRecordsCommitted());
+		assertEquals(0, result.getSkippedExisting());
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final SqrlIdentity sqrlIdentity = sqrlPersistence.fetchSqrlIdentity("bulkIdk1");
+		assertEquals("user\t1&=", sqrlIdentity.getNativeUserXref());
+		assertTrue(sqrlIdentity.getEnabledFlagList().contains(SqrlIdentityFlag.HARDLOCK));
+		assertTrue(sqrlIdentity.getEnabledFlagList().contains(SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		assertEquals("abc=&def", sqrlPersistence.fetchSqrlIdentityDataItem("bulkIdk1", "suk"));
+		assertEquals("xyz", sqrlPersistence.fetchSqrlIdentityDataItem("bulkIdk1", "vuk"));
+		assertNull(sqrlPersistence.fetchSqrlIdentity("bulkIdk2").getNativeUserXref());
+		assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk("bulkIdk4"));
+		sqrlPersistence.closeCommit();
+		assertEquals(exported.length(), export().length());
+	}
+
+	@Test
+	public void testImport_skipsExisting() throws Exception {
+		createIdentities(3);
+		final String exported = export();
+		final ImportResult result = transfer.importIdentities(new BufferedReader(new StringReader(exported)), 0);
+		assertEquals(0, result.getImported());
+		assertEquals(3, result.getSkippedExisting());
+	}
+
+	@Test
+	public void testImport_skipRecords() throws Exception {
+		createIdentities(4);
+		final String exported = export();
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		final ImportResult result = transfer.importIdentities(new BufferedReader(new StringReader(exported)), 3);
+		assertEquals(1, result.getImported());
+		assertEquals(4, result.getRecordsCommitted());
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertFalse(sqrlPersistence.doesSqrlIdentityExistByIdk("bulkIdk0"));
+		assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk("bulkIdk3"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testImport_badLineKeepsCommittedBatches() throws Exception {
+		final String input = SqrlIdentityBulkTransfer.HEADER + "\nbadA\t\t\t\nbadB\t\t\t\nbadC\t\tNOT_A_FLAG\t\n";
+		try {
+			transfer.importIdentities(new BufferedReader(new StringReader(input)), 0);
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("line 4"));
+		}
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk("badB"));
+		assertFalse(sqrlPersistence.doesSqrlIdentityExistByIdk("badC"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test(expected = SqrlPersistenceException.class)
+	public void testImport_missingHeader() throws Exception {
+		transfer.importIdentities(new BufferedReader(new StringReader("idk\t\t\t\n")), 0);
+	}
+
+	@Test
+	public void testFileResumeFromCheckpoint() throws Exception {
+		createIdentities(3);
+		final File file = File.createTempFile("sqrlBulk", ".txt");
+		final File checkpointFile = new File(file.getPath() + ".checkpoint");
+		try {
+			transfer.exportToFile(file, checkpointFile);
+			assertFalse(checkpointFile.exists());
+			TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+			// Simulate a failure after the first 2 records were committed
+			Files.write(checkpointFile.toPath(), "2".getBytes(StandardCharsets.UTF_8));
+			transfer.importFromFile(file, checkpointFile);
+			assertFalse(checkpointFile.exists());
+			final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+			assertFalse(sqrlPersistence.doesSqrlIdentityExistByIdk("bulkIdk1"));
+			assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk("bulkIdk2"));
+			sqrlPersistence.closeCommit();
+		} finally {
+			Files.deleteIfExists(file.toPath());
+			Files.deleteIfExists(checkpointFile.toPath());
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+
+/**
+ * Returning user workload: the same set of identities authenticate repeatedly, each request performing the identity
+ * reads done by the backchannel (exists, SQRL_AUTH_ENABLED, SQRLONLY, HARDLOCK). Run manually, prints throughput with
+ * and without the {@link SqrlIdentityCache}
+ */
+public class SqrlIdentityCacheBenchmark {
+	private static final int	IDENTITY_COUNT	= 200;
+	private static final int	REQUEST_COUNT	= 20000;
+
+	public static void main(final String[] args) throws Exception {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		for (int i = 0; i < IDENTITY_COUNT; i++) {
+			sqrlPersistence.createAndEnableSqrlIdentity(idk(i));
+		}
+		sqrlPersistence.closeCommit();
+
+		// Warm up the JPA layer
+		runWorkload(null, REQUEST_COUNT / 10);
+
+		final long uncachedNanos = runWorkload(null, REQUEST_COUNT);
+		final SqrlIdentityCache cache = new SqrlIdentityCache(IDENTITY_COUNT * 2, TimeUnit.MINUTES.toMillis(5), false);
+		final long cachedNanos = runWorkload(cache, REQUEST_COUNT);
+		final SqrlIdentityCache versionCheckCache = new SqrlIdentityCache(IDENTITY_COUNT * 2,
+				TimeUnit.MINUTES.toMillis(5), true);
+		final long versionCheckNanos = runWorkload(versionCheckCache, REQUEST_COUNT);
+
+		print("no cache", uncachedNanos, null);
+		print("cache", cachedNanos, cache);
+		print("cache+versionCheck", versionCheckNanos, versionCheckCache);
+		System.exit(0);
+	}
+
+	private static long runWorkload(final SqrlIdentityCache cache, final int requestCount) {
+		final long start = System.nanoTime();
+		for (int i = 0; i < requestCount; i++) {
+			final String idk = idk(i % IDENTITY_COUNT);
+			SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+			if (cache != null) {
+				sqrlPersistence = new SqrlIdentityCachingPersistence(sqrlPersistence, cache);
+			}
+			sqrlPersistence.doesSqrlIdentityExistByIdk(idk);
+			sqrlPersistence.fetchSqrlFlagForIdentity(idk, SqrlIdentityFlag.SQRL_AUTH_ENABLED);
+			sqrlPersistence.fetchSqrlFlagForIdentity(idk, SqrlIdentityFlag.SQRLONLY);
+			sqrlPersistence.fetchSqrlFlagForIdentity(idk, SqrlIdentityFlag.HARDLOCK);
+			sqrlPersistence.closeCommit();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void print(final String label, final long nanos, final SqrlIdentityCache cache) {
+		final double requestsPerSecond = REQUEST_COUNT / (nanos / 1_000_000_000.0);
+		System.out.println(String.format("%-20s %10.0f requests/sec %s", label, requestsPerSecond,
+				cache == null ? "" : cache.toString()));
+	}
+
+	private static String idk(final int i) {
+		return "benchmarkIdk" + i;
+	}
+}
@@ -0,0 +1,153 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+
+public class SqrlIdentityCachingPersistenceTest {
+	private static final String IDK = "m470Fb8O3XY8xAqlN2pCL0SokqPYNazwdc5sT6SLnUM";
+
+	@Before
+	public void setUp() throws Exception {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity(IDK);
+		sqrlPersistence.closeCommit();
+	}
+
+	private static SqrlPersistence createCachingPersistence(final SqrlIdentityCache cache) {
+		return new SqrlIdentityCachingPersistence(TestCaseUtil.createSqrlPersistence(), cache);
+	}
+
+	@Test
+	public void testSecondLookupIsCacheHit() {
+		final SqrlIdentityCache cache = new SqrlIdentityCache(100, 60000, false);
+		SqrlPersistence sqrlPersistence = createCachingPersistence(cache);
+		assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk(IDK));
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = createCachingPersistence(cache);
+		assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		sqrlPersistence.closeCommit();
+
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(0.5, cache.getHitRatio(), 0.001);
+	}
+
+	@Test
+	public void testXrefLookupWithEvictedIdkIsOneMiss() {
+		final String xref = "xrefUser1";
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.updateNativeUserXref(sqrlPersistence.fetchSqrlIdentity(IDK).getId(), xref);
+		sqrlPersistence.closeCommit();
+
+		final SqrlIdentityCache cache = new SqrlIdentityCache(100, 60000, false);
+		sqrlPersistence = createCachingPersistence(cache);
+		assertEquals(IDK, sqrlPersistence.fetchSqrlIdentityByUserXref(xref).getIdk());
+		assertEquals(IDK, sqrlPersistence.fetchSqrlIdentityByUserXref(xref).getIdk());
+		sqrlPersistence.closeCommit();
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+
+		// The xref entry survives but the idk entry it points to is gone
+		cache.invalidateIdk(IDK);
+		sqrlPersistence = createCachingPersistence(cache);
+		assertEquals(IDK, sqrlPersistence.fetchSqrlIdentityByUserXref(xref).getIdk());
+		sqrlPersistence.closeCommit();
+		assertEquals(2, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void testNotFoundIsCached() {
+		final SqrlIdentityCache cache = new SqrlIdentityCache(100, 60000, false);
+		final SqrlPersistence sqrlPersistence = createCachingPersistence(cache);
+		assertFalse(sqrlPersistence.doesSqrlIdentityExistByIdk("unknown"));
+		assertFalse(sqrlPersistence.doesSqrlIdentityExistByIdk("unknown"));
+		sqrlPersistence.closeCommit();
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void testSetFlagInvalidates() {
+		final SqrlIdentityCache cache = new SqrlIdentityCache(100, 60000, false);
+		SqrlPersistence sqrlPersistence = createCachingPersistence(cache);
+		assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = createCachingPersistence(cache);
+		sqrlPersistence.setSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
+		// Reads within the same transaction must see the change
+		assertFalse(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = createCachingPersistence(cache);
+		assertFalse(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testDeleteInvalidates() {
+		final SqrlIdentityCache cache = new SqrlIdentityCache(100, 60000, false);
+		SqrlPersistence sqrlPersistence = createCachingPersistence(cache);
+		assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk(IDK));
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = createCachingPersistence(cache);
+		sqrlPersistence.deleteSqrlIdentity(IDK);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = createCachingPersistence(cache);
+		assertFalse(sqrlPersistence.doesSqrlIdentityExistByIdk(IDK));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testVersionCheckDetectsChangeFromAnotherNode() {
+		final SqrlIdentityCache cache = new SqrlIdentityCache(100, 60000, true);
+		SqrlPersistence sqrlPersistence = createCachingPersistence(cache);
+		assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		sqrlPersistence.closeCommit();
+
+		// Simulate another node by bypassing the cache
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.setSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = createCachingPersistence(cache);
+		assertFalse(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		sqrlPersistence.closeCommit();
+		assertEquals(1, cache.getStaleCount());
+	}
+
+	/**
+	 * A read which overlaps an invalidation may have returned the state from before the change, so it isn't cached
+	 */
+	@Test
+	public void testReadOverlappingInvalidationNotCached() {
+		final SqrlIdentityCache cache = new SqrlIdentityCache(100, 60000, false);
+		final SqrlPersistence underlying = Mockito.mock(SqrlPersistence.class);
+		Mockito.when(underlying.fetchSqrlIdentity(IDK)).thenAnswer(invocation -> {
+			// Another request commits a change to the identity while this one is reading it
+			cache.invalidateIdk(IDK);
+			return new SqrlIdentity(IDK);
+		});
+		final SqrlPersistence sqrlPersistence = new SqrlIdentityCachingPersistence(underlying, cache);
+		assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk(IDK));
+		assertNull(cache.lookupByIdk(IDK));
+
+		final long generation = cache.getInvalidationGeneration();
+		assertTrue(cache.store(IDK, new SqrlIdentity(IDK), generation));
+		cache.invalidateIdk("other");
+		assertFalse(cache.store(IDK, new SqrlIdentity(IDK), generation));
+	}
+}
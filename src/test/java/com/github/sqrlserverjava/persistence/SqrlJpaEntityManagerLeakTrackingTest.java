@@ -0,0 +1,81 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.persistence.SqrlJpaPersistenceProvider.LeakTracker;
+import com.github.sqrlserverjava.persistence.SqrlJpaPersistenceProvider.SqrlJpaEntityManagerMonitorTask;
+
+import junitx.util.PrivateAccessor;
+
+public class SqrlJpaEntityManagerLeakTrackingTest {
+
+	@Before
+	public void setUp() throws Exception {
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		trackerSet().clear();
+	}
+
+	@After
+	public void tearDown() {
+		SqrlJpaPersistenceProvider.setLeakTrackingSampleInterval(0);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Set<LeakTracker> trackerSet() throws NoSuchFieldException {
+		return (Set<LeakTracker>) PrivateAccessor.getField(SqrlJpaPersistenceProvider.class, "LEAK_TRACKER_SET");
+	}
+
+	/**
+	 * Created directly since {@link TestCaseUtil#createSqrlPersistence()} applies the default config
+	 */
+	@SuppressWarnings("deprecation")
+	private static SqrlJpaPersistenceProvider newProvider() {
+		return new SqrlJpaPersistenceProvider();
+	}
+
+	@Test
+	public void testDisabled_nothingTracked() throws Exception {
+		SqrlJpaPersistenceProvider.setLeakTrackingSampleInterval(0);
+		final SqrlJpaPersistenceProvider sqrlPersistence = newProvider();
+		assertTrue(trackerSet().isEmpty());
+		sqrlPersistence.closeRollback();
+	}
+
+	@Test
+	public void testTracked_removedOnClose() throws Exception {
+		SqrlJpaPersistenceProvider.setLeakTrackingSampleInterval(1);
+		final SqrlJpaPersistenceProvider sqrlPersistence = newProvider();
+		assertEquals(1, trackerSet().size());
+		sqrlPersistence.closeCommit();
+		assertTrue(trackerSet().isEmpty());
+	}
+
+	@Test
+	public void testMonitorTask_closesIdleTrackedEntityManager() throws Exception {
+		SqrlJpaPersistenceProvider.setLeakTrackingSampleInterval(1);
+		final SqrlJpaPersistenceProvider sqrlPersistence = newProvider();
+		final LeakTracker leakTracker = trackerSet().iterator().next();
+		PrivateAccessor.setField(leakTracker, "lastUsedTime", 0L);
+		new SqrlJpaEntityManagerMonitorTask().run();
+		assertTrue(sqrlPersistence.isClosed());
+		assertTrue(trackerSet().isEmpty());
+	}
+
+	@Test
+	public void testMonitorTask_leavesActiveEntityManager() throws Exception {
+		SqrlJpaPersistenceProvider.setLeakTrackingSampleInterval(1);
+		final SqrlJpaPersistenceProvider sqrlPersistence = newProvider();
+		new SqrlJpaEntityManagerMonitorTask().run();
+		assertFalse(sqrlPersistence.isClosed());
+		sqrlPersistence.closeCommit();
+	}
+}
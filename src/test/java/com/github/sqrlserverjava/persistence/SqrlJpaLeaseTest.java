@@ -0,0 +1,56 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+
+public class SqrlJpaLeaseTest {
+	private static final long NOW = 1_000_000;
+
+	private static boolean compareAndSetLease(final String leaseName, final long heldUntil, final long now,
+			final long newExpiry) {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final boolean result = sqrlPersistence.compareAndSetLease(leaseName, heldUntil, now, newExpiry);
+		sqrlPersistence.closeCommit();
+		return result;
+	}
+
+	@Test
+	public void testHolderRenewsOthersWait() {
+		assertTrue(compareAndSetLease("lease1", 0, NOW, NOW + 3000));
+		assertFalse(compareAndSetLease("lease1", 0, NOW + 1000, NOW + 4000));
+		assertTrue(compareAndSetLease("lease1", NOW + 3000, NOW + 1000, NOW + 4000));
+		// A stale expiry is not enough to renew
+		assertFalse(compareAndSetLease("lease1", NOW + 3000, NOW + 2000, NOW + 5000));
+	}
+
+	@Test
+	public void testExpiredLeaseTakenOver() {
+		assertTrue(compareAndSetLease("lease2", 0, NOW, NOW + 3000));
+		assertTrue(compareAndSetLease("lease2", 0, NOW + 3001, NOW + 6001));
+		// The previous holder finds out it lost the lease
+		assertFalse(compareAndSetLease("lease2", NOW + 3000, NOW + 3002, NOW + 6002));
+	}
+
+	@Test
+	public void testReleasedLeaseFree() {
+		assertTrue(compareAndSetLease("lease3", 0, NOW, NOW + 3000));
+		assertTrue(compareAndSetLease("lease3", NOW + 3000, NOW + 10, 0));
+		assertTrue(compareAndSetLease("lease3", 0, NOW + 20, NOW + 3020));
+	}
+
+	@Test
+	public void testLostFirstUseRaceReturnsFalse() {
+		assertTrue(compareAndSetLease("lease4", 0, NOW, NOW + 3000));
+		// Another node created the lease between this node's update and its insert
+		final SqrlJpaPersistenceProvider sqrlPersistence = new SqrlJpaPersistenceProvider();
+		assertFalse(sqrlPersistence.createLease("lease4", NOW + 3000));
+		// The caller's transaction is still usable
+		sqrlPersistence.closeCommit();
+		assertTrue(compareAndSetLease("lease4", NOW + 3000, NOW + 10, NOW + 3010));
+	}
+}
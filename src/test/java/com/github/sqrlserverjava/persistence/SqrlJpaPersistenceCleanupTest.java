@@ -1,7 +1,9 @@
 package com.github.sqrlserverjava.persistence;
 
+import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
 import static junit.framework.TestCase.fail;
 import static org.junit.Assert.assertTrue;
 
@@ -13,9 +15,11 @@ import javax.persistence.Persistence;
 import org.junit.After;
 import org.junit.Test;
 
+import com.github.sqrlserverjava.SqrlConfig;
 import com.github.sqrlserverjava.SqrlPersistence;
 import com.github.sqrlserverjava.TestCaseUtil;
 import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+import com.github.sqrlserverjava.util.SqrlConstants;
 
 import junitx.framework.ObjectAssert;
 import junitx.util.PrivateAccessor;
@@ -89,4 +93,60 @@ public class SqrlJpaPersistenceCleanupTest {
 		sqrlPersistence.closeCommit();
 	}
 
+	@Test
+	public void testChunkedCleanupTask() throws Throwable {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		final long now = System.currentTimeMillis();
+		final String keepCorrelator = "keep";
+		sqrlPersistence.createCorrelator(keepCorrelator, new Date(now + 5000));
+		for (int i = 0; i < 25; i++) {
+			sqrlPersistence.createCorrelator("delete" + i, new Date(now - 1000)).getTransientAuthDataTable()
+			.put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, "parrot" + i);
+			sqrlPersistence.markTokenAsUsed("nutTokenDelete" + i, new Date(now - 1000));
+		}
+		sqrlPersistence.closeCommit();
+
+		// Execute
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setCleanupChunkSize(10);
+		config.setCleanupMaxRowsPerSecond(0);
+		final SqrlPersistenceCleanupTask cleanupTask = new SqrlPersistenceCleanupTask(
+				TestCaseUtil.buildSqrlConfigOperations(config).getSqrlPersistenceFactory(), config);
+		cleanupTask.run();
+
+		// Verify
+		assertEquals(50, cleanupTask.getLastRunRowsDeleted());
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator(keepCorrelator));
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("delete0"));
+		assertFalse(sqrlPersistence.hasTokenBeenUsed("nutTokenDelete24"));
+		sqrlPersistence.closeCommit();
+	}
+
+	/**
+	 * Without an executor to continue on, a throttled run stops rather than sleeping and the next run carries on
+	 */
+	@Test
+	public void testThrottledCleanupTaskDoesNotBlock() throws Throwable {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		final long now = System.currentTimeMillis();
+		for (int i = 0; i < 25; i++) {
+			sqrlPersistence.createCorrelator("delete" + i, new Date(now - 1000));
+		}
+		sqrlPersistence.closeCommit();
+
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setCleanupChunkSize(10);
+		config.setCleanupMaxRowsPerSecond(1);
+		final SqrlPersistenceCleanupTask cleanupTask = new SqrlPersistenceCleanupTask(
+				TestCaseUtil.buildSqrlConfigOperations(config).getSqrlPersistenceFactory(), config);
+		cleanupTask.run();
+		assertEquals(10, cleanupTask.getLastRunRowsDeleted());
+		assertTrue(cleanupTask.getLastRunDurationMs() < 5000);
+
+		cleanupTask.run();
+		assertEquals(10, cleanupTask.getLastRunRowsDeleted());
+		cleanupTask.run();
+		assertEquals(5, cleanupTask.getLastRunRowsDeleted());
+	}
 }
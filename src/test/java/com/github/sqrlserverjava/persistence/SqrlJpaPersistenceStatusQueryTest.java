@@ -0,0 +1,75 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class SqrlJpaPersistenceStatusQueryTest {
+
+	@Test
+	public void testBuildInClauseChunks_padded() {
+		final List<List<String>> chunkList = SqrlJpaPersistenceProvider
+				.buildInClauseChunks(Arrays.asList("a", "b", "c"));
+		assertEquals(1, chunkList.size());
+		assertEquals(Arrays.asList("a", "b", "c", "c", "c", "c", "c", "c"), chunkList.get(0));
+	}
+
+	@Test
+	public void testBuildInClauseChunks_multipleChunks() {
+		final List<String> valueList = new ArrayList<>();
+		for (int i = 0; i < SqrlJpaPersistenceProvider.IN_CLAUSE_MAX_CHUNK_SIZE + 20; i++) {
+			valueList.add("v" + i);
+		}
+		final List<List<String>> chunkList = SqrlJpaPersistenceProvider.buildInClauseChunks(valueList);
+		assertEquals(2, chunkList.size());
+		assertEquals(SqrlJpaPersistenceProvider.IN_CLAUSE_MAX_CHUNK_SIZE, chunkList.get(0).size());
+		assertEquals(32, chunkList.get(1).size());
+		assertTrue(chunkList.get(1).contains("v" + (valueList.size() - 1)));
+	}
+
+	@Test
+	public void testBuildInClauseChunks_empty() {
+		assertTrue(SqrlJpaPersistenceProvider.buildInClauseChunks(Collections.emptyList()).isEmpty());
+	}
+
+	@Test
+	public void testFetchSqrlCorrelatorStatusUpdates_acrossChunks() throws Throwable {
+		final int count = SqrlJpaPersistenceProvider.IN_CLAUSE_MAX_CHUNK_SIZE + 5;
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		final Map<String, SqrlAuthenticationStatus> monitorTable = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator("c" + i, TestCaseUtil.AWHILE_FROM_NOW);
+			if (i == 1 || i == count - 1) {
+				sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+			} else if (i == 2) {
+				sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+			}
+			monitorTable.put("c" + i, SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		}
+		sqrlPersistence.closeCommit();
+		// Browser already knows auth is complete, it must still be returned
+		monitorTable.put("c2", SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final Map<String, SqrlAuthenticationStatus> resultTable = sqrlPersistence
+				.fetchSqrlCorrelatorStatusUpdates(monitorTable);
+		sqrlPersistence.closeCommit();
+
+		assertEquals(3, resultTable.size());
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, resultTable.get("c1"));
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER, resultTable.get("c2"));
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, resultTable.get("c" + (count - 1)));
+	}
+}
@@ -0,0 +1,77 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+public class SqrlJpaReadOnlyPersistenceTest {
+
+	@Before
+	public void setUp() throws Exception {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity("readOnlyIdk");
+		sqrlPersistence.createCorrelator("readOnly1", TestCaseUtil.AWHILE_FROM_NOW)
+		.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlPersistence.closeCommit();
+		final SqrlPersistence xrefPersistence = TestCaseUtil.createSqrlPersistence();
+		xrefPersistence.updateNativeUserXref(xrefPersistence.fetchSqrlIdentity("readOnlyIdk").getId(), "readOnlyUser");
+		xrefPersistence.closeCommit();
+	}
+
+	private static SqrlJpaPersistenceProvider newReadOnlyProvider() {
+		return new SqrlJpaPersistenceProvider(SqrlJpaPersistenceProvider.getEntityManagerFactory(), null, false);
+	}
+
+	@Test
+	public void testReadsWithoutTransaction() {
+		final SqrlJpaPersistenceProvider sqrlPersistence = newReadOnlyProvider();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelator("readOnly1");
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, sqrlCorrelator.getAuthenticationStatus());
+		assertEquals("readOnlyIdk", sqrlPersistence.fetchSqrlIdentityByUserXref("readOnlyUser").getIdk());
+		final Map<String, SqrlCorrelator> detachedTable = sqrlPersistence
+				.fetchSqrlCorrelatorsDetached(Collections.singleton("readOnly1"));
+		assertNotNull(detachedTable.get("readOnly1"));
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("readOnlyMissing"));
+		sqrlPersistence.closeCommit();
+		assertTrue(sqrlPersistence.isClosed());
+	}
+
+	@Test
+	public void testCloseRollback() {
+		final SqrlJpaPersistenceProvider sqrlPersistence = newReadOnlyProvider();
+		assertFalse(sqrlPersistence.isClosed());
+		sqrlPersistence.closeRollback();
+		assertTrue(sqrlPersistence.isClosed());
+	}
+
+	@Test(expected = SqrlPersistenceException.class)
+	public void testWriteRejected() {
+		final SqrlJpaPersistenceProvider sqrlPersistence = newReadOnlyProvider();
+		try {
+			sqrlPersistence.createCorrelator("readOnly2", TestCaseUtil.AWHILE_FROM_NOW);
+		} finally {
+			sqrlPersistence.closeRollback();
+		}
+	}
+
+	@Test
+	public void testFactoryReadOnlyPersistence() {
+		final SqrlPersistence sqrlPersistence = new SqrlJpaPersistenceFactory().createSqrlReadOnlyPersistence();
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING,
+				sqrlPersistence.fetchSqrlCorrelator("readOnly1").getAuthenticationStatus());
+		sqrlPersistence.closeCommit();
+	}
+}
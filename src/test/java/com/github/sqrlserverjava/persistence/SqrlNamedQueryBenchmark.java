@@ -0,0 +1,50 @@
+package com.github.sqrlserverjava.persistence;
+
+import javax.persistence.EntityManager;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+
+/**
+ * Measures the per call overhead of the inline JPQL string lookups that were used before the named queries were
+ * introduced, compared to the named query with a typed single result. Run manually
+ */
+public class SqrlNamedQueryBenchmark {
+	private static final int	CORRELATOR_COUNT	= 1000;
+	private static final int	ITERATIONS			= 50_000;
+
+	public static void main(final String[] args) throws Throwable {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		for (int i = 0; i < CORRELATOR_COUNT; i++) {
+			sqrlPersistence.createCorrelator("bench" + i, TestCaseUtil.AWHILE_FROM_NOW);
+		}
+		sqrlPersistence.closeCommit();
+
+		final EntityManager entityManager = SqrlJpaPersistenceProvider.getEntityManagerFactory().createEntityManager();
+		try {
+			for (int pass = 0; pass < 2; pass++) {
+				// The first pass is a warm up
+				long start = System.nanoTime();
+				for (int i = 0; i < ITERATIONS; i++) {
+					entityManager.createQuery("SELECT i FROM SqrlCorrelator i WHERE i.value = :correlator")
+					.setParameter("correlator", "bench" + (i % CORRELATOR_COUNT)).getResultList().get(0);
+				}
+				final double inlineMicros = (System.nanoTime() - start) / 1000.0 / ITERATIONS;
+
+				start = System.nanoTime();
+				for (int i = 0; i < ITERATIONS; i++) {
+					entityManager.createNamedQuery(SqrlCorrelator.QUERY_BY_VALUE, SqrlCorrelator.class)
+					.setParameter("correlator", "bench" + (i % CORRELATOR_COUNT)).getSingleResult();
+				}
+				final double namedMicros = (System.nanoTime() - start) / 1000.0 / ITERATIONS;
+				if (pass > 0) {
+					System.out.println(String.format("inline=%.2f us/call named=%.2f us/call", inlineMicros,
+							namedMicros));
+				}
+			}
+		} finally {
+			entityManager.close();
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,94 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+public class SqrlNamedQueryTest {
+
+	@Test
+	public void testValidateNamedQueries() throws Throwable {
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		SqrlJpaPersistenceProvider.validateNamedQueries(SqrlJpaPersistenceProvider.getEntityManagerFactory());
+	}
+
+	/**
+	 * A query left out of the list is only checked when it is first run
+	 */
+	@Test
+	public void testEveryNamedQueryIsValidated() {
+		for (final Class<?> entityClass : new Class<?>[] { SqrlIdentity.class, SqrlCorrelator.class,
+				SqrlUsedNutToken.class, SqrlLease.class }) {
+			for (final NamedQuery namedQuery : entityClass.getAnnotation(NamedQueries.class).value()) {
+				assertTrue(namedQuery.name(), SqrlJpaPersistenceProvider.NAMED_QUERY_LIST.contains(namedQuery.name()));
+			}
+		}
+	}
+
+	@Test
+	public void testValidateNamedQueries_missingQuery() {
+		final EntityManagerFactory entityManagerFactory = Mockito.mock(EntityManagerFactory.class);
+		final EntityManager entityManager = Mockito.mock(EntityManager.class);
+		Mockito.when(entityManagerFactory.createEntityManager()).thenReturn(entityManager);
+		Mockito.when(entityManager.createNamedQuery(SqrlJpaPersistenceProvider.NAMED_QUERY_LIST.get(0)))
+		.thenThrow(new IllegalArgumentException("not found"));
+		try {
+			SqrlJpaPersistenceProvider.validateNamedQueries(entityManagerFactory);
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			assertTrue(e.getMessage().contains(SqrlJpaPersistenceProvider.NAMED_QUERY_LIST.get(0)));
+		}
+		Mockito.verify(entityManager).close();
+	}
+
+	@Test
+	public void testSingleResult_noneAndOne() throws Throwable {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity("namedQueryIdk");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertNull(sqrlPersistence.fetchSqrlIdentity("unknownIdk"));
+		assertNull(sqrlPersistence.fetchSqrlIdentityVersion("unknownIdk"));
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("unknownCorrelator"));
+		assertEquals("namedQueryIdk", sqrlPersistence.fetchSqrlIdentity("namedQueryIdk").getIdk());
+		assertEquals(Long.valueOf(0), sqrlPersistence.fetchSqrlIdentityVersion("namedQueryIdk"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testSingleResult_multiple() throws Throwable {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity("namedQueryIdk1");
+		sqrlPersistence.createAndEnableSqrlIdentity("namedQueryIdk2");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.updateNativeUserXref(sqrlPersistence.fetchSqrlIdentity("namedQueryIdk1").getId(), "dupe");
+		sqrlPersistence.updateNativeUserXref(sqrlPersistence.fetchSqrlIdentity("namedQueryIdk2").getId(), "dupe");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		try {
+			sqrlPersistence.fetchSqrlIdentityByUserXref("dupe");
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			assertTrue(e.getMessage().contains("multiple"));
+		} finally {
+			sqrlPersistence.closeRollback();
+		}
+	}
+}
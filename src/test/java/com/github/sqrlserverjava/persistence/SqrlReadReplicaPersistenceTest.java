@@ -0,0 +1,110 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.persistence.Persistence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlConfig;
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * Uses the javasqrl-replica-same unit (which points at the primary database so is always current) and
+ * javasqrl-replica-empty (which never receives data) from src/test/resources/META-INF/persistence.xml
+ */
+public class SqrlReadReplicaPersistenceTest {
+
+	@Before
+	public void setUp() throws Exception {
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+	}
+
+	private static SqrlJpaPersistenceFactory buildFactory(final String replicaUnitName) {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setReadReplicaPersistenceUnitName(replicaUnitName);
+		final SqrlJpaPersistenceFactory factory = new SqrlJpaPersistenceFactory();
+		factory.initSqrl(config);
+		return factory;
+	}
+
+	private static void createCorrelator(final String correlator, final SqrlAuthenticationStatus status) {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.createCorrelator(correlator, TestCaseUtil.AWHILE_FROM_NOW).setAuthenticationStatus(status);
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testCurrentReplica_servesNonTerminalReads() {
+		final SqrlJpaPersistenceFactory factory = buildFactory("javasqrl-replica-same");
+		createCorrelator("replica1", SqrlAuthenticationStatus.COMMUNICATING);
+
+		final SqrlReadReplicaPersistence sqrlPersistence = (SqrlReadReplicaPersistence) factory
+				.createSqrlReadOnlyPersistence();
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING,
+				sqrlPersistence.fetchSqrlCorrelator("replica1").getAuthenticationStatus());
+		final Map<String, SqrlAuthenticationStatus> updateTable = sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(
+				Collections.singletonMap("replica1", SqrlAuthenticationStatus.CORRELATOR_ISSUED));
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, updateTable.get("replica1"));
+		assertFalse(sqrlPersistence.isPrimaryOpened());
+		sqrlPersistence.closeCommit();
+		assertTrue(sqrlPersistence.isClosed());
+		assertTrue(factory.getReplicaLagMonitor().getLastLagMillis() <= new SqrlConfig()
+				.getReadReplicaMaxStalenessMillis());
+	}
+
+	@Test
+	public void testCurrentReplica_terminalStateReadFromPrimary() {
+		final SqrlJpaPersistenceFactory factory = buildFactory("javasqrl-replica-same");
+		createCorrelator("replica2", SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+
+		final SqrlReadReplicaPersistence sqrlPersistence = (SqrlReadReplicaPersistence) factory
+				.createSqrlReadOnlyPersistence();
+		final Map<String, SqrlAuthenticationStatus> updateTable = sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(
+				Collections.singletonMap("replica2", SqrlAuthenticationStatus.COMMUNICATING));
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER, updateTable.get("replica2"));
+		assertTrue(sqrlPersistence.isPrimaryOpened());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testStaleReplica_readsFromPrimary() {
+		final SqrlJpaPersistenceFactory factory = buildFactory("javasqrl-replica-empty");
+		createCorrelator("replica3", SqrlAuthenticationStatus.COMMUNICATING);
+
+		final SqrlReadReplicaPersistence sqrlPersistence = (SqrlReadReplicaPersistence) factory
+				.createSqrlReadOnlyPersistence();
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator("replica3"));
+		assertTrue(sqrlPersistence.isPrimaryOpened());
+		sqrlPersistence.closeCommit();
+		assertEquals(Long.MAX_VALUE, factory.getReplicaLagMonitor().getLastLagMillis());
+	}
+
+	@Test
+	public void testFreshReplica_missingCorrelatorReadFromPrimary() {
+		createCorrelator("replica4", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		final SqrlReplicaLagMonitor alwaysFresh = new SqrlReplicaLagMonitor(null, null, 1000) {
+			@Override
+			boolean isReplicaFresh() {
+				return true;
+			}
+		};
+		final SqrlPersistence replica = new SqrlJpaPersistenceProvider(
+				Persistence.createEntityManagerFactory("javasqrl-replica-empty"), null);
+		final SqrlReadReplicaPersistence sqrlPersistence = new SqrlReadReplicaPersistence(replica,
+				TestCaseUtil::createSqrlPersistence, alwaysFresh);
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator("replica4"));
+		assertEquals(1, sqrlPersistence.fetchSqrlCorrelatorsDetached(Collections.singleton("replica4")).size());
+		assertTrue(sqrlPersistence.isPrimaryOpened());
+		sqrlPersistence.closeCommit();
+	}
+}
@@ -0,0 +1,269 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlConfig;
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.exception.SqrlConfigSettingException;
+
+/**
+ * Runs the sharded persistence against three in memory Derby databases, see src/test/resources/META-INF/persistence.xml
+ */
+public class SqrlShardedPersistenceTest {
+	private static final String SHARD_UNIT_NAMES = "javasqrl-shard0,javasqrl-shard1,javasqrl-shard2";
+
+	private static SqrlShardedPersistenceFactory buildFactory(final boolean identitiesByIdk) {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setPersistenceShardUnitNames(SHARD_UNIT_NAMES);
+		config.setPersistenceShardIdentitiesByIdk(identitiesByIdk);
+		final SqrlShardedPersistenceFactory factory = new SqrlShardedPersistenceFactory();
+		factory.initSqrl(config);
+		return factory;
+	}
+
+	private static long countCorrelators(final EntityManagerFactory entityManagerFactory, final String prefix) {
+		final EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			return entityManager
+					.createQuery("SELECT COUNT(c) FROM SqrlCorrelator c WHERE c.value LIKE :prefix", Long.class)
+					.setParameter("prefix", prefix + "%").getSingleResult();
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	/**
+	 * Find a key with the given prefix that the ring places on (or off of) the given shard
+	 */
+	private static String findKey(final SqrlShardedPersistence router, final String prefix, final int shardIndex,
+			final boolean onShard) {
+		for (int i = 0; i < 1000; i++) {
+			final String key = prefix + i;
+			if ((router.correlatorShardIndex(key) == shardIndex) == onShard) {
+				return key;
+			}
+		}
+		throw new AssertionError("No key found");
+	}
+
+	@Test
+	public void testCorrelatorsSpreadAcrossShards() {
+		final SqrlShardedPersistenceFactory factory = buildFactory(false);
+		final String prefix = "spread" + UUID.randomUUID();
+		final int count = 300;
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		for (int i = 0; i < count; i++) {
+			sqrlPersistence.createCorrelator(prefix + i, TestCaseUtil.AWHILE_FROM_NOW);
+		}
+		sqrlPersistence.closeCommit();
+		assertTrue(sqrlPersistence.isClosed());
+
+		long total = 0;
+		for (final EntityManagerFactory entityManagerFactory : factory.getShardEntityManagerFactoryList()) {
+			final long shardCount = countCorrelators(entityManagerFactory, prefix);
+			assertTrue("Shard was empty", shardCount > 0);
+			total += shardCount;
+		}
+		assertEquals(count, total);
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		for (int i = 0; i < count; i++) {
+			assertNotNull(sqrlPersistence.fetchSqrlCorrelator(prefix + i));
+		}
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testFetchSqrlCorrelatorStatusUpdates_scatterGather() {
+		final SqrlShardedPersistenceFactory factory = buildFactory(false);
+		final String prefix = "status" + UUID.randomUUID();
+		final Map<String, SqrlAuthenticationStatus> monitorTable = new HashMap<>();
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		for (int i = 0; i < 60; i++) {
+			final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(prefix + i,
+					TestCaseUtil.AWHILE_FROM_NOW);
+			if (i % 10 == 0) {
+				sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+			}
+			monitorTable.put(prefix + i, SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		}
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		final Map<String, SqrlAuthenticationStatus> updateTable = sqrlPersistence
+				.fetchSqrlCorrelatorStatusUpdates(monitorTable);
+		sqrlPersistence.closeCommit();
+		assertEquals(6, updateTable.size());
+		for (int i = 0; i < 60; i += 10) {
+			assertEquals(SqrlAuthenticationStatus.COMMUNICATING, updateTable.get(prefix + i));
+		}
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertEquals(60, sqrlPersistence.fetchSqrlCorrelatorsDetached(monitorTable.keySet()).size());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testUserAuthenticatedViaSqrl_identityOnOtherShard() {
+		final SqrlShardedPersistenceFactory factory = buildFactory(false);
+		final String idk = "shardIdk" + UUID.randomUUID();
+		SqrlShardedPersistence sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		// Identities are all stored on shard 0, so pick a correlator that lives elsewhere
+		final String correlator = findKey(sqrlPersistence, "auth" + UUID.randomUUID(), 0, false);
+		sqrlPersistence.createAndEnableSqrlIdentity(idk);
+		sqrlPersistence.createCorrelator(correlator, TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		sqrlPersistence.userAuthenticatedViaSqrl(idk, correlator);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER, sqrlCorrelator.getAuthenticationStatus());
+		assertEquals(idk, sqrlCorrelator.getAuthenticatedIdentity().getIdk());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testNutTokenRouting() {
+		final SqrlShardedPersistenceFactory factory = buildFactory(false);
+		final String nutToken = "nut" + UUID.randomUUID();
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		assertFalse(sqrlPersistence.hasTokenBeenUsed(nutToken));
+		sqrlPersistence.markTokenAsUsed(nutToken, TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertTrue(sqrlPersistence.hasTokenBeenUsed(nutToken));
+		sqrlPersistence.closeRollback();
+	}
+
+	@Test
+	public void testIdentitiesByIdk_idkChangeMovesShards() {
+		final SqrlShardedPersistenceFactory factory = buildFactory(true);
+		SqrlShardedPersistence sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		final String previousIdk = "moveIdk" + UUID.randomUUID();
+		final int previousShard = sqrlPersistence.identityShardIndex(previousIdk);
+		final String newIdk = findKey(sqrlPersistence, previousIdk + "-new", previousShard, false);
+		sqrlPersistence.createAndEnableSqrlIdentity(previousIdk);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		final long id = sqrlPersistence.fetchSqrlIdentity(previousIdk).getId();
+		sqrlPersistence.updateIdkForSqrlIdentity(previousIdk, newIdk);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		assertNull(sqrlPersistence.fetchSqrlIdentity(previousIdk));
+		assertEquals(id, sqrlPersistence.fetchSqrlIdentity(newIdk).getId());
+		sqrlPersistence.updateNativeUserXref(id, "user" + id);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		assertEquals(newIdk, sqrlPersistence.fetchSqrlIdentityByUserXref("user" + id).getIdk());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testIdentitiesByIdk_idkChangeKeepsAuthenticatedCorrelator() {
+		final SqrlShardedPersistenceFactory factory = buildFactory(true);
+		SqrlShardedPersistence sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		final String previousIdk = "moveAuthIdk" + UUID.randomUUID();
+		final int previousShard = sqrlPersistence.identityShardIndex(previousIdk);
+		final String newIdk = findKey(sqrlPersistence, previousIdk + "-new", previousShard, false);
+		// Same shard as the identity, so the correlator references it with a foreign key
+		final String correlator = findKey(sqrlPersistence, "moveAuth" + UUID.randomUUID(), previousShard, true);
+		sqrlPersistence.createAndEnableSqrlIdentity(previousIdk);
+		sqrlPersistence.createCorrelator(correlator, TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		sqrlPersistence.userAuthenticatedViaSqrl(previousIdk, correlator);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		sqrlPersistence.updateIdkForSqrlIdentity(previousIdk, newIdk);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		assertNull(sqrlPersistence.fetchSqrlIdentity(previousIdk));
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
+		assertEquals(newIdk, sqrlCorrelator.getAuthenticatedIdentity().getIdk());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testIdentitiesByIdk_failedDeleteKeepsCommittedCopy() {
+		final SqrlShardedPersistenceFactory factory = buildFactory(true);
+		SqrlShardedPersistence sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		final String previousIdk = "moveRollbackIdk" + UUID.randomUUID();
+		final int previousShard = sqrlPersistence.identityShardIndex(previousIdk);
+		final String newIdk = findKey(sqrlPersistence, previousIdk + "-new", previousShard, false);
+		sqrlPersistence.createAndEnableSqrlIdentity(previousIdk);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		sqrlPersistence.updateIdkForSqrlIdentity(previousIdk, newIdk);
+		// Simulates a failure before the delete on the old shard commits
+		sqrlPersistence.closeRollback();
+
+		sqrlPersistence = (SqrlShardedPersistence) factory.createSqrlPersistence();
+		assertNotNull(sqrlPersistence.fetchSqrlIdentity(previousIdk));
+		assertNotNull(sqrlPersistence.fetchSqrlIdentity(newIdk));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testShardRing_addingShardRemapsFewKeys() {
+		final SqrlShardRing threeShards = new SqrlShardRing(Arrays.asList("a", "b", "c"));
+		final SqrlShardRing fourShards = new SqrlShardRing(Arrays.asList("a", "b", "c", "d"));
+		final int keyCount = 10000;
+		int moved = 0;
+		for (int i = 0; i < keyCount; i++) {
+			final String key = "key" + i;
+			final int before = threeShards.shardFor(key);
+			final int after = fourShards.shardFor(key);
+			// A key may only move to the new shard
+			assertTrue(before == after || after == 3);
+			if (before != after) {
+				moved++;
+			}
+		}
+		// Ideal is 25%
+		assertTrue("moved=" + moved, moved > keyCount / 10 && moved < keyCount * 4 / 10);
+	}
+
+	@Test
+	public void testParseShardUnitNames() {
+		final List<String> nameList = SqrlShardedPersistenceFactory.parseShardUnitNames(" a, b ,,c");
+		assertEquals(Arrays.asList("a", "b", "c"), nameList);
+	}
+
+	@Test(expected = SqrlConfigSettingException.class)
+	public void testParseShardUnitNames_duplicate() {
+		SqrlShardedPersistenceFactory.parseShardUnitNames("a,b,a");
+	}
+
+	@Test(expected = SqrlConfigSettingException.class)
+	public void testParseShardUnitNames_empty() {
+		SqrlShardedPersistenceFactory.parseShardUnitNames(null);
+	}
+}
@@ -0,0 +1,68 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.eclipse.persistence.sessions.Session;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+/**
+ * Counts the SQL statements and time used by the correlator portion of a typical login: the login page creates the
+ * correlator with transient data, then each of the (usually 2-3) backchannel requests fetches it and updates the server
+ * parrot. Compares legacy sqrl_transient_auth_data storage with the compact column. Run manually
+ */
+public class SqrlTransientAuthDataBenchmark {
+	private static final int	LOGINS					= 500;
+	private static final int	BACKCHANNEL_REQUESTS	= 3;
+
+	private static final AtomicLong statementCount = new AtomicLong();
+
+	public static void main(final String[] args) throws Throwable {
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		final EntityManagerFactory entityManagerFactory = SqrlJpaPersistenceProvider.getEntityManagerFactory();
+		entityManagerFactory.unwrap(Session.class).getEventManager().addListener(new SessionEventAdapter() {
+			@Override
+			public void preExecuteCall(final SessionEvent event) {
+				statementCount.incrementAndGet();
+			}
+		});
+		run("warmup", false);
+		run("legacy table", false);
+		run("compact column", true);
+		System.exit(0);
+	}
+
+	@SuppressWarnings("deprecation")
+	private static void run(final String label, final boolean compact) {
+		SqrlJpaPersistenceProvider.setCompactTransientAuthData(compact);
+		statementCount.set(0);
+		final long start = System.nanoTime();
+		for (int i = 0; i < LOGINS; i++) {
+			final String correlator = label + i;
+			SqrlPersistence sqrlPersistence = new SqrlJpaPersistenceProvider();
+			final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(correlator,
+					TestCaseUtil.AWHILE_FROM_NOW);
+			sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_ENTRY_URL,
+					"https://example.com/app/login");
+			sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_CPS_NONCE, "nonce" + i);
+			sqrlPersistence.closeCommit();
+
+			for (int r = 0; r < BACKCHANNEL_REQUESTS; r++) {
+				sqrlPersistence = new SqrlJpaPersistenceProvider();
+				sqrlPersistence.fetchTransientAuthData(correlator, SqrlConstants.TRANSIENT_NAME_SERVER_PARROT);
+				sqrlPersistence.fetchSqrlCorrelatorRequired(correlator).getTransientAuthDataTable()
+				.put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, "parrot" + r);
+				sqrlPersistence.closeCommit();
+			}
+		}
+		final double millis = (System.nanoTime() - start) / 1_000_000.0;
+		System.out.println(String.format("%-15s %6.1f statements/backchannel request %8.3f ms/login", label,
+				statementCount.get() / (double) (LOGINS * BACKCHANNEL_REQUESTS), millis / LOGINS));
+	}
+}
@@ -0,0 +1,78 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+public class SqrlTransientAuthDataConverterTest {
+
+	@After
+	public void tearDown() {
+		SqrlJpaPersistenceProvider.setCompactTransientAuthData(false);
+	}
+
+	@Test
+	public void testRoundTrip() {
+		final Map<String, String> dataTable = new HashMap<>();
+		dataTable.put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, "dmVyPTENCm51dD0xMjM0NQ0K");
+		dataTable.put("url", "https://example.com:8443/login?a=1:2");
+		dataTable.put("12:ab", "");
+		final String encoded = SqrlTransientAuthDataConverter.encode(dataTable);
+		assertEquals(dataTable, SqrlTransientAuthDataConverter.decode(encoded));
+	}
+
+	@Test
+	public void testEmpty() {
+		assertEquals("", SqrlTransientAuthDataConverter.encode(new HashMap<>()));
+		assertTrue(SqrlTransientAuthDataConverter.decode("").isEmpty());
+	}
+
+	@Test(expected = SqrlPersistenceException.class)
+	public void testDecodeTruncated() {
+		SqrlTransientAuthDataConverter.decode("4:name10:abc");
+	}
+
+	@Test
+	public void testCompactStorage() throws Throwable {
+		final String correlator = "compact";
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		SqrlJpaPersistenceProvider.setCompactTransientAuthData(true);
+		sqrlPersistence.createCorrelator(correlator, TestCaseUtil.AWHILE_FROM_NOW).getTransientAuthDataTable()
+		.put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, "abc");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
+		assertEquals("abc", sqrlCorrelator.getTransientAuthDataTable().get(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT));
+		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, "def");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertEquals("def", sqrlPersistence.fetchTransientAuthData(correlator, SqrlConstants.TRANSIENT_NAME_SERVER_PARROT));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testLegacyStorageReadableAfterClose() throws Throwable {
+		final String correlator = "legacy";
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createCorrelator(correlator, TestCaseUtil.AWHILE_FROM_NOW).getTransientAuthDataTable()
+		.put(SqrlConstants.TRANSIENT_CPS_NONCE, "abc");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelator(correlator);
+		sqrlPersistence.closeCommit();
+		assertEquals("abc", sqrlCorrelator.getTransientAuthDataTable().get(SqrlConstants.TRANSIENT_CPS_NONCE));
+	}
+}
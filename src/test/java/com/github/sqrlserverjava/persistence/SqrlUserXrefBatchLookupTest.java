@@ -0,0 +1,138 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+public class SqrlUserXrefBatchLookupTest {
+	/**
+	 * More than one IN clause chunk
+	 */
+	private static final int USER_COUNT = SqrlJpaPersistenceProvider.IN_CLAUSE_MAX_CHUNK_SIZE + 10;
+
+	@Before
+	public void setUp() throws Exception {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		for (int i = 0; i < USER_COUNT; i++) {
+			sqrlPersistence.createAndEnableSqrlIdentity("xrefIdk" + i);
+		}
+		sqrlPersistence.createAndEnableSqrlIdentity("noXrefIdk");
+		sqrlPersistence.closeCommit();
+		final SqrlPersistence xrefPersistence = TestCaseUtil.createSqrlPersistence();
+		for (int i = 0; i < USER_COUNT; i++) {
+			xrefPersistence.updateNativeUserXref(xrefPersistence.fetchSqrlIdentity("xrefIdk" + i).getId(), "user" + i);
+		}
+		xrefPersistence.setSqrlFlagForIdentity("xrefIdk1", SqrlIdentityFlag.HARDLOCK, true);
+		xrefPersistence.setSqrlFlagForIdentity("xrefIdk2", SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
+		xrefPersistence.closeCommit();
+	}
+
+	private static Set<String> allUsersAndUnknown() {
+		final Set<String> xrefSet = new HashSet<>();
+		for (int i = 0; i < USER_COUNT; i++) {
+			xrefSet.add("user" + i);
+		}
+		xrefSet.add("unknownUser");
+		return xrefSet;
+	}
+
+	@Test
+	public void testFetchSqrlIdentitiesByUserXref() {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final Map<String, SqrlIdentity> resultTable = sqrlPersistence
+				.fetchSqrlIdentitiesByUserXref(allUsersAndUnknown());
+		sqrlPersistence.closeCommit();
+		assertEquals(USER_COUNT, resultTable.size());
+		assertEquals("xrefIdk7", resultTable.get("user7").getIdk());
+		assertFalse(resultTable.containsKey("unknownUser"));
+	}
+
+	@Test
+	public void testFetchSqrlIdentityFlagsByUserXref() {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final Map<String, Set<SqrlIdentityFlag>> resultTable = sqrlPersistence
+				.fetchSqrlIdentityFlagsByUserXref(allUsersAndUnknown());
+		sqrlPersistence.closeCommit();
+		assertEquals(USER_COUNT, resultTable.size());
+		assertEquals(EnumSet.of(SqrlIdentityFlag.SQRL_AUTH_ENABLED), resultTable.get("user0"));
+		assertEquals(EnumSet.of(SqrlIdentityFlag.SQRL_AUTH_ENABLED, SqrlIdentityFlag.HARDLOCK),
+				resultTable.get("user1"));
+		// Identities without any flags are still returned
+		assertTrue(resultTable.get("user2").isEmpty());
+		assertFalse(resultTable.containsKey("unknownUser"));
+	}
+
+	@Test
+	public void testEmptyInput() {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertTrue(sqrlPersistence.fetchSqrlIdentitiesByUserXref(Collections.emptySet()).isEmpty());
+		assertTrue(sqrlPersistence.fetchSqrlIdentityFlagsByUserXref(Collections.emptySet()).isEmpty());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testCachingPersistenceWarmsCache() {
+		final SqrlIdentityCache cache = new SqrlIdentityCache(100, 60000, false);
+		final SqrlPersistence sqrlPersistence = new SqrlIdentityCachingPersistence(
+				TestCaseUtil.createSqrlPersistence(), cache);
+		final Map<String, SqrlIdentity> resultTable = sqrlPersistence
+				.fetchSqrlIdentitiesByUserXref(new HashSet<>(Arrays.asList("user3", "user4")));
+		assertEquals(2, resultTable.size());
+		assertEquals("xrefIdk3", cache.lookupIdkByXref("user3"));
+		assertEquals(EnumSet.of(SqrlIdentityFlag.SQRL_AUTH_ENABLED, SqrlIdentityFlag.HARDLOCK), sqrlPersistence
+				.fetchSqrlIdentityFlagsByUserXref(Collections.singleton("user1")).get("user1"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test(expected = SqrlPersistenceException.class)
+	public void testDuplicateUserXrefIsAnError() {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.updateNativeUserXref(sqrlPersistence.fetchSqrlIdentity("xrefIdk8").getId(), "user7");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		try {
+			sqrlPersistence.fetchSqrlIdentitiesByUserXref(allUsersAndUnknown());
+		} finally {
+			sqrlPersistence.closeRollback();
+		}
+	}
+
+	/**
+	 * Like the single lookups, results read while an identity was invalidated aren't cached
+	 */
+	@Test
+	public void testCachingPersistenceSkipsBatchOverlappingInvalidation() {
+		final SqrlIdentityCache cache = new SqrlIdentityCache(100, 60000, false);
+		final SqrlPersistence underlying = Mockito.mock(SqrlPersistence.class);
+		final SqrlIdentity sqrlIdentity = new SqrlIdentity("xrefIdk3");
+		sqrlIdentity.setNativeUserXref("user3");
+		final Set<String> xrefSet = Collections.singleton("user3");
+		Mockito.when(underlying.fetchSqrlIdentitiesByUserXref(xrefSet)).thenAnswer(invocation -> {
+			// Another request commits a change to the identity while the batch is being read
+			cache.invalidateIdk("xrefIdk3");
+			return Collections.singletonMap("user3", sqrlIdentity);
+		});
+		final SqrlPersistence sqrlPersistence = new SqrlIdentityCachingPersistence(underlying, cache);
+		assertEquals(1, sqrlPersistence.fetchSqrlIdentitiesByUserXref(xrefSet).size());
+		assertNull(cache.lookupByIdk("xrefIdk3"));
+		assertNull(cache.lookupIdkByXref("user3"));
+	}
+}
@@ -0,0 +1,86 @@
+package com.github.sqrlserverjava.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class SqrlWriteBehindQueueTest {
+	private SqrlPersistenceFactory persistenceFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createCorrelator("wbIssued", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.createCorrelator("wbDone", TestCaseUtil.AWHILE_FROM_NOW)
+		.setAuthenticationStatus(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+		sqrlPersistence.closeCommit();
+		persistenceFactory = TestCaseUtil.buildSqrlConfigOperations(TestCaseUtil.buildTestSqrlConfig())
+				.getSqrlPersistenceFactory();
+	}
+
+	private static SqrlAuthenticationStatus fetchStatus(final String correlator) {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final SqrlAuthenticationStatus status = sqrlPersistence.fetchSqrlCorrelator(correlator)
+				.getAuthenticationStatus();
+		sqrlPersistence.closeCommit();
+		return status;
+	}
+
+	@Test
+	public void testMaxPending() {
+		final SqrlWriteBehindQueue queue = new SqrlWriteBehindQueue(persistenceFactory, 1);
+		assertTrue(queue.queueCorrelatorCommunicating("wbIssued"));
+		assertFalse(queue.queueCorrelatorCommunicating("wbDone"));
+		// Coalescing with a pending write is always allowed
+		assertTrue(queue.queueCorrelatorCommunicating("wbIssued"));
+		queue.flush();
+		assertTrue(queue.queueCorrelatorCommunicating("wbDone"));
+	}
+
+	@Test
+	public void testCommunicatingOnlyFromIssued() {
+		final SqrlWriteBehindQueue queue = new SqrlWriteBehindQueue(persistenceFactory, 100);
+		assertTrue(queue.queueCorrelatorCommunicating("wbIssued"));
+		assertTrue(queue.queueCorrelatorCommunicating("wbIssued"));
+		assertTrue(queue.queueCorrelatorCommunicating("wbDone"));
+		assertTrue(queue.queueCorrelatorCommunicating("wbMissing"));
+		assertEquals(3, queue.getPendingCount());
+		queue.flush();
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, fetchStatus("wbIssued"));
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER, fetchStatus("wbDone"));
+	}
+
+	@Test
+	public void testUpdateSqrlCorrelatorStatus_doesNotBumpVersion() {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final long version = sqrlPersistence.fetchSqrlCorrelator("wbIssued").getVersion();
+		sqrlPersistence.closeCommit();
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertEquals(1, sqrlPersistence.updateSqrlCorrelatorStatus(new HashSet<>(Arrays.asList("wbIssued", "wbDone")),
+				SqrlAuthenticationStatus.CORRELATOR_ISSUED, SqrlAuthenticationStatus.COMMUNICATING));
+		sqrlPersistence.closeCommit();
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertEquals(version, sqrlPersistence.fetchSqrlCorrelator("wbIssued").getVersion());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testShutdownFlushesAndRejects() {
+		final SqrlWriteBehindQueue queue = new SqrlWriteBehindQueue(persistenceFactory, 100);
+		queue.queueCorrelatorCommunicating("wbIssued");
+		queue.shutdown();
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, fetchStatus("wbIssued"));
+		assertFalse(queue.queueCorrelatorCommunicating("wbIssued"));
+	}
+}